@@ -3,38 +3,100 @@ package xyz.synse.packetnet.client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.synse.packetnet.client.listeners.ClientListener;
+import xyz.synse.packetnet.client.listeners.PacketHandler;
 import xyz.synse.packetnet.common.ProtocolType;
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.buffer.PooledBufferAllocator;
+import xyz.synse.packetnet.common.channel.BackpressurePolicy;
+import xyz.synse.packetnet.common.channel.ChannelHandler;
+import xyz.synse.packetnet.common.channel.DatagramAggregator;
+import xyz.synse.packetnet.common.channel.FragmentReassembler;
+import xyz.synse.packetnet.common.channel.ReliableChannel;
+import xyz.synse.packetnet.common.channel.SequencedChannel;
+import xyz.synse.packetnet.common.channel.TcpChannel;
+import xyz.synse.packetnet.common.codec.RecordCodec;
+import xyz.synse.packetnet.common.eventloop.EventLoop;
+import xyz.synse.packetnet.common.eventloop.EventLoopChooser;
+import xyz.synse.packetnet.common.eventloop.EventLoopGroup;
+import xyz.synse.packetnet.common.eventloop.SelectionHandler;
+import xyz.synse.packetnet.common.eventloop.TimerWheel;
+import xyz.synse.packetnet.common.packet.FrameDecoder;
+import xyz.synse.packetnet.common.packet.FrameFormat;
 import xyz.synse.packetnet.common.packet.Packet;
-import xyz.synse.packetnet.common.threading.ThreadPoolManager;
+import xyz.synse.packetnet.common.packet.PacketBatch;
+import xyz.synse.packetnet.common.packet.PacketHandlerTable;
+import xyz.synse.packetnet.common.rpc.InFlightRequests;
+import xyz.synse.packetnet.common.threading.Dispatcher;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.net.*;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousCloseException;
-import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CountDownLatch;
 
 public class Client {
+    // Whether a listener class overrides onReceivedBatch, the others get onReceived for each packet of a batch
+    private static final ClassValue<Boolean> BATCH_LISTENERS = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("onReceivedBatch", ProtocolType.class, PacketBatch.class)
+                        .getDeclaringClass() != ClientListener.class;
+            } catch (final NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
     private final Logger logger = LoggerFactory.getLogger(Client.class);
-    private ThreadPoolManager threadPoolManager;
+    private EventLoopGroup eventLoopGroup;
+    private final boolean ownsEventLoopGroup;
+    private EventLoop eventLoop;
     private final int readBufferSize;
     private final int writeBufferSize;
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private BufferAllocator bufferAllocator = PooledBufferAllocator.DEFAULT;
+    private int flushThreshold = TcpChannel.DEFAULT_FLUSH_THRESHOLD;
+    private long flushDelayNanos = TcpChannel.DEFAULT_FLUSH_DELAY_NANOS;
+    private int lowWatermark = TcpChannel.DEFAULT_LOW_WATERMARK;
+    private int highWatermark = TcpChannel.DEFAULT_HIGH_WATERMARK;
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.QUEUE;
+    private boolean packetRecycling;
+    private Dispatcher dispatcher = Dispatcher.INLINE;
+    private Dispatcher.Lane dispatchLane;
 
     private final List<ClientListener> listeners = new CopyOnWriteArrayList<>();
+    private final PacketHandlerTable<PacketHandler> handlers = new PacketHandlerTable<>();
 
     private SocketChannel socketChannel;
+    private TcpChannel tcpChannel;
+    private UdpHandler udpHandler;
+    private DatagramAggregator udpAggregator;
+    private ReliableChannel reliableChannel;
+    private SequencedChannel sequencedChannel;
+    private InFlightRequests requests;
+    private int datagramSize = DatagramAggregator.DEFAULT_DATAGRAM_SIZE;
+    private long udpFlushDelayNanos;
+    private FrameFormat frameFormat = FrameFormat.STANDARD;
+    private volatile FrameFormat udpReadFormat = FrameFormat.STANDARD;
+    // Only used by the event loop, as the handshake replies are read
+    private FrameFormat tcpWriteFormat = FrameFormat.STANDARD;
     private Socket tcpSocket;
     private DatagramChannel datagramChannel;
     private DatagramSocket udpSocket;
     private CountDownLatch udpConnectionLatch = new CountDownLatch(1);
-    private int udpPort;
     private boolean udpConnected = false;
+    private volatile long udpToken;
 
     /**
      * Creates a new instance of the Client class.
@@ -45,6 +107,22 @@ public class Client {
     public Client(int readBufferSize, int writeBufferSize) {
         this.readBufferSize = readBufferSize;
         this.writeBufferSize = writeBufferSize;
+        this.ownsEventLoopGroup = true;
+    }
+
+    /**
+     * Creates a new instance of the Client class using the given event loop group.
+     * The group may be shared with servers and other clients and is not shut down when the client is closed.
+     *
+     * @param readBufferSize  The size of the buffer for receiving data.
+     * @param writeBufferSize The size of the buffer for sending data.
+     * @param eventLoopGroup  The group whose event loop serves the client's sockets.
+     */
+    public Client(int readBufferSize, int writeBufferSize, EventLoopGroup eventLoopGroup) {
+        this.readBufferSize = readBufferSize;
+        this.writeBufferSize = writeBufferSize;
+        this.eventLoopGroup = eventLoopGroup;
+        this.ownsEventLoopGroup = false;
     }
 
     /**
@@ -62,6 +140,179 @@ public class Client {
         return readBufferSize;
     }
 
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets the largest packet data length accepted over TCP. The client disconnects if the server sends a larger one.
+     * Takes effect on the next connect.
+     *
+     * @param maxFrameSize The max frame size in bytes.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public BufferAllocator getBufferAllocator() {
+        return bufferAllocator;
+    }
+
+    /**
+     * Sets the allocator of the buffers used for reading and writing. Defaults to {@link PooledBufferAllocator#DEFAULT}.
+     * Must be set before connecting.
+     *
+     * @param bufferAllocator The buffer allocator.
+     */
+    public void setBufferAllocator(BufferAllocator bufferAllocator) {
+        this.bufferAllocator = bufferAllocator;
+    }
+
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Sets the number of written but unflushed TCP bytes that triggers a flush.
+     * Takes effect for the next connection.
+     *
+     * @param flushThreshold The threshold in bytes.
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
+    public long getFlushDelay(TimeUnit unit) {
+        return unit.convert(flushDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the longest time a written TCP packet waits for a flush.
+     * Takes effect for the next connection.
+     *
+     * @param flushDelay The delay.
+     * @param unit       The unit of the delay.
+     */
+    public void setFlushDelay(long flushDelay, TimeUnit unit) {
+        this.flushDelayNanos = unit.toNanos(flushDelay);
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Sets the pending TCP bytes at which a connection stops being writable (high) and becomes writable again (low).
+     * Takes effect for the next connection.
+     *
+     * @param lowWatermark  The low watermark in bytes.
+     * @param highWatermark The high watermark in bytes.
+     * @throws IllegalArgumentException if the low watermark is greater than the high watermark.
+     */
+    public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException(
+                    "The low watermark must be less than or equal to the high watermark!");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * Sets what happens to packets sent over TCP while the connection is not writable.
+     * Defaults to {@link BackpressurePolicy#QUEUE}.
+     *
+     * @param backpressurePolicy The backpressure policy.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    public boolean isPacketRecycling() {
+        return packetRecycling;
+    }
+
+    /**
+     * Sets whether received packets are recyclable, see {@link Packet#obtain(short)}. They are released once the
+     * listeners have returned, so a listener keeping a packet must {@link Packet#retain()} it. Disabled by default.
+     * Must be set before connecting.
+     *
+     * @param packetRecycling True to receive recyclable packets.
+     */
+    public void setPacketRecycling(boolean packetRecycling) {
+        this.packetRecycling = packetRecycling;
+    }
+
+    public int getDatagramSize() {
+        return datagramSize;
+    }
+
+    /**
+     * Sets the size UDP packets are packed into, see {@link #setUdpFlushDelay(long, TimeUnit)}.
+     * Defaults to {@value DatagramAggregator#DEFAULT_DATAGRAM_SIZE} bytes. Must be set before connecting.
+     *
+     * @param datagramSize The datagram size in bytes.
+     */
+    public void setDatagramSize(int datagramSize) {
+        this.datagramSize = datagramSize;
+    }
+
+    public long getUdpFlushDelay(TimeUnit unit) {
+        return unit.convert(udpFlushDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how long UDP packets may wait for more packets to share their datagram. Packets sent within the delay
+     * are packed into datagrams of up to the datagram size, which cuts the per-packet overhead of small packets.
+     * {@link #flush()} sends them early. Defaults to 0, sending every packet in its own datagram.
+     * Must be set before connecting.
+     *
+     * @param udpFlushDelay The flush delay.
+     * @param unit          The unit of the flush delay.
+     */
+    public void setUdpFlushDelay(long udpFlushDelay, TimeUnit unit) {
+        this.udpFlushDelayNanos = unit.toNanos(udpFlushDelay);
+    }
+
+    public FrameFormat getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * Sets the format the server is asked to write its TCP and UDP frames to the client in, see {@link FrameFormat}.
+     * The server switches in the UDP handshake, the client writes in the format the server asks for in its reply.
+     * Defaults to {@link FrameFormat#STANDARD}. Must be set before connecting.
+     *
+     * @param frameFormat The frame format.
+     */
+    public void setFrameFormat(FrameFormat frameFormat) {
+        this.frameFormat = frameFormat;
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Sets where the handlers and listeners of received packets run, see
+     * {@link xyz.synse.packetnet.common.threading.DispatchStrategy}. Defaults to
+     * {@link Dispatcher#INLINE}, running them on the client's event loop. The dispatcher is not shut down when the
+     * client is closed. Connection events always run on the event loop. Takes effect on the next connect.
+     *
+     * @param dispatcher The dispatcher.
+     */
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     /**
      * Connects the client to the server using the specified TCP and UDP ports.
      *
@@ -89,8 +340,7 @@ public class Client {
     }
 
     /**
-     * Sets up the TCP and UDP sockets and launches the listener threads.
-     * ex
+     * Sets up the TCP and UDP sockets and registers them with an event loop.
      *
      * @param host    The IP address or hostname of the server.
      * @param tcpPort The TCP port of the server.
@@ -102,7 +352,6 @@ public class Client {
             throw new IllegalArgumentException("Client not closed");
 
         InetAddress address = InetAddress.getByName(host);
-        this.udpPort = udpPort;
 
         this.socketChannel = SocketChannel.open();
         this.socketChannel.connect(new InetSocketAddress(address, tcpPort));
@@ -112,10 +361,34 @@ public class Client {
         this.datagramChannel.connect(new InetSocketAddress(address, udpPort));
         this.udpSocket = datagramChannel.socket();
 
-        threadPoolManager = new ThreadPoolManager();
+        if (ownsEventLoopGroup)
+            eventLoopGroup = new EventLoopGroup(1, EventLoopChooser.ROUND_ROBIN);
+        eventLoop = eventLoopGroup.next();
 
-        threadPoolManager.submit(this::listenerTcpThreadImpl);
-        threadPoolManager.submit(this::listenerUdpThreadImpl);
+        // A new channel writes the standard format until the handshake agrees on another one
+        tcpChannel = new TcpChannel(socketChannel, eventLoop, bufferAllocator, readBufferSize, maxFrameSize);
+        tcpWriteFormat = FrameFormat.STANDARD;
+        tcpChannel.setFlushThreshold(flushThreshold);
+        tcpChannel.setFlushDelay(flushDelayNanos, TimeUnit.NANOSECONDS);
+        tcpChannel.setWriteWatermarks(lowWatermark, highWatermark);
+        tcpChannel.setRecyclePackets(packetRecycling);
+        dispatchLane = dispatcher.newLane();
+        requests = new InFlightRequests(new TimerWheel(eventLoop), request -> sendTcp(request, true));
+        tcpChannel.register(new TcpHandler());
+        udpAggregator = new DatagramAggregator(datagram -> {
+            datagram.putLong(0, udpToken);
+            datagramChannel.write(datagram);
+        }, eventLoop, bufferAllocator, Long.BYTES);
+        udpAggregator.setDatagramSize(datagramSize);
+        udpAggregator.setFlushDelay(udpFlushDelayNanos, TimeUnit.NANOSECONDS);
+        reliableChannel = new ReliableChannel(udpAggregator, eventLoop, (packet, ordered) -> {
+            logger.debug("Received packet using reliable UDP: {{}}", packet);
+
+            packetReceived(packet, ordered ? ProtocolType.RELIABLE_UDP : ProtocolType.RELIABLE_UNORDERED);
+        });
+        sequencedChannel = new SequencedChannel(udpAggregator, bufferAllocator);
+        udpHandler = new UdpHandler();
+        eventLoop.register(datagramChannel, SelectionKey.OP_READ, udpHandler);
 
         // Send the UDP port packet to the server
         reconnectUDP();
@@ -124,82 +397,269 @@ public class Client {
         listeners.forEach(listener -> listener.onConnected(ProtocolType.TCP));
     }
 
-    // TCP listener thread implementation
-    private void listenerTcpThreadImpl() {
-        ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+    /**
+     * Handles the events of the TCP channel.
+     */
+    private class TcpHandler implements ChannelHandler {
+        private final PacketBatch batch = new PacketBatch();
 
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                int bytesRead = tcpSocket.getInputStream().read(buffer.array());
+        @Override
+        public void channelRead(Packet packet) {
+            logger.debug("Received packet using TCP: {{}}", packet);
 
-                if (bytesRead == -1) break;
+            if (requests.handle(packet, packetRecycling)) return;
+            if (packet.getID() == (short) -1000) switchFrameFormats(packet);
+            packetReceived(batch, packet, ProtocolType.TCP);
+        }
 
-                buffer.rewind();
-                Packet packet = Packet.read(buffer);
-                buffer.clear();
+        @Override
+        public void channelReadComplete() {
+            batchReceived(batch);
+        }
 
-                logger.debug("Received packet using TCP: {{}}", packet);
-
-                packetReceived(packet);
-            } catch (final SocketException | EOFException e) {
-                close();
-                break;
-            } catch (AsynchronousCloseException e) {
-                break;
-            } catch (IOException e) {
-                logger.error("Error in TCP listener thread: {} :", e.getClass(), e);
-                close();
-                break;
-            }
+        @Override
+        public void channelClosed() {
+            batch.release();
+            close();
         }
 
-        logger.debug("TCP listener thread stopped");
+        @Override
+        public void channelWritabilityChanged(boolean writable) {
+            logger.debug("Connection is {}", writable ? "writable again" : "no longer writable");
+
+            listeners.forEach(listener -> listener.onWritabilityChanged(writable));
+        }
     }
 
-    // UDP listener thread implementation
-    private void listenerUdpThreadImpl() {
-        ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+    /**
+     * Handles the readiness events of the UDP channel.
+     */
+    private class UdpHandler implements SelectionHandler {
+        private final ByteBuffer buffer = bufferAllocator.allocate(readBufferSize);
+        private final FragmentReassembler fragmentReassembler = new FragmentReassembler(bufferAllocator);
+        private final PacketBatch batch = new PacketBatch();
+        private boolean released;
 
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                DatagramPacket datagramPacket = new DatagramPacket(buffer.array(), buffer.capacity());
-                udpSocket.receive(datagramPacket);
+        @Override
+        public void handle(SelectionKey key) throws IOException {
+            while (datagramChannel.read(buffer) > 0) {
+                buffer.flip();
 
-                buffer.rewind();
-                Packet packet = Packet.read(buffer);
-                buffer.clear();
+                // A datagram may pack several frames
+                while (buffer.hasRemaining()) {
+                    Packet packet;
+                    ProtocolType protocol = ProtocolType.UDP;
+                    try {
+                        FrameFormat format = udpReadFormat;
+                        if (!format.readEscape(buffer)) {
+                            packet = format.read(buffer, packetRecycling);
+                        } else if (FragmentReassembler.isFragment(buffer)) {
+                            packet = fragmentReassembler.accept(buffer, packetRecycling);
+                            if (packet == null) continue;
+                        } else if (SequencedChannel.isSequenced(buffer)) {
+                            // Stale packets are skipped before their data is decoded
+                            packet = sequencedChannel.accept(buffer, packetRecycling);
+                            if (packet == null) continue;
+                            protocol = ProtocolType.UDP_SEQUENCED;
+                        } else {
+                            packet = Packet.read(buffer, packetRecycling);
+                        }
+
+                        // Sequenced packets too large for a datagram arrive in fragments
+                        if (packet.getID() == SequencedChannel.SEQUENCED_ID) {
+                            packet = sequencedChannel.accept(packet, packetRecycling);
+                            if (packet == null) continue;
+                            protocol = ProtocolType.UDP_SEQUENCED;
+                        }
+                    } catch (final IOException | BufferUnderflowException e) {
+                        logger.warn("Malformed datagram from server: {} :", e.getClass(), e);
+                        break;
+                    }
 
-                logger.debug("Received packet using UDP: {{}}", packet);
-
-                packetReceived(packet);
-            } catch (final SocketException | EOFException e) {
-                close();
-                break;
-            } catch (ClosedByInterruptException e) {
-                break;
-            } catch (IOException e) {
-                logger.error("Error in UDP listener thread: {} :", e.getClass(), e);
-                close();
-                break;
+                    // Reliable packets are passed on as they are delivered, after the packets received before them
+                    if (packet.getID() == ReliableChannel.DATA_ID) batchReceived(batch);
+                    if (reliableChannel.handle(packet, packetRecycling)) continue;
+
+                    logger.debug("Received packet using {}: {{}}", protocol, packet);
+
+                    packetReceived(batch, packet, protocol);
+                }
+                buffer.clear();
             }
+            batchReceived(batch);
+        }
+
+        @Override
+        public void close(SelectionKey key) {
+            release();
+            Client.this.close();
+        }
+
+        private void release() {
+            if (released) return;
+
+            released = true;
+            bufferAllocator.release(buffer);
+            fragmentReassembler.close();
+            batch.release();
+        }
+    }
+
+    // Process the received packet, then release it
+    private void packetReceived(Packet packet, ProtocolType protocolType) {
+        if (!postProcessPacket(packet)) {
+            packet.release();
+            return;
+        }
+
+        if (dispatchLane.isInline()) {
+            handlePacket(packet, protocolType);
+            return;
         }
 
-        logger.debug("UDP listener thread stopped");
+        if (!dispatchLane.dispatch(() -> handlePacket(packet, protocolType))) {
+            logger.debug("Dropped packet {{}}, the dispatch queue is full", packet);
+            packet.release();
+        }
     }
 
-    // Process the received packet
-    private void packetReceived(Packet packet) {
-        boolean handlePacket = postProcessPacket(packet);
-        if (!handlePacket) return;
+    /**
+     * Adds a received packet to the batch of the current read, for {@link ClientListener#onReceivedBatch}. The UDP
+     * handshake and packets with a packet handler are passed on by themselves, after the packets gathered before them.
+     */
+    private void packetReceived(PacketBatch batch, Packet packet, ProtocolType protocolType) {
+        if (packet.getID() == (short) -1000 || handlers.get(packet.getID()) != null) {
+            batchReceived(batch);
+            packetReceived(packet, protocolType);
+            return;
+        }
 
-        for (ClientListener listener : listeners) {
+        if (protocolType != batch.getProtocolType()) batchReceived(batch);
+        batch.add(packet, protocolType);
+    }
+
+    /**
+     * Passes the packets of a batch to the listeners, through the dispatcher. The batch is emptied right away and its
+     * packets are released once handled or dropped.
+     */
+    private void batchReceived(PacketBatch batch) {
+        if (batch.isEmpty()) return;
+
+        if (dispatchLane.isInline()) {
             try {
-                listener.onReceived(ProtocolType.TCP, packet);
-            } catch (final IOException e) {
-                logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
-            } catch (final Exception e) {
-                logger.error("Exception while handling onReceive: {} :", e.getClass(), e);
+                fireReceivedListeners(batch);
+            } finally {
+                batch.release();
+            }
+            return;
+        }
+
+        // The batch is reused for the next read while the copy waits in the queue
+        PacketBatch dispatched = new PacketBatch(batch);
+        batch.clear();
+        if (!dispatchLane.dispatch(() -> {
+            try {
+                fireReceivedListeners(dispatched);
+            } finally {
+                dispatched.release();
+            }
+        })) {
+            logger.debug("Dropped batch {{}}, the dispatch queue is full", dispatched);
+            dispatched.release();
+        }
+    }
+
+    private void fireReceivedListeners(PacketBatch batch) {
+        for (ClientListener listener : listeners) {
+            if (BATCH_LISTENERS.get(listener.getClass())) {
+                try {
+                    listener.onReceivedBatch(batch.getProtocolType(), batch);
+                } catch (final IOException e) {
+                    logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
+                } catch (final Exception e) {
+                    logger.error("Exception while handling onReceivedBatch: {} :", e.getClass(), e);
+                }
+                continue;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    listener.onReceived(batch.getProtocolType(), batch.get(i));
+                } catch (final IOException e) {
+                    logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
+                } catch (final Exception e) {
+                    logger.error("Exception while handling onReceive: {} :", e.getClass(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes a received packet to its handler or the listeners. The packet is released.
+     */
+    private void handlePacket(Packet packet, ProtocolType protocolType) {
+        try {
+            PacketHandler handler = handlers.get(packet.getID());
+            if (handler != null) {
+                try {
+                    handler.handle(protocolType, packet);
+                } catch (final IOException e) {
+                    logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
+                } catch (final Exception e) {
+                    logger.error("Exception while handling packet {{}}: {} :", packet, e.getClass(), e);
+                }
+                return;
+            }
+
+            for (ClientListener listener : listeners) {
+                try {
+                    listener.onReceived(protocolType, packet);
+                } catch (final IOException e) {
+                    logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
+                } catch (final Exception e) {
+                    logger.error("Exception while handling onReceive: {} :", e.getClass(), e);
+                }
             }
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * Switches to the frame formats agreed on in the UDP handshake reply, before the frame following it is read.
+     * The server writes in the format asked for from the next frame on, the client tells the server it does the
+     * same with the -1008 packet.
+     *
+     * @param reply The reply, which is not consumed.
+     */
+    private void switchFrameFormats(Packet reply) {
+        if (reply.getBuffer().size() <= Integer.BYTES + Long.BYTES) {
+            // Servers not supporting frame formats keep the standard one
+            udpReadFormat = FrameFormat.STANDARD;
+            return;
+        }
+
+        FrameFormat serverFormat;
+        try {
+            serverFormat = FrameFormat.of(reply.getBuffer().get(Integer.BYTES + Long.BYTES));
+        } catch (final IllegalArgumentException e) {
+            logger.error("Unknown frame format in the UDP port packet from server, closing the connection. {} :", e.getClass(), e);
+            tcpChannel.close();
+            return;
+        }
+
+        tcpChannel.setReadFormat(frameFormat);
+        udpAggregator.setFrameFormat(serverFormat);
+        if (serverFormat == tcpWriteFormat) return;
+
+        Packet switchPacket = new Packet((short) -1008);
+        switchPacket.getBuffer().put((byte) serverFormat.ordinal());
+        try {
+            tcpChannel.writeAndSwitchFormat(switchPacket, serverFormat);
+            tcpChannel.flush();
+            tcpWriteFormat = serverFormat;
+        } catch (final ClosedChannelException ignored) {
+            // The connection is closing anyway
         }
     }
 
@@ -208,20 +668,23 @@ public class Client {
         if (packet.getID() == (short) -1000) {
             try {
                 int udpPort = packet.getBuffer().getInt();
+                long udpToken = packet.getBuffer().getLong();
 
                 if (udpPort != udpSocket.getLocalPort()) {
                     logger.error("Invalid UDP port assigned by server. Resending port...");
-                    reconnectUDP();
+                    sendUdpPort();
                     return false;
                 }
 
+                this.udpToken = udpToken;
                 this.udpConnected = true;
+                sendUdpHello();
                 logger.debug("UDP connection established on port {}", udpPort);
                 udpConnectionLatch.countDown();
                 listeners.forEach(listener -> listener.onConnected(ProtocolType.UDP));
             } catch (BufferUnderflowException e) {
                 logger.error("Unreadable UDP port packet from server. Resending port: {} :", e.getClass(), e);
-                reconnectUDP();
+                sendUdpPort();
             }
             return false;
         }
@@ -230,23 +693,15 @@ public class Client {
     }
 
     /**
-     * Sends the UDP port packet to the server.
+     * Sends the UDP port packet to the server and waits for the UDP connection to be established.
+     * Does not wait when called from the client's event loop, as the reply is read by that same thread.
      *
      * @return True if the UDP port packet is sent successfully, false otherwise.
      */
     public boolean reconnectUDP() {
-        if (udpSocket == null || udpSocket.isClosed()) return false;
-
-        udpConnected = false;
-
-        Packet portPacket = new Packet((short) -1000);
-        portPacket.getBuffer().putInt(udpSocket.getLocalPort());
+        boolean sentSuccessfully = sendUdpPort();
 
-        udpConnectionLatch = new CountDownLatch(1);
-
-        boolean sentSuccessfully = send(portPacket, ProtocolType.TCP);
-
-        if (sentSuccessfully) {
+        if (sentSuccessfully && !eventLoop.inEventLoop()) {
             // Wait for the UDP connection to be established
             try {
                 udpConnectionLatch.await();
@@ -258,31 +713,70 @@ public class Client {
         return sentSuccessfully;
     }
 
+    /**
+     * Sends an empty datagram to the server, telling it the address the client's datagrams come from.
+     * Any later datagram does the same, so losing it is harmless.
+     */
+    private void sendUdpHello() {
+        try {
+            sendUdp(new Packet((short) -1001));
+        } catch (final IOException e) {
+            logger.warn("Unable to send the UDP hello: {} :", e.getClass(), e);
+        }
+    }
+
+    /**
+     * Sends the UDP port packet to the server without waiting for the reply.
+     *
+     * @return True if the UDP port packet is sent successfully, false otherwise.
+     */
+    private boolean sendUdpPort() {
+        if (udpSocket == null || udpSocket.isClosed()) return false;
+
+        udpConnected = false;
+
+        // The server may write datagrams in the format asked for as soon as it reads the port
+        udpReadFormat = frameFormat;
+
+        Packet portPacket = new Packet((short) -1000);
+        portPacket.getBuffer().putInt(udpSocket.getLocalPort());
+        portPacket.getBuffer().put((byte) frameFormat.ordinal());
+
+        udpConnectionLatch = new CountDownLatch(1);
+
+        return send(portPacket, ProtocolType.TCP);
+    }
+
     /**
      * Closes the client connection to the server.
      */
     public void close() {
-        if (tcpSocket.isClosed() && udpSocket.isClosed()) return;
         if (tcpSocket == null && udpSocket == null) return;
+        if (tcpSocket.isClosed() && udpSocket.isClosed()) return;
 
         logger.info("Closing client");
 
         try {
-            threadPoolManager.shutdown(true);
-            logger.debug("Threads interrupted");
-
             if (tcpSocket != null) {
-                tcpSocket.close();
-                socketChannel.close();
+                tcpChannel.close();
+                requests.close();
             }
             if (udpSocket != null) {
                 udpConnected = false;
                 udpSocket.close();
                 datagramChannel.close();
+                udpAggregator.close();
+                reliableChannel.close();
+                eventLoop.execute(udpHandler::release);
             }
             logger.debug("Sockets closed");
 
-            threadPoolManager.awaitTermination();
+            if (ownsEventLoopGroup) {
+                eventLoopGroup.shutdown();
+                if (!eventLoopGroup.inEventLoop())
+                    eventLoopGroup.awaitTermination();
+                logger.debug("Event loop stopped");
+            }
         } catch (InterruptedException | IOException e) {
             throw new RuntimeException(e);
         }
@@ -310,20 +804,37 @@ public class Client {
     }
 
     /**
-     * Sends a packet to the server using the specified protocol.
+     * Sets the handler of the packets with a packet id. Packets with a handler are passed to it alone, the
+     * listeners' {@link ClientListener#onReceived} only receive the packets no handler is set for. Finding the
+     * handler takes the same time however many handlers are set.
+     *
+     * @param id      The packet id.
+     * @param handler The handler, or null to remove it.
+     */
+    public void setHandler(short id, PacketHandler handler) {
+        handlers.set(id, handler);
+    }
+
+    /**
+     * Sends a packet to the server using the specified protocol. A recyclable packet has one of its references
+     * consumed, whether it was sent or not.
      *
      * @param packet   The packet to send.
-     * @param protocol The protocol to use (TCP or UDP).
+     * @param protocol The protocol to use.
      * @return True if the packet is sent successfully, false otherwise.
      */
     public boolean send(Packet packet, ProtocolType protocol) {
-        if (!isConnected(protocol)) return false;
+        if (!isConnected(protocol)) {
+            packet.release();
+            return false;
+        }
 
         try {
             switch (protocol) {
-                case TCP -> sendTcp(packet);
-                case UDP -> sendUdp(packet);
-                default -> logger.warn("Unsupported protocol: " + protocol);
+                case TCP -> {
+                    return sendTcp(packet, true);
+                }
+                default -> sendDatagram(packet, protocol);
             }
             return true;
         } catch (final IOException e) {
@@ -333,31 +844,255 @@ public class Client {
     }
 
     /**
-     * Sends a packet to the server using the TCP protocol.
+     * Sends a record to the server using the specified protocol, encoded by its {@link RecordCodec}.
+     *
+     * @param record   The record to send, annotated with {@link xyz.synse.packetnet.common.codec.PacketId}.
+     * @param protocol The protocol to use.
+     * @return True if the packet is sent successfully, false otherwise.
+     */
+    public boolean send(Record record, ProtocolType protocol) {
+        return send(RecordCodec.toPacket(record), protocol);
+    }
+
+    /**
+     * Sends a packet to the server without waiting for the outcome. A recyclable packet has one of its references
+     * consumed, whether it was sent or not.
+     * <p>
+     * Over TCP the future completes once the packet is fully written to the socket, and fails with the cause if the
+     * connection closes first or the backpressure policy drops or rejects the packet. Over UDP it completes once the
+     * packet is handed to the datagram aggregator, or to the reliable channel, and fails if that throws. Futures
+     * complete on the client's event loop, so actions depending on them must not block, or must run elsewhere
+     * through the async methods of {@link CompletableFuture}.
+     *
+     * @param packet   The packet to send.
+     * @param protocol The protocol to use.
+     * @return A future completed once the packet is sent, or failed with the cause.
+     */
+    public CompletableFuture<Void> sendAsync(Packet packet, ProtocolType protocol) {
+        return sendAsync(List.of(packet), protocol);
+    }
+
+    /**
+     * Sends packets to the server in order without waiting for the outcome, see
+     * {@link #sendAsync(Packet, ProtocolType)}. Over TCP the packets are flushed together and the backpressure policy
+     * accepts or refuses them as a whole.
+     *
+     * @param packets  The packets to send.
+     * @param protocol The protocol to use.
+     * @return A future completed once all packets are sent, or failed with the first cause.
+     */
+    public CompletableFuture<Void> sendAsync(Collection<Packet> packets, ProtocolType protocol) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!isConnected(protocol)) {
+            packets.forEach(Packet::release);
+            future.completeExceptionally(new IOException("Not connected using " + protocol));
+            return future;
+        }
+
+        if (protocol == ProtocolType.TCP) {
+            if (!tcpChannel.isWritable() && backpressurePolicy != BackpressurePolicy.QUEUE) {
+                logger.debug("Refused {} packets, connection is not writable", packets.size());
+                packets.forEach(Packet::release);
+                future.completeExceptionally(new IOException("Connection is not writable"));
+                return future;
+            }
+
+            tcpChannel.writeAndFlush(packets, future);
+            return future;
+        }
+
+        Iterator<Packet> iterator = packets.iterator();
+        try {
+            while (iterator.hasNext()) {
+                sendDatagram(iterator.next(), protocol);
+            }
+            future.complete(null);
+        } catch (final IOException e) {
+            iterator.forEachRemaining(Packet::release);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Queues a packet to the server over TCP without flushing it. Use {@link #flush()} to write queued packets
+     * together, otherwise they are flushed once the flush threshold or flush delay is reached.
+     * The packet must not be modified afterwards.
+     *
+     * @param packet The packet to queue.
+     * @return True if the packet was queued, false otherwise.
+     */
+    public boolean write(Packet packet) {
+        if (!isConnected(ProtocolType.TCP)) {
+            packet.release();
+            return false;
+        }
+
+        try {
+            return sendTcp(packet, false);
+        } catch (final IOException e) {
+            logger.error("Error while writing packet {{}} : {} :", packet, e.getClass(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Flushes the packets queued to the server. TCP packets queued from any thread up to the flush are written
+     * together by the event loop, UDP packets waiting for their datagram to fill up are sent.
+     */
+    public void flush() {
+        if (tcpChannel != null) tcpChannel.flush();
+
+        if (udpAggregator != null) {
+            try {
+                udpAggregator.flush();
+            } catch (final IOException e) {
+                logger.error("Error while flushing UDP packets : {} :", e.getClass(), e);
+            }
+        }
+    }
+
+    /**
+     * Sends a packet to the server using the TCP protocol. The packet is written by the event loop without
+     * copying its data, so it must not be modified afterwards. While the connection is not writable the
+     * backpressure policy decides whether the packet is queued, dropped or rejected.
      *
      * @param packet The packet to send.
+     * @param flush  Whether to flush the connection after queueing the packet.
+     * @return False if the packet was rejected, true otherwise.
      * @throws IOException if an I/O error occurs while sending the packet.
      */
-    private void sendTcp(Packet packet) throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(writeBufferSize);
-        byte[] data = packet.write(buffer).array();
+    private boolean sendTcp(Packet packet, boolean flush) throws IOException {
+        if (!tcpChannel.isWritable()) {
+            switch (backpressurePolicy) {
+                case DROP -> {
+                    logger.debug("Dropped packet {{}}, connection is not writable", packet);
+                    packet.release();
+                    return true;
+                }
+                case REJECT -> {
+                    logger.warn("Rejected packet {{}}, connection is not writable", packet);
+                    packet.release();
+                    return false;
+                }
+            }
+        }
+
+        if (flush) {
+            tcpChannel.writeAndFlush(packet);
+        } else {
+            tcpChannel.write(packet);
+        }
+        return true;
+    }
+
+    /**
+     * Sends a request to the server over TCP, to be answered by the server's
+     * {@link xyz.synse.packetnet.server.RequestHandler} of the packet id. Requests don't wait for the responses of
+     * earlier ones, so any number of them can be in flight at a time. A recyclable packet has one of its references
+     * consumed, whether it was sent or not. A request dropped by the backpressure policy times out.
+     * <p>
+     * The future completes on the client's event loop, so actions depending on it must not block, or must run
+     * elsewhere through the async methods of {@link CompletableFuture}. With packet recycling enabled the reply is
+     * recyclable and must be released once used.
+     *
+     * @param packet  The request packet.
+     * @param timeout The time to wait for the response.
+     * @param unit    The unit of the timeout.
+     * @return A future completed with the reply, or failed with a {@link java.util.concurrent.TimeoutException} if
+     * there is no response in time, an {@link xyz.synse.packetnet.common.rpc.RpcException} if the server failed the
+     * request, or an {@link IOException} if the request could not be sent or the connection closed first.
+     */
+    public CompletableFuture<Packet> request(Packet packet, long timeout, TimeUnit unit) {
+        if (!isConnected(ProtocolType.TCP)) {
+            packet.release();
+            return CompletableFuture.failedFuture(new IOException("Not connected using TCP"));
+        }
+
+        return requests.request(packet, timeout, unit);
+    }
+
+    /**
+     * @return The number of requests awaiting their response.
+     */
+    public int getRequestsInFlight() {
+        return requests == null ? 0 : requests.size();
+    }
 
-        tcpSocket.getOutputStream().write(data);
-        tcpSocket.getOutputStream().flush();
+    /**
+     * Sends a packet to the server over UDP, plain, sequenced or reliable depending on the protocol.
+     *
+     * @param packet   The packet to send.
+     * @param protocol The UDP protocol to use.
+     * @throws IOException if an I/O error occurs while sending the packet.
+     */
+    private void sendDatagram(Packet packet, ProtocolType protocol) throws IOException {
+        switch (protocol) {
+            case UDP -> sendUdp(packet);
+            case UDP_SEQUENCED -> sendSequenced(packet);
+            case RELIABLE_UDP, RELIABLE_UNORDERED -> sendReliable(packet, protocol == ProtocolType.RELIABLE_UDP);
+            default -> {
+                packet.release();
+                throw new IOException("Unsupported protocol: " + protocol);
+            }
+        }
     }
 
     /**
-     * Sends a packet to the server using the UDP protocol.
+     * Sends a packet to the server using the UDP protocol. Its written bytes are copied into a pooled datagram
+     * starting with the session token, which may pack other packets too, see
+     * {@link #setUdpFlushDelay(long, TimeUnit)}.
      *
      * @param packet The packet to send.
      * @throws IOException if an I/O error occurs while sending the packet.
      */
     private void sendUdp(Packet packet) throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(writeBufferSize);
-        byte[] data = packet.write(buffer).array();
+        try {
+            udpAggregator.write(packet);
+        } finally {
+            packet.release();
+        }
+    }
 
-        DatagramPacket datagramPacket = new DatagramPacket(data, data.length, tcpSocket.getInetAddress(), udpPort);
-        udpSocket.send(datagramPacket);
+    /**
+     * Sends a packet to the server over UDP with the next sequence number of its id, so the server drops it if a
+     * newer one with the same id arrived first.
+     *
+     * @param packet The packet to send.
+     * @throws IOException if an I/O error occurs while sending the packet.
+     */
+    private void sendSequenced(Packet packet) throws IOException {
+        try {
+            sequencedChannel.send(packet);
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * Sends a packet to the server reliably over UDP. It is retransmitted until the server acknowledges it, see
+     * {@link ReliableChannel}.
+     *
+     * @param packet  The packet to send.
+     * @param ordered True to deliver the packet in order with the other ordered packets.
+     * @throws IOException if an I/O error occurs while sending the packet.
+     */
+    private void sendReliable(Packet packet, boolean ordered) throws IOException {
+        try {
+            reliableChannel.send(packet, ordered);
+        } finally {
+            packet.release();
+        }
+    }
+
+
+    /**
+     * Checks if the TCP connection is writable, that is whether its pending bytes are below the high watermark.
+     *
+     * @return True if the connection is writable, false otherwise.
+     */
+    public boolean isWritable() {
+        return tcpChannel != null && tcpChannel.isWritable();
     }
 
     /**
@@ -368,8 +1103,8 @@ public class Client {
      */
     public boolean isConnected(ProtocolType protocolType) {
         return switch (protocolType) {
-            case TCP -> tcpSocket != null && tcpSocket.isConnected() && !tcpSocket.isClosed();
-            case UDP -> udpConnected && udpSocket != null && !udpSocket.isClosed();
+            case TCP -> tcpChannel != null && tcpChannel.isOpen();
+            case UDP, UDP_SEQUENCED, RELIABLE_UDP, RELIABLE_UNORDERED -> udpConnected && udpSocket != null && !udpSocket.isClosed();
         };
     }
 }
@@ -2,6 +2,7 @@ package xyz.synse.packetnet.client.listeners;
 
 import xyz.synse.packetnet.common.ProtocolType;
 import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PacketBatch;
 
 import java.io.IOException;
 
@@ -9,9 +10,27 @@ public class ClientListener {
     public void onReceived(ProtocolType protocolType, Packet packet) throws IOException {
     }
 
+    /**
+     * Called with the packets decoded from one TCP read or one drain of datagrams, in the order they were received.
+     * Overriding it replaces the calls to {@link #onReceived} for packets without a packet handler, so a batch can be
+     * handled in bulk. The batch is reused once this returns, see {@link PacketBatch}.
+     */
+    public void onReceivedBatch(ProtocolType protocolType, PacketBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            onReceived(protocolType, batch.get(i));
+        }
+    }
+
     public void onDisconnected() {
     }
 
     public void onConnected(ProtocolType protocolType) {
     }
+
+    /**
+     * Called on the event loop when the pending TCP bytes rise above the high watermark,
+     * or fall back below the low watermark.
+     */
+    public void onWritabilityChanged(boolean writable) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package xyz.synse.packetnet.client.listeners;
+
+import xyz.synse.packetnet.common.ProtocolType;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+
+/**
+ * Handles the packets with one packet id, see {@link xyz.synse.packetnet.client.Client#setHandler(short, PacketHandler)}.
+ */
+@FunctionalInterface
+public interface PacketHandler {
+    void handle(ProtocolType protocolType, Packet packet) throws IOException;
+}
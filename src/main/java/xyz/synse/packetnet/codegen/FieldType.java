@@ -0,0 +1,67 @@
+package xyz.synse.packetnet.codegen;
+
+/**
+ * The types of the fixed-size fields of a {@link Schema}, each stored big-endian like the
+ * {@link xyz.synse.packetnet.common.data.DynamicByteBuffer} methods store them.
+ */
+public enum FieldType {
+    INT8("int8", "byte", "", Byte.BYTES),
+    INT16("int16", "short", "Short", Short.BYTES),
+    INT32("int32", "int", "Int", Integer.BYTES),
+    INT64("int64", "long", "Long", Long.BYTES),
+    FLOAT32("float32", "float", "Float", Float.BYTES),
+    FLOAT64("float64", "double", "Double", Double.BYTES),
+    BOOL("bool", "boolean", "Boolean", 1);
+
+    private final String schemaName;
+    private final String javaType;
+    private final String accessorSuffix;
+    private final int size;
+
+    FieldType(String schemaName, String javaType, String accessorSuffix, int size) {
+        this.schemaName = schemaName;
+        this.javaType = javaType;
+        this.accessorSuffix = accessorSuffix;
+        this.size = size;
+    }
+
+    /**
+     * @param schemaName The name of the type in a schema.
+     * @return The type, or null if there is no type of that name.
+     */
+    public static FieldType of(String schemaName) {
+        for (FieldType type : values()) {
+            if (type.schemaName.equals(schemaName)) return type;
+        }
+        return null;
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public String getJavaType() {
+        return javaType;
+    }
+
+    /**
+     * @return The name of the buffer method reading the type, with an index.
+     */
+    String getter() {
+        return "get" + accessorSuffix;
+    }
+
+    /**
+     * @return The name of the buffer method writing the type, with an index.
+     */
+    String putter() {
+        return "put" + accessorSuffix;
+    }
+
+    /**
+     * @return The size in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+}
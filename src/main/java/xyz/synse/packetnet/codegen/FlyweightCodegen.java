@@ -0,0 +1,50 @@
+package xyz.synse.packetnet.codegen;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Generates the flyweights of schema files from the command line, e.g. from the {@code exec-maven-plugin}:
+ * <pre>{@code
+ * java xyz.synse.packetnet.codegen.FlyweightCodegen <output directory> <schema file or directory>...
+ * }</pre>
+ * Directories are searched for {@code .schema} files.
+ */
+public final class FlyweightCodegen {
+    private FlyweightCodegen() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: FlyweightCodegen <output directory> <schema file or directory>...");
+            System.exit(1);
+            return;
+        }
+
+        Path output = Path.of(args[0]);
+        List<Path> schemas = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            Path path = Path.of(args[i]);
+            if (!Files.isDirectory(path)) {
+                schemas.add(path);
+                continue;
+            }
+
+            try (Stream<Path> files = Files.walk(path)) {
+                files.filter(file -> file.toString().endsWith(".schema")).sorted().forEach(schemas::add);
+            }
+        }
+
+        for (Path schema : schemas) {
+            try {
+                FlyweightGenerator.generate(Schema.parse(schema), output);
+            } catch (final SchemaException e) {
+                throw new IOException(schema + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
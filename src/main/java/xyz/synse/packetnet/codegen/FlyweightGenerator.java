@@ -0,0 +1,478 @@
+package xyz.synse.packetnet.codegen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates flyweight encoders and decoders of the messages of a {@link Schema}.
+ * <p>
+ * A flyweight wraps the {@link xyz.synse.packetnet.common.data.DynamicByteBuffer} of a packet and reads or writes
+ * each field in place at its fixed offset, so a decoder is created once and reused for every received packet
+ * without allocating. A message is laid out as:
+ * <ul>
+ *     <li>the fixed-size fields, big-endian, in declaration order without padding,</li>
+ *     <li>each group as an unsigned 16-bit count followed by that many entries of the group's fixed-size fields,</li>
+ *     <li>each data as a 32-bit length followed by that many bytes, the format of
+ *     {@link xyz.synse.packetnet.common.data.DynamicByteBuffer#putString(String)}.</li>
+ * </ul>
+ * Groups and data follow each other, so they must be written and read in the order of the schema, after the
+ * fixed-size fields.
+ */
+public final class FlyweightGenerator {
+    private static final String BUFFER = "xyz.synse.packetnet.common.data.DynamicByteBuffer";
+    private static final String PACKET = "xyz.synse.packetnet.common.packet.Packet";
+    private static final String CORRUPTED = "xyz.synse.packetnet.common.packet.CorruptedFrameException";
+
+    private FlyweightGenerator() {
+    }
+
+    /**
+     * Generates the sources of a schema.
+     *
+     * @param schema The schema.
+     * @return The sources by their path relative to the source root, e.g. {@code com/example/PositionDecoder.java}.
+     */
+    public static Map<String, String> generate(Schema schema) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        String directory = schema.packageName().replace('.', '/') + "/";
+        for (Schema.Message message : schema.messages()) {
+            sources.put(directory + message.name() + "Encoder.java", encoder(schema.packageName(), message));
+            sources.put(directory + message.name() + "Decoder.java", decoder(schema.packageName(), message));
+        }
+        return sources;
+    }
+
+    /**
+     * Generates the sources of a schema into a source root, creating the package directories.
+     *
+     * @param schema The schema.
+     * @param root   The source root.
+     * @throws IOException if a source cannot be written.
+     */
+    public static void generate(Schema schema, Path root) throws IOException {
+        for (Map.Entry<String, String> source : generate(schema).entrySet()) {
+            Path file = root.resolve(source.getKey());
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, source.getValue(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String encoder(String packageName, Schema.Message message) {
+        String name = message.name() + "Encoder";
+        Source out = header(packageName, name, message);
+        out.line("    private DynamicByteBuffer buffer;");
+        out.line("    private int offset;");
+        out.line("    private int limit;");
+        out.line();
+        out.line("    /**");
+        out.line("     * Wraps a buffer to encode a message at an offset, zeroing the fixed-size fields.");
+        out.line("     *");
+        out.line("     * @param buffer The buffer.");
+        out.line("     * @param offset The offset of the message in the buffer.");
+        out.line("     * @return This encoder.");
+        out.line("     */");
+        out.line("    public %s wrap(DynamicByteBuffer buffer, int offset) {", name);
+        out.line("        this.buffer = buffer;");
+        out.line("        this.offset = offset;");
+        out.line("        this.limit = offset + BLOCK_LENGTH;");
+        out.line("        zero(buffer, offset, BLOCK_LENGTH);");
+        out.line("        return this;");
+        out.line("    }");
+        out.line();
+        out.line("    /**");
+        out.line("     * Wraps the buffer of a packet to encode a message at its start.");
+        out.line("     *");
+        out.line("     * @param packet The packet, usually obtained with the id {@link #ID}.");
+        out.line("     * @return This encoder.");
+        out.line("     */");
+        out.line("    public %s wrap(Packet packet) {", name);
+        out.line("        return wrap(packet.getBuffer(), 0);");
+        out.line("    }");
+
+        for (Schema.Field field : message.fields()) {
+            encoderField(out, name, field, "offset");
+        }
+
+        for (Schema.Group group : message.groups()) {
+            String groupName = capitalize(group.name()) + "Encoder";
+            out.line();
+            out.line("    /**");
+            out.line("     * Starts the {@code %s} group, the entries are written by calling {@code next()} before each.", group.name());
+            out.line("     *");
+            out.line("     * @param count The number of entries, at most 65535.");
+            out.line("     * @return The group encoder.");
+            out.line("     */");
+            out.line("    public %s %sCount(int count) {", groupName, group.name());
+            out.line("        if (count < 0 || count > 0xFFFF) throw new IllegalArgumentException(\"Invalid group count \" + count);");
+            out.line();
+            out.line("        return %s.wrap(count);", group.name());
+            out.line("    }");
+        }
+
+        for (String data : message.data()) {
+            out.line();
+            out.line("    /**");
+            out.line("     * Writes {@code %s} as UTF-8.", data);
+            out.line("     *");
+            out.line("     * @param value The value.");
+            out.line("     * @return This encoder.");
+            out.line("     */");
+            out.line("    public %s %s(String value) {", name, data);
+            out.line("        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);");
+            out.line("        return %s(bytes, 0, bytes.length);", data);
+            out.line("    }");
+            out.line();
+            out.line("    /**");
+            out.line("     * Writes {@code %s}.", data);
+            out.line("     *");
+            out.line("     * @param src       The array holding the bytes.");
+            out.line("     * @param srcOffset The offset of the bytes in the array.");
+            out.line("     * @param length    The number of bytes.");
+            out.line("     * @return This encoder.");
+            out.line("     */");
+            out.line("    public %s %s(byte[] src, int srcOffset, int length) {", name, data);
+            out.line("        buffer.putInt(limit, length);");
+            out.line("        buffer.position(limit + Integer.BYTES);");
+            out.line("        buffer.put(src, srcOffset, length);");
+            out.line("        limit += Integer.BYTES + length;");
+            out.line("        return this;");
+            out.line("    }");
+        }
+
+        out.line();
+        out.line("    /**");
+        out.line("     * @return The number of bytes written so far.");
+        out.line("     */");
+        out.line("    public int encodedLength() {");
+        out.line("        return limit - offset;");
+        out.line("    }");
+        out.line();
+        out.line("    private static void zero(DynamicByteBuffer buffer, int offset, int length) {");
+        out.line("        for (int i = 0; i < length; i++) {");
+        out.line("            buffer.put(offset + i, (byte) 0);");
+        out.line("        }");
+        out.line("    }");
+
+        for (Schema.Group group : message.groups()) {
+            String groupName = capitalize(group.name()) + "Encoder";
+            out.line();
+            out.line("    /**");
+            out.line("     * Encodes the entries of the {@code %s} group.", group.name());
+            out.line("     */");
+            out.line("    public final class %s {", groupName);
+            out.line("        public static final int BLOCK_LENGTH = %d;", group.blockLength());
+            out.line();
+            out.line("        private int count;");
+            out.line("        private int index;");
+            out.line("        private int entry;");
+            out.line();
+            out.line("        private %s() {", groupName);
+            out.line("        }");
+            out.line();
+            out.line("        private %s wrap(int count) {", groupName);
+            out.line("            buffer.putShort(limit, (short) count);");
+            out.line("            limit += Short.BYTES;");
+            out.line("            this.count = count;");
+            out.line("            this.index = 0;");
+            out.line("            return this;");
+            out.line("        }");
+            out.line();
+            out.line("        /**");
+            out.line("         * Starts the next entry, zeroing its fields.");
+            out.line("         *");
+            out.line("         * @return This group encoder.");
+            out.line("         * @throws java.util.NoSuchElementException if all entries were started.");
+            out.line("         */");
+            out.line("        public %s next() {", groupName);
+            out.line("            if (index >= count) throw new java.util.NoSuchElementException(\"All \" + count + \" entries were written\");");
+            out.line();
+            out.line("            index++;");
+            out.line("            entry = limit;");
+            out.line("            limit += BLOCK_LENGTH;");
+            out.line("            zero(buffer, entry, BLOCK_LENGTH);");
+            out.line("            return this;");
+            out.line("        }");
+
+            for (Schema.Field field : group.fields()) {
+                encoderField(out, groupName, field, "entry");
+            }
+            out.line("    }");
+        }
+        out.line("}");
+        return out.toString();
+    }
+
+    private static void encoderField(Source out, String owner, Schema.Field field, String base) {
+        String indent = base.equals("entry") ? "    " : "";
+        out.line();
+        out.line("%s    public %s %s(%s value) {", indent, owner, field.name(), field.type().getJavaType());
+        out.line("%s        buffer.%s(%s, value);", indent, field.type().putter(), index(base, field));
+        out.line("%s        return this;", indent);
+        out.line("%s    }", indent);
+    }
+
+    private static String decoder(String packageName, Schema.Message message) {
+        String name = message.name() + "Decoder";
+        Source out = header(packageName, name, message);
+        out.line("    private DynamicByteBuffer buffer;");
+        out.line("    private int offset;");
+        out.line("    private int limit;");
+        out.line();
+        out.line("    /**");
+        out.line("     * Wraps a buffer to decode a message at an offset.");
+        out.line("     *");
+        out.line("     * @param buffer The buffer.");
+        out.line("     * @param offset The offset of the message in the buffer.");
+        out.line("     * @return This decoder.");
+        out.line("     * @throws CorruptedFrameException if the buffer is too short to hold the fixed-size fields.");
+        out.line("     */");
+        out.line("    public %s wrap(DynamicByteBuffer buffer, int offset) throws CorruptedFrameException {", name);
+        out.line("        if (offset < 0 || offset + BLOCK_LENGTH > buffer.size())");
+        out.line("            throw new CorruptedFrameException(\"Message of \" + buffer.size() + \" bytes is too short\");");
+        out.line();
+        out.line("        this.buffer = buffer;");
+        out.line("        this.offset = offset;");
+        out.line("        this.limit = offset + BLOCK_LENGTH;");
+        out.line("        return this;");
+        out.line("    }");
+        out.line();
+        out.line("    /**");
+        out.line("     * Wraps the buffer of a received packet to decode the message at its start.");
+        out.line("     *");
+        out.line("     * @param packet The packet, with the id {@link #ID}.");
+        out.line("     * @return This decoder.");
+        out.line("     * @throws CorruptedFrameException if the packet is too short to hold the fixed-size fields.");
+        out.line("     */");
+        out.line("    public %s wrap(Packet packet) throws CorruptedFrameException {", name);
+        out.line("        return wrap(packet.getBuffer(), 0);");
+        out.line("    }");
+
+        for (Schema.Field field : message.fields()) {
+            decoderField(out, field, "offset");
+        }
+
+        for (Schema.Group group : message.groups()) {
+            String groupName = capitalize(group.name()) + "Decoder";
+            out.line();
+            out.line("    /**");
+            out.line("     * Reads the {@code %s} group, to be iterated before reading any later group or data.", group.name());
+            out.line("     *");
+            out.line("     * @return The group decoder.");
+            out.line("     * @throws CorruptedFrameException if the message is too short to hold the group.");
+            out.line("     */");
+            out.line("    public %s %s() throws CorruptedFrameException {", groupName, group.name());
+            out.line("        return %s.wrap();", group.name());
+            out.line("    }");
+        }
+
+        for (String data : message.data()) {
+            String capitalized = capitalize(data);
+            out.line();
+            out.line("    /**");
+            out.line("     * @return The length of {@code %s} in bytes.", data);
+            out.line("     * @throws CorruptedFrameException if the message is too short to hold it.");
+            out.line("     */");
+            out.line("    public int %sLength() throws CorruptedFrameException {", data);
+            out.line("        return dataLength();");
+            out.line("    }");
+            out.line();
+            out.line("    /**");
+            out.line("     * Copies {@code %s} into an array, with room for {@link #%sLength()} bytes.", data, data);
+            out.line("     *");
+            out.line("     * @param dst       The array.");
+            out.line("     * @param dstOffset The offset in the array.");
+            out.line("     * @return The number of bytes copied.");
+            out.line("     * @throws CorruptedFrameException if the message is too short to hold it.");
+            out.line("     */");
+            out.line("    public int get%s(byte[] dst, int dstOffset) throws CorruptedFrameException {", capitalized);
+            out.line("        int length = dataLength();");
+            out.line("        System.arraycopy(buffer.array(), buffer.arrayOffset() + limit + Integer.BYTES, dst, dstOffset, length);");
+            out.line("        limit += Integer.BYTES + length;");
+            out.line("        return length;");
+            out.line("    }");
+            out.line();
+            out.line("    /**");
+            out.line("     * Reads {@code %s} as UTF-8, which allocates the string.", data);
+            out.line("     *");
+            out.line("     * @return The value.");
+            out.line("     * @throws CorruptedFrameException if the message is too short to hold it.");
+            out.line("     */");
+            out.line("    public String %s() throws CorruptedFrameException {", data);
+            out.line("        int length = dataLength();");
+            out.line("        String value = new String(buffer.array(), buffer.arrayOffset() + limit + Integer.BYTES, length, StandardCharsets.UTF_8);");
+            out.line("        limit += Integer.BYTES + length;");
+            out.line("        return value;");
+            out.line("    }");
+            out.line();
+            out.line("    /**");
+            out.line("     * Skips {@code %s}.", data);
+            out.line("     *");
+            out.line("     * @return This decoder.");
+            out.line("     * @throws CorruptedFrameException if the message is too short to hold it.");
+            out.line("     */");
+            out.line("    public %s skip%s() throws CorruptedFrameException {", name, capitalized);
+            out.line("        limit += Integer.BYTES + dataLength();");
+            out.line("        return this;");
+            out.line("    }");
+        }
+
+        out.line();
+        out.line("    /**");
+        out.line("     * @return The number of bytes read so far, the length of the message once all of it was read.");
+        out.line("     */");
+        out.line("    public int encodedLength() {");
+        out.line("        return limit - offset;");
+        out.line("    }");
+
+        if (!message.data().isEmpty()) {
+            out.line();
+            out.line("    private int dataLength() throws CorruptedFrameException {");
+            out.line("        checkLimit(limit + Integer.BYTES);");
+            out.line("        int length = buffer.getInt(limit);");
+            out.line("        if (length < 0) throw new CorruptedFrameException(\"Negative data length \" + length);");
+            out.line();
+            out.line("        checkLimit(limit + Integer.BYTES + length);");
+            out.line("        return length;");
+            out.line("    }");
+        }
+
+        if (!message.groups().isEmpty() || !message.data().isEmpty()) {
+            out.line();
+            out.line("    private void checkLimit(int end) throws CorruptedFrameException {");
+            out.line("        if (end < 0 || end > buffer.size())");
+            out.line("            throw new CorruptedFrameException(\"Message of \" + buffer.size() + \" bytes is too short\");");
+            out.line("    }");
+        }
+
+        for (Schema.Group group : message.groups()) {
+            String groupName = capitalize(group.name()) + "Decoder";
+            out.line();
+            out.line("    /**");
+            out.line("     * Decodes the entries of the {@code %s} group. It iterates over itself, so iterating allocates nothing.", group.name());
+            out.line("     */");
+            out.line("    public final class %s implements Iterable<%s>, Iterator<%s> {", groupName, groupName, groupName);
+            out.line("        public static final int BLOCK_LENGTH = %d;", group.blockLength());
+            out.line();
+            out.line("        private int count;");
+            out.line("        private int index;");
+            out.line("        private int start;");
+            out.line("        private int entry;");
+            out.line();
+            out.line("        private %s() {", groupName);
+            out.line("        }");
+            out.line();
+            out.line("        private %s wrap() throws CorruptedFrameException {", groupName);
+            out.line("            checkLimit(limit + Short.BYTES);");
+            out.line("            count = Short.toUnsignedInt(buffer.getShort(limit));");
+            out.line("            start = limit + Short.BYTES;");
+            out.line("            checkLimit(start + count * BLOCK_LENGTH);");
+            out.line();
+            out.line("            index = 0;");
+            out.line("            limit = start + count * BLOCK_LENGTH;");
+            out.line("            return this;");
+            out.line("        }");
+            out.line();
+            out.line("        /**");
+            out.line("         * @return The number of entries.");
+            out.line("         */");
+            out.line("        public int count() {");
+            out.line("            return count;");
+            out.line("        }");
+            out.line();
+            out.line("        @Override");
+            out.line("        public boolean hasNext() {");
+            out.line("            return index < count;");
+            out.line("        }");
+            out.line();
+            out.line("        /**");
+            out.line("         * Moves to the next entry.");
+            out.line("         *");
+            out.line("         * @return This group decoder.");
+            out.line("         * @throws java.util.NoSuchElementException if all entries were read.");
+            out.line("         */");
+            out.line("        @Override");
+            out.line("        public %s next() {", groupName);
+            out.line("            if (index >= count) throw new java.util.NoSuchElementException(\"All \" + count + \" entries were read\");");
+            out.line();
+            out.line("            entry = start + index++ * BLOCK_LENGTH;");
+            out.line("            return this;");
+            out.line("        }");
+            out.line();
+            out.line("        @Override");
+            out.line("        public Iterator<%s> iterator() {", groupName);
+            out.line("            return this;");
+            out.line("        }");
+
+            for (Schema.Field field : group.fields()) {
+                decoderField(out, field, "entry");
+            }
+            out.line("    }");
+        }
+        out.line("}");
+        return out.toString();
+    }
+
+    private static void decoderField(Source out, Schema.Field field, String base) {
+        String indent = base.equals("entry") ? "    " : "";
+        out.line();
+        out.line("%s    public %s %s() {", indent, field.type().getJavaType(), field.name());
+        out.line("%s        return buffer.%s(%s);", indent, field.type().getter(), index(base, field));
+        out.line("%s    }", indent);
+    }
+
+    private static String index(String base, Schema.Field field) {
+        return field.offset() == 0 ? base : base + " + " + field.offset();
+    }
+
+    private static Source header(String packageName, String name, Schema.Message message) {
+        Source out = new Source();
+        out.line("package %s;", packageName);
+        out.line();
+        out.line("import %s;", BUFFER);
+        if (name.endsWith("Decoder")) out.line("import %s;", CORRUPTED);
+        out.line("import %s;", PACKET);
+        out.line();
+        if (!message.data().isEmpty()) out.line("import java.nio.charset.StandardCharsets;");
+        if (name.endsWith("Decoder") && !message.groups().isEmpty()) out.line("import java.util.Iterator;");
+        if (!message.data().isEmpty() || name.endsWith("Decoder") && !message.groups().isEmpty()) out.line();
+        out.line("/**");
+        out.line(" * The flyweight %s of {@code %s} messages, generated from a schema.", name.endsWith("Decoder") ? "decoder" : "encoder", message.name());
+        out.line(" */");
+        out.line("public final class %s {", name);
+        out.line("    public static final short ID = %d;", message.id());
+        out.line("    public static final int BLOCK_LENGTH = %d;", message.blockLength());
+        out.line();
+        List<Schema.Group> groups = message.groups();
+        for (Schema.Group group : groups) {
+            String groupName = capitalize(group.name()) + (name.endsWith("Decoder") ? "Decoder" : "Encoder");
+            out.line("    private final %s %s = new %s();", groupName, group.name(), groupName);
+        }
+        return out;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static final class Source {
+        private final StringBuilder builder = new StringBuilder();
+
+        private void line() {
+            builder.append('\n');
+        }
+
+        private void line(String format, Object... args) {
+            builder.append(String.format(format, args)).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package xyz.synse.packetnet.codegen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.lang.model.SourceVersion;
+
+/**
+ * The messages of a flyweight schema, see {@link FlyweightGenerator}.
+ * <p>
+ * A schema names the package of the generated classes and declares messages. A message has a name, a packet id and,
+ * in this order, its fixed-size fields, its repeating groups of fixed-size fields and its variable-length data:
+ * <pre>{@code
+ * // Comments run to the end of the line
+ * package com.example.protocol;
+ *
+ * message Position 20 {
+ *     int64 entity;
+ *     float64 x;
+ *     float64 y;
+ *     bool grounded;
+ *     group waypoints {
+ *         float32 x;
+ *         float32 y;
+ *     }
+ *     data name;
+ * }
+ * }</pre>
+ * Field types are {@code int8}, {@code int16}, {@code int32}, {@code int64}, {@code float32}, {@code float64} and
+ * {@code bool}, see {@link FieldType}.
+ *
+ * @param packageName The package of the generated classes.
+ * @param messages    The messages.
+ */
+public record Schema(String packageName, List<Message> messages) {
+    /**
+     * @param name   The name of the message, the generated classes are named after it.
+     * @param id     The packet id of the message.
+     * @param fields The fixed-size fields, at fixed offsets.
+     * @param groups The repeating groups, following the fields.
+     * @param data   The names of the variable-length data, following the groups.
+     */
+    public record Message(String name, short id, List<Field> fields, List<Group> groups, List<String> data) {
+        /**
+         * @return The size of the fixed-size fields in bytes.
+         */
+        public int blockLength() {
+            return Schema.blockLength(fields);
+        }
+    }
+
+    /**
+     * @param name   The name of the group.
+     * @param fields The fixed-size fields of each entry, at fixed offsets within the entry.
+     */
+    public record Group(String name, List<Field> fields) {
+        /**
+         * @return The size of an entry in bytes.
+         */
+        public int blockLength() {
+            return Schema.blockLength(fields);
+        }
+    }
+
+    /**
+     * @param name   The name of the field.
+     * @param type   The type of the field.
+     * @param offset The offset of the field within its message or group entry.
+     */
+    public record Field(String name, FieldType type, int offset) {
+    }
+
+    /**
+     * Parses a schema file, in UTF-8.
+     *
+     * @param file The schema file.
+     * @return The schema.
+     * @throws SchemaException if the schema is invalid.
+     * @throws IOException     if the file cannot be read.
+     */
+    public static Schema parse(Path file) throws IOException {
+        return parse(Files.readString(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a schema.
+     *
+     * @param source The schema.
+     * @return The schema.
+     * @throws SchemaException if the schema is invalid.
+     */
+    public static Schema parse(String source) throws SchemaException {
+        return new Parser(source).schema();
+    }
+
+    private static int blockLength(List<Field> fields) {
+        return fields.isEmpty() ? 0 : fields.getLast().offset() + fields.getLast().type().getSize();
+    }
+
+    private static final class Parser {
+        // Names of the methods every generated flyweight has
+        private static final Set<String> RESERVED = Set.of("wrap", "encodedLength", "zero", "checkLimit", "dataLength",
+                "next", "count", "hasNext", "iterator", "getClass", "hashCode", "equals", "toString", "clone",
+                "finalize", "notify", "notifyAll", "wait");
+
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> lines = new ArrayList<>();
+        private int position;
+
+        private Parser(String source) {
+            String[] sourceLines = source.split("\r?\n", -1);
+            for (int line = 0; line < sourceLines.length; line++) {
+                String text = sourceLines[line];
+                int comment = text.indexOf("//");
+                if (comment >= 0) text = text.substring(0, comment);
+
+                // Braces and semicolons are tokens of their own
+                for (String token : text.replaceAll("([{};])", " $1 ").trim().split("\\s+")) {
+                    if (token.isEmpty()) continue;
+
+                    tokens.add(token);
+                    lines.add(line + 1);
+                }
+            }
+        }
+
+        private Schema schema() throws SchemaException {
+            expect("package");
+            String packageName = next("a package name");
+            for (String part : packageName.split("\\.", -1)) {
+                checkIdentifier(part, "package name");
+            }
+            expect(";");
+
+            List<Message> messages = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            Set<Short> ids = new HashSet<>();
+            while (position < tokens.size()) {
+                int line = line();
+                Message message = message();
+                if (!names.add(message.name())) throw new SchemaException("Duplicate message " + message.name(), line);
+                if (!ids.add(message.id())) throw new SchemaException("Duplicate message id " + message.id(), line);
+
+                messages.add(message);
+            }
+            return new Schema(packageName, List.copyOf(messages));
+        }
+
+        private Message message() throws SchemaException {
+            expect("message");
+            String name = checkIdentifier(next("a message name"), "message name");
+
+            int line = line();
+            String idToken = next("a message id");
+            short id;
+            try {
+                id = Short.parseShort(idToken);
+            } catch (final NumberFormatException e) {
+                throw new SchemaException("Invalid message id " + idToken, line);
+            }
+            expect("{");
+
+            List<Field> fields = new ArrayList<>();
+            List<Group> groups = new ArrayList<>();
+            List<String> data = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            while (!peek("}")) {
+                line = line();
+                String keyword = next("a field, group or data");
+                String member;
+                if (keyword.equals("group")) {
+                    if (!data.isEmpty()) throw new SchemaException("Groups must come before data", line);
+
+                    Group group = group();
+                    groups.add(group);
+                    member = group.name();
+                    checkUnique(names, member + "Count", name, line);
+                } else if (keyword.equals("data")) {
+                    member = checkIdentifier(next("a data name"), "data name");
+                    expect(";");
+                    data.add(member);
+                    // Taken by the generated accessors
+                    checkUnique(names, member + "Length", name, line);
+                    checkUnique(names, "skip" + Character.toUpperCase(member.charAt(0)) + member.substring(1), name, line);
+                } else {
+                    if (!groups.isEmpty() || !data.isEmpty())
+                        throw new SchemaException("Fields must come before groups and data", line);
+
+                    Field field = field(keyword, fields);
+                    fields.add(field);
+                    member = field.name();
+                }
+
+                checkUnique(names, member, name, line);
+            }
+            expect("}");
+
+            return new Message(name, id, List.copyOf(fields), List.copyOf(groups), List.copyOf(data));
+        }
+
+        private Group group() throws SchemaException {
+            String name = checkIdentifier(next("a group name"), "group name");
+            expect("{");
+
+            List<Field> fields = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            while (!peek("}")) {
+                int line = line();
+                Field field = field(next("a field"), fields);
+                if (!names.add(field.name())) throw new SchemaException("Duplicate field " + field.name() + " of " + name, line);
+
+                fields.add(field);
+            }
+            expect("}");
+
+            if (fields.isEmpty()) throw new SchemaException("Group " + name + " has no fields", line());
+            return new Group(name, List.copyOf(fields));
+        }
+
+        private Field field(String typeName, List<Field> previous) throws SchemaException {
+            int line = line();
+            FieldType type = FieldType.of(typeName);
+            if (type == null) throw new SchemaException("Unknown type " + typeName, line);
+
+            String name = checkIdentifier(next("a field name"), "field name");
+            expect(";");
+            return new Field(name, type, blockLength(previous));
+        }
+
+        private String checkIdentifier(String token, String what) throws SchemaException {
+            if (!SourceVersion.isIdentifier(token) || SourceVersion.isKeyword(token))
+                throw new SchemaException("Invalid " + what + " " + token, lines.get(position - 1));
+            if (RESERVED.contains(token)) throw new SchemaException("Reserved " + what + " " + token, lines.get(position - 1));
+
+            return token;
+        }
+
+        private static void checkUnique(Set<String> names, String member, String owner, int line) throws SchemaException {
+            if (!names.add(member)) throw new SchemaException("Duplicate member " + member + " of " + owner, line);
+        }
+
+        private boolean peek(String token) throws SchemaException {
+            if (position >= tokens.size()) throw new SchemaException("Unexpected end of schema", line());
+
+            return tokens.get(position).equals(token);
+        }
+
+        private void expect(String token) throws SchemaException {
+            // A missing semicolon belongs to the line before the token found instead
+            int line = token.equals(";") && position > 0 ? lines.get(position - 1) : line();
+            String next = next("'" + token + "'");
+            if (!next.equals(token)) throw new SchemaException("Expected '" + token + "' but found '" + next + "'", line);
+        }
+
+        private String next(String expected) throws SchemaException {
+            if (position >= tokens.size()) throw new SchemaException("Expected " + expected + " at the end of the schema", line());
+
+            return tokens.get(position++);
+        }
+
+        private int line() {
+            if (lines.isEmpty()) return 1;
+
+            return lines.get(Math.min(position, lines.size() - 1));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package xyz.synse.packetnet.codegen;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a schema cannot be parsed.
+ */
+public class SchemaException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+
+    public SchemaException(String message, int line) {
+        super("Line " + line + ": " + message);
+        this.line = line;
+    }
+
+    /**
+     * @return The line of the schema the error is on, starting at 1.
+     */
+    public int getLine() {
+        return line;
+    }
+}
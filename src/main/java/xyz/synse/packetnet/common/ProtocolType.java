@@ -2,5 +2,24 @@ package xyz.synse.packetnet.common;
 
 public enum ProtocolType {
     TCP,
-    UDP
+    UDP,
+    /**
+     * UDP delivering only packets newer than the last one received with the same id.
+     */
+    UDP_SEQUENCED,
+    /**
+     * UDP with acknowledgements and retransmissions, delivered in the order sent.
+     */
+    RELIABLE_UDP,
+    /**
+     * UDP with acknowledgements and retransmissions, delivered as soon as received.
+     */
+    RELIABLE_UNORDERED;
+
+    /**
+     * @return True if packets of this protocol are sent over UDP.
+     */
+    public boolean isUdp() {
+        return this != TCP;
+    }
 }
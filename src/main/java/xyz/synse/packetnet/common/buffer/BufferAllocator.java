@@ -0,0 +1,29 @@
+package xyz.synse.packetnet.common.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hands out the byte buffers used for reading and writing. Implementations may pool buffers, in which case every
+ * allocated buffer must be released exactly once and not used afterwards.
+ */
+public interface BufferAllocator {
+    /**
+     * Allocates a buffer with a capacity of at least the given size. The buffer is cleared and in big-endian order.
+     *
+     * @param capacity The minimum capacity in bytes.
+     * @return The allocated buffer.
+     */
+    ByteBuffer allocate(int capacity);
+
+    /**
+     * Returns a buffer to the allocator.
+     *
+     * @param buffer A buffer allocated by this allocator.
+     */
+    void release(ByteBuffer buffer);
+
+    /**
+     * @return True if the allocated buffers are direct, false if they are heap buffers backed by an array.
+     */
+    boolean isDirect();
+}
@@ -0,0 +1,229 @@
+package xyz.synse.packetnet.common.buffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A size-class pooling allocator.
+ * <p>
+ * Requests are rounded up to the next power of two between {@value #MIN_POOLED_SIZE} bytes and
+ * {@value #MAX_POOLED_SIZE} bytes, larger requests are not pooled. Every size class has a shared arena of free
+ * buffers, carved out of larger chunks for direct memory, and every platform thread keeps a small cache per size
+ * class in front of it, so allocating and releasing on the same thread doesn't touch shared state.
+ * <p>
+ * When the {@value #LEAK_DETECTION_PROPERTY} system property is {@code true}, the allocation site of every buffer
+ * is recorded until it's released. Buffers released twice are reported immediately and {@link #reportLeaks()} lists
+ * the buffers that were never released; for {@link #DEFAULT} and {@link #HEAP} that happens on JVM shutdown.
+ */
+public class PooledBufferAllocator implements BufferAllocator {
+    public static final String LEAK_DETECTION_PROPERTY = "packetnet.leakDetection";
+    public static final int MIN_POOLED_SIZE = 64;
+    public static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+    private static final int BUFFERS_PER_CHUNK = 64;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_CACHED_BUFFERS = 64;
+    private static final int MAX_CACHED_BYTES = 256 * 1024;
+    private static final int MAX_ARENA_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The shared direct allocator used by servers and clients unless configured otherwise.
+     */
+    public static final PooledBufferAllocator DEFAULT = new PooledBufferAllocator(true);
+    /**
+     * The shared heap allocator, used for the data of recyclable packets.
+     */
+    public static final PooledBufferAllocator HEAP = new PooledBufferAllocator(false);
+
+    static {
+        if (DEFAULT.leakDetection)
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                DEFAULT.reportLeaks();
+                HEAP.reportLeaks();
+            }, "PooledBufferAllocator leak report"));
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(PooledBufferAllocator.class);
+    private final boolean direct;
+    private final boolean leakDetection;
+    private final Arena[] arenas = new Arena[SIZE_CLASSES];
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> caches = ThreadLocal.withInitial(this::newCache);
+    private final Map<ByteBuffer, Throwable> allocations = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * Creates a new pooled allocator. Leak detection is enabled by the {@value #LEAK_DETECTION_PROPERTY}
+     * system property.
+     *
+     * @param direct True to allocate direct buffers, false for heap buffers.
+     */
+    public PooledBufferAllocator(boolean direct) {
+        this(direct, Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+    }
+
+    /**
+     * Creates a new pooled allocator.
+     *
+     * @param direct        True to allocate direct buffers, false for heap buffers.
+     * @param leakDetection True to record allocation sites and report leaked and double released buffers.
+     */
+    public PooledBufferAllocator(boolean direct, boolean leakDetection) {
+        this.direct = direct;
+        this.leakDetection = leakDetection;
+
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            arenas[i] = new Arena(MIN_POOLED_SIZE << i);
+        }
+    }
+
+    @Override
+    public ByteBuffer allocate(int capacity) {
+        ByteBuffer buffer;
+        if (capacity > MAX_POOLED_SIZE) {
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        } else {
+            int sizeClass = sizeClass(capacity);
+            ArrayDeque<ByteBuffer> cache = cache(sizeClass);
+
+            buffer = cache != null ? cache.poll() : null;
+            if (buffer == null) buffer = arenas[sizeClass].allocate();
+        }
+
+        if (leakDetection)
+            allocations.put(buffer, new Throwable("Buffer of " + buffer.capacity() + " bytes allocated here"));
+
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        if (leakDetection && allocations.remove(buffer) == null) {
+            logger.error("Buffer released twice or not allocated by this allocator", new Throwable("Released here"));
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        if (capacity > MAX_POOLED_SIZE || capacity < MIN_POOLED_SIZE || Integer.bitCount(capacity) != 1) return;
+
+        buffer.clear().order(ByteOrder.BIG_ENDIAN);
+
+        int sizeClass = sizeClass(capacity);
+        ArrayDeque<ByteBuffer> cache = cache(sizeClass);
+        if (cache != null && cache.size() < maxCachedBuffers(capacity)) {
+            cache.push(buffer);
+        } else {
+            arenas[sizeClass].release(buffer);
+        }
+    }
+
+    @Override
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * Logs the allocation site of every buffer that hasn't been released. Only available with leak detection.
+     *
+     * @return The number of unreleased buffers.
+     */
+    public int reportLeaks() {
+        synchronized (allocations) {
+            for (Throwable allocationSite : allocations.values()) {
+                logger.warn("Leaked buffer, it was never released", allocationSite);
+            }
+            return allocations.size();
+        }
+    }
+
+    /**
+     * @return The number of buffers allocated but not released yet. Only tracked with leak detection.
+     */
+    public int getOutstandingBuffers() {
+        return allocations.size();
+    }
+
+    private ArrayDeque<ByteBuffer> cache(int sizeClass) {
+        // A cache per virtual thread would rarely be hit again, go to the arena directly
+        if (Thread.currentThread().isVirtual()) return null;
+
+        return caches.get()[sizeClass];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ArrayDeque<ByteBuffer>[] newCache() {
+        ArrayDeque<ByteBuffer>[] cache = new ArrayDeque[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            cache[i] = new ArrayDeque<>();
+        }
+        return cache;
+    }
+
+    private static int maxCachedBuffers(int size) {
+        return Math.max(1, Math.min(MAX_CACHED_BUFFERS, MAX_CACHED_BYTES / size));
+    }
+
+    private static int sizeClass(int capacity) {
+        if (capacity <= MIN_POOLED_SIZE) return 0;
+
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * The free buffers of one size class, shared by all threads.
+     */
+    private final class Arena {
+        private final int size;
+        private final int maxFree;
+        private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger freeCount = new AtomicInteger();
+
+        private Arena(int size) {
+            this.size = size;
+            this.maxFree = Math.max(1, MAX_ARENA_BYTES / size);
+        }
+
+        private ByteBuffer allocate() {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null) {
+                freeCount.decrementAndGet();
+                return buffer;
+            }
+
+            // Heap buffers must own their whole array, since callers rely on array() being just the buffer
+            if (!direct) return ByteBuffer.allocate(size);
+
+            // Carve a new chunk into buffers, hand out the first and keep the rest
+            int chunkSize = Math.max(size, Math.min(size * BUFFERS_PER_CHUNK, MAX_CHUNK_SIZE));
+            ByteBuffer chunk = ByteBuffer.allocateDirect(chunkSize);
+            for (int offset = size; offset < chunkSize; offset += size) {
+                release(chunk.slice(offset, size));
+            }
+            return chunk.slice(0, size);
+        }
+
+        private void release(ByteBuffer buffer) {
+            // Beyond the limit the buffer is left to the garbage collector
+            if (freeCount.incrementAndGet() > maxFree) {
+                freeCount.decrementAndGet();
+                return;
+            }
+
+            free.offer(buffer);
+        }
+    }
+}
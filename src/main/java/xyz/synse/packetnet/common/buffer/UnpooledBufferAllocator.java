@@ -0,0 +1,32 @@
+package xyz.synse.packetnet.common.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates a new buffer of exactly the requested capacity every time. Releasing a buffer does nothing,
+ * it is reclaimed by the garbage collector.
+ */
+public class UnpooledBufferAllocator implements BufferAllocator {
+    public static final UnpooledBufferAllocator HEAP = new UnpooledBufferAllocator(false);
+    public static final UnpooledBufferAllocator DIRECT = new UnpooledBufferAllocator(true);
+
+    private final boolean direct;
+
+    public UnpooledBufferAllocator(boolean direct) {
+        this.direct = direct;
+    }
+
+    @Override
+    public ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+    }
+
+    @Override
+    public boolean isDirect() {
+        return direct;
+    }
+}
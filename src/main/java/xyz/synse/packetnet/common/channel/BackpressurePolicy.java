@@ -0,0 +1,20 @@
+package xyz.synse.packetnet.common.channel;
+
+/**
+ * Decides what happens to a packet sent over TCP while the channel is not writable, that is while its pending
+ * bytes are above the high watermark.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Queue the packet anyway. The queue is unbounded, producers are expected to throttle on writability events.
+     */
+    QUEUE,
+    /**
+     * Silently discard the packet. The send is reported as successful.
+     */
+    DROP,
+    /**
+     * Discard the packet and report the send as failed.
+     */
+    REJECT
+}
@@ -0,0 +1,37 @@
+package xyz.synse.packetnet.common.channel;
+
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+
+/**
+ * Receives the events of a {@link TcpChannel}. All methods are called on the channel's event loop thread.
+ */
+public interface ChannelHandler {
+    /**
+     * Called for every packet decoded from the channel, in the order they were sent.
+     *
+     * @param packet The received packet.
+     * @throws IOException if the packet cannot be handled. The channel is closed.
+     */
+    void channelRead(Packet packet) throws IOException;
+
+    /**
+     * Called after the packets decoded from one read have been passed to {@link #channelRead(Packet)}.
+     */
+    default void channelReadComplete() {
+    }
+
+    /**
+     * Called once after the channel has been closed.
+     */
+    void channelClosed();
+
+    /**
+     * Called when the channel's pending bytes rise above the high watermark, or fall back below the low watermark.
+     *
+     * @param writable False if the channel stopped being writable, true if it is writable again.
+     */
+    default void channelWritabilityChanged(boolean writable) {
+    }
+}
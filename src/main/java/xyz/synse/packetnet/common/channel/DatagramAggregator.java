@@ -0,0 +1,334 @@
+package xyz.synse.packetnet.common.channel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.eventloop.EventLoop;
+import xyz.synse.packetnet.common.packet.FrameFormat;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PreparedPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs the UDP frames sent to one destination into as few datagrams as possible.
+ * <p>
+ * Frames written within the flush delay are appended back to back to a pending datagram of at most the datagram
+ * size, which is sent once the next frame doesn't fit, the delay elapses on the event loop or {@link #flush()} is
+ * called. Receivers read frames until the datagram is exhausted, so a datagram holding a single frame looks the
+ * same as before. With a flush delay of 0 every frame is sent right away, in its own datagram. Frames larger than
+ * the datagram size are split into fragments of a datagram each, which a {@link FragmentReassembler} puts back
+ * together.
+ * <p>
+ * Packets are written in the aggregator's {@link FrameFormat}. Frames encoded beforehand, fragments and frames added
+ * by a {@link Piggyback} have a standard header, escaped in the compact format.
+ * <p>
+ * Every datagram starts with a number of reserved bytes, which the {@link Sink} fills in before sending it, and
+ * may end with a frame added by a {@link Piggyback}.
+ * Writes may come from any thread.
+ */
+public class DatagramAggregator {
+    /**
+     * A datagram size that fits in the MTU of nearly every path, IPv6 tunnels included.
+     */
+    public static final int DEFAULT_DATAGRAM_SIZE = 1200;
+
+    private final Logger logger = LoggerFactory.getLogger(DatagramAggregator.class);
+    private final Sink sink;
+    private final EventLoop eventLoop;
+    private final BufferAllocator allocator;
+    private final int reserved;
+    private final Runnable flushTask = this::delayedFlush;
+
+    private int datagramSize = DEFAULT_DATAGRAM_SIZE;
+    private long flushDelayNanos;
+    private ByteBuffer pending;
+    private boolean flushScheduled;
+    private boolean closed;
+    private int nextMessageId;
+    private Piggyback piggyback;
+    private FrameFormat frameFormat = FrameFormat.STANDARD;
+
+    /**
+     * Creates a new aggregator.
+     *
+     * @param sink      Sends the assembled datagrams.
+     * @param eventLoop The event loop running the delayed flushes.
+     * @param allocator The allocator of the datagram buffers.
+     * @param reserved  The number of bytes reserved for the sink at the start of every datagram.
+     */
+    public DatagramAggregator(Sink sink, EventLoop eventLoop, BufferAllocator allocator, int reserved) {
+        this.sink = sink;
+        this.eventLoop = eventLoop;
+        this.allocator = allocator;
+        this.reserved = reserved;
+    }
+
+    /**
+     * Writes a packet's frame, its header and written bytes. The bytes are copied, so the packet can be released
+     * afterwards.
+     *
+     * @param packet The packet to write.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    public synchronized void write(Packet packet) throws IOException {
+        int frameSize = frameFormat.headerSize(packet.getID(), packet.getBuffer().size()) + packet.getBuffer().size();
+        if (reserved + frameSize > datagramSize) {
+            // Fragmented frames keep their standard header
+            ByteBuffer frame = allocator.allocate(Packet.HEADER_SIZE + packet.getBuffer().size());
+            try {
+                packet.write(frame).flip();
+                writeFragments(frame);
+            } finally {
+                allocator.release(frame);
+            }
+            return;
+        }
+
+        ByteBuffer datagram = reserve(frameSize);
+        frameFormat.write(packet, datagram);
+        written(datagram);
+    }
+
+    /**
+     * Writes the frame of a prepared packet.
+     *
+     * @param packet The prepared packet to write.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    public void write(PreparedPacket packet) throws IOException {
+        writeFrame(packet.frame());
+    }
+
+    /**
+     * Writes an encoded frame with a standard header.
+     *
+     * @param frame The frame, from its position to its limit.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    synchronized void writeFrame(ByteBuffer frame) throws IOException {
+        int frameSize = frameFormat.escapeSize() + frame.remaining();
+        if (reserved + frameSize > datagramSize) {
+            writeFragments(frame);
+            return;
+        }
+
+        ByteBuffer datagram = reserve(frameSize);
+        frameFormat.writeEscape(datagram).put(frame);
+        written(datagram);
+    }
+
+    /**
+     * Sends the pending datagram, if any.
+     *
+     * @throws IOException if the datagram cannot be sent.
+     */
+    public synchronized void flush() throws IOException {
+        if (pending == null) return;
+
+        ByteBuffer datagram = pending;
+        pending = null;
+        send(datagram);
+    }
+
+    /**
+     * Sends the pending datagram, or a new one holding only what the piggyback writes. Nothing is sent if
+     * both would be empty.
+     *
+     * @throws IOException if the datagram cannot be sent.
+     */
+    public synchronized void flushPiggyback() throws IOException {
+        if (closed) return;
+
+        ByteBuffer datagram = pending != null ? pending : newDatagram();
+        pending = null;
+        send(datagram);
+    }
+
+    /**
+     * Discards the pending datagram and releases its buffer. Later writes fail.
+     */
+    public synchronized void close() {
+        closed = true;
+
+        if (pending != null) {
+            allocator.release(pending);
+            pending = null;
+        }
+    }
+
+    /**
+     * Returns a datagram with room for a frame of the given size, the pending one if the frame still fits.
+     */
+    private ByteBuffer reserve(int frameSize) throws IOException {
+        if (closed) throw new ClosedChannelException();
+
+        if (pending != null && pending.position() + frameSize > pending.limit()) flush();
+
+        if (pending == null) pending = newDatagram();
+        return pending;
+    }
+
+    /**
+     * Splits a frame into evenly sized chunks and sends each, behind a fragment header, in a datagram of its own.
+     *
+     * @param frame The frame, from its position to its limit.
+     */
+    private void writeFragments(ByteBuffer frame) throws IOException {
+        if (closed) throw new ClosedChannelException();
+
+        // Frames written before go out first
+        flush();
+
+        int frameSize = frame.remaining();
+        int maxChunkSize = datagramSize - reserved - frameFormat.escapeSize() - Packet.HEADER_SIZE - FragmentReassembler.FRAGMENT_HEADER_SIZE;
+        int count = (frameSize + maxChunkSize - 1) / maxChunkSize;
+        if (count > 0xFFFF) throw new IOException("Packet of " + frameSize + " bytes is too large to fragment");
+
+        int chunkSize = FragmentReassembler.chunkSize(frameSize, count);
+        int messageId = nextMessageId++;
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunkSize;
+            int chunkLength = Math.min(chunkSize, frameSize - offset);
+
+            ByteBuffer datagram = newDatagram();
+            frameFormat.writeEscape(datagram);
+            Packet.writeHeader(datagram, FragmentReassembler.FRAGMENT_ID, FragmentReassembler.FRAGMENT_HEADER_SIZE + chunkLength);
+            datagram.putInt(messageId).putShort((short) index).putShort((short) count).putInt(frameSize);
+            datagram.put(datagram.position(), frame, frame.position() + offset, chunkLength);
+            datagram.position(datagram.position() + chunkLength);
+            send(datagram);
+        }
+    }
+
+    private ByteBuffer newDatagram() {
+        ByteBuffer datagram = allocator.allocate(datagramSize);
+        datagram.clear().limit(datagramSize).position(reserved);
+        return datagram;
+    }
+
+    private void written(ByteBuffer datagram) throws IOException {
+        // Sent right away without a flush delay, and when no other frame fits
+        if (flushDelayNanos <= 0 || datagram.remaining() < Packet.HEADER_SIZE) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            eventLoop.schedule(flushTask, flushDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void send(ByteBuffer datagram) throws IOException {
+        try {
+            if (piggyback != null && datagram.remaining() > frameFormat.escapeSize()) {
+                int position = datagram.position();
+                frameFormat.writeEscape(datagram);
+                piggyback.write(datagram);
+
+                // Nothing was added behind the escape
+                if (datagram.position() == position + frameFormat.escapeSize()) datagram.position(position);
+            }
+            if (datagram.position() == reserved) return;
+
+            datagram.flip();
+            sink.send(datagram);
+        } finally {
+            allocator.release(datagram);
+        }
+    }
+
+    private synchronized void delayedFlush() {
+        flushScheduled = false;
+
+        try {
+            flush();
+        } catch (final IOException e) {
+            logger.warn("Unable to send datagram: {} :", e.getClass(), e);
+        }
+    }
+
+    /**
+     * Sets the largest datagram frames are packed into. Frames that don't fit on their own are fragmented.
+     * Defaults to {@value #DEFAULT_DATAGRAM_SIZE} bytes.
+     *
+     * @param datagramSize The datagram size in bytes, reserved bytes included.
+     */
+    public synchronized void setDatagramSize(int datagramSize) {
+        if (datagramSize <= reserved + 1 + Packet.HEADER_SIZE + FragmentReassembler.FRAGMENT_HEADER_SIZE)
+            throw new IllegalArgumentException("The datagram size must leave room for a fragment!");
+
+        this.datagramSize = datagramSize;
+    }
+
+    public synchronized int getDatagramSize() {
+        return datagramSize;
+    }
+
+    /**
+     * Sets how long written frames may wait for more frames to share their datagram. Defaults to 0, sending every
+     * frame right away.
+     *
+     * @param flushDelay The flush delay.
+     * @param unit       The unit of the flush delay.
+     */
+    public synchronized void setFlushDelay(long flushDelay, TimeUnit unit) {
+        this.flushDelayNanos = unit.toNanos(flushDelay);
+    }
+
+    public synchronized long getFlushDelay(TimeUnit unit) {
+        return unit.convert(flushDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the format packets are written in, which the receiver has to read the datagrams in. Defaults to
+     * {@link FrameFormat#STANDARD}.
+     *
+     * @param frameFormat The frame format.
+     */
+    public synchronized void setFrameFormat(FrameFormat frameFormat) {
+        this.frameFormat = frameFormat;
+    }
+
+    public synchronized FrameFormat getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * Sets what gets to add a frame to the room left in every datagram before it's sent.
+     *
+     * @param piggyback The piggyback, or null for none.
+     */
+    public synchronized void setPiggyback(Piggyback piggyback) {
+        this.piggyback = piggyback;
+    }
+
+    /**
+     * Sends an assembled datagram.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Sends a datagram, after filling in its reserved bytes.
+         *
+         * @param datagram The datagram, positioned at 0 and limited to its end.
+         * @throws IOException if the datagram cannot be sent.
+         */
+        void send(ByteBuffer datagram) throws IOException;
+    }
+
+    /**
+     * Adds a frame to datagrams on their way out, such as an acknowledgement.
+     */
+    @FunctionalInterface
+    public interface Piggyback {
+        /**
+         * Writes a frame with a standard header into the room left in a datagram. Called with the aggregator's lock
+         * held.
+         *
+         * @param datagram The datagram, positioned after its frames and limited to the datagram size.
+         */
+        void write(ByteBuffer datagram);
+    }
+}
@@ -0,0 +1,234 @@
+package xyz.synse.packetnet.common.channel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembles UDP frames that were too large for one datagram and were split into fragments by a
+ * {@link DatagramAggregator}.
+ * <p>
+ * A fragment is a frame with the reserved id {@value #FRAGMENT_ID} whose data starts with the message id, the
+ * fragment index and count, and the size of the original frame, followed by a chunk of the original frame. Once all
+ * fragments of a message have arrived, the original frame is decoded into a packet.
+ * <p>
+ * The table of incomplete messages is bounded: messages are dropped once they are older than the timeout, and the
+ * oldest are evicted when a new message exceeds the message or memory limits. A lost fragment therefore loses its
+ * whole message, like a lost datagram.
+ */
+public class FragmentReassembler {
+    /**
+     * The reserved packet id of fragments.
+     */
+    public static final short FRAGMENT_ID = -1002;
+    /**
+     * Size of the fragment header: message id, fragment index, fragment count and frame size.
+     */
+    public static final int FRAGMENT_HEADER_SIZE = Integer.BYTES + Short.BYTES + Short.BYTES + Integer.BYTES;
+    public static final long DEFAULT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    public static final int DEFAULT_MAX_MESSAGES = 64;
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(FragmentReassembler.class);
+    private final BufferAllocator allocator;
+    private final long timeoutNanos;
+    private final int maxMessages;
+    private final int maxBytes;
+    // Incomplete messages by id, oldest first
+    private final Map<Integer, Message> messages = new LinkedHashMap<>();
+    private int bytes;
+    private boolean closed;
+
+    public FragmentReassembler(BufferAllocator allocator) {
+        this(allocator, DEFAULT_TIMEOUT_NANOS, TimeUnit.NANOSECONDS, DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a new reassembler.
+     *
+     * @param allocator   The allocator of the reassembly buffers.
+     * @param timeout     How long the fragments of a message are kept waiting for the rest.
+     * @param unit        The unit of the timeout.
+     * @param maxMessages The maximum number of incomplete messages.
+     * @param maxBytes    The maximum number of bytes held by incomplete messages, which also bounds the message size.
+     */
+    public FragmentReassembler(BufferAllocator allocator, long timeout, TimeUnit unit, int maxMessages, int maxBytes) {
+        this.allocator = allocator;
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Checks whether the frame at the buffer's position is a fragment.
+     *
+     * @param buffer The buffer positioned at the start of a frame.
+     * @return True if the frame is a fragment.
+     */
+    public static boolean isFragment(ByteBuffer buffer) {
+        return buffer.remaining() >= Short.BYTES && buffer.getShort(buffer.position()) == FRAGMENT_ID;
+    }
+
+    /**
+     * Reads a fragment frame from the buffer.
+     *
+     * @param buffer  The buffer positioned at the start of a fragment frame, positioned after it on return.
+     * @param recycle True to decode a completed message into a recyclable packet.
+     * @return The packet once its last fragment has arrived, null otherwise.
+     * @throws IOException if the fragment is malformed.
+     */
+    public synchronized Packet accept(ByteBuffer buffer, boolean recycle) throws IOException {
+        short id = buffer.getShort();
+        int length = buffer.getInt();
+        if (id != FRAGMENT_ID || length < FRAGMENT_HEADER_SIZE || length > buffer.remaining())
+            throw new IOException("Malformed fragment");
+
+        int end = buffer.position() + length;
+        int messageId = buffer.getInt();
+        int index = Short.toUnsignedInt(buffer.getShort());
+        int count = Short.toUnsignedInt(buffer.getShort());
+        int frameSize = buffer.getInt();
+        int chunkLength = length - FRAGMENT_HEADER_SIZE;
+
+        if (count < 2 || index >= count || frameSize < Packet.HEADER_SIZE)
+            throw new IOException("Malformed fragment");
+
+        int chunkSize = chunkSize(frameSize, count);
+        int offset = index * chunkSize;
+        if (offset >= frameSize || chunkLength != Math.min(chunkSize, frameSize - offset))
+            throw new IOException("Malformed fragment");
+
+        if (closed) {
+            buffer.position(end);
+            return null;
+        }
+
+        Message message = messages.get(messageId);
+        if (message == null) {
+            message = startMessage(messageId, frameSize, count);
+            if (message == null) {
+                buffer.position(end);
+                return null;
+            }
+        } else if (message.frameSize != frameSize || message.received.length != count) {
+            // Fragments of different messages under one id, keep neither
+            drop(messageId, message);
+            throw new IOException("Mismatched fragment");
+        }
+
+        if (!message.received[index]) {
+            message.received[index] = true;
+            message.missing--;
+            message.frame.put(offset, buffer, buffer.position(), chunkLength);
+        }
+        buffer.position(end);
+
+        if (message.missing > 0) return null;
+
+        messages.remove(messageId);
+        bytes -= frameSize;
+        try {
+            ByteBuffer frame = message.frame.limit(frameSize).position(0);
+            if (frame.getInt(Short.BYTES) != frameSize - Packet.HEADER_SIZE)
+                throw new IOException("Malformed fragmented frame");
+
+            return Packet.read(frame, recycle);
+        } finally {
+            allocator.release(message.frame);
+        }
+    }
+
+    /**
+     * Drops every incomplete message and releases its buffer. Later fragments are ignored.
+     */
+    public synchronized void close() {
+        closed = true;
+
+        for (Message message : messages.values()) {
+            allocator.release(message.frame);
+        }
+        messages.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return The number of incomplete messages.
+     */
+    public synchronized int getPendingMessages() {
+        return messages.size();
+    }
+
+    /**
+     * @return The number of bytes held by incomplete messages.
+     */
+    public synchronized int getPendingBytes() {
+        return bytes;
+    }
+
+    /**
+     * Computes the size of every chunk but the last, splitting a frame into evenly sized chunks.
+     *
+     * @param frameSize The size of the frame.
+     * @param count     The number of chunks.
+     * @return The chunk size.
+     */
+    static int chunkSize(int frameSize, int count) {
+        return (frameSize + count - 1) / count;
+    }
+
+    private Message startMessage(int messageId, int frameSize, int count) {
+        if (frameSize > maxBytes) {
+            logger.warn("Dropped fragmented packet of {} bytes, larger than the reassembly limit", frameSize);
+            return null;
+        }
+
+        // Drop timed out messages, then the oldest ones until the new one fits
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Integer, Message>> iterator = messages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Message oldest = iterator.next().getValue();
+            boolean expired = now - oldest.started > timeoutNanos;
+            if (!expired && messages.size() < maxMessages && bytes + frameSize <= maxBytes) break;
+
+            iterator.remove();
+            bytes -= oldest.frameSize;
+            allocator.release(oldest.frame);
+            logger.debug("Dropped incomplete fragmented packet, {}", expired ? "timed out" : "evicted");
+        }
+
+        Message message = new Message(allocator.allocate(frameSize), frameSize, count, now);
+        messages.put(messageId, message);
+        bytes += frameSize;
+        return message;
+    }
+
+    private void drop(int messageId, Message message) {
+        messages.remove(messageId);
+        bytes -= message.frameSize;
+        allocator.release(message.frame);
+    }
+
+    private static final class Message {
+        private final ByteBuffer frame;
+        private final int frameSize;
+        private final boolean[] received;
+        private final long started;
+        private int missing;
+
+        private Message(ByteBuffer frame, int frameSize, int count, long started) {
+            this.frame = frame;
+            this.frameSize = frameSize;
+            this.received = new boolean[count];
+            this.started = started;
+            this.missing = count;
+        }
+    }
+}
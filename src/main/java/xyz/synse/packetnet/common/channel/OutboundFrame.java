@@ -0,0 +1,101 @@
+package xyz.synse.packetnet.common.channel;
+
+import xyz.synse.packetnet.common.packet.FrameFormat;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PreparedPacket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A packet queued for writing. The payload is a view over the packet's written bytes, so nothing is copied until the
+ * socket consumes it; the header is encoded by the channel when the frame is flushed, in the channel's format at that
+ * time. Frames of a {@link PreparedPacket} are already encoded, their payload view covers the standard header too,
+ * so their only header is the escape of the format. A frame may carry a promise, completed once the frame is fully
+ * written or failed once it's discarded.
+ */
+final class OutboundFrame {
+    final Packet packet;
+    final short id;
+    final ByteBuffer payload;
+    final CompletableFuture<Void> promise;
+    // The format the channel writes in after this frame, or null to keep it
+    final FrameFormat nextFormat;
+    FrameFormat format;
+    int headerSize;
+    int headerWritten;
+
+    OutboundFrame(Packet packet, CompletableFuture<Void> promise, FrameFormat nextFormat) {
+        this.packet = packet;
+        this.id = packet.getID();
+        this.payload = packet.payload();
+        this.promise = promise;
+        this.nextFormat = nextFormat;
+    }
+
+    OutboundFrame(PreparedPacket prepared, CompletableFuture<Void> promise) {
+        this.packet = null;
+        this.id = prepared.getID();
+        this.payload = prepared.frame();
+        this.promise = promise;
+        this.nextFormat = null;
+    }
+
+    /**
+     * Sets the format the header is written in, once the frame is first flushed.
+     *
+     * @param format The format.
+     * @return How many bytes the frame grew or shrank by compared to its {@link #size()} before.
+     */
+    int assignFormat(FrameFormat format) {
+        int before = size();
+        this.format = format;
+        this.headerSize = packet != null ? format.headerSize(id, length()) : format.escapeSize();
+        return size() - before;
+    }
+
+    /**
+     * Writes the whole header into a buffer.
+     *
+     * @param header The buffer, with room for {@link FrameFormat#MAX_HEADER_SIZE} bytes.
+     * @return The buffer.
+     */
+    ByteBuffer writeHeader(ByteBuffer header) {
+        return packet != null ? format.writeHeader(header, id, length()) : format.writeEscape(header);
+    }
+
+    /**
+     * Releases the reference the frame holds on its packet and completes the promise, once the frame is written.
+     */
+    void written() {
+        if (packet != null) packet.release();
+        if (promise != null) promise.complete(null);
+    }
+
+    /**
+     * Releases the reference the frame holds on its packet and fails the promise, once the frame is discarded.
+     *
+     * @param cause Why the frame was discarded.
+     */
+    void discard(Throwable cause) {
+        if (packet != null) packet.release();
+        if (promise != null) promise.completeExceptionally(cause);
+    }
+
+    int length() {
+        return payload.limit();
+    }
+
+    /**
+     * @return The number of bytes the frame takes on the wire, assuming a standard header until it has a format.
+     */
+    int size() {
+        if (format != null) return headerSize + payload.limit();
+
+        return packet != null ? Packet.HEADER_SIZE + payload.limit() : payload.limit();
+    }
+
+    boolean isHeaderWritten() {
+        return format != null && headerWritten == headerSize;
+    }
+}
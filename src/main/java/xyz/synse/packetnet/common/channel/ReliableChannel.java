@@ -0,0 +1,507 @@
+package xyz.synse.packetnet.common.channel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.synse.packetnet.common.eventloop.EventLoop;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PreparedPacket;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reliable delivery of UDP packets to one peer, on top of a {@link DatagramAggregator}. Unlike TCP, a lost packet
+ * only holds back the reliable packets ordered after it, never the unreliable ones.
+ * <p>
+ * Every reliable packet is sent as a frame with the reserved id {@value #DATA_ID} holding a sequence number, whether
+ * it is ordered, its order number, and then the packet's own frame. The peer acknowledges with a frame with the
+ * reserved id {@value #ACK_ID} holding the lowest sequence number it is still missing, followed by a bitfield of
+ * the sequence numbers it received after that, up to the highest one. Without losses the bitfield is empty.
+ * Acknowledgements are piggybacked on the datagrams sent to the peer anyway, and sent on their own after a short
+ * delay otherwise.
+ * <p>
+ * At most {@value #WINDOW_SIZE} packets are unacknowledged at a time, later ones wait for room. A packet that stays
+ * unacknowledged is retransmitted on its own once the retransmission timeout elapses, doubling for every attempt,
+ * or once packets sent well after it were acknowledged. The timeout follows the measured round trip time as in
+ * RFC 6298, with bounds suited to real-time traffic rather than the RFC's one second minimum.
+ * <p>
+ * Ordered packets are delivered in the order they were sent, unordered ones as soon as they arrive. Either kind is
+ * delivered exactly once. Sends may come from any thread; the datagrams of the peer should be handled by one thread
+ * at a time for ordered packets to be delivered in order.
+ */
+public class ReliableChannel {
+    /**
+     * The reserved packet id of reliable packets.
+     */
+    public static final short DATA_ID = -1003;
+    /**
+     * The reserved packet id of acknowledgements.
+     */
+    public static final short ACK_ID = -1004;
+    /**
+     * Size of the header in front of a reliable packet's frame: sequence number, ordered flag and order number.
+     */
+    public static final int DATA_HEADER_SIZE = Integer.BYTES + Byte.BYTES + Integer.BYTES;
+    /**
+     * The maximum number of unacknowledged packets.
+     */
+    public static final int WINDOW_SIZE = 256;
+    /**
+     * The largest size of an acknowledgement frame, header included.
+     */
+    public static final int MAX_ACK_FRAME_SIZE = Packet.HEADER_SIZE + Integer.BYTES + WINDOW_SIZE / Byte.SIZE;
+    public static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    public static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+    public static final long MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(2);
+    /**
+     * How long an acknowledgement waits for a datagram to piggyback on.
+     */
+    public static final long ACK_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final int MASK = WINDOW_SIZE - 1;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // Packets acknowledged after a missing one before it's retransmitted without waiting for the timeout
+    private static final int FAST_RETRANSMIT_THRESHOLD = 3;
+    private static final int SEQUENCE_OFFSET = Packet.HEADER_SIZE;
+    private static final int ORDER_OFFSET = SEQUENCE_OFFSET + Integer.BYTES + Byte.BYTES;
+
+    private final Logger logger = LoggerFactory.getLogger(ReliableChannel.class);
+    private final DatagramAggregator aggregator;
+    private final EventLoop eventLoop;
+    private final Receiver receiver;
+    private final Runnable timerTask = this::retransmitTimedOut;
+    private final Runnable ackTask = this::sendAck;
+
+    // Sending
+    private final Outgoing[] window = new Outgoing[WINDOW_SIZE];
+    private final ArrayDeque<ByteBuffer> backlog = new ArrayDeque<>();
+    private int nextSequence;
+    private int oldestUnacked;
+    private int nextOrder;
+    private long smoothedRtt;
+    private long rttVariation;
+    private long rto = INITIAL_RTO_NANOS;
+    private boolean rttMeasured;
+    private EventLoop.ScheduledTask timer;
+    private long retransmissions;
+
+    // Receiving
+    private final boolean[] received = new boolean[WINDOW_SIZE];
+    private final Packet[] reorderBuffer = new Packet[WINDOW_SIZE];
+    private int receiveFloor;
+    private int highestReceived = -1;
+    private int nextDelivery;
+    private boolean ackPending;
+    private boolean ackScheduled;
+
+    private boolean closed;
+
+    /**
+     * Creates a new reliable channel and piggybacks its acknowledgements on the aggregator's datagrams.
+     *
+     * @param aggregator The aggregator sending to the peer.
+     * @param eventLoop  The event loop running the retransmission and acknowledgement timers.
+     * @param receiver   Receives the packets delivered by the channel.
+     */
+    public ReliableChannel(DatagramAggregator aggregator, EventLoop eventLoop, Receiver receiver) {
+        this.aggregator = aggregator;
+        this.eventLoop = eventLoop;
+        this.receiver = receiver;
+
+        aggregator.setPiggyback(this::writeAck);
+    }
+
+    /**
+     * Sends a packet reliably. Its written bytes are copied, so the packet can be released afterwards.
+     *
+     * @param packet  The packet to send.
+     * @param ordered True to deliver the packet after every ordered packet sent before it.
+     * @throws IOException if the channel is closed or a datagram cannot be sent.
+     */
+    public void send(Packet packet, boolean ordered) throws IOException {
+        ByteBuffer frame = newFrame(Packet.HEADER_SIZE + packet.getBuffer().size(), ordered);
+        packet.write(frame).flip();
+        enqueue(frame, ordered);
+    }
+
+    /**
+     * Sends a prepared packet reliably.
+     *
+     * @param packet  The prepared packet to send.
+     * @param ordered True to deliver the packet after every ordered packet sent before it.
+     * @throws IOException if the channel is closed or a datagram cannot be sent.
+     */
+    public void send(PreparedPacket packet, boolean ordered) throws IOException {
+        ByteBuffer frame = newFrame(packet.frameSize(), ordered);
+        frame.put(packet.frame()).flip();
+        enqueue(frame, ordered);
+    }
+
+    /**
+     * Handles a packet received from the peer if it is a reliable packet or an acknowledgement, in which case the
+     * packet is released. Delivered packets are passed to the receiver.
+     *
+     * @param packet  The received packet.
+     * @param recycle True to decode delivered packets into recyclable packets.
+     * @return False if the packet is neither, and was left untouched.
+     */
+    public boolean handle(Packet packet, boolean recycle) {
+        if (packet.getID() != DATA_ID && packet.getID() != ACK_ID) return false;
+
+        try {
+            if (packet.getID() == DATA_ID) {
+                dataReceived(packet.payload(), recycle);
+            } else {
+                ackReceived(packet.payload());
+            }
+        } catch (final IOException | BufferUnderflowException e) {
+            logger.warn("Dropped malformed reliable frame: {} :", e.getClass(), e);
+        } finally {
+            packet.release();
+        }
+        return true;
+    }
+
+    /**
+     * Stops retransmitting and drops the unacknowledged, waiting and undelivered packets. Later sends fail.
+     */
+    public synchronized void close() {
+        closed = true;
+
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        Arrays.fill(window, null);
+        backlog.clear();
+
+        for (int i = 0; i < reorderBuffer.length; i++) {
+            if (reorderBuffer[i] != null) {
+                reorderBuffer[i].release();
+                reorderBuffer[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return The number of packets sent but not acknowledged yet.
+     */
+    public synchronized int getUnacknowledged() {
+        int count = 0;
+        for (Outgoing outgoing : window) {
+            if (outgoing != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of packets waiting for room in the send window.
+     */
+    public synchronized int getBacklog() {
+        return backlog.size();
+    }
+
+    /**
+     * @return The number of retransmissions so far.
+     */
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * @param unit The unit of the result.
+     * @return The smoothed round trip time, 0 until it is first measured.
+     */
+    public synchronized long getSmoothedRtt(TimeUnit unit) {
+        return unit.convert(smoothedRtt, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit The unit of the result.
+     * @return The current retransmission timeout.
+     */
+    public synchronized long getRto(TimeUnit unit) {
+        return unit.convert(rto, TimeUnit.NANOSECONDS);
+    }
+
+    private static ByteBuffer newFrame(int innerSize, boolean ordered) {
+        int length = DATA_HEADER_SIZE + innerSize;
+        ByteBuffer frame = ByteBuffer.allocate(Packet.HEADER_SIZE + length);
+        Packet.writeHeader(frame, DATA_ID, length);
+        // The sequence and order numbers are filled in once known
+        frame.putInt(0).put((byte) (ordered ? 1 : 0)).putInt(0);
+        return frame;
+    }
+
+    /**
+     * Numbers a frame and sends it, or leaves it waiting for room in the window behind the frames waiting already.
+     */
+    private void enqueue(ByteBuffer frame, boolean ordered) throws IOException {
+        boolean admitted;
+        synchronized (this) {
+            if (closed) throw new ClosedChannelException();
+
+            if (ordered) frame.putInt(ORDER_OFFSET, nextOrder++);
+            admitted = backlog.isEmpty() && admit(frame);
+            if (!admitted) backlog.add(frame);
+        }
+
+        // The aggregator is never called with the lock held, it calls back into writeAck holding its own
+        if (admitted) transmit(frame);
+    }
+
+    private boolean admit(ByteBuffer frame) {
+        if (nextSequence - oldestUnacked >= WINDOW_SIZE) return false;
+
+        int sequence = nextSequence++;
+        frame.putInt(SEQUENCE_OFFSET, sequence);
+        window[sequence & MASK] = new Outgoing(frame, System.nanoTime());
+
+        if (timer == null) timer = eventLoop.schedule(timerTask, TICK_NANOS, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    private void transmit(ByteBuffer frame) throws IOException {
+        aggregator.writeFrame(frame.duplicate());
+    }
+
+    private void transmitAll(List<ByteBuffer> frames) {
+        for (ByteBuffer frame : frames) {
+            try {
+                transmit(frame);
+            } catch (final IOException e) {
+                logger.debug("Unable to send reliable packet: {} :", e.getClass(), e);
+            }
+        }
+    }
+
+    private void dataReceived(ByteBuffer data, boolean recycle) throws IOException {
+        int sequence = data.getInt();
+        boolean ordered = data.get() != 0;
+        int order = data.getInt();
+
+        List<Packet> delivered = new ArrayList<>(1);
+        synchronized (this) {
+            if (closed) return;
+
+            // Duplicates are acknowledged again, their acknowledgement may have been lost
+            ackPending = true;
+            if (!ackScheduled) {
+                ackScheduled = true;
+                eventLoop.schedule(ackTask, ACK_DELAY_NANOS, TimeUnit.NANOSECONDS);
+            }
+
+            int offset = sequence - receiveFloor;
+            if (offset < 0 || offset >= WINDOW_SIZE || received[sequence & MASK]) return;
+            if (ordered && (order - nextDelivery < 0 || order - nextDelivery >= WINDOW_SIZE))
+                throw new IOException("Invalid order number: " + order);
+
+            Packet packet = Packet.read(data, recycle);
+
+            received[sequence & MASK] = true;
+            if (sequence - highestReceived > 0) highestReceived = sequence;
+            while (received[receiveFloor & MASK]) {
+                received[receiveFloor & MASK] = false;
+                receiveFloor++;
+            }
+
+            if (!ordered) {
+                delivered.add(packet);
+            } else if (order != nextDelivery) {
+                reorderBuffer[order & MASK] = packet;
+            } else {
+                delivered.add(packet);
+                nextDelivery++;
+
+                // Release the packets that were waiting for this one
+                Packet next;
+                while ((next = reorderBuffer[nextDelivery & MASK]) != null) {
+                    reorderBuffer[nextDelivery & MASK] = null;
+                    delivered.add(next);
+                    nextDelivery++;
+                }
+            }
+        }
+
+        for (Packet packet : delivered) {
+            receiver.received(packet, ordered);
+        }
+    }
+
+    private void ackReceived(ByteBuffer data) {
+        int floor = data.getInt();
+        byte[] bits = new byte[data.remaining()];
+        data.get(bits);
+
+        List<ByteBuffer> frames = new ArrayList<>();
+        synchronized (this) {
+            // Ignore acknowledgements of packets never sent
+            if (closed || floor - nextSequence > 0 || bits.length > WINDOW_SIZE / Byte.SIZE) return;
+
+            int highest = highestAcknowledged(floor, bits);
+            if (highest - nextSequence >= 0) return;
+
+            long now = System.nanoTime();
+            for (int sequence = oldestUnacked; sequence - nextSequence < 0; sequence++) {
+                Outgoing outgoing = window[sequence & MASK];
+                if (outgoing == null) continue;
+
+                if (isAcknowledged(sequence, floor, bits)) {
+                    window[sequence & MASK] = null;
+                    // Only packets sent once tell the round trip time unambiguously
+                    if (outgoing.transmissions == 1) updateRto(now - outgoing.lastSent);
+                } else if (highest - sequence >= FAST_RETRANSMIT_THRESHOLD
+                        && now - outgoing.lastSent >= (rttMeasured ? smoothedRtt : rto)) {
+                    retransmit(outgoing, now);
+                    frames.add(outgoing.frame);
+                }
+            }
+
+            while (oldestUnacked != nextSequence && window[oldestUnacked & MASK] == null) {
+                oldestUnacked++;
+            }
+
+            // Send the packets the acknowledged ones made room for
+            while (!backlog.isEmpty() && admit(backlog.peek())) {
+                frames.add(backlog.poll());
+            }
+        }
+
+        transmitAll(frames);
+    }
+
+    private static boolean isAcknowledged(int sequence, int floor, byte[] bits) {
+        if (sequence - floor < 0) return true;
+
+        // Bit 0 stands for the sequence number after the floor, the floor itself is missing
+        int index = sequence - floor - 1;
+        return index >= 0 && index < bits.length * Byte.SIZE && (bits[index >>> 3] >>> (index & 7) & 1) != 0;
+    }
+
+    private static int highestAcknowledged(int floor, byte[] bits) {
+        for (int index = bits.length * Byte.SIZE - 1; index >= 0; index--) {
+            if ((bits[index >>> 3] >>> (index & 7) & 1) != 0) return floor + 1 + index;
+        }
+        return floor - 1;
+    }
+
+    /**
+     * Updates the smoothed round trip time, its variation and the retransmission timeout with a new sample,
+     * as in RFC 6298.
+     */
+    private void updateRto(long rtt) {
+        if (!rttMeasured) {
+            rttMeasured = true;
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2;
+        } else {
+            rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rtt)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+        }
+
+        rto = Math.min(Math.max(smoothedRtt + Math.max(TICK_NANOS, 4 * rttVariation), MIN_RTO_NANOS), MAX_RTO_NANOS);
+    }
+
+    private void retransmit(Outgoing outgoing, long now) {
+        outgoing.lastSent = now;
+        outgoing.transmissions++;
+        retransmissions++;
+    }
+
+    private void retransmitTimedOut() {
+        List<ByteBuffer> frames = new ArrayList<>();
+        synchronized (this) {
+            timer = null;
+            if (closed) return;
+
+            long now = System.nanoTime();
+            boolean unacknowledged = false;
+            for (int sequence = oldestUnacked; sequence - nextSequence < 0; sequence++) {
+                Outgoing outgoing = window[sequence & MASK];
+                if (outgoing == null) continue;
+
+                unacknowledged = true;
+                // Back off exponentially while the packet keeps getting lost
+                long timeout = Math.min(rto << Math.min(outgoing.transmissions - 1, 16), MAX_RTO_NANOS);
+                if (now - outgoing.lastSent >= timeout) {
+                    retransmit(outgoing, now);
+                    frames.add(outgoing.frame);
+                }
+            }
+
+            if (unacknowledged) timer = eventLoop.schedule(timerTask, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+
+        transmitAll(frames);
+    }
+
+    private void sendAck() {
+        synchronized (this) {
+            ackScheduled = false;
+            if (closed || !ackPending) return;
+        }
+
+        // Sends the pending datagram with the acknowledgement, or a datagram of its own
+        try {
+            aggregator.flushPiggyback();
+        } catch (final IOException e) {
+            logger.debug("Unable to send acknowledgement: {} :", e.getClass(), e);
+        }
+    }
+
+    /**
+     * Writes the pending acknowledgement into a datagram about to be sent, if it fits.
+     */
+    private synchronized void writeAck(ByteBuffer datagram) {
+        if (!ackPending) return;
+
+        // Everything below the floor was received, the floor itself wasn't
+        int span = highestReceived - receiveFloor;
+        int length = span > 0 ? (span + Byte.SIZE - 1) / Byte.SIZE : 0;
+        if (datagram.remaining() < Packet.HEADER_SIZE + Integer.BYTES + length) return;
+
+        Packet.writeHeader(datagram, ACK_ID, Integer.BYTES + length);
+        datagram.putInt(receiveFloor);
+        for (int i = 0; i < length; i++) {
+            int bits = 0;
+            for (int bit = 0; bit < Byte.SIZE; bit++) {
+                int sequence = receiveFloor + 1 + i * Byte.SIZE + bit;
+                if (sequence - highestReceived <= 0 && received[sequence & MASK]) bits |= 1 << bit;
+            }
+            datagram.put((byte) bits);
+        }
+        ackPending = false;
+    }
+
+    /**
+     * Receives the packets delivered by a reliable channel.
+     */
+    @FunctionalInterface
+    public interface Receiver {
+        /**
+         * Called with a delivered packet, which the receiver must release once done with it.
+         *
+         * @param packet  The packet.
+         * @param ordered True if the packet was sent ordered.
+         */
+        void received(Packet packet, boolean ordered);
+    }
+
+    private static final class Outgoing {
+        private final ByteBuffer frame;
+        private long lastSent;
+        private int transmissions = 1;
+
+        private Outgoing(ByteBuffer frame, long lastSent) {
+            this.frame = frame;
+            this.lastSent = lastSent;
+        }
+    }
+}
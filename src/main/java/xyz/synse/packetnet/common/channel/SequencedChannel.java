@@ -0,0 +1,189 @@
+package xyz.synse.packetnet.common.channel;
+
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.collections.IntObjectMap;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PreparedPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sequenced UDP packets to and from one peer: a packet older than one already received with the same id is dropped,
+ * so receivers only ever see the newest state of a stream, such as positions or inputs.
+ * <p>
+ * Every sequenced packet is sent as a frame with the reserved id {@value #SEQUENCED_ID} holding a 16-bit sequence
+ * number, counted per packet id and wrapping around, followed by the packet's own frame. Stale frames are skipped
+ * without decoding their payload. Packets are not retransmitted, a lost one is simply superseded by the next.
+ */
+public class SequencedChannel {
+    /**
+     * The reserved packet id of sequenced packets.
+     */
+    public static final short SEQUENCED_ID = -1005;
+    /**
+     * Size of the sequence number in front of a sequenced packet's frame.
+     */
+    public static final int SEQUENCE_SIZE = Short.BYTES;
+
+    private final DatagramAggregator aggregator;
+    private final BufferAllocator allocator;
+    // Next sequence number to send and newest one received, by packet id
+    private final IntObjectMap<Sequence> sent = new IntObjectMap<>();
+    private final IntObjectMap<Sequence> received = new IntObjectMap<>();
+    private long dropped;
+
+    /**
+     * Creates a new sequenced channel.
+     *
+     * @param aggregator The aggregator sending to the peer.
+     * @param allocator  The allocator of the temporary buffers frames are encoded in.
+     */
+    public SequencedChannel(DatagramAggregator aggregator, BufferAllocator allocator) {
+        this.aggregator = aggregator;
+        this.allocator = allocator;
+    }
+
+    /**
+     * Checks whether the frame at the buffer's position is a sequenced packet.
+     *
+     * @param buffer The buffer positioned at the start of a frame.
+     * @return True if the frame is a sequenced packet.
+     */
+    public static boolean isSequenced(ByteBuffer buffer) {
+        return buffer.remaining() >= Short.BYTES && buffer.getShort(buffer.position()) == SEQUENCED_ID;
+    }
+
+    /**
+     * Sends a packet with the next sequence number of its id. Its written bytes are copied, so the packet can be
+     * released afterwards.
+     *
+     * @param packet The packet to send.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    public void send(Packet packet) throws IOException {
+        ByteBuffer frame = newFrame(packet.getID(), Packet.HEADER_SIZE + packet.getBuffer().size());
+        try {
+            packet.write(frame).flip();
+            aggregator.writeFrame(frame);
+        } finally {
+            allocator.release(frame);
+        }
+    }
+
+    /**
+     * Sends a prepared packet with the next sequence number of its id.
+     *
+     * @param packet The prepared packet to send.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    public void send(PreparedPacket packet) throws IOException {
+        ByteBuffer frame = newFrame(packet.getID(), packet.frameSize());
+        try {
+            frame.put(packet.frame()).flip();
+            aggregator.writeFrame(frame);
+        } finally {
+            allocator.release(frame);
+        }
+    }
+
+    /**
+     * Reads a sequenced frame from the buffer.
+     *
+     * @param buffer  The buffer positioned at the start of a sequenced frame, positioned after it on return.
+     * @param recycle True to decode the packet into a recyclable packet.
+     * @return The packet, or null if it is older than the newest one received with its id.
+     * @throws IOException if the frame is malformed.
+     */
+    public Packet accept(ByteBuffer buffer, boolean recycle) throws IOException {
+        short id = buffer.getShort();
+        int length = buffer.getInt();
+        if (id != SEQUENCED_ID || length < SEQUENCE_SIZE + Packet.HEADER_SIZE || length > buffer.remaining())
+            throw new IOException("Malformed sequenced packet");
+
+        int end = buffer.position() + length;
+        short sequence = buffer.getShort();
+        short packetId = buffer.getShort(buffer.position());
+        if (!isNewest(packetId, sequence)) {
+            buffer.position(end);
+            return null;
+        }
+
+        Packet packet = Packet.read(buffer, recycle);
+        if (buffer.position() != end) {
+            packet.release();
+            throw new IOException("Malformed sequenced packet");
+        }
+        return packet;
+    }
+
+    /**
+     * Unwraps a sequenced packet that arrived in fragments. The sequenced packet is released.
+     *
+     * @param packet  The reassembled sequenced packet.
+     * @param recycle True to decode the packet into a recyclable packet.
+     * @return The packet, or null if it is older than the newest one received with its id.
+     * @throws IOException if the packet is malformed.
+     */
+    public Packet accept(Packet packet, boolean recycle) throws IOException {
+        try {
+            ByteBuffer data = packet.payload();
+            if (data.remaining() < SEQUENCE_SIZE + Packet.HEADER_SIZE)
+                throw new IOException("Malformed sequenced packet");
+
+            short sequence = data.getShort();
+            if (!isNewest(data.getShort(data.position()), sequence)) return null;
+
+            return Packet.read(data, recycle);
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * @return The number of stale packets dropped so far.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    private ByteBuffer newFrame(short packetId, int innerSize) {
+        short sequence;
+        synchronized (this) {
+            Sequence next = sent.get(packetId);
+            if (next == null) sent.put(packetId, next = new Sequence());
+            sequence = next.value++;
+        }
+
+        ByteBuffer frame = allocator.allocate(Packet.HEADER_SIZE + SEQUENCE_SIZE + innerSize);
+        Packet.writeHeader(frame, SEQUENCED_ID, SEQUENCE_SIZE + innerSize);
+        frame.putShort(sequence);
+        return frame;
+    }
+
+    /**
+     * Records the sequence number if it is newer than the newest one received for the packet id.
+     */
+    private synchronized boolean isNewest(short packetId, short sequence) {
+        Sequence newest = received.get(packetId);
+        if (newest == null) {
+            newest = new Sequence();
+            newest.value = sequence;
+            received.put(packetId, newest);
+            return true;
+        }
+
+        // Newer if ahead by less than half the sequence space, so the numbers can wrap around
+        if ((short) (sequence - newest.value) <= 0) {
+            dropped++;
+            return false;
+        }
+
+        newest.value = sequence;
+        return true;
+    }
+
+    private static final class Sequence {
+        private short value;
+    }
+}
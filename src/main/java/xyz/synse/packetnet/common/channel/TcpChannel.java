@@ -0,0 +1,567 @@
+package xyz.synse.packetnet.common.channel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.eventloop.EventLoop;
+import xyz.synse.packetnet.common.eventloop.SelectionHandler;
+import xyz.synse.packetnet.common.packet.FrameDecoder;
+import xyz.synse.packetnet.common.packet.FrameFormat;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PreparedPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A non-blocking TCP connection driven by an {@link EventLoop}.
+ * <p>
+ * Reads are performed on the event loop thread when the socket becomes readable, and every complete frame in the
+ * received data is decoded into a packet.
+ * <p>
+ * Writes may be requested from any thread. {@link #write(Packet)} only adds the packet to the channel's outbound
+ * queue, which has many producers and a single consumer, the event loop. The queue is flushed when
+ * {@link #flush()} is called, once the pending bytes reach the flush threshold, or at the latest after the flush
+ * delay. A flush writes up to {@value #MAX_GATHER_FRAMES} frames per gathering write, so many small packets cost a
+ * single system call. If the socket's send buffer is full, the event loop waits for write readiness.
+ * <p>
+ * The channel stops being writable once its pending bytes reach the high watermark and becomes writable again when
+ * they drop below the low watermark, the handler is notified of both on the event loop. Producers should throttle
+ * while the channel is not writable, {@link #write(Packet)} itself never refuses a packet.
+ * <p>
+ * Each frame is written as a small header buffer plus a view over the packet's written bytes, the payload is never
+ * copied into an intermediate buffer. A packet must therefore not be modified after it has been written.
+ * <p>
+ * The read buffer and the header buffers come from a {@link BufferAllocator} and are released, on the event loop,
+ * when the channel is closed.
+ * <p>
+ * Writing a packet hands one of its references over to the channel, which releases it once the packet has been
+ * written or discarded, see {@link Packet#release()}.
+ */
+public class TcpChannel implements SelectionHandler {
+    /**
+     * The maximum number of frames written by one gathering write.
+     */
+    public static final int MAX_GATHER_FRAMES = 64;
+    public static final int DEFAULT_FLUSH_THRESHOLD = 64 * 1024;
+    public static final long DEFAULT_FLUSH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    public static final int DEFAULT_LOW_WATERMARK = 512 * 1024;
+    public static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(TcpChannel.class);
+    private final SocketChannel socketChannel;
+    private final EventLoop eventLoop;
+    private final BufferAllocator allocator;
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer headerSlab;
+    private final FrameDecoder frameDecoder;
+
+    private final ByteBuffer[] headers = new ByteBuffer[MAX_GATHER_FRAMES];
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER_FRAMES * 2];
+    private final OutboundFrame[] batch = new OutboundFrame[MAX_GATHER_FRAMES];
+
+    private final Queue<OutboundFrame> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean delayedFlushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+    private final Runnable flushTask = this::flushNow;
+    private final Runnable delayedFlushTask = this::delayedFlush;
+    private final Runnable writabilityTask = this::notifyWritability;
+    private final FrameDecoder.Output decoderOutput = packet -> this.handler.channelRead(packet);
+
+    private volatile int flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+    private volatile long flushDelayNanos = DEFAULT_FLUSH_DELAY_NANOS;
+    private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile int highWatermark = DEFAULT_HIGH_WATERMARK;
+
+    private ChannelHandler handler;
+    private SelectionKey key;
+    private boolean notifiedWritable = true;
+    // Only used by the event loop, as frames are flushed
+    private FrameFormat writeFormat = FrameFormat.STANDARD;
+
+    /**
+     * Creates a new instance of the TcpChannel class.
+     *
+     * @param socketChannel  The connected socket channel.
+     * @param eventLoop      The event loop that owns the channel.
+     * @param allocator      The allocator of the channel's buffers.
+     * @param readBufferSize The size of the buffer for receiving data.
+     * @param maxFrameSize   The largest packet data length accepted, in bytes.
+     */
+    public TcpChannel(SocketChannel socketChannel, EventLoop eventLoop, BufferAllocator allocator, int readBufferSize, int maxFrameSize) {
+        this.socketChannel = socketChannel;
+        this.eventLoop = eventLoop;
+        this.allocator = allocator;
+        this.readBuffer = allocator.allocate(readBufferSize);
+        this.frameDecoder = new FrameDecoder(maxFrameSize);
+
+        // Every frame of a gathering write gets its own slice of one header buffer
+        this.headerSlab = allocator.allocate(MAX_GATHER_FRAMES * FrameFormat.MAX_HEADER_SIZE);
+        for (int i = 0; i < MAX_GATHER_FRAMES; i++) {
+            headers[i] = headerSlab.slice(i * FrameFormat.MAX_HEADER_SIZE, FrameFormat.MAX_HEADER_SIZE);
+        }
+    }
+
+    /**
+     * Registers the channel with its event loop and starts reading.
+     * If called from the event loop thread the channel is registered immediately.
+     *
+     * @param handler The handler to notify about received data and closure.
+     */
+    public void register(ChannelHandler handler) {
+        this.handler = handler;
+        eventLoop.register(socketChannel, SelectionKey.OP_READ, this);
+    }
+
+    @Override
+    public void registered(SelectionKey key) {
+        this.key = key;
+
+        // Flush writes queued before the channel was registered
+        if (!outbound.isEmpty()) flushNow();
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        if (closed.get()) return;
+
+        if (key.isReadable())
+            read();
+
+        if (key.isValid() && key.isWritable())
+            doFlush();
+    }
+
+    @Override
+    public void close(SelectionKey key) {
+        close();
+    }
+
+    private void read() throws IOException {
+        int bytesRead = socketChannel.read(readBuffer);
+
+        if (bytesRead == -1) {
+            close(); // Close the channel when the peer disconnects gracefully
+            return;
+        }
+
+        if (bytesRead == 0) return;
+
+        readBuffer.flip();
+        try {
+            frameDecoder.decode(readBuffer, decoderOutput);
+        } finally {
+            readBuffer.clear();
+        }
+        handler.channelReadComplete();
+    }
+
+    /**
+     * Queues a packet to be written to the channel without flushing it. The packet is written once the channel
+     * is flushed, the pending bytes reach the flush threshold or the flush delay elapses.
+     * The packet's data is not copied, so it must not be modified afterwards. The channel takes over one reference
+     * of the packet, even if the write fails.
+     *
+     * @param packet The packet to write.
+     * @throws ClosedChannelException if the channel is closed.
+     */
+    public void write(Packet packet) throws ClosedChannelException {
+        if (closed.get()) {
+            packet.release();
+            throw new ClosedChannelException();
+        }
+
+        enqueue(new OutboundFrame(packet, null, null));
+    }
+
+    /**
+     * Queues a packet like {@link #write(Packet)}, after which the channel writes its frames in another format.
+     * The packet itself is written in the current format and tells the peer about the switch, which switches its
+     * decoder once it has read the packet.
+     *
+     * @param packet The packet to write.
+     * @param format The format of the frames written after the packet.
+     * @throws ClosedChannelException if the channel is closed.
+     */
+    public void writeAndSwitchFormat(Packet packet, FrameFormat format) throws ClosedChannelException {
+        if (closed.get()) {
+            packet.release();
+            throw new ClosedChannelException();
+        }
+
+        enqueue(new OutboundFrame(packet, null, format));
+    }
+
+    /**
+     * Queues a packet like {@link #write(Packet)}, reporting the outcome through a promise instead of throwing.
+     * The promise is completed on the event loop once the whole frame is written to the socket, or failed with the
+     * cause once the frame is discarded, e.g. because the channel was closed.
+     *
+     * @param packet  The packet to write.
+     * @param promise The promise, or null for none.
+     */
+    public void write(Packet packet, CompletableFuture<Void> promise) {
+        if (closed.get()) {
+            packet.release();
+            if (promise != null) promise.completeExceptionally(new ClosedChannelException());
+            return;
+        }
+
+        try {
+            enqueue(new OutboundFrame(packet, promise, null));
+        } catch (final ClosedChannelException ignored) {
+            // The frame was discarded with the rest of the queue, failing the promise
+        }
+    }
+
+    /**
+     * Queues a prepared packet to be written to the channel without flushing it, see {@link #write(Packet)}.
+     * The channel writes from its own view of the encoded frame, so the same prepared packet can be queued on any
+     * number of channels.
+     *
+     * @param packet The prepared packet to write.
+     * @throws ClosedChannelException if the channel is closed.
+     */
+    public void write(PreparedPacket packet) throws ClosedChannelException {
+        if (closed.get()) throw new ClosedChannelException();
+
+        enqueue(new OutboundFrame(packet, null));
+    }
+
+    private void enqueue(OutboundFrame frame) throws ClosedChannelException {
+        // Sized before it's published, the loop accounts for a header in another format when it assigns one
+        int size = frame.size();
+        outbound.add(frame);
+
+        // Lost a race with close(), which may have discarded the queue before the frame was added
+        if (closed.get()) {
+            eventLoop.execute(() -> discardOutbound(new ClosedChannelException()));
+            throw new ClosedChannelException();
+        }
+
+        long pending = pendingBytes.addAndGet(size);
+        if (pending >= highWatermark && writable.compareAndSet(true, false)) {
+            eventLoop.execute(writabilityTask);
+            flush();
+        } else if (pending >= flushThreshold) {
+            flush();
+        } else if (delayedFlushScheduled.compareAndSet(false, true)) {
+            eventLoop.schedule(delayedFlushTask, flushDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Queues a packet and flushes the channel.
+     *
+     * @param packet The packet to write.
+     * @throws ClosedChannelException if the channel is closed.
+     * @see #write(Packet)
+     * @see #flush()
+     */
+    public void writeAndFlush(Packet packet) throws ClosedChannelException {
+        write(packet);
+        flush();
+    }
+
+    /**
+     * Queues a prepared packet and flushes the channel.
+     *
+     * @param packet The prepared packet to write.
+     * @throws ClosedChannelException if the channel is closed.
+     * @see #write(PreparedPacket)
+     * @see #flush()
+     */
+    public void writeAndFlush(PreparedPacket packet) throws ClosedChannelException {
+        write(packet);
+        flush();
+    }
+
+    /**
+     * Queues packets in order and flushes the channel. Frames are written in the order they were queued, so the
+     * promise is completed once the last packet is written to the socket. It is failed if any packet is discarded.
+     *
+     * @param packets The packets to write.
+     * @param promise The promise of the whole batch.
+     * @see #write(Packet, CompletableFuture)
+     */
+    public void writeAndFlush(Collection<Packet> packets, CompletableFuture<Void> promise) {
+        if (packets.isEmpty()) {
+            promise.complete(null);
+            return;
+        }
+
+        Iterator<Packet> iterator = packets.iterator();
+        while (iterator.hasNext()) {
+            Packet packet = iterator.next();
+            write(packet, iterator.hasNext() ? null : promise);
+        }
+        flush();
+    }
+
+    /**
+     * Requests a flush of every queued packet. The flush runs on the event loop once it is done with the current
+     * batch of work, so writes issued in the meantime, from any thread, go out with the same system call.
+     */
+    public void flush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(flushTask);
+        }
+    }
+
+    private void delayedFlush() {
+        delayedFlushScheduled.set(false);
+        if (!outbound.isEmpty()) flushNow();
+    }
+
+    private void flushNow() {
+        flushScheduled.set(false);
+
+        try {
+            doFlush();
+        } catch (final IOException e) {
+            logger.debug("Unable to write to channel: {} :", e.getClass(), e);
+            closeWithCause(e);
+        }
+    }
+
+    private void doFlush() throws IOException {
+        if (key == null || !key.isValid()) return;
+
+        try {
+            while (true) {
+                // Gather up to MAX_GATHER_FRAMES frames, the first one may have been partially written before
+                int frames = 0;
+                int buffers = 0;
+                for (OutboundFrame frame : outbound) {
+                    if (frames == MAX_GATHER_FRAMES) break;
+
+                    if (frame.format == null) {
+                        // The format of the frames queued after a switch is only known once they are flushed
+                        pendingBytes.addAndGet(frame.assignFormat(writeFormat));
+                        if (frame.nextFormat != null) writeFormat = frame.nextFormat;
+                    }
+
+                    if (!frame.isHeaderWritten()) {
+                        ByteBuffer header = headers[frames].clear();
+                        frame.writeHeader(header).flip();
+                        header.position(frame.headerWritten);
+                        gather[buffers++] = header;
+                    }
+                    gather[buffers++] = frame.payload;
+                    batch[frames++] = frame;
+                }
+
+                if (frames == 0) break;
+
+                long written = socketChannel.write(gather, 0, buffers);
+                pendingBytes.addAndGet(-written);
+                Arrays.fill(gather, 0, buffers, null);
+
+                for (int i = 0; i < frames; i++) {
+                    OutboundFrame frame = batch[i];
+                    if (!frame.isHeaderWritten()) frame.headerWritten = headers[i].position();
+
+                    if (!frame.isHeaderWritten() || frame.payload.hasRemaining()) {
+                        Arrays.fill(batch, i, frames, null);
+
+                        // The socket's send buffer is full, continue once it's writable again
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    batch[i] = null;
+                    OutboundFrame done = outbound.poll();
+                    if (done != null) done.written();
+                }
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } finally {
+            if (pendingBytes.get() < lowWatermark && writable.compareAndSet(false, true))
+                notifyWritability();
+        }
+    }
+
+    private void notifyWritability() {
+        // Only report the latest state, a quick flap between two notifications is not reported at all
+        boolean writable = this.writable.get();
+        if (writable == notifiedWritable || closed.get()) return;
+
+        notifiedWritable = writable;
+        handler.channelWritabilityChanged(writable);
+    }
+
+    /**
+     * Closes the channel and discards all pending writes. The writes are discarded and the handler is notified on
+     * the event loop thread.
+     */
+    public void close() {
+        closeWithCause(null);
+    }
+
+    /**
+     * Closes the channel, failing the pending writes with the given cause.
+     *
+     * @param cause The cause, or null if the channel was closed on purpose.
+     */
+    private void closeWithCause(Throwable cause) {
+        if (!closed.compareAndSet(false, true)) return;
+
+        try {
+            socketChannel.close();
+        } catch (final IOException e) {
+            logger.warn("Unable to close channel: {} :", e.getClass(), e);
+        }
+
+        // The event loop may be in the middle of a read or flush, whose frames and buffers it still holds, so they
+        // are only discarded and released once it's done
+        Throwable discardCause = cause != null ? cause : new ClosedChannelException();
+        eventLoop.execute(() -> {
+            discardOutbound(discardCause);
+            pendingBytes.set(0);
+            releaseBuffers();
+        });
+
+        if (handler == null) return;
+
+        if (eventLoop.inEventLoop()) {
+            handler.channelClosed();
+        } else {
+            eventLoop.execute(handler::channelClosed);
+        }
+    }
+
+    private void discardOutbound(Throwable cause) {
+        OutboundFrame frame;
+        while ((frame = outbound.poll()) != null) {
+            frame.discard(cause);
+        }
+    }
+
+    private void releaseBuffers() {
+        allocator.release(readBuffer);
+        allocator.release(headerSlab);
+    }
+
+    /**
+     * Sets the number of pending bytes that triggers a flush without waiting for an explicit one.
+     *
+     * @param flushThreshold The threshold in bytes.
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Sets the longest time a written packet may wait in the queue before it's flushed.
+     *
+     * @param flushDelay The delay.
+     * @param unit       The unit of the delay.
+     */
+    public void setFlushDelay(long flushDelay, TimeUnit unit) {
+        this.flushDelayNanos = unit.toNanos(flushDelay);
+    }
+
+    public long getFlushDelay(TimeUnit unit) {
+        return unit.convert(flushDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the pending bytes at which the channel stops being writable (high) and becomes writable again (low).
+     *
+     * @param lowWatermark  The low watermark in bytes.
+     * @param highWatermark The high watermark in bytes.
+     * @throws IllegalArgumentException if the low watermark is greater than the high watermark.
+     */
+    public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException(
+                    "The low watermark must be less than or equal to the high watermark!");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Checks if the channel is writable, that is whether its pending bytes haven't reached the high watermark,
+     * or have since dropped below the low watermark.
+     *
+     * @return True if the channel is writable, false otherwise.
+     */
+    public boolean isWritable() {
+        return writable.get();
+    }
+
+    /**
+     * Sets whether received frames are decoded into recyclable packets. The handler then has to release every
+     * packet it's given.
+     *
+     * @param recyclePackets True to decode into recyclable packets.
+     */
+    public void setRecyclePackets(boolean recyclePackets) {
+        frameDecoder.setRecyclePackets(recyclePackets);
+    }
+
+    /**
+     * Sets the format received frames are decoded in. Called on the event loop by the handler while it handles the
+     * packet announcing the switch, the format applies from the frame following it on.
+     *
+     * @param format The frame format.
+     * @see #writeAndSwitchFormat(Packet, FrameFormat)
+     */
+    public void setReadFormat(FrameFormat format) {
+        frameDecoder.setFrameFormat(format);
+    }
+
+    public FrameFormat getReadFormat() {
+        return frameDecoder.getFrameFormat();
+    }
+
+    /**
+     * Gets the number of bytes queued but not yet written to the socket.
+     *
+     * @return The pending bytes, including frame headers.
+     */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public boolean isOpen() {
+        return !closed.get() && socketChannel.isOpen();
+    }
+
+    public SocketChannel getSocketChannel() {
+        return socketChannel;
+    }
+
+    public EventLoop getEventLoop() {
+        return eventLoop;
+    }
+}
@@ -0,0 +1,90 @@
+package xyz.synse.packetnet.common.codec;
+
+import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+
+import java.util.UUID;
+
+/**
+ * Static entry points to the {@link DynamicByteBuffer} methods the record codecs use. Method handles of static methods
+ * are bound to their target, so the JIT inlines them without devirtualizing a call.
+ */
+final class BufferFields {
+    private BufferFields() {
+    }
+
+    static void putBoolean(DynamicByteBuffer buffer, boolean value) {
+        buffer.putBoolean(value);
+    }
+
+    static boolean getBoolean(DynamicByteBuffer buffer) {
+        return buffer.getBoolean();
+    }
+
+    static void put(DynamicByteBuffer buffer, byte value) {
+        buffer.put(value);
+    }
+
+    static byte get(DynamicByteBuffer buffer) {
+        return buffer.get();
+    }
+
+    static void putShort(DynamicByteBuffer buffer, short value) {
+        buffer.putShort(value);
+    }
+
+    static short getShort(DynamicByteBuffer buffer) {
+        return buffer.getShort();
+    }
+
+    static void putChar(DynamicByteBuffer buffer, char value) {
+        buffer.putChar(value);
+    }
+
+    static char getChar(DynamicByteBuffer buffer) {
+        return buffer.getChar();
+    }
+
+    static void putInt(DynamicByteBuffer buffer, int value) {
+        buffer.putInt(value);
+    }
+
+    static int getInt(DynamicByteBuffer buffer) {
+        return buffer.getInt();
+    }
+
+    static void putLong(DynamicByteBuffer buffer, long value) {
+        buffer.putLong(value);
+    }
+
+    static long getLong(DynamicByteBuffer buffer) {
+        return buffer.getLong();
+    }
+
+    static void putFloat(DynamicByteBuffer buffer, float value) {
+        buffer.putFloat(value);
+    }
+
+    static float getFloat(DynamicByteBuffer buffer) {
+        return buffer.getFloat();
+    }
+
+    static void putDouble(DynamicByteBuffer buffer, double value) {
+        buffer.putDouble(value);
+    }
+
+    static double getDouble(DynamicByteBuffer buffer) {
+        return buffer.getDouble();
+    }
+
+    static void putString(DynamicByteBuffer buffer, String value) {
+        buffer.putString(value);
+    }
+
+    static void putUUID(DynamicByteBuffer buffer, UUID value) {
+        buffer.putUUID(value);
+    }
+
+    static UUID getUUID(DynamicByteBuffer buffer) {
+        return buffer.getUUID();
+    }
+}
@@ -0,0 +1,55 @@
+package xyz.synse.packetnet.common.codec;
+
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PacketHandlerTable;
+
+import java.io.IOException;
+
+/**
+ * The record codecs of a protocol by packet id, to decode received packets into the records registered for their
+ * ids, for example to switch over a sealed interface of message records.
+ * <p>
+ * Lookups never lock and may run on any thread; records are usually registered before packets arrive.
+ */
+public class CodecRegistry {
+    private final PacketHandlerTable<RecordCodec<?>> codecs = new PacketHandlerTable<>();
+
+    /**
+     * Registers a record for its packet id.
+     *
+     * @param type The record class, annotated with {@link PacketId}.
+     * @param <R>  The type of the record.
+     * @return The codec of the record.
+     * @throws IllegalArgumentException if another record is registered for the id, or no codec can be created.
+     * @throws IllegalStateException    if the record has no {@link PacketId} annotation.
+     */
+    public synchronized <R extends Record> RecordCodec<R> register(Class<R> type) {
+        RecordCodec<R> codec = RecordCodec.of(type);
+        RecordCodec<?> previous = codecs.get(codec.getId());
+        if (previous != null && previous != codec)
+            throw new IllegalArgumentException("Packet " + codec.getId() + " is registered to " + previous.getType().getName());
+
+        codecs.set(codec.getId(), codec);
+        return codec;
+    }
+
+    /**
+     * @param id The packet id.
+     * @return The codec registered for the packet id, or null if there is none.
+     */
+    public RecordCodec<?> get(short id) {
+        return codecs.get(id);
+    }
+
+    /**
+     * Decodes a packet into the record registered for its id. The packet is not released.
+     *
+     * @param packet The packet.
+     * @return The record, or null if no record is registered for the packet's id.
+     * @throws IOException if the packet's data is not a valid record.
+     */
+    public Record decode(Packet packet) throws IOException {
+        RecordCodec<?> codec = codecs.get(packet.getID());
+        return codec == null ? null : codec.decode(packet);
+    }
+}
@@ -0,0 +1,38 @@
+package xyz.synse.packetnet.common.codec;
+
+import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+/**
+ * The bytes of this class are defined again as a hidden class for every {@link RecordCodec}, with the codec's method
+ * handles as class data. Held in static finals, the method handles are constants the JIT inlines through. Never
+ * loaded as itself.
+ */
+final class InvokerTemplate implements RecordCodec.Invoker {
+    private static final MethodHandle WRITER;
+    private static final MethodHandle READER;
+
+    static {
+        try {
+            List<?> handles = MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, List.class);
+            WRITER = (MethodHandle) handles.get(0);
+            READER = (MethodHandle) handles.get(1);
+        } catch (final IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Override
+    public void write(Record record, DynamicByteBuffer buffer) throws Throwable {
+        WRITER.invokeExact(record, buffer);
+    }
+
+    @Override
+    public Record read(DynamicByteBuffer buffer) throws Throwable {
+        return (Record) READER.invokeExact(buffer);
+    }
+}
@@ -0,0 +1,15 @@
+package xyz.synse.packetnet.common.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Allows a record component of a reference type to be null. It is written behind a boolean telling whether it is
+ * present, see {@link RecordCodec}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.RECORD_COMPONENT)
+public @interface OptionalField {
+}
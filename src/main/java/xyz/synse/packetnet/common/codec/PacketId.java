@@ -0,0 +1,15 @@
+package xyz.synse.packetnet.common.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The id of the packets a record is sent as, see {@link RecordCodec}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PacketId {
+    short value();
+}
@@ -0,0 +1,493 @@
+package xyz.synse.packetnet.common.codec;
+
+import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+import xyz.synse.packetnet.common.packet.CorruptedFrameException;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Encodes records into packets and decodes them back, component by component in declaration order, in the same
+ * format as writing the components by hand with the {@link DynamicByteBuffer} methods.
+ * <p>
+ * Supported component types are the primitives, {@link String}, {@link UUID}, {@code byte[]} (an {@code int} length
+ * followed by the bytes), enums (their ordinal as an {@code int}) and other records. The record is sent with the id
+ * of its {@link PacketId} annotation, {@link Width} shrinks integral components and enums, and {@link OptionalField}
+ * allows a component to be null.
+ * <p>
+ * The encoder and decoder of a record are composed once from method handles of its accessors, its canonical
+ * constructor and the buffer methods, so after warm-up the JIT compiles them like hand-written code. Codecs are
+ * created on first use and cached per record class. May be used from any thread.
+ *
+ * @param <R> The type of the record.
+ */
+public final class RecordCodec<R extends Record> {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    // The record classes whose codecs the current thread is creating
+    private static final ThreadLocal<Set<Class<?>>> UNDER_CONSTRUCTION = ThreadLocal.withInitial(HashSet::new);
+    private static final ClassValue<RecordCodec<?>> CODECS = new ClassValue<>() {
+        @Override
+        protected RecordCodec<?> computeValue(Class<?> type) {
+            if (!type.isRecord()) throw new IllegalArgumentException(type.getName() + " is not a record");
+
+            // A nested record's codec is created within its container's, so meeting a class again means a cycle
+            Set<Class<?>> underConstruction = UNDER_CONSTRUCTION.get();
+            if (!underConstruction.add(type))
+                throw new IllegalArgumentException("A record cannot contain itself through other records: "
+                        + type.getName());
+
+            try {
+                return new RecordCodec<>(type.asSubclass(Record.class));
+            } finally {
+                underConstruction.remove(type);
+            }
+        }
+    };
+
+    private static final MethodHandle WRITE_WIDTH;
+    private static final MethodHandle READ_WIDTH;
+    private static final MethodHandle WRITE_BYTES;
+    private static final MethodHandle READ_BYTES;
+    private static final MethodHandle READ_STRING;
+    private static final MethodHandle WRITE_PRESENCE;
+    private static final MethodHandle READ_PRESENCE;
+    private static final MethodHandle NON_NULL;
+    private static final MethodHandle ORDINAL;
+    private static final MethodHandle CONSTANT;
+    private static final byte[] INVOKER_TEMPLATE;
+
+    static {
+        try (InputStream in = RecordCodec.class.getResourceAsStream(InvokerTemplate.class.getSimpleName() + ".class")) {
+            if (in == null) throw new IOException("Missing " + InvokerTemplate.class.getName());
+            INVOKER_TEMPLATE = in.readAllBytes();
+        } catch (final IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+
+        try {
+            WRITE_WIDTH = LOOKUP.findStatic(RecordCodec.class, "writeWidth",
+                    methodType(void.class, DynamicByteBuffer.class, long.class, int.class));
+            READ_WIDTH = LOOKUP.findStatic(RecordCodec.class, "readWidth",
+                    methodType(long.class, DynamicByteBuffer.class, int.class));
+            WRITE_BYTES = LOOKUP.findStatic(RecordCodec.class, "writeBytes",
+                    methodType(void.class, DynamicByteBuffer.class, byte[].class));
+            READ_BYTES = LOOKUP.findStatic(RecordCodec.class, "readBytes",
+                    methodType(byte[].class, DynamicByteBuffer.class));
+            READ_STRING = LOOKUP.findStatic(RecordCodec.class, "readString",
+                    methodType(String.class, DynamicByteBuffer.class));
+            WRITE_PRESENCE = LOOKUP.findStatic(RecordCodec.class, "writePresence",
+                    methodType(void.class, DynamicByteBuffer.class, Object.class));
+            READ_PRESENCE = getter("getBoolean", boolean.class);
+            NON_NULL = LOOKUP.findStatic(Objects.class, "nonNull", methodType(boolean.class, Object.class));
+            ORDINAL = LOOKUP.findVirtual(Enum.class, "ordinal", methodType(int.class));
+            CONSTANT = LOOKUP.findStatic(RecordCodec.class, "constant",
+                    methodType(Enum.class, Enum[].class, long.class));
+        } catch (final ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Class<R> type;
+    private final short id;
+    private final boolean hasId;
+    // (Record, DynamicByteBuffer)void
+    private final MethodHandle writer;
+    // (DynamicByteBuffer)Record
+    private final MethodHandle reader;
+    // Invokes the method handles as constants
+    private final Invoker invoker;
+
+    private RecordCodec(Class<R> type) {
+        this.type = type;
+
+        PacketId packetId = type.getAnnotation(PacketId.class);
+        this.hasId = packetId != null;
+        this.id = hasId ? packetId.value() : 0;
+
+        RecordComponent[] components = type.getRecordComponents();
+        Class<?>[] componentTypes = new Class<?>[components.length];
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, LOOKUP);
+
+            // Each component's writer runs before the writers of the following components
+            MethodHandle writer = MethodHandles.empty(methodType(void.class, type, DynamicByteBuffer.class));
+            for (int i = components.length - 1; i >= 0; i--) {
+                RecordComponent component = components[i];
+                componentTypes[i] = component.getType();
+                if (componentTypes[i] == type)
+                    throw new IllegalArgumentException("A record cannot contain itself: " + component);
+
+                // (DynamicByteBuffer, type)void
+                MethodHandle write = MethodHandles.filterArguments(fieldWriter(component), 1,
+                        lookup.unreflect(component.getAccessor()));
+                writer = MethodHandles.foldArguments(writer,
+                        MethodHandles.permuteArguments(write, methodType(void.class, type, DynamicByteBuffer.class), 1, 0));
+            }
+
+            // Each component's reader fills its constructor argument, the first component being read first
+            MethodHandle reader = MethodHandles.dropArguments(
+                    lookup.findConstructor(type, methodType(void.class, componentTypes)), components.length, DynamicByteBuffer.class);
+            for (int i = components.length - 1; i >= 0; i--) {
+                reader = MethodHandles.foldArguments(reader, i, fieldReader(components[i]));
+            }
+
+            this.writer = writer.asType(methodType(void.class, Record.class, DynamicByteBuffer.class));
+            this.reader = reader.asType(methodType(Record.class, DynamicByteBuffer.class));
+            MethodHandles.Lookup invoker = LOOKUP.defineHiddenClassWithClassData(INVOKER_TEMPLATE, List.of(this.writer, this.reader), true);
+            this.invoker = (Invoker) invoker.findConstructor(invoker.lookupClass(), methodType(void.class)).invoke();
+        } catch (final IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access the record " + type.getName(), e);
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalArgumentException("Cannot create the codec of " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Returns the codec of a record class, creating it on first use.
+     *
+     * @param type The record class.
+     * @param <R>  The type of the record.
+     * @return The codec.
+     * @throws IllegalArgumentException if the class is not a record, is not accessible, has a component that
+     *                                  cannot be encoded or contains itself, directly or through other records.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R extends Record> RecordCodec<R> of(Class<R> type) {
+        return (RecordCodec<R>) CODECS.get(type);
+    }
+
+    /**
+     * Encodes a record of any class into a recyclable packet, see {@link #encode(Record)}.
+     *
+     * @param record The record.
+     * @return A packet with the record's id, to be sent or released.
+     */
+    @SuppressWarnings("unchecked")
+    public static Packet toPacket(Record record) {
+        return ((RecordCodec<Record>) CODECS.get(record.getClass())).encode(record);
+    }
+
+    public Class<R> getType() {
+        return type;
+    }
+
+    /**
+     * @return The id of the record's packets.
+     * @throws IllegalStateException if the record has no {@link PacketId} annotation.
+     */
+    public short getId() {
+        if (!hasId) throw new IllegalStateException(type.getName() + " has no @PacketId");
+
+        return id;
+    }
+
+    /**
+     * Encodes a record into a recyclable packet.
+     *
+     * @param record The record.
+     * @return A packet with the record's id, to be sent or released.
+     * @throws IllegalStateException    if the record has no {@link PacketId} annotation.
+     * @throws NullPointerException     if a component without {@link OptionalField} is null.
+     * @throws IllegalArgumentException if a component does not fit its {@link Width}.
+     */
+    public Packet encode(R record) {
+        Packet packet = Packet.obtain(getId());
+        try {
+            write(record, packet.getBuffer());
+        } catch (final RuntimeException e) {
+            packet.release();
+            throw e;
+        }
+        return packet;
+    }
+
+    /**
+     * Decodes the record of a packet. The packet is not released.
+     *
+     * @param packet The packet.
+     * @return The record.
+     * @throws IllegalArgumentException if the packet's id is not the record's.
+     * @throws IOException              if the packet's data is not a valid record.
+     */
+    public R decode(Packet packet) throws IOException {
+        if (packet.getID() != getId())
+            throw new IllegalArgumentException("Packet " + packet.getID() + " is not a " + type.getSimpleName());
+
+        return read(packet.getBuffer());
+    }
+
+    /**
+     * Writes the components of a record at the buffer's position.
+     *
+     * @param record The record.
+     * @param buffer The buffer.
+     */
+    public void write(R record, DynamicByteBuffer buffer) {
+        try {
+            invoker.write(record, buffer);
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a record from the buffer's position.
+     *
+     * @param buffer The buffer.
+     * @return The record.
+     * @throws IOException if the data is not a valid record.
+     */
+    @SuppressWarnings("unchecked")
+    public R read(DynamicByteBuffer buffer) throws IOException {
+        R record;
+        try {
+            record = (R) invoker.read(buffer);
+        } catch (final BufferUnderflowException | NegativeArraySizeException e) {
+            throw new CorruptedFrameException("Truncated " + type.getSimpleName());
+        } catch (final IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+
+        // The buffer's capacity may go past the data
+        if (buffer.position() > buffer.size()) throw new CorruptedFrameException("Truncated " + type.getSimpleName());
+
+        return record;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordCodec{" + type.getName() + (hasId ? ", id=" + id : "") + "}";
+    }
+
+    // (DynamicByteBuffer, component type)void
+    private static MethodHandle fieldWriter(RecordComponent component) throws ReflectiveOperationException {
+        Class<?> type = component.getType();
+        MethodType methodType = methodType(void.class, DynamicByteBuffer.class, type);
+
+        MethodHandle writer;
+        int width = width(component);
+        if (width != 0) {
+            writer = MethodHandles.insertArguments(WRITE_WIDTH, 2, width);
+            writer = type.isEnum()
+                    ? MethodHandles.filterArguments(writer.asType(methodType(void.class, DynamicByteBuffer.class, int.class)), 1,
+                    ORDINAL.asType(methodType(int.class, type)))
+                    : writer.asType(methodType);
+        } else if (type == boolean.class) {
+            writer = putter("putBoolean", type);
+        } else if (type == byte.class) {
+            writer = putter("put", type);
+        } else if (type == short.class) {
+            writer = putter("putShort", type);
+        } else if (type == char.class) {
+            writer = putter("putChar", type);
+        } else if (type == int.class) {
+            writer = putter("putInt", type);
+        } else if (type == long.class) {
+            writer = putter("putLong", type);
+        } else if (type == float.class) {
+            writer = putter("putFloat", type);
+        } else if (type == double.class) {
+            writer = putter("putDouble", type);
+        } else if (type == String.class) {
+            writer = putter("putString", type);
+        } else if (type == UUID.class) {
+            writer = putter("putUUID", type);
+        } else if (type == byte[].class) {
+            writer = WRITE_BYTES;
+        } else if (type.isRecord()) {
+            MethodHandle nested = of(type.asSubclass(Record.class)).writer;
+            writer = MethodHandles.permuteArguments(nested, methodType(void.class, DynamicByteBuffer.class, Record.class), 1, 0)
+                    .asType(methodType);
+        } else {
+            throw new IllegalArgumentException("Unsupported type " + type.getName() + " of " + component);
+        }
+
+        if (!component.isAnnotationPresent(OptionalField.class)) return writer;
+
+        // The presence flag, then the value if there is one
+        writer = MethodHandles.guardWithTest(
+                MethodHandles.dropArguments(NON_NULL.asType(methodType(boolean.class, type)), 0, DynamicByteBuffer.class),
+                writer,
+                MethodHandles.empty(methodType));
+        return MethodHandles.foldArguments(writer, WRITE_PRESENCE.asType(methodType));
+    }
+
+    // (DynamicByteBuffer)component type
+    private static MethodHandle fieldReader(RecordComponent component) throws ReflectiveOperationException {
+        Class<?> type = component.getType();
+        MethodType methodType = methodType(type, DynamicByteBuffer.class);
+
+        MethodHandle reader;
+        int width = width(component);
+        if (width != 0) {
+            reader = MethodHandles.insertArguments(READ_WIDTH, 1, width);
+            reader = type.isEnum()
+                    ? MethodHandles.filterReturnValue(reader,
+                    MethodHandles.insertArguments(CONSTANT, 0, (Object) type.getEnumConstants())).asType(methodType)
+                    : MethodHandles.explicitCastArguments(reader, methodType);
+        } else if (type == boolean.class) {
+            reader = getter("getBoolean", type);
+        } else if (type == byte.class) {
+            reader = getter("get", type);
+        } else if (type == short.class) {
+            reader = getter("getShort", type);
+        } else if (type == char.class) {
+            reader = getter("getChar", type);
+        } else if (type == int.class) {
+            reader = getter("getInt", type);
+        } else if (type == long.class) {
+            reader = getter("getLong", type);
+        } else if (type == float.class) {
+            reader = getter("getFloat", type);
+        } else if (type == double.class) {
+            reader = getter("getDouble", type);
+        } else if (type == String.class) {
+            reader = READ_STRING;
+        } else if (type == UUID.class) {
+            reader = getter("getUUID", type);
+        } else if (type == byte[].class) {
+            reader = READ_BYTES;
+        } else if (type.isRecord()) {
+            reader = of(type.asSubclass(Record.class)).reader.asType(methodType);
+        } else {
+            throw new IllegalArgumentException("Unsupported type " + type.getName() + " of " + component);
+        }
+
+        if (!component.isAnnotationPresent(OptionalField.class)) return reader;
+
+        // Reading the presence flag moves on to the value
+        return MethodHandles.guardWithTest(READ_PRESENCE, reader,
+                MethodHandles.dropArguments(MethodHandles.constant(type, null), 0, DynamicByteBuffer.class));
+    }
+
+    // The width of an integral or enum component, or 0 if it is written whole
+    private static int width(RecordComponent component) {
+        Class<?> type = component.getType();
+        Width width = component.getAnnotation(Width.class);
+
+        if (component.isAnnotationPresent(OptionalField.class) && type.isPrimitive())
+            throw new IllegalArgumentException("A primitive cannot be optional: " + component);
+
+        int size;
+        if (type == byte.class) {
+            size = Byte.BYTES;
+        } else if (type == short.class) {
+            size = Short.BYTES;
+        } else if (type == int.class || type.isEnum()) {
+            size = Integer.BYTES;
+        } else if (type == long.class) {
+            size = Long.BYTES;
+        } else {
+            if (width != null) throw new IllegalArgumentException("@Width on a " + type.getName() + ": " + component);
+            return 0;
+        }
+
+        if (width == null) return type.isEnum() ? size : 0;
+
+        int bytes = width.value();
+        if (Integer.bitCount(bytes) != 1 || bytes > size)
+            throw new IllegalArgumentException("Invalid @Width(" + bytes + ") of " + component);
+
+        return bytes;
+    }
+
+    /**
+     * Implemented by the hidden classes defined from {@link InvokerTemplate}.
+     */
+    interface Invoker {
+        void write(Record record, DynamicByteBuffer buffer) throws Throwable;
+
+        Record read(DynamicByteBuffer buffer) throws Throwable;
+    }
+
+    private static MethodHandle putter(String name, Class<?> type) throws ReflectiveOperationException {
+        return LOOKUP.findStatic(BufferFields.class, name, methodType(void.class, DynamicByteBuffer.class, type));
+    }
+
+    private static MethodHandle getter(String name, Class<?> type) throws ReflectiveOperationException {
+        return LOOKUP.findStatic(BufferFields.class, name, methodType(type, DynamicByteBuffer.class));
+    }
+
+    private static void writeWidth(DynamicByteBuffer buffer, long value, int width) {
+        switch (width) {
+            case Byte.BYTES -> {
+                if (value != (byte) value) throw new IllegalArgumentException(value + " does not fit in a byte");
+                buffer.put((byte) value);
+            }
+            case Short.BYTES -> {
+                if (value != (short) value) throw new IllegalArgumentException(value + " does not fit in a short");
+                buffer.putShort((short) value);
+            }
+            case Integer.BYTES -> {
+                if (value != (int) value) throw new IllegalArgumentException(value + " does not fit in an int");
+                buffer.putInt((int) value);
+            }
+            default -> buffer.putLong(value);
+        }
+    }
+
+    private static long readWidth(DynamicByteBuffer buffer, int width) {
+        return switch (width) {
+            case Byte.BYTES -> buffer.get();
+            case Short.BYTES -> buffer.getShort();
+            case Integer.BYTES -> buffer.getInt();
+            default -> buffer.getLong();
+        };
+    }
+
+    private static void writeBytes(DynamicByteBuffer buffer, byte[] value) {
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static byte[] readBytes(DynamicByteBuffer buffer) throws CorruptedFrameException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.size() - buffer.position())
+            throw new CorruptedFrameException("Invalid byte array length " + length);
+
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    private static String readString(DynamicByteBuffer buffer) throws CorruptedFrameException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.size() - buffer.position())
+            throw new CorruptedFrameException("Invalid string length " + length);
+
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static void writePresence(DynamicByteBuffer buffer, Object value) {
+        buffer.putBoolean(value != null);
+    }
+
+    private static Enum<?> constant(Enum<?>[] constants, long ordinal) throws CorruptedFrameException {
+        if (ordinal < 0 || ordinal >= constants.length)
+            throw new CorruptedFrameException("Invalid ordinal " + ordinal + " of " + constants.getClass().getComponentType().getName());
+
+        return constants[(int) ordinal];
+    }
+}
@@ -0,0 +1,19 @@
+package xyz.synse.packetnet.common.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Writes an integral or enum record component in fewer bytes than its type holds, see {@link RecordCodec}.
+ * Encoding a value that does not fit throws an {@link IllegalArgumentException}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.RECORD_COMPONENT)
+public @interface Width {
+    /**
+     * @return The number of bytes: 1, 2, 4 or 8, at most the size of the component's type.
+     */
+    int value();
+}
@@ -0,0 +1,179 @@
+package xyz.synse.packetnet.common.collections;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A hash map from primitive {@code int} keys to non-null values, using open addressing with linear probing.
+ * Keys are never boxed and lookups touch one or two array slots, however many entries the map holds.
+ * <p>
+ * Not thread-safe.
+ *
+ * @param <V> The type of the values.
+ */
+public class IntObjectMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private V[] values;
+    private int mask;
+    private int maxSize;
+    private int size;
+
+    public IntObjectMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a map able to hold the given number of entries without resizing.
+     *
+     * @param expectedSize The expected number of entries.
+     */
+    public IntObjectMap(int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("The expected size must not be negative!");
+
+        allocate(tableSize(expectedSize));
+    }
+
+    /**
+     * @param key The key.
+     * @return The value of the key, or null if the map doesn't contain it.
+     */
+    public V get(int key) {
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key   The key.
+     * @param value The value, must not be null.
+     * @return The previous value of the key, or null if there was none.
+     */
+    public V put(int key, V value) {
+        if (value == null) throw new NullPointerException("The value must not be null!");
+
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        if (++size > maxSize) resize(keys.length << 1);
+
+        return null;
+    }
+
+    /**
+     * Removes a key from the map.
+     *
+     * @param key The key.
+     * @return The value of the key, or null if the map didn't contain it.
+     */
+    public V remove(int key) {
+        int index = indexOf(key);
+        if (index < 0) return null;
+
+        V previous = values[index];
+        values[index] = null;
+        size--;
+
+        // Shift the following entries of the probe sequence back, so no lookup stops at the hole
+        int hole = index;
+        index = (index + 1) & mask;
+        while (values[index] != null) {
+            int home = hash(keys[index]) & mask;
+            // Move the entry unless its home slot lies cyclically between the hole and its position
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                keys[hole] = keys[index];
+                values[hole] = values[index];
+                values[index] = null;
+                hole = index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return previous;
+    }
+
+    /**
+     * Performs an action for every value, in no particular order. The map must not be modified by the action.
+     *
+     * @param action The action.
+     */
+    public void forEachValue(Consumer<? super V> action) {
+        for (V value : values) {
+            if (value != null) action.accept(value);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int indexOf(int key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        V[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) continue;
+
+            int index = hash(oldKeys[i]) & mask;
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+        maxSize = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSize(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) Math.ceil(expectedSize / LOAD_FACTOR)) - 1) << 1;
+        return Math.max(capacity, DEFAULT_CAPACITY);
+    }
+
+    private static int hash(int key) {
+        // Spread sequential keys across the table
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -1,6 +1,8 @@
 package xyz.synse.packetnet.common.data;
 
 import org.jetbrains.annotations.NotNull;
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.buffer.UnpooledBufferAllocator;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -23,19 +25,42 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class DynamicByteBuffer implements Comparable<ByteBuffer> {
+    private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
 
+    private final BufferAllocator allocator;
     private ByteBuffer byteBuffer;
+    private boolean allocated;
     private float expandFactor;
-
-    public DynamicByteBuffer(int initialCapacity, float expandFactor) {
+    private int size;
+
+    /**
+     * Creates a buffer whose storage comes from the given allocator, growing it through the allocator as well.
+     * With a pooling allocator the capacity may exceed what was asked for and {@link #release()} must be called
+     * once the buffer is no longer used.
+     *
+     * @param initialCapacity The initial capacity in bytes.
+     * @param expandFactor    The factor the capacity grows by when more space is needed.
+     * @param allocator       The allocator, it must hand out heap buffers since the buffer exposes its array.
+     */
+    public DynamicByteBuffer(int initialCapacity, float expandFactor, BufferAllocator allocator) {
         if (expandFactor < 1) {
             throw new IllegalArgumentException(
                     "The expand factor must be greater or equal to 1!");
         }
-        this.byteBuffer = ByteBuffer.allocate(initialCapacity);
+        if (allocator.isDirect()) {
+            throw new IllegalArgumentException(
+                    "The allocator must allocate heap buffers!");
+        }
+        this.allocator = allocator;
+        this.byteBuffer = allocator.allocate(initialCapacity);
+        this.allocated = true;
         this.expandFactor = expandFactor;
     }
 
+    public DynamicByteBuffer(int initialCapacity, float expandFactor) {
+        this(initialCapacity, expandFactor, UnpooledBufferAllocator.HEAP);
+    }
+
     public DynamicByteBuffer(int initialCapacity) {
         this(initialCapacity, 2);
     }
@@ -46,6 +71,18 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
 
     public void clear() {
         byteBuffer.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of bytes written to this buffer, which is the highest index any put
+     * has reached. Only these bytes are sent when the buffer is part of a {@link xyz.synse.packetnet.common.packet.Packet},
+     * regardless of the (usually larger) capacity.
+     *
+     * @return The written size in bytes.
+     */
+    public int size() {
+        return size;
     }
 
     public Buffer flip() {
@@ -216,6 +253,46 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
         return byteBuffer.getShort(index);
     }
 
+    /**
+     * Reads an {@code int} written by {@link #putVarInt(int)}.
+     *
+     * @return The value.
+     * @throws IllegalStateException if the value is malformed.
+     */
+    public int getVarInt() {
+        return VarInt.readInt(byteBuffer);
+    }
+
+    /**
+     * Reads a {@code long} written by {@link #putVarLong(long)}.
+     *
+     * @return The value.
+     * @throws IllegalStateException if the value is malformed.
+     */
+    public long getVarLong() {
+        return VarInt.readLong(byteBuffer);
+    }
+
+    /**
+     * Reads an {@code int} written by {@link #putZigZag(int)}.
+     *
+     * @return The value.
+     * @throws IllegalStateException if the value is malformed.
+     */
+    public int getZigZag() {
+        return VarInt.unZigZag(VarInt.readInt(byteBuffer));
+    }
+
+    /**
+     * Reads a {@code long} written by {@link #putZigZag(long)}.
+     *
+     * @return The value.
+     * @throws IllegalStateException if the value is malformed.
+     */
+    public long getZigZagLong() {
+        return VarInt.unZigZag(VarInt.readLong(byteBuffer));
+    }
+
     public boolean hasArray() {
         return byteBuffer.hasArray();
     }
@@ -234,47 +311,64 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
 
     public ByteBuffer put(byte b) {
         ensureSpace(1);
-        return byteBuffer.put(b);
+        return markWritten(byteBuffer.put(b));
     }
 
     public ByteBuffer put(byte[] src) {
         ensureSpace(src.length);
-        return byteBuffer.put(src);
+        return markWritten(byteBuffer.put(src));
     }
 
     public ByteBuffer put(byte[] src, int offset, int length) {
         ensureSpace(length);
-        return byteBuffer.put(src, offset, length);
+        return markWritten(byteBuffer.put(src, offset, length));
     }
 
     public ByteBuffer put(ByteBuffer src) {
         ensureSpace(src.remaining());
-        return byteBuffer.put(src);
+        return markWritten(byteBuffer.put(src));
+    }
+
+    /**
+     * Copies {@code length} bytes from {@code src} into this buffer without an intermediate array.
+     * Both positions are advanced by {@code length}.
+     *
+     * @param src    The source buffer, heap or direct.
+     * @param length The number of bytes to copy.
+     * @return The underlying byte buffer.
+     */
+    public ByteBuffer put(ByteBuffer src, int length) {
+        ensureSpace(length);
+        int position = byteBuffer.position();
+        byteBuffer.put(position, src, src.position(), length);
+        byteBuffer.position(position + length);
+        src.position(src.position() + length);
+        return markWritten(byteBuffer);
     }
 
     public ByteBuffer put(int index, byte b) {
-        ensureSpace(1);
-        return byteBuffer.put(index, b);
+        ensureSpace(index, 1);
+        return markWritten(index + 1, byteBuffer.put(index, b));
     }
 
     public ByteBuffer putChar(char value) {
         ensureSpace(2);
-        return byteBuffer.putChar(value);
+        return markWritten(byteBuffer.putChar(value));
     }
 
     public ByteBuffer putChar(int index, char value) {
-        ensureSpace(2);
-        return byteBuffer.putChar(index, value);
+        ensureSpace(index, 2);
+        return markWritten(index + 2, byteBuffer.putChar(index, value));
     }
 
     public ByteBuffer putBoolean(boolean value) {
         ensureSpace(1);
-        return byteBuffer.put((byte) (value ? 1 : 0));
+        return markWritten(byteBuffer.put((byte) (value ? 1 : 0)));
     }
 
     public ByteBuffer putBoolean(int index, boolean value) {
-        ensureSpace(1);
-        return byteBuffer.put(index, (byte) (value ? 1 : 0));
+        ensureSpace(index, 1);
+        return markWritten(index + 1, byteBuffer.put(index, (byte) (value ? 1 : 0)));
     }
 
     public ByteBuffer putString(String value) {
@@ -282,15 +376,15 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
         ensureSpace(data.length + Integer.BYTES);
 
         byteBuffer.putInt(data.length);
-        return byteBuffer.put(data);
+        return markWritten(byteBuffer.put(data));
     }
 
     public ByteBuffer putString(int index, String value) {
         byte[] data = value.getBytes(StandardCharsets.UTF_8);
-        ensureSpace(data.length + Integer.BYTES);
+        ensureSpace(index, data.length + Integer.BYTES);
 
         byteBuffer.putInt(index, data.length);
-        return byteBuffer.put(index + Integer.BYTES, data);
+        return markWritten(index + Integer.BYTES + data.length, byteBuffer.put(index + Integer.BYTES, data));
     }
 
     public ByteBuffer putUUID(UUID value) {
@@ -300,59 +394,105 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
     }
 
     public ByteBuffer putUUID(int index, UUID value) {
-        ensureSpace(2 * Long.BYTES);
+        ensureSpace(index, 2 * Long.BYTES);
         byteBuffer.putLong(index, value.getMostSignificantBits());
         return putLong(index + Long.BYTES, value.getLeastSignificantBits());
     }
 
     public ByteBuffer putDouble(double value) {
         ensureSpace(8);
-        return byteBuffer.putDouble(value);
+        return markWritten(byteBuffer.putDouble(value));
     }
 
     public ByteBuffer putDouble(int index, double value) {
-        ensureSpace(8);
-        return byteBuffer.putDouble(index, value);
+        ensureSpace(index, 8);
+        return markWritten(index + 8, byteBuffer.putDouble(index, value));
     }
 
     public ByteBuffer putFloat(float value) {
         ensureSpace(4);
-        return byteBuffer.putFloat(value);
+        return markWritten(byteBuffer.putFloat(value));
     }
 
     public ByteBuffer putFloat(int index, float value) {
-        ensureSpace(4);
-        return byteBuffer.putFloat(index, value);
+        ensureSpace(index, 4);
+        return markWritten(index + 4, byteBuffer.putFloat(index, value));
     }
 
     public ByteBuffer putInt(int value) {
         ensureSpace(4);
-        return byteBuffer.putInt(value);
+        return markWritten(byteBuffer.putInt(value));
     }
 
     public ByteBuffer putInt(int index, int value) {
-        ensureSpace(4);
-        return byteBuffer.putInt(index, value);
+        ensureSpace(index, 4);
+        return markWritten(index + 4, byteBuffer.putInt(index, value));
     }
 
     public ByteBuffer putLong(int index, long value) {
-        ensureSpace(8);
-        return byteBuffer.putLong(index, value);
+        ensureSpace(index, 8);
+        return markWritten(index + 8, byteBuffer.putLong(index, value));
     }
 
     public ByteBuffer putLong(long value) {
         ensureSpace(8);
-        return byteBuffer.putLong(value);
+        return markWritten(byteBuffer.putLong(value));
     }
 
     public ByteBuffer putShort(int index, short value) {
-        ensureSpace(2);
-        return byteBuffer.putShort(index, value);
+        ensureSpace(index, 2);
+        return markWritten(index + 2, byteBuffer.putShort(index, value));
     }
 
     public ByteBuffer putShort(short value) {
         ensureSpace(2);
-        return byteBuffer.putShort(value);
+        return markWritten(byteBuffer.putShort(value));
+    }
+
+    /**
+     * Writes an {@code int} in 1 to 5 bytes, fewer the smaller it is, see {@link VarInt}. Negative values always
+     * take 5 bytes, use {@link #putZigZag(int)} for values that may be negative.
+     *
+     * @param value The value.
+     * @return The underlying byte buffer.
+     */
+    public ByteBuffer putVarInt(int value) {
+        ensureSpace(VarInt.size(value));
+        VarInt.write(byteBuffer, value);
+        return markWritten(byteBuffer);
+    }
+
+    /**
+     * Writes a {@code long} in 1 to 10 bytes, fewer the smaller it is, see {@link VarInt}. Negative values always
+     * take 10 bytes, use {@link #putZigZag(long)} for values that may be negative.
+     *
+     * @param value The value.
+     * @return The underlying byte buffer.
+     */
+    public ByteBuffer putVarLong(long value) {
+        ensureSpace(VarInt.size(value));
+        VarInt.write(byteBuffer, value);
+        return markWritten(byteBuffer);
+    }
+
+    /**
+     * Writes an {@code int} in 1 to 5 bytes, fewer the closer it is to zero, see {@link VarInt#zigZag(int)}.
+     *
+     * @param value The value.
+     * @return The underlying byte buffer.
+     */
+    public ByteBuffer putZigZag(int value) {
+        return putVarInt(VarInt.zigZag(value));
+    }
+
+    /**
+     * Writes a {@code long} in 1 to 10 bytes, fewer the closer it is to zero, see {@link VarInt#zigZag(long)}.
+     *
+     * @param value The value.
+     * @return The underlying byte buffer.
+     */
+    public ByteBuffer putZigZag(long value) {
+        return putVarLong(VarInt.zigZag(value));
     }
 
     public ByteBuffer compress() throws IOException {
@@ -449,9 +589,10 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
     }
 
     public DynamicByteBuffer copy() {
-        DynamicByteBuffer copyBuffer = new DynamicByteBuffer(byteBuffer.capacity(), expandFactor);
+        DynamicByteBuffer copyBuffer = new DynamicByteBuffer(byteBuffer.capacity(), expandFactor, allocator);
         copyBuffer.put(byteBuffer.array(), 0, byteBuffer.capacity());
         copyBuffer.position(position());
+        copyBuffer.size = size;
         return copyBuffer;
     }
 
@@ -486,13 +627,25 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
             return;
         }
 
+        grow(byteBuffer.position() + needed);
+    }
+
+    private void ensureSpace(int index, int needed) {
+        if (index + needed <= limit()) {
+            return;
+        }
+
+        grow(index + needed);
+    }
+
+    private void grow(int minCapacity) {
         int currentPosition = byteBuffer.position();
-        int newCapacity = (int) (byteBuffer.capacity() * expandFactor);
-        while (newCapacity < (currentPosition + needed)) {
-            newCapacity = (int) (newCapacity * expandFactor);
+        int newCapacity = Math.max((int) (byteBuffer.capacity() * expandFactor), 1);
+        while (newCapacity < minCapacity) {
+            newCapacity = Math.max((int) (newCapacity * expandFactor), minCapacity);
         }
 
-        ByteBuffer expanded = ByteBuffer.allocate(newCapacity);
+        ByteBuffer expanded = allocator.allocate(newCapacity);
         expanded.order(byteBuffer.order());
 
         // Rewind the original buffer and copy its data to the expanded buffer
@@ -502,13 +655,44 @@ public class DynamicByteBuffer implements Comparable<ByteBuffer> {
         // Restore the original position in the expanded buffer
         expanded.position(currentPosition);
 
-        byteBuffer = expanded;
+        replace(expanded, true);
     }
 
     public void setSpace(int newCapacity) {
         ByteBuffer expanded = ByteBuffer.allocate(newCapacity);
         expanded.order(byteBuffer.order());
         expanded.put(Arrays.copyOf(byteBuffer.array(), newCapacity));
-        byteBuffer = expanded;
+        // Exactly sized, compression and encryption work on the whole array
+        replace(expanded, false);
+        size = newCapacity;
+    }
+
+    /**
+     * Returns the storage to the allocator and empties the buffer. Writing to it again allocates new storage.
+     */
+    public void release() {
+        replace(RELEASED, false);
+        size = 0;
+    }
+
+    public BufferAllocator getAllocator() {
+        return allocator;
+    }
+
+    private void replace(ByteBuffer newBuffer, boolean fromAllocator) {
+        if (allocated) allocator.release(byteBuffer);
+
+        byteBuffer = newBuffer;
+        allocated = fromAllocator;
+    }
+
+    private ByteBuffer markWritten(ByteBuffer buffer) {
+        size = Math.max(size, buffer.position());
+        return buffer;
+    }
+
+    private ByteBuffer markWritten(int end, ByteBuffer buffer) {
+        size = Math.max(size, end);
+        return buffer;
     }
-}
\ No newline at end of file
+}
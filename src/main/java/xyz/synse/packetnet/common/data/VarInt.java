@@ -0,0 +1,142 @@
+package xyz.synse.packetnet.common.data;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length integers, 7 bits per byte from the least significant ones up, the high bit of each byte telling
+ * whether another byte follows. Values below 128 take a single byte, any {@code int} at most {@value #MAX_INT_SIZE}
+ * bytes and any {@code long} at most {@value #MAX_LONG_SIZE} bytes. Negative values take the most bytes, signed
+ * values close to zero are to be mapped to small unsigned ones with {@link #zigZag(int)} first.
+ */
+public final class VarInt {
+    public static final int MAX_INT_SIZE = 5;
+    public static final int MAX_LONG_SIZE = 10;
+
+    private VarInt() {
+    }
+
+    /**
+     * @param value The value, taken as unsigned.
+     * @return The number of bytes the value is written in.
+     */
+    public static int size(int value) {
+        // One byte per started group of 7 bits, at least one
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+
+    /**
+     * @param value The value, taken as unsigned.
+     * @return The number of bytes the value is written in.
+     */
+    public static int size(long value) {
+        return (Long.SIZE - Long.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+
+    /**
+     * Writes a value at the buffer's position.
+     *
+     * @param buffer The buffer, with room for {@link #size(int)} bytes.
+     * @param value  The value, taken as unsigned.
+     */
+    public static void write(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes a value at the buffer's position.
+     *
+     * @param buffer The buffer, with room for {@link #size(long)} bytes.
+     * @param value  The value, taken as unsigned.
+     */
+    public static void write(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an {@code int} written by {@link #write(ByteBuffer, int)} from the buffer's position.
+     *
+     * @param buffer The buffer.
+     * @return The value.
+     * @throws BufferUnderflowException if the buffer ends within the value.
+     * @throws IllegalStateException    if the value is longer than {@value #MAX_INT_SIZE} bytes.
+     */
+    public static int readInt(ByteBuffer buffer) {
+        byte b = buffer.get();
+        if (b >= 0) return b;
+
+        int value = b & 0x7F;
+        for (int shift = 7; shift < Integer.SIZE; shift += 7) {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    /**
+     * Reads a {@code long} written by {@link #write(ByteBuffer, long)} from the buffer's position.
+     *
+     * @param buffer The buffer.
+     * @return The value.
+     * @throws BufferUnderflowException if the buffer ends within the value.
+     * @throws IllegalStateException    if the value is longer than {@value #MAX_LONG_SIZE} bytes.
+     */
+    public static long readLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    /**
+     * Maps a signed value to an unsigned one, interleaving the negative values with the positive ones so values
+     * close to zero stay small: 0, -1, 1, -2, 2 map to 0, 1, 2, 3, 4.
+     *
+     * @param value The signed value.
+     * @return The unsigned value.
+     */
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * @param value The signed value.
+     * @return The unsigned value.
+     * @see #zigZag(int)
+     */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #zigZag(int)}.
+     *
+     * @param value The unsigned value.
+     * @return The signed value.
+     */
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reverses {@link #zigZag(long)}.
+     *
+     * @param value The unsigned value.
+     * @return The signed value.
+     */
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
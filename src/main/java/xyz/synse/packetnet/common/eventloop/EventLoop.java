@@ -0,0 +1,285 @@
+package xyz.synse.packetnet.common.eventloop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single threaded reactor. Multiplexes the readiness events of many channels using a {@link Selector}
+ * and runs tasks submitted from other threads in between.
+ * <p>
+ * Every channel registered with an event loop is owned by its thread, so handlers never run concurrently.
+ * Delayed tasks are kept in a timer queue and run by the loop thread once due, the selector wait is bounded by the
+ * earliest deadline.
+ */
+public class EventLoop implements Runnable {
+    private final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<>();
+    private long scheduledSequence;
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+    private final AtomicInteger pendingRegistrations = new AtomicInteger();
+    private volatile int registeredChannels;
+    private volatile Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new event loop. The loop does not run until {@link #run()} is called on a thread.
+     *
+     * @throws IOException if the selector cannot be opened.
+     */
+    public EventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+
+        try {
+            while (running && !thread.isInterrupted()) {
+                select();
+                wakenUp.set(false);
+                registeredChannels = selector.keys().size();
+
+                processSelectedKeys();
+                runScheduledTasks();
+                runTasks();
+            }
+        } catch (final ClosedSelectorException ignored) {
+        } catch (final IOException e) {
+            logger.error("Error in event loop: {} :", e.getClass(), e);
+        } finally {
+            closeAll();
+        }
+
+        logger.debug("Event loop stopped");
+    }
+
+    private void select() throws IOException {
+        ScheduledTask next = scheduledTasks.peek();
+        if (next == null) {
+            selector.select();
+            return;
+        }
+
+        long delayNanos = next.deadlineNanos - System.nanoTime();
+        if (delayNanos <= 0) {
+            selector.selectNow();
+        } else {
+            // Round up, select(0) would block until woken up
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos + 999_999)));
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+
+            SelectionHandler handler = (SelectionHandler) key.attachment();
+            if (!key.isValid()) {
+                handler.close(key);
+                continue;
+            }
+
+            try {
+                handler.handle(key);
+            } catch (final IOException e) {
+                logger.debug("Closing channel after I/O error: {} :", e.getClass(), e);
+                handler.close(key);
+            } catch (final Exception e) {
+                logger.error("Exception while handling selection key: {} :", e.getClass(), e);
+                handler.close(key);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (final Exception e) {
+                logger.error("Exception while running event loop task: {} :", e.getClass(), e);
+            }
+        }
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+
+        ScheduledTask scheduledTask;
+        while ((scheduledTask = scheduledTasks.peek()) != null && scheduledTask.deadlineNanos - now <= 0) {
+            scheduledTasks.poll();
+            if (scheduledTask.cancelled) continue;
+
+            try {
+                scheduledTask.task.run();
+            } catch (final Exception e) {
+                logger.error("Exception while running scheduled task: {} :", e.getClass(), e);
+            }
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        scheduledTasks.clear();
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof SelectionHandler handler)
+                handler.close(key);
+        }
+
+        // Run the clean-up tasks submitted by the handlers
+        runTasks();
+
+        try {
+            selector.close();
+        } catch (final IOException e) {
+            logger.warn("Unable to close selector: {} :", e.getClass(), e);
+        }
+    }
+
+    /**
+     * Registers a channel with this event loop. May be called from any thread; if called from the event loop thread
+     * the channel is registered immediately, otherwise once the loop runs the registration task.
+     * The handler is notified through {@link SelectionHandler#registered(SelectionKey)}.
+     *
+     * @param channel     The channel to register. It is switched to non-blocking mode.
+     * @param interestOps The initial interest set.
+     * @param handler     The handler of the channel's readiness events.
+     */
+    public void register(SelectableChannel channel, int interestOps, SelectionHandler handler) {
+        pendingRegistrations.incrementAndGet();
+
+        if (inEventLoop()) {
+            doRegister(channel, interestOps, handler);
+        } else {
+            execute(() -> doRegister(channel, interestOps, handler));
+        }
+    }
+
+    private void doRegister(SelectableChannel channel, int interestOps, SelectionHandler handler) {
+        try {
+            channel.configureBlocking(false);
+            handler.registered(channel.register(selector, interestOps, handler));
+        } catch (final IOException e) {
+            logger.debug("Unable to register channel: {} :", e.getClass(), e);
+        } finally {
+            pendingRegistrations.decrementAndGet();
+            registeredChannels = selector.keys().size();
+        }
+    }
+
+    /**
+     * Runs a task on the event loop thread.
+     *
+     * @param task The task to run.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    /**
+     * Runs a task on the event loop thread once the delay has elapsed. May be called from any thread.
+     * Tasks still waiting when the loop shuts down are discarded.
+     *
+     * @param task  The task to run.
+     * @param delay The delay before running the task.
+     * @param unit  The unit of the delay.
+     * @return A handle that can cancel the task before it runs.
+     */
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        ScheduledTask scheduledTask = new ScheduledTask(task, System.nanoTime() + unit.toNanos(delay));
+
+        if (inEventLoop()) {
+            addScheduled(scheduledTask);
+        } else {
+            execute(() -> addScheduled(scheduledTask));
+        }
+
+        return scheduledTask;
+    }
+
+    private void addScheduled(ScheduledTask scheduledTask) {
+        scheduledTask.sequence = scheduledSequence++;
+        scheduledTasks.add(scheduledTask);
+    }
+
+    /**
+     * Checks if the caller is running on the event loop thread.
+     *
+     * @return True if the current thread is the event loop thread, false otherwise.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Gets the number of channels registered, or waiting to be registered, with this event loop.
+     *
+     * @return The number of channels served by this event loop.
+     */
+    public int getLoad() {
+        return registeredChannels + pendingRegistrations.get();
+    }
+
+    /**
+     * Stops the event loop. Every registered channel is closed before the loop exits.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public boolean isShutdown() {
+        return !running;
+    }
+
+    /**
+     * A task waiting in the timer queue of an event loop.
+     */
+    public static final class ScheduledTask implements Comparable<ScheduledTask> {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long sequence;
+        private volatile boolean cancelled;
+
+        private ScheduledTask(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Prevents the task from running. Has no effect if it already ran.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int compare = Long.compare(deadlineNanos - other.deadlineNanos, 0);
+            return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package xyz.synse.packetnet.common.eventloop;
+
+/**
+ * Strategies for assigning new channels to the event loops of an {@link EventLoopGroup}.
+ */
+public enum EventLoopChooser {
+    /**
+     * Assigns channels to the event loops in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * Assigns channels to the event loop serving the fewest channels.
+     */
+    LEAST_LOADED
+}
@@ -0,0 +1,130 @@
+package xyz.synse.packetnet.common.eventloop;
+
+import xyz.synse.packetnet.common.threading.ExecutionMode;
+import xyz.synse.packetnet.common.threading.ThreadPoolManager;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of {@link EventLoop}s, each running on its own thread.
+ * <p>
+ * Channels are assigned to one of the loops when they are created and stay on it for their whole life.
+ * A group may be shared between a {@link xyz.synse.packetnet.server.Server} and any number of
+ * {@link xyz.synse.packetnet.client.Client}s; it is then up to the owner to shut it down.
+ */
+public class EventLoopGroup {
+    private final ThreadPoolManager threadPoolManager;
+    private final EventLoop[] eventLoops;
+    private final EventLoopChooser chooser;
+    private final AtomicInteger index = new AtomicInteger();
+
+    /**
+     * Creates a new instance of the EventLoopGroup class and starts its event loops.
+     * <p>
+     * The event loops always run on platform threads. A loop blocks in {@link java.nio.channels.Selector#select()},
+     * which would pin the carrier of a virtual thread, and serves many channels already, so it gains nothing from
+     * being virtual.
+     *
+     * @param threads The number of event loops.
+     * @param chooser The strategy for assigning channels to event loops.
+     * @throws IOException if an event loop cannot be opened.
+     */
+    public EventLoopGroup(int threads, EventLoopChooser chooser) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("An event loop group needs at least one thread");
+
+        this.threadPoolManager = new ThreadPoolManager(ExecutionMode.PLATFORM, threads);
+        this.eventLoops = new EventLoop[threads];
+        this.chooser = chooser;
+
+        for (int i = 0; i < threads; i++) {
+            eventLoops[i] = new EventLoop();
+            threadPoolManager.submit(eventLoops[i]);
+        }
+    }
+
+    /**
+     * Creates a new instance of the EventLoopGroup class which assigns channels by round-robin.
+     *
+     * @param threads The number of event loops.
+     * @throws IOException if an event loop cannot be opened.
+     */
+    public EventLoopGroup(int threads) throws IOException {
+        this(threads, EventLoopChooser.ROUND_ROBIN);
+    }
+
+    /**
+     * Creates a new instance of the EventLoopGroup class with one event loop per available processor.
+     *
+     * @throws IOException if an event loop cannot be opened.
+     */
+    public EventLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Picks the event loop for a new channel.
+     *
+     * @return The chosen event loop.
+     */
+    public EventLoop next() {
+        if (eventLoops.length == 1) return eventLoops[0];
+
+        return switch (chooser) {
+            case ROUND_ROBIN -> eventLoops[Math.floorMod(index.getAndIncrement(), eventLoops.length)];
+            case LEAST_LOADED -> {
+                EventLoop leastLoaded = eventLoops[0];
+                for (int i = 1; i < eventLoops.length; i++) {
+                    if (eventLoops[i].getLoad() < leastLoaded.getLoad())
+                        leastLoaded = eventLoops[i];
+                }
+                yield leastLoaded;
+            }
+        };
+    }
+
+    /**
+     * Checks if the caller is running on one of the group's event loop threads.
+     *
+     * @return True if the current thread belongs to this group, false otherwise.
+     */
+    public boolean inEventLoop() {
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop.inEventLoop()) return true;
+        }
+        return false;
+    }
+
+    public int getThreads() {
+        return eventLoops.length;
+    }
+
+    public EventLoopChooser getChooser() {
+        return chooser;
+    }
+
+    /**
+     * Stops all event loops. Every registered channel is closed.
+     */
+    public void shutdown() {
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+        threadPoolManager.shutdown(false);
+    }
+
+    public boolean isShutdown() {
+        return threadPoolManager.isShutdown();
+    }
+
+    /**
+     * Waits for all event loops to stop after {@link #shutdown()}.
+     *
+     * @return True if the event loops stopped, false otherwise.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination() throws InterruptedException {
+        return threadPoolManager.awaitTermination();
+    }
+}
@@ -0,0 +1,39 @@
+package xyz.synse.packetnet.common.eventloop;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Handles readiness events of a channel registered with an {@link EventLoop}.
+ */
+@FunctionalInterface
+public interface SelectionHandler {
+    /**
+     * Called on the event loop thread once the channel has been registered.
+     *
+     * @param key The selection key of the channel.
+     */
+    default void registered(SelectionKey key) {
+    }
+
+    /**
+     * Called on the event loop thread when the channel is ready for one of its interest operations.
+     *
+     * @param key The selection key of the channel.
+     * @throws IOException if an I/O error occurs while handling the event.
+     */
+    void handle(SelectionKey key) throws IOException;
+
+    /**
+     * Called on the event loop thread when {@link #handle(SelectionKey)} failed or the event loop is shutting down.
+     * Closes the channel by default.
+     *
+     * @param key The selection key of the channel.
+     */
+    default void close(SelectionKey key) {
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+}
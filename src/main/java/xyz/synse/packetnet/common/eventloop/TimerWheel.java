@@ -0,0 +1,192 @@
+package xyz.synse.packetnet.common.eventloop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A hashed timer wheel driven by an event loop, for large numbers of timeouts that are mostly cancelled before they
+ * expire, such as request timeouts.
+ * <p>
+ * Timeouts are hashed by their deadline into a ring of buckets and the wheel visits one bucket per tick, so adding
+ * and cancelling a timeout is O(1) and no task is scheduled per timeout. Deadlines are rounded up to the next tick.
+ * Cancelled timeouts are dropped the next time their bucket is visited, at most one turn of the wheel later.
+ * The wheel only ticks while it holds timeouts, and expired tasks run on the event loop.
+ */
+public class TimerWheel {
+    public static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+    private final EventLoop eventLoop;
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    // Timeouts added from any thread, moved into the buckets by the event loop
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean ticking = new AtomicBoolean();
+    // Event loop only
+    private long tick;
+    private int size;
+
+    /**
+     * Creates a timer wheel ticking every 10 ms with {@value #DEFAULT_WHEEL_SIZE} buckets.
+     *
+     * @param eventLoop The event loop running the wheel and the expired tasks.
+     */
+    public TimerWheel(EventLoop eventLoop) {
+        this(eventLoop, DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param eventLoop    The event loop running the wheel and the expired tasks.
+     * @param tickDuration The duration of a tick, the precision of the timeouts.
+     * @param unit         The unit of the tick duration.
+     * @param wheelSize    The number of buckets, a power of two. One turn of the wheel takes this many ticks.
+     * @throws IllegalArgumentException if the tick duration is not positive or the wheel size not a power of two.
+     */
+    public TimerWheel(EventLoop eventLoop, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("The tick duration must be positive!");
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("The wheel size must be a power of two!");
+
+        this.eventLoop = eventLoop;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+    }
+
+    /**
+     * Runs a task on the event loop once the delay has elapsed, unless cancelled first. May be called from any thread.
+     *
+     * @param task  The task to run.
+     * @param delay The delay before running the task.
+     * @param unit  The unit of the delay.
+     * @return A handle that can cancel the task before it runs.
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        added.add(timeout);
+
+        if (ticking.compareAndSet(false, true))
+            eventLoop.schedule(this::tick, tickNanos, TimeUnit.NANOSECONDS);
+
+        return timeout;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        long currentTick = (now - startNanos) / tickNanos;
+        // An empty wheel skips the ticks it was idle for
+        if (size == 0) tick = Math.max(tick, currentTick);
+
+        while (tick <= currentTick) {
+            transferAdded();
+            expire(tick & mask);
+            tick++;
+        }
+        transferAdded();
+
+        if (size == 0) {
+            ticking.set(false);
+            // A timeout added since the last transfer found the wheel still ticking
+            if (added.isEmpty() || !ticking.compareAndSet(false, true)) return;
+        }
+
+        eventLoop.schedule(this::tick, startNanos + tick * tickNanos - now, TimeUnit.NANOSECONDS);
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state != Timeout.PENDING) continue;
+
+            // Round the deadline up to a tick, a deadline already passed expires on the current one
+            long deadlineTick = Math.max(Math.ceilDiv(timeout.deadlineNanos - startNanos, tickNanos), tick);
+            timeout.rounds = (deadlineTick - tick) / buckets.length;
+
+            int bucket = (int) (deadlineTick & mask);
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+            size++;
+        }
+    }
+
+    private void expire(long bucket) {
+        Timeout timeout = buckets[(int) bucket];
+        Timeout kept = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.state != Timeout.PENDING) {
+                size--;
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+                timeout.next = kept;
+                kept = timeout;
+            } else {
+                size--;
+                timeout.expire(logger);
+            }
+            timeout = next;
+        }
+        buckets[(int) bucket] = kept;
+    }
+
+    /**
+     * A task waiting in a timer wheel.
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private volatile int state = PENDING;
+        // Event loop only
+        private long rounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Prevents the task from running.
+         *
+         * @return False if the task already ran or was cancelled before.
+         */
+        public boolean cancel() {
+            return STATE.compareAndSet(this, PENDING, CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire(Logger logger) {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) return;
+
+            try {
+                task.run();
+            } catch (final Exception e) {
+                logger.error("Exception while running a timeout: {} :", e.getClass(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package xyz.synse.packetnet.common.packet;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a received frame cannot be decoded, for example because its length is negative or too large.
+ */
+public class CorruptedFrameException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CorruptedFrameException(String message) {
+        super(message);
+    }
+}
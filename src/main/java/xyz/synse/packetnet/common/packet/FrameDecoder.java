@@ -0,0 +1,142 @@
+package xyz.synse.packetnet.common.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a stream of bytes into the frames written by {@link Packet#write(ByteBuffer)}, or in another
+ * {@link FrameFormat}.
+ * <p>
+ * A read may contain any number of frames and may end in the middle of one. Complete frames are decoded straight from
+ * the read buffer; only the bytes of a trailing partial frame are kept until the next read completes it.
+ * <p>
+ * Instances are not thread-safe, each connection needs its own decoder.
+ */
+public class FrameDecoder {
+    public static final int HEADER_SIZE = Packet.HEADER_SIZE;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 8 * 1024 * 1024;
+
+    private final int maxFrameSize;
+    private boolean recyclePackets;
+    private FrameFormat frameFormat = FrameFormat.STANDARD;
+    private ByteBuffer cumulation = ByteBuffer.allocate(0);
+
+    /**
+     * Creates a new instance of the FrameDecoder class.
+     *
+     * @param maxFrameSize The largest packet data length accepted, in bytes.
+     */
+    public FrameDecoder(int maxFrameSize) {
+        if (maxFrameSize < 0)
+            throw new IllegalArgumentException("The max frame size must not be negative!");
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Creates a new instance of the FrameDecoder class accepting frames of up to {@value #DEFAULT_MAX_FRAME_SIZE} bytes.
+     */
+    public FrameDecoder() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Decodes every complete frame from the given data. The data is consumed entirely.
+     *
+     * @param in     The data that was read, from its position to its limit.
+     * @param output Receives the decoded packets in order.
+     * @throws CorruptedFrameException if a frame header announces an invalid length.
+     * @throws IOException             if the output fails to handle a packet.
+     */
+    public void decode(ByteBuffer in, Output output) throws IOException {
+        if (cumulation.position() == 0) {
+            // Nothing left over from previous reads, decode in place
+            decodeFrames(in, output);
+            if (in.hasRemaining()) append(in);
+            return;
+        }
+
+        append(in);
+        cumulation.flip();
+        try {
+            decodeFrames(cumulation, output);
+        } finally {
+            cumulation.compact();
+        }
+    }
+
+    private void decodeFrames(ByteBuffer buffer, Output output) throws IOException {
+        while (buffer.hasRemaining()) {
+            int headerSize = frameFormat.peekHeaderSize(buffer);
+            if (headerSize < 0) return;
+
+            int length = frameFormat.peekLength(buffer, headerSize);
+            if (length < 0 || length > maxFrameSize)
+                throw new CorruptedFrameException("Invalid frame length " + length + " (max " + maxFrameSize + ")");
+
+            if (buffer.remaining() < headerSize + length) return;
+
+            // The output may switch the format, which then applies from the next frame on
+            output.accept(frameFormat.read(buffer, recyclePackets));
+        }
+    }
+
+    private void append(ByteBuffer in) {
+        if (cumulation.remaining() < in.remaining()) {
+            ByteBuffer expanded = ByteBuffer.allocate(Math.max(cumulation.capacity() * 2, cumulation.position() + in.remaining()));
+            cumulation.flip();
+            expanded.put(cumulation);
+            cumulation = expanded;
+        }
+
+        cumulation.put(in);
+    }
+
+    /**
+     * Gets the number of bytes of an incomplete frame waiting for more data.
+     *
+     * @return The number of buffered bytes.
+     */
+    public int getBufferedBytes() {
+        return cumulation.position();
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets whether frames are decoded into recyclable packets, see {@link Packet#obtain(short)}.
+     * The output then owns each packet and must release it.
+     *
+     * @param recyclePackets True to decode into recyclable packets.
+     */
+    public void setRecyclePackets(boolean recyclePackets) {
+        this.recyclePackets = recyclePackets;
+    }
+
+    public boolean isRecyclePackets() {
+        return recyclePackets;
+    }
+
+    /**
+     * Sets the format of the frames to decode. Called by the output while it handles a packet, the format applies
+     * from the frame following that packet on. Defaults to {@link FrameFormat#STANDARD}.
+     *
+     * @param frameFormat The frame format.
+     */
+    public void setFrameFormat(FrameFormat frameFormat) {
+        this.frameFormat = frameFormat;
+    }
+
+    public FrameFormat getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * Receives the packets decoded by a {@link FrameDecoder}.
+     */
+    @FunctionalInterface
+    public interface Output {
+        void accept(Packet packet) throws IOException;
+    }
+}
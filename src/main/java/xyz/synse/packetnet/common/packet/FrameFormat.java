@@ -0,0 +1,200 @@
+package xyz.synse.packetnet.common.packet;
+
+import xyz.synse.packetnet.common.data.VarInt;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The headers frames are written with.
+ * <p>
+ * A {@link #STANDARD} header is the packet id as a {@code short} followed by the data length as an {@code int},
+ * {@value Packet#HEADER_SIZE} bytes. A {@link #COMPACT} header is the packet id, zigzag encoded plus one, followed by
+ * the data length, both as {@link VarInt}s, so a packet with an id between -63 and 63 and less than 128 bytes of
+ * data has a 2 byte header. A compact header starting with a zero byte, which no id encodes to, is an escape:
+ * a frame with a standard header follows. Frames that are encoded before their format is known, such as those of a
+ * {@link PreparedPacket} or the frames of the UDP channels, are written that way.
+ * <p>
+ * Connections use the standard format unless both ends negotiate the compact one when they connect.
+ */
+public enum FrameFormat {
+    STANDARD,
+    COMPACT;
+
+    /**
+     * The largest header of either format.
+     */
+    public static final int MAX_HEADER_SIZE = 3 + VarInt.MAX_INT_SIZE;
+
+    private static final byte ESCAPE = 0;
+    private static final FrameFormat[] VALUES = values();
+
+    /**
+     * @param ordinal The ordinal of a format, as exchanged when connecting.
+     * @return The format.
+     * @throws IllegalArgumentException if no format has the ordinal.
+     */
+    public static FrameFormat of(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) throw new IllegalArgumentException("Unknown frame format " + ordinal);
+
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @param id     The packet id.
+     * @param length The data length.
+     * @return The size of the header of a frame.
+     */
+    public int headerSize(short id, int length) {
+        if (this == STANDARD) return Packet.HEADER_SIZE;
+
+        return VarInt.size(compactId(id)) + VarInt.size(length);
+    }
+
+    /**
+     * @return The size of the prefix of a frame with a standard header, see {@link #writeEscape(ByteBuffer)}.
+     */
+    public int escapeSize() {
+        return this == STANDARD ? 0 : 1;
+    }
+
+    /**
+     * Writes a frame header.
+     *
+     * @param outBuffer The buffer to write into.
+     * @param id        The packet id.
+     * @param length    The data length.
+     * @return The given buffer.
+     */
+    public ByteBuffer writeHeader(ByteBuffer outBuffer, short id, int length) {
+        if (this == STANDARD) return Packet.writeHeader(outBuffer, id, length);
+
+        VarInt.write(outBuffer, compactId(id));
+        VarInt.write(outBuffer, length);
+        return outBuffer;
+    }
+
+    /**
+     * Writes what comes in front of a frame with a standard header: nothing in the standard format, the escape in
+     * the compact one.
+     *
+     * @param outBuffer The buffer to write into.
+     * @return The given buffer.
+     */
+    public ByteBuffer writeEscape(ByteBuffer outBuffer) {
+        if (this == COMPACT) outBuffer.put(ESCAPE);
+        return outBuffer;
+    }
+
+    /**
+     * Writes the full frame of a packet, header and written bytes.
+     *
+     * @param packet    The packet.
+     * @param outBuffer The buffer to write into.
+     * @return The given buffer.
+     */
+    public ByteBuffer write(Packet packet, ByteBuffer outBuffer) {
+        writeHeader(outBuffer, packet.getID(), packet.getBuffer().size());
+        outBuffer.put(packet.getBuffer().array(), 0, packet.getBuffer().size());
+        return outBuffer;
+    }
+
+    /**
+     * Checks whether the frame at the buffer's position has a standard header, skipping the escape in front of it.
+     * Always true in the standard format.
+     *
+     * @param inBuffer The buffer positioned at the start of a frame.
+     * @return True if a frame with a standard header follows, false if the frame has a compact header.
+     * @throws BufferUnderflowException if the buffer is empty.
+     */
+    public boolean readEscape(ByteBuffer inBuffer) {
+        if (this == STANDARD) return true;
+        if (inBuffer.get(inBuffer.position()) != ESCAPE) return false;
+
+        inBuffer.position(inBuffer.position() + 1);
+        return true;
+    }
+
+    /**
+     * Reads a packet, see {@link Packet#read(ByteBuffer, boolean)}. Escaped frames are read with their standard header.
+     *
+     * @param inBuffer The buffer positioned at the start of a frame.
+     * @param recycle  True to read into a recyclable packet.
+     * @return The packet, its data positioned at 0.
+     * @throws IOException if the packet cannot be read.
+     */
+    public Packet read(ByteBuffer inBuffer, boolean recycle) throws IOException {
+        if (readEscape(inBuffer)) return Packet.read(inBuffer, recycle);
+
+        short id;
+        int length;
+        try {
+            id = id(VarInt.readInt(inBuffer));
+            length = VarInt.readInt(inBuffer);
+        } catch (final BufferUnderflowException | IllegalStateException e) {
+            throw new CorruptedFrameException("Malformed compact header");
+        }
+        return Packet.read(inBuffer, id, length, recycle);
+    }
+
+    /**
+     * Gets the size of the header of the frame at the buffer's position, without consuming anything. In the compact
+     * format the escape counts as part of the header.
+     *
+     * @param inBuffer The buffer positioned at the start of a frame.
+     * @return The size of the header, or -1 if the buffer doesn't hold all of it yet.
+     * @throws CorruptedFrameException if the header is malformed.
+     */
+    public int peekHeaderSize(ByteBuffer inBuffer) throws CorruptedFrameException {
+        int position = inBuffer.position();
+        if (this == STANDARD || inBuffer.hasRemaining() && inBuffer.get(position) == ESCAPE) {
+            int size = escapeSize() + Packet.HEADER_SIZE;
+            return inBuffer.remaining() >= size ? size : -1;
+        }
+
+        int idSize = peekVarIntSize(inBuffer, position);
+        if (idSize < 0) return -1;
+
+        int lengthSize = peekVarIntSize(inBuffer, position + idSize);
+        return lengthSize < 0 ? -1 : idSize + lengthSize;
+    }
+
+    /**
+     * Gets the data length of the frame at the buffer's position, without consuming anything.
+     *
+     * @param inBuffer   The buffer positioned at the start of a frame.
+     * @param headerSize The size of the header, from {@link #peekHeaderSize(ByteBuffer)}.
+     * @return The data length, negative if the header is corrupted.
+     */
+    public int peekLength(ByteBuffer inBuffer, int headerSize) {
+        int index = inBuffer.position();
+        if (this == STANDARD || inBuffer.get(index) == ESCAPE) return inBuffer.getInt(index + headerSize - Integer.BYTES);
+
+        // The header was validated by peekHeaderSize, reading it only moves the position, which is put back
+        try {
+            VarInt.readInt(inBuffer);
+            return VarInt.readInt(inBuffer);
+        } finally {
+            inBuffer.position(index);
+        }
+    }
+
+    private static int peekVarIntSize(ByteBuffer buffer, int index) throws CorruptedFrameException {
+        for (int size = 1; size <= VarInt.MAX_INT_SIZE; size++) {
+            if (index + size > buffer.limit()) return -1;
+            if (buffer.get(index + size - 1) >= 0) return size;
+        }
+        throw new CorruptedFrameException("Malformed compact header");
+    }
+
+    private static int compactId(short id) {
+        return VarInt.zigZag(id) + 1;
+    }
+
+    private static short id(int compactId) throws CorruptedFrameException {
+        if (compactId < 1 || compactId > 0x10000) throw new CorruptedFrameException("Invalid compact id " + compactId);
+
+        return (short) VarInt.unZigZag(compactId - 1);
+    }
+}
@@ -6,19 +6,107 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+/**
+ * A packet id and its data.
+ * <p>
+ * Packets created with a constructor are plain objects. Packets from {@link #obtain(short)}, and received packets
+ * when recycling is enabled on the server or client, are recyclable: they carry a reference count starting at 1 and
+ * are returned to a per-thread recycler, together with their data's storage, when it drops to 0. Sending a
+ * recyclable packet hands one reference over to the send, so {@link #retain()} it before sending it more than
+ * once or using it after the send. For plain packets {@link #retain()} and {@link #release()} do nothing.
+ */
 public class Packet {
-    private final short id;
+    /**
+     * Size of the frame header: a {@code short} packet id followed by an {@code int} payload length.
+     */
+    public static final int HEADER_SIZE = Short.BYTES + Integer.BYTES;
+
+    private static final AtomicIntegerFieldUpdater<Packet> REF_CNT =
+            AtomicIntegerFieldUpdater.newUpdater(Packet.class, "refCnt");
+
+    private short id;
     private final DynamicByteBuffer buffer;
+    private final boolean recyclable;
+    private volatile int refCnt = 1;
 
     public Packet(short id, DynamicByteBuffer buffer) {
+        this(id, buffer, false);
+    }
+
+    public Packet(short id) {
+        this(id, new DynamicByteBuffer(16, 1.5f));
+    }
+
+    Packet(short id, DynamicByteBuffer buffer, boolean recyclable) {
         this.id = id;
         this.buffer = buffer;
+        this.recyclable = recyclable;
     }
 
-    public Packet(short id) {
+    /**
+     * Obtains an empty recyclable packet from the recycler of the current thread, its data is stored in pooled
+     * buffers. The packet must be released once it's no longer used, sending it releases it.
+     *
+     * @param id The packet id.
+     * @return A packet with a reference count of 1.
+     */
+    public static Packet obtain(short id) {
+        return PacketRecycler.obtain(id);
+    }
+
+    void reuse(short id) {
         this.id = id;
-        this.buffer = new DynamicByteBuffer(16, 1.5f);
+        this.refCnt = 1;
+        buffer.clear();
+    }
+
+    /**
+     * Increments the reference count of a recyclable packet.
+     *
+     * @return This packet.
+     * @throws IllegalStateException if the packet was already released.
+     */
+    public Packet retain() {
+        if (!recyclable) return this;
+
+        int refCnt;
+        do {
+            refCnt = this.refCnt;
+            if (refCnt <= 0) throw new IllegalStateException("Packet was already released");
+        } while (!REF_CNT.compareAndSet(this, refCnt, refCnt + 1));
+
+        return this;
+    }
+
+    /**
+     * Decrements the reference count of a recyclable packet, recycling it when the count reaches 0.
+     * The packet must not be used after its last reference has been released.
+     *
+     * @return True if the packet was recycled, false otherwise.
+     * @throws IllegalStateException if the packet was already released.
+     */
+    public boolean release() {
+        if (!recyclable) return false;
+
+        int refCnt = REF_CNT.decrementAndGet(this);
+        if (refCnt > 0) return false;
+        if (refCnt < 0) {
+            REF_CNT.incrementAndGet(this);
+            throw new IllegalStateException("Packet was already released");
+        }
+
+        PacketRecycler.recycle(this);
+        return true;
+    }
+
+    public int refCnt() {
+        return refCnt;
+    }
+
+    public boolean isRecyclable() {
+        return recyclable;
     }
 
     public DynamicByteBuffer getBuffer() {
@@ -29,26 +117,82 @@ public class Packet {
         return id;
     }
 
+    /**
+     * Writes the full frame, header and payload, into the given buffer. Only the written bytes of the payload
+     * ({@link DynamicByteBuffer#size()}) are copied.
+     *
+     * @param outBuffer The buffer to write into.
+     * @return The given buffer.
+     */
     public ByteBuffer write(ByteBuffer outBuffer) {
+        writeHeader(outBuffer, id, buffer.size());
+        outBuffer.put(buffer.array(), 0, buffer.size());
+
+        return outBuffer;
+    }
+
+    /**
+     * Returns a view over the written bytes of this packet's payload. The bytes are not copied,
+     * so the packet must not be modified while the view is in use.
+     *
+     * @return A view positioned at 0 and limited to the payload size.
+     */
+    public ByteBuffer payload() {
+        return ByteBuffer.wrap(buffer.array(), 0, buffer.size());
+    }
+
+    public static ByteBuffer writeHeader(ByteBuffer outBuffer, short id, int length) {
         // Write packet id
         outBuffer.putShort(id);
-        // Read packet data
-        outBuffer.putInt(buffer.capacity());
-        outBuffer.put(buffer.array());
+        // Write packet data length
+        outBuffer.putInt(length);
 
         return outBuffer;
     }
 
     public static Packet read(ByteBuffer inBuffer) throws IOException {
+        return read(inBuffer, false);
+    }
+
+    /**
+     * Reads a packet from the given buffer.
+     *
+     * @param inBuffer The buffer positioned at the start of a frame.
+     * @param recycle  True to read into a recyclable packet from {@link #obtain(short)}, false for a plain one.
+     * @return The packet, its data positioned at 0.
+     * @throws IOException if the packet cannot be read.
+     */
+    public static Packet read(ByteBuffer inBuffer, boolean recycle) throws IOException {
         // Read packet id
         short id = inBuffer.getShort();
         // Read packet data length
         int len = inBuffer.getInt();
+        return read(inBuffer, id, len, recycle);
+    }
+
+    /**
+     * Reads the data of a packet whose header was read already.
+     *
+     * @param inBuffer The buffer positioned at the start of the data.
+     * @param id       The packet id.
+     * @param len      The data length.
+     * @param recycle  True to read into a recyclable packet from {@link #obtain(short)}, false for a plain one.
+     * @return The packet, its data positioned at 0.
+     * @throws IOException if the packet cannot be read.
+     */
+    static Packet read(ByteBuffer inBuffer, short id, int len, boolean recycle) throws IOException {
+        if (len < 0 || len > inBuffer.remaining()) throw new IOException("Invalid packet data length: " + len);
+
+        if (recycle) {
+            Packet packet = obtain(id);
+            packet.buffer.put(inBuffer, len);
+            packet.buffer.rewind();
+            return packet;
+        }
 
-        // Create a DynamicByteBuffer and read data directly from inBuffer
+        // Create a DynamicByteBuffer and copy the data directly from inBuffer
         DynamicByteBuffer byteBuffer = new DynamicByteBuffer(len, 1.5f);
-        byteBuffer.put(inBuffer.array(), inBuffer.position(), len);
-        inBuffer.position(inBuffer.position() + len);
+        byteBuffer.put(inBuffer, len);
         byteBuffer.rewind();
 
         return new Packet(id, byteBuffer);
@@ -59,16 +203,17 @@ public class Packet {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Packet packet = (Packet) o;
-        return id == packet.id && Arrays.equals(buffer.array(), packet.buffer.array());
+        return id == packet.id && Arrays.equals(buffer.array(), 0, buffer.size(),
+                packet.buffer.array(), 0, packet.buffer.size());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, buffer);
+        return Objects.hash(id, buffer.size());
     }
 
     @Override
     public String toString() {
-        return String.format("id: %s, data: %d bytes", id, buffer.capacity());
+        return String.format("id: %s, data: %d bytes", id, buffer.size());
     }
 }
@@ -0,0 +1,121 @@
+package xyz.synse.packetnet.common.packet;
+
+import xyz.synse.packetnet.common.ProtocolType;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The packets received in one go, all over the same protocol: the packets decoded from one TCP read or one datagram.
+ * <p>
+ * A batch is reused for the next read once the listeners return, so it must not be kept. Its packets are released
+ * afterwards like single received packets, {@link Packet#retain()} one to keep it.
+ */
+public final class PacketBatch implements Iterable<Packet> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Packet[] packets;
+    private int size;
+    private ProtocolType protocolType;
+
+    public PacketBatch() {
+        this.packets = new Packet[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates a batch holding the packets of another batch. The packets are not retained.
+     *
+     * @param batch The batch to copy.
+     */
+    public PacketBatch(PacketBatch batch) {
+        this.packets = Arrays.copyOf(batch.packets, Math.max(batch.size, 1));
+        this.size = batch.size;
+        this.protocolType = batch.protocolType;
+    }
+
+    /**
+     * @param index The index of the packet, from 0 to {@link #size()} - 1.
+     * @return The packet at the index.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public Packet get(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+
+        return packets[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The protocol all packets of the batch were received over, or null if the batch is empty.
+     */
+    public ProtocolType getProtocolType() {
+        return protocolType;
+    }
+
+    /**
+     * Adds a packet to the batch, taking over one of its references.
+     *
+     * @param packet       The packet.
+     * @param protocolType The protocol the packet was received over.
+     * @throws IllegalArgumentException if the batch holds packets received over another protocol.
+     */
+    public void add(Packet packet, ProtocolType protocolType) {
+        if (size > 0 && this.protocolType != protocolType)
+            throw new IllegalArgumentException("The batch holds packets received using " + this.protocolType);
+
+        if (size == packets.length) packets = Arrays.copyOf(packets, size << 1);
+        packets[size++] = packet;
+        this.protocolType = protocolType;
+    }
+
+    /**
+     * Empties the batch without releasing its packets.
+     */
+    public void clear() {
+        Arrays.fill(packets, 0, size, null);
+        size = 0;
+        protocolType = null;
+    }
+
+    /**
+     * Releases every packet and empties the batch.
+     */
+    public void release() {
+        for (int i = 0; i < size; i++) {
+            packets[i].release();
+        }
+        clear();
+    }
+
+    @Override
+    public Iterator<Packet> iterator() {
+        return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Packet next() {
+                if (index >= size) throw new NoSuchElementException();
+
+                return packets[index++];
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d packets using %s", size, protocolType);
+    }
+}
@@ -0,0 +1,50 @@
+package xyz.synse.packetnet.common.packet;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Handlers by packet id, in a table with a slot for each of the 65536 ids, so finding the handler of a packet is a
+ * single array lookup however many handlers are set. The table is allocated when the first handler is set.
+ * <p>
+ * Lookups never lock and may run on any thread; handlers are usually set before packets arrive.
+ *
+ * @param <H> The type of the handlers.
+ */
+public final class PacketHandlerTable<H> {
+    private static final int SIZE = 1 << Short.SIZE;
+
+    private volatile AtomicReferenceArray<H> handlers;
+
+    /**
+     * @param id The packet id.
+     * @return The handler of the packet id, or null if there is none.
+     */
+    public H get(short id) {
+        AtomicReferenceArray<H> handlers = this.handlers;
+        return handlers == null ? null : handlers.get(id & 0xFFFF);
+    }
+
+    /**
+     * Sets the handler of a packet id, replacing the previous one.
+     *
+     * @param id      The packet id.
+     * @param handler The handler, or null to remove it.
+     * @return The previous handler of the packet id, or null if there was none.
+     */
+    public synchronized H set(short id, H handler) {
+        AtomicReferenceArray<H> handlers = this.handlers;
+        if (handlers == null) {
+            if (handler == null) return null;
+            this.handlers = handlers = new AtomicReferenceArray<>(SIZE);
+        }
+
+        return handlers.getAndSet(id & 0xFFFF, handler);
+    }
+
+    /**
+     * Removes every handler.
+     */
+    public synchronized void clear() {
+        handlers = null;
+    }
+}
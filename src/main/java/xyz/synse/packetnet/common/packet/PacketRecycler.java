@@ -0,0 +1,51 @@
+package xyz.synse.packetnet.common.packet;
+
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.buffer.PooledBufferAllocator;
+import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Keeps released packets for reuse. Every platform thread has its own stack, so a packet obtained and released on
+ * the same thread, like a received packet on its event loop, never touches shared state. Packets released while
+ * the stack is full, or on virtual threads, go to a bounded shared queue; beyond that they're left to the garbage
+ * collector.
+ */
+final class PacketRecycler {
+    private static final int MAX_THREAD_LOCAL_PACKETS = 256;
+    private static final int MAX_SHARED_PACKETS = 1024;
+    private static final BufferAllocator ALLOCATOR = PooledBufferAllocator.HEAP;
+
+    private static final ThreadLocal<ArrayDeque<Packet>> STACK = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final Queue<Packet> SHARED = new ArrayBlockingQueue<>(MAX_SHARED_PACKETS);
+
+    private PacketRecycler() {
+    }
+
+    static Packet obtain(short id) {
+        Packet packet = Thread.currentThread().isVirtual() ? null : STACK.get().poll();
+        if (packet == null) packet = SHARED.poll();
+        if (packet == null) return new Packet(id, new DynamicByteBuffer(0, 1.5f, ALLOCATOR), true);
+
+        packet.reuse(id);
+        return packet;
+    }
+
+    static void recycle(Packet packet) {
+        // The payload's storage goes back to the pool, the packet grows it again when reused
+        packet.getBuffer().release();
+
+        if (!Thread.currentThread().isVirtual()) {
+            ArrayDeque<Packet> stack = STACK.get();
+            if (stack.size() < MAX_THREAD_LOCAL_PACKETS) {
+                stack.push(packet);
+                return;
+            }
+        }
+
+        SHARED.offer(packet);
+    }
+}
@@ -0,0 +1,70 @@
+package xyz.synse.packetnet.common.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A packet encoded once into an immutable frame, header and payload, which can be sent to any number of
+ * connections. Every send writes from its own {@link ByteBuffer#duplicate()} view of the frame, so the bytes are
+ * shared and never copied or encoded again.
+ */
+public final class PreparedPacket {
+    private final short id;
+    private final ByteBuffer frame;
+
+    /**
+     * Encodes the written bytes of a packet. The packet is not released and can be modified afterwards
+     * without affecting the prepared packet.
+     *
+     * @param packet The packet to encode.
+     */
+    public PreparedPacket(Packet packet) {
+        this.id = packet.getID();
+
+        ByteBuffer frame = ByteBuffer.allocate(Packet.HEADER_SIZE + packet.getBuffer().size());
+        packet.write(frame).flip();
+        this.frame = frame.asReadOnlyBuffer();
+    }
+
+    public short getID() {
+        return id;
+    }
+
+    /**
+     * @return The length of the packet's data, without the header.
+     */
+    public int length() {
+        return frame.limit() - Packet.HEADER_SIZE;
+    }
+
+    /**
+     * @return The size of the encoded frame, header included.
+     */
+    public int frameSize() {
+        return frame.limit();
+    }
+
+    /**
+     * Returns a new read-only view over the encoded frame, positioned at 0. Views are independent of each other.
+     *
+     * @return A view over the frame.
+     */
+    public ByteBuffer frame() {
+        return frame.duplicate();
+    }
+
+    /**
+     * Decodes the frame back into a plain packet.
+     *
+     * @return A copy of the prepared packet.
+     * @throws IOException if the frame cannot be read.
+     */
+    public Packet toPacket() throws IOException {
+        return Packet.read(frame());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("id: %s, data: %d bytes (prepared)", id, length());
+    }
+}
@@ -0,0 +1,194 @@
+package xyz.synse.packetnet.common.rpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.synse.packetnet.common.collections.IntObjectMap;
+import xyz.synse.packetnet.common.eventloop.TimerWheel;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The requests sent over one connection that await their response, see {@link Rpc}.
+ * <p>
+ * Every request gets a correlation id and is sent right away, without waiting for the responses of earlier
+ * requests, so thousands of requests can be in flight at a time. Their timeouts run on a {@link TimerWheel} and are
+ * cancelled when the response arrives. May be used from any thread.
+ */
+public class InFlightRequests {
+    private final Logger logger = LoggerFactory.getLogger(InFlightRequests.class);
+    private final TimerWheel timer;
+    private final Sender sender;
+    private final IntObjectMap<Request> requests = new IntObjectMap<>();
+    private int nextCorrelationId;
+    private boolean closed;
+
+    /**
+     * Creates a new set of in-flight requests.
+     *
+     * @param timer  The timer wheel running the timeouts.
+     * @param sender Sends request frames to the peer.
+     */
+    public InFlightRequests(TimerWheel timer, Sender sender) {
+        this.timer = timer;
+        this.sender = sender;
+    }
+
+    /**
+     * Sends a request. A recyclable packet has one of its references consumed, whether it was sent or not.
+     *
+     * @param packet  The request packet.
+     * @param timeout The time to wait for the response.
+     * @param unit    The unit of the timeout.
+     * @return A future completed with the reply, or failed with a {@link TimeoutException} if there is no response
+     * in time, an {@link RpcException} if the peer failed the request, or an {@link IOException} if the request
+     * could not be sent or the connection closed first.
+     */
+    public CompletableFuture<Packet> request(Packet packet, long timeout, TimeUnit unit) {
+        CompletableFuture<Packet> future = new CompletableFuture<>();
+        int correlationId;
+        synchronized (this) {
+            if (closed) {
+                packet.release();
+                future.completeExceptionally(new ClosedChannelException());
+                return future;
+            }
+
+            // Skip ids still in flight once the counter wraps around
+            do {
+                correlationId = nextCorrelationId++;
+            } while (requests.containsKey(correlationId));
+
+            int id = correlationId;
+            requests.put(id, new Request(future, timer.newTimeout(() -> timedOut(id), timeout, unit)));
+        }
+
+        try {
+            if (!sender.send(Rpc.request(correlationId, packet)))
+                fail(correlationId, new IOException("Request was not sent"));
+        } catch (final IOException e) {
+            fail(correlationId, e);
+        }
+        return future;
+    }
+
+    /**
+     * Completes the request a response frame answers. The frame is released.
+     *
+     * @param packet  The received packet.
+     * @param recycle True to decode the reply into a recyclable packet.
+     * @return True if the packet was a response frame, false if it is to be handled by the caller.
+     */
+    public boolean handle(Packet packet, boolean recycle) {
+        if (packet.getID() != Rpc.RESPONSE_ID) return false;
+
+        try {
+            ByteBuffer data = packet.payload();
+            int correlationId = data.getInt();
+            byte status = data.get();
+
+            Request request;
+            synchronized (this) {
+                request = requests.remove(correlationId);
+            }
+            // Timed out already
+            if (request == null) return true;
+
+            request.timeout.cancel();
+            if (status == Rpc.STATUS_OK) {
+                Packet reply = Packet.read(data, recycle);
+                // Cancelled by the caller
+                if (!request.future.complete(reply)) reply.release();
+            } else {
+                String message = new String(data.array(), data.position(), data.remaining(), StandardCharsets.UTF_8);
+                request.future.completeExceptionally(new RpcException(message));
+            }
+        } catch (final IOException | BufferUnderflowException e) {
+            logger.warn("Dropped malformed response: {} :", e.getClass(), e);
+        } finally {
+            packet.release();
+        }
+        return true;
+    }
+
+    /**
+     * Fails every request in flight, and every request sent afterwards.
+     */
+    public void close() {
+        List<Request> failed = new ArrayList<>();
+        synchronized (this) {
+            if (closed) return;
+
+            closed = true;
+            requests.forEachValue(failed::add);
+            requests.clear();
+        }
+
+        for (Request request : failed) {
+            request.timeout.cancel();
+            request.future.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    /**
+     * @return The number of requests awaiting their response.
+     */
+    public synchronized int size() {
+        return requests.size();
+    }
+
+    private void timedOut(int correlationId) {
+        Request request;
+        synchronized (this) {
+            request = requests.remove(correlationId);
+        }
+
+        if (request != null) request.future.completeExceptionally(new TimeoutException("No response in time"));
+    }
+
+    private void fail(int correlationId, IOException cause) {
+        Request request;
+        synchronized (this) {
+            request = requests.remove(correlationId);
+        }
+
+        if (request != null) {
+            request.timeout.cancel();
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Sends request frames to the peer.
+     */
+    @FunctionalInterface
+    public interface Sender {
+        /**
+         * Sends a request frame, releasing it.
+         *
+         * @param request The request frame.
+         * @return False if the request was dropped.
+         * @throws IOException if the request cannot be sent.
+         */
+        boolean send(Packet request) throws IOException;
+    }
+
+    private static final class Request {
+        private final CompletableFuture<Packet> future;
+        private final TimerWheel.Timeout timeout;
+
+        private Request(CompletableFuture<Packet> future, TimerWheel.Timeout timeout) {
+            this.future = future;
+            this.timeout = timeout;
+        }
+    }
+}
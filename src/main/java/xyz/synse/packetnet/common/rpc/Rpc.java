@@ -0,0 +1,89 @@
+package xyz.synse.packetnet.common.rpc;
+
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The frames of requests and their responses.
+ * <p>
+ * A request is sent over TCP as a frame with the reserved id {@value #REQUEST_ID} holding the request's correlation
+ * id followed by the request packet's own frame. The response is a frame with the reserved id {@value #RESPONSE_ID}
+ * holding the same correlation id, a status byte and then either the reply packet's frame or, if the request
+ * failed, the UTF-8 error message. Correlation ids let any number of requests be in flight on a connection, and
+ * responses may arrive in any order.
+ */
+public final class Rpc {
+    /**
+     * The reserved packet id of requests.
+     */
+    public static final short REQUEST_ID = -1006;
+    /**
+     * The reserved packet id of responses.
+     */
+    public static final short RESPONSE_ID = -1007;
+    /**
+     * Size of the correlation id in front of a request or response.
+     */
+    public static final int CORRELATION_ID_SIZE = Integer.BYTES;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    private Rpc() {
+    }
+
+    /**
+     * Wraps a request packet into a request frame. The packet is released.
+     *
+     * @param correlationId The correlation id of the request.
+     * @param packet        The request packet.
+     * @return A recyclable request packet.
+     */
+    public static Packet request(int correlationId, Packet packet) {
+        Packet request = Packet.obtain(REQUEST_ID);
+        request.getBuffer().putInt(correlationId);
+        wrap(request, packet);
+        return request;
+    }
+
+    /**
+     * Wraps a reply packet into a response frame. The packet is released.
+     *
+     * @param correlationId The correlation id of the request replied to.
+     * @param packet        The reply packet.
+     * @return A recyclable response packet.
+     */
+    public static Packet response(int correlationId, Packet packet) {
+        Packet response = Packet.obtain(RESPONSE_ID);
+        response.getBuffer().putInt(correlationId);
+        response.getBuffer().put(STATUS_OK);
+        wrap(response, packet);
+        return response;
+    }
+
+    /**
+     * Creates the response of a failed request.
+     *
+     * @param correlationId The correlation id of the request replied to.
+     * @param message       The error message.
+     * @return A recyclable response packet.
+     */
+    public static Packet error(int correlationId, String message) {
+        Packet response = Packet.obtain(RESPONSE_ID);
+        response.getBuffer().putInt(correlationId);
+        response.getBuffer().put(STATUS_ERROR);
+        response.getBuffer().put(message.getBytes(StandardCharsets.UTF_8));
+        return response;
+    }
+
+    private static void wrap(Packet wrapper, Packet packet) {
+        try {
+            wrapper.getBuffer().putShort(packet.getID());
+            wrapper.getBuffer().putInt(packet.getBuffer().size());
+            wrapper.getBuffer().put(packet.getBuffer().array(), 0, packet.getBuffer().size());
+        } finally {
+            packet.release();
+        }
+    }
+}
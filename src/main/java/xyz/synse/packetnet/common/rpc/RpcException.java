@@ -0,0 +1,15 @@
+package xyz.synse.packetnet.common.rpc;
+
+import java.io.IOException;
+
+/**
+ * The failure of a request reported by the peer, e.g. because it has no handler for the request or the handler
+ * threw an exception.
+ */
+public class RpcException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RpcException(String message) {
+        super(message);
+    }
+}
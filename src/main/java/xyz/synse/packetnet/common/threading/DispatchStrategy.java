@@ -0,0 +1,22 @@
+package xyz.synse.packetnet.common.threading;
+
+/**
+ * Where a {@link Dispatcher} runs the handlers and listeners of received packets.
+ */
+public enum DispatchStrategy {
+    /**
+     * On the event loop that read the packet. The cheapest, but a slow handler holds up the reads of every channel
+     * of the event loop.
+     */
+    INLINE,
+    /**
+     * On a shared pool of threads, the packets of each connection one at a time in the order they were received.
+     * Different connections are handled in parallel.
+     */
+    ORDERED,
+    /**
+     * On a shared pool of threads, every packet as soon as a thread is free. Packets of the same connection may be
+     * handled in parallel and in any order, suited for stateless handlers.
+     */
+    UNORDERED
+}
@@ -0,0 +1,236 @@
+package xyz.synse.packetnet.common.threading;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the handling of received packets according to a {@link DispatchStrategy}, so slow handlers don't have to
+ * hold up the event loops reading the packets.
+ * <p>
+ * Every connection dispatches through a {@link Lane}. With {@link DispatchStrategy#ORDERED} each lane is a serial
+ * queue whose tasks run one at a time on the shared threads, so a connection's packets are handled in order while
+ * different connections are handled in parallel. With {@link DispatchStrategy#UNORDERED} all lanes share one queue.
+ * Queues are bounded, a task dispatched to a full queue is dropped or waited for as set by the
+ * {@link OverflowPolicy}. With {@link DispatchStrategy#INLINE} tasks run right away on the dispatching thread.
+ * <p>
+ * A dispatcher may be shared between servers and clients, and is shut down by its owner.
+ */
+public class Dispatcher {
+    /**
+     * Runs every task on the event loop that read the packet.
+     */
+    public static final Dispatcher INLINE = new Dispatcher(DispatchStrategy.INLINE);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    // Tasks a lane runs before giving its thread to other lanes
+    private static final int MAX_TASKS_PER_DRAIN = 64;
+
+    private final Logger logger = LoggerFactory.getLogger(Dispatcher.class);
+    private final DispatchStrategy strategy;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ExecutorService executor;
+    private final Lane sharedLane;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates a dispatcher with a thread per available processor and queues of
+     * {@value #DEFAULT_QUEUE_CAPACITY} tasks that drop tasks once full.
+     *
+     * @param strategy The dispatch strategy.
+     */
+    public Dispatcher(DispatchStrategy strategy) {
+        this(strategy, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP,
+                ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param strategy       The dispatch strategy.
+     * @param threads        The number of threads of the pool. Ignored by {@link ExecutionMode#VIRTUAL}, which starts
+     *                       a virtual thread per task.
+     * @param queueCapacity  The number of tasks a queue holds: the queue of each lane with
+     *                       {@link DispatchStrategy#ORDERED}, the shared queue with {@link DispatchStrategy#UNORDERED}.
+     * @param overflowPolicy What to do with a task dispatched to a full queue.
+     * @param executionMode  The kind of threads the tasks run on.
+     */
+    public Dispatcher(DispatchStrategy strategy, int threads, int queueCapacity, OverflowPolicy overflowPolicy,
+                      ExecutionMode executionMode) {
+        if (threads < 1) throw new IllegalArgumentException("There must be at least one thread!");
+        if (queueCapacity < 1) throw new IllegalArgumentException("The queue capacity must be positive!");
+
+        this.strategy = strategy;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = switch (strategy) {
+            case INLINE -> null;
+            case ORDERED, UNORDERED -> executionMode == ExecutionMode.VIRTUAL
+                    ? Executors.newThreadPerTaskExecutor(new NamedThreadFactory("Dispatcher", Thread.NORM_PRIORITY, true))
+                    : Executors.newFixedThreadPool(threads, new NamedThreadFactory("Dispatcher", Thread.NORM_PRIORITY, false));
+        };
+        this.sharedLane = new Lane(this, strategy == DispatchStrategy.INLINE ? 0 : queueCapacity, false);
+    }
+
+    /**
+     * Creates the lane of a connection. Lanes only have their own queue with {@link DispatchStrategy#ORDERED}.
+     *
+     * @return A lane.
+     */
+    public Lane newLane() {
+        return strategy == DispatchStrategy.ORDERED ? new Lane(this, queueCapacity, true) : sharedLane;
+    }
+
+    private boolean dispatch(Lane lane, Runnable task) {
+        if (strategy == DispatchStrategy.INLINE) {
+            run(task);
+            return true;
+        }
+
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            lane.permits.acquireUninterruptibly();
+        } else if (!lane.permits.tryAcquire()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        if (!lane.serial) {
+            execute(() -> {
+                try {
+                    run(task);
+                } finally {
+                    lane.permits.release();
+                }
+            });
+            return true;
+        }
+
+        lane.tasks.add(task);
+        if (lane.scheduled.compareAndSet(false, true)) execute(() -> drain(lane));
+        return true;
+    }
+
+    private void drain(Lane lane) {
+        for (int i = 0; i < MAX_TASKS_PER_DRAIN; i++) {
+            Runnable task = lane.tasks.poll();
+            if (task == null) break;
+
+            try {
+                run(task);
+            } finally {
+                lane.permits.release();
+            }
+        }
+
+        lane.scheduled.set(false);
+        // Tasks left over, or added after the last poll, while the lane was still scheduled
+        if (!lane.tasks.isEmpty() && lane.scheduled.compareAndSet(false, true)) execute(() -> drain(lane));
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            // Shut down, run it here rather than losing the packets it holds
+            task.run();
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (final Exception e) {
+            logger.error("Exception while dispatching: {} :", e.getClass(), e);
+        }
+    }
+
+    public DispatchStrategy getStrategy() {
+        return strategy;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return The number of tasks dropped because their queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the threads once the queued tasks have run. Tasks dispatched afterwards run on the dispatching thread.
+     */
+    public void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /**
+     * Waits for the queued tasks to run after a shutdown.
+     *
+     * @return True if all tasks ran, false if the timeout elapsed first.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor == null || executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * The queue the tasks of a connection are dispatched through, see {@link #newLane()}.
+     */
+    public static final class Lane {
+        private final Dispatcher dispatcher;
+        private final int capacity;
+        private final Semaphore permits;
+        private final boolean serial;
+        private final Queue<Runnable> tasks;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Lane(Dispatcher dispatcher, int capacity, boolean serial) {
+            this.dispatcher = dispatcher;
+            this.capacity = capacity;
+            this.permits = new Semaphore(capacity);
+            this.serial = serial;
+            this.tasks = serial ? new ConcurrentLinkedQueue<>() : null;
+        }
+
+        /**
+         * Runs a task through this lane.
+         *
+         * @param task The task.
+         * @return False if the task was dropped because the queue was full.
+         */
+        public boolean dispatch(Runnable task) {
+            return dispatcher.dispatch(this, task);
+        }
+
+        /**
+         * @return True if tasks run right away on the dispatching thread.
+         */
+        public boolean isInline() {
+            return dispatcher.strategy == DispatchStrategy.INLINE;
+        }
+
+        /**
+         * @return The number of tasks waiting in the lane's queue or running.
+         */
+        public int getQueued() {
+            return capacity - permits.availablePermits();
+        }
+    }
+}
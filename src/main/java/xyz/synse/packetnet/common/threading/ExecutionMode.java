@@ -0,0 +1,20 @@
+package xyz.synse.packetnet.common.threading;
+
+/**
+ * The kind of threads a {@link ThreadPoolManager} runs its tasks on.
+ */
+public enum ExecutionMode {
+    /**
+     * A cached pool of platform threads, growing without limit.
+     */
+    PLATFORM,
+    /**
+     * A new virtual thread for every task. Suited for many tasks that spend most of their time blocked, such as
+     * listeners waiting on I/O, but not for selector loops, which pin their carrier thread while they select.
+     */
+    VIRTUAL,
+    /**
+     * A fixed number of platform threads. Tasks submitted while all threads are busy wait in a queue.
+     */
+    BOUNDED
+}
@@ -11,19 +11,46 @@ public class NamedThreadFactory implements ThreadFactory {
     private final AtomicInteger threadNumber = new AtomicInteger(1);
     private final String namePrefix;
     private final int threadPriority; // Added configurable thread priority
+    private final boolean virtual;
 
     public NamedThreadFactory() {
         this(Thread.NORM_PRIORITY);
     }
 
     public NamedThreadFactory(int threadPriority) {
+        this(threadPriority, false);
+    }
+
+    /**
+     * Creates a new instance of the NamedThreadFactory class.
+     *
+     * @param threadPriority The priority of created platform threads. Virtual threads always have normal priority.
+     * @param virtual        Whether to create virtual threads instead of platform threads.
+     */
+    public NamedThreadFactory(int threadPriority, boolean virtual) {
+        this("ThreadPoolManager", threadPriority, virtual);
+    }
+
+    /**
+     * Creates a new instance of the NamedThreadFactory class.
+     *
+     * @param name           The name the thread names start with.
+     * @param threadPriority The priority of created platform threads. Virtual threads always have normal priority.
+     * @param virtual        Whether to create virtual threads instead of platform threads.
+     */
+    public NamedThreadFactory(String name, int threadPriority, boolean virtual) {
         group = Thread.currentThread().getThreadGroup();
-        namePrefix = "ThreadPoolManager [P:" + poolNumber.getAndIncrement() + ",T:";
+        namePrefix = name + " [P:" + poolNumber.getAndIncrement() + (virtual ? ",V:" : ",T:");
         this.threadPriority = threadPriority;
+        this.virtual = virtual;
     }
 
     public Thread newThread(@NotNull Runnable r) {
-        Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement() + "]", 0);
+        String name = namePrefix + threadNumber.getAndIncrement() + "]";
+        if (virtual)
+            return Thread.ofVirtual().name(name).unstarted(r);
+
+        Thread t = new Thread(group, r, name, 0);
         if (t.isDaemon())
             t.setDaemon(false);
         t.setPriority(threadPriority); // Set the configured thread priority
@@ -0,0 +1,16 @@
+package xyz.synse.packetnet.common.threading;
+
+/**
+ * What a {@link Dispatcher} does with a packet received while its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the packet. The event loop keeps reading at full speed.
+     */
+    DROP,
+    /**
+     * Wait on the event loop until the queue has room, which stops reading from the event loop's channels until the
+     * handlers catch up.
+     */
+    BLOCK
+}
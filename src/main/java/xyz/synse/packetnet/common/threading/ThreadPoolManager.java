@@ -9,36 +9,55 @@ import java.util.concurrent.*;
 public class ThreadPoolManager {
     private final Logger logger = LoggerFactory.getLogger(ThreadPoolManager.class);
     private final List<Future<?>> futures = new CopyOnWriteArrayList<>();
-    private final ExecutorService executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-            0, TimeUnit.SECONDS,
-            new SynchronousQueue<>(), new NamedThreadFactory()) {
-        @Override
-        protected void beforeExecute(Thread t, Runnable r) {
-            super.beforeExecute(t, r);
-
-            if(!(r instanceof Future<?> future)) return;
-
-            futures.add(future);
-        }
-
-        @Override
-        protected void afterExecute(Runnable r, Throwable t) {
-            super.afterExecute(r, t);
-            if(!(r instanceof Future<?> future)) return;
+    private final ExecutionMode executionMode;
+    private final ExecutorService executorService;
 
-            futures.remove(future);
+    /**
+     * Creates a new instance of the ThreadPoolManager class running tasks on cached platform threads.
+     */
+    public ThreadPoolManager() {
+        this(ExecutionMode.PLATFORM);
+    }
 
-            if(t == null) return;
+    /**
+     * Creates a new instance of the ThreadPoolManager class. A bounded pool has one thread per available processor.
+     *
+     * @param executionMode The kind of threads to run tasks on.
+     */
+    public ThreadPoolManager(ExecutionMode executionMode) {
+        this(executionMode, Runtime.getRuntime().availableProcessors());
+    }
 
-            logger.warn("Future exited with an exception", t);
-        }
-    };
+    /**
+     * Creates a new instance of the ThreadPoolManager class.
+     *
+     * @param executionMode The kind of threads to run tasks on.
+     * @param maxThreads    The number of threads of a bounded pool. Ignored by the other modes.
+     */
+    public ThreadPoolManager(ExecutionMode executionMode, int maxThreads) {
+        this.executionMode = executionMode;
+        this.executorService = switch (executionMode) {
+            case PLATFORM -> new TrackingThreadPoolExecutor(0, Integer.MAX_VALUE, 0, new SynchronousQueue<>());
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(new NamedThreadFactory(Thread.NORM_PRIORITY, true));
+            case BOUNDED -> {
+                TrackingThreadPoolExecutor executor = new TrackingThreadPoolExecutor(maxThreads, maxThreads, 60, new LinkedBlockingQueue<>());
+                executor.allowCoreThreadTimeOut(true);
+                yield executor;
+            }
+        };
+    }
 
     public Future<?> submit(Runnable runnable) {
         return executorService.submit(runnable);
     }
 
     public void shutdown(boolean interrupt) {
+        // Virtual threads aren't tracked and queued tasks of a bounded pool never started, drop them all at once
+        if (executionMode != ExecutionMode.PLATFORM && interrupt) {
+            executorService.shutdownNow();
+            return;
+        }
+
         executorService.shutdown();
 
         for(Future<?> future : futures){
@@ -58,4 +77,35 @@ public class ThreadPoolManager {
     public boolean awaitTermination() throws InterruptedException {
         return executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
     }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    private class TrackingThreadPoolExecutor extends ThreadPoolExecutor {
+        private TrackingThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveSeconds, BlockingQueue<Runnable> workQueue) {
+            super(corePoolSize, maximumPoolSize, keepAliveSeconds, TimeUnit.SECONDS, workQueue, new NamedThreadFactory());
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+
+            if(!(r instanceof Future<?> future)) return;
+
+            futures.add(future);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            if(!(r instanceof Future<?> future)) return;
+
+            futures.remove(future);
+
+            if(t == null) return;
+
+            logger.warn("Future exited with an exception", t);
+        }
+    }
 }
@@ -1,20 +1,63 @@
 package xyz.synse.packetnet.server;
 
+import xyz.synse.packetnet.common.channel.DatagramAggregator;
+import xyz.synse.packetnet.common.channel.FragmentReassembler;
+import xyz.synse.packetnet.common.channel.ReliableChannel;
+import xyz.synse.packetnet.common.channel.SequencedChannel;
+import xyz.synse.packetnet.common.channel.TcpChannel;
+import xyz.synse.packetnet.common.packet.FrameFormat;
+import xyz.synse.packetnet.common.threading.Dispatcher;
+
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.Optional;
 
 public class Connection {
+    private final TcpChannel channel;
     private final Socket tcpSocket;
-    private Optional<Integer> udpPort;
+    private volatile Optional<Integer> udpPort;
+    private volatile InetSocketAddress udpAddress;
+    private volatile long udpToken;
+    private volatile int id = -1;
+    private volatile FrameFormat udpReadFormat = FrameFormat.STANDARD;
+    private DatagramAggregator udpAggregator;
+    private FragmentReassembler fragmentReassembler;
+    private ReliableChannel reliableChannel;
+    private SequencedChannel sequencedChannel;
+    private Dispatcher.Lane dispatchLane;
 
-    public Connection(Socket tcpSocket) {
-        this.tcpSocket = tcpSocket;
+    public Connection(TcpChannel channel) {
+        this.channel = channel;
+        this.tcpSocket = channel.getSocketChannel().socket();
         this.udpPort = Optional.empty();
     }
 
-    public Connection(Socket tcpSocket, int udpPort) {
-        this.tcpSocket = tcpSocket;
+    public Connection(TcpChannel channel, int udpPort) {
+        this.channel = channel;
+        this.tcpSocket = channel.getSocketChannel().socket();
         this.udpPort = Optional.of(udpPort);
+        this.udpAddress = new InetSocketAddress(tcpSocket.getInetAddress(), udpPort);
+    }
+
+    TcpChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Checks if the connection is writable, that is whether its pending TCP bytes are below the high watermark.
+     * Producers should hold back while it is not.
+     *
+     * @return True if the connection is writable, false otherwise.
+     */
+    public boolean isWritable() {
+        return channel.isWritable();
+    }
+
+    /**
+     * @return The number of TCP bytes queued for this connection but not yet written to the socket.
+     */
+    public long getPendingBytes() {
+        return channel.getPendingBytes();
     }
 
     public Socket getTcpSocket() {
@@ -27,16 +70,127 @@ public class Connection {
 
     public void setUdpPort(int udpPort) {
         this.udpPort = Optional.of(udpPort);
+        this.udpAddress = new InetSocketAddress(tcpSocket.getInetAddress(), udpPort);
     }
 
     public void removeUdpPort(){
         this.udpPort = Optional.empty();
+        this.udpAddress = null;
+    }
+
+    /**
+     * @return The client's UDP address, or null if the client hasn't told its UDP port yet.
+     */
+    InetSocketAddress getUdpAddress() {
+        return udpAddress;
+    }
+
+    /**
+     * Updates the client's UDP address to the source of its latest datagram, which differs from the announced
+     * one when the client is behind a NAT.
+     *
+     * @param source The source address of a datagram carrying this connection's token.
+     */
+    void learnUdpAddress(InetSocketAddress source) {
+        if (source.equals(udpAddress)) return;
+
+        this.udpPort = Optional.of(source.getPort());
+        this.udpAddress = source;
+    }
+
+    /**
+     * Returns the id of the connection, dense and unique among the server's connections while it's connected.
+     * It may be given to another connection once this one is closed.
+     *
+     * @return The id, or -1 if the connection was never registered.
+     */
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return The session token the client puts in front of every datagram, or 0 if none was issued yet.
+     */
+    long getUdpToken() {
+        return udpToken;
+    }
+
+    void setUdpToken(long udpToken) {
+        this.udpToken = udpToken;
+    }
+
+    /**
+     * @return The format of the frames in the datagrams received from the client.
+     */
+    FrameFormat getUdpReadFormat() {
+        return udpReadFormat;
+    }
+
+    void setUdpReadFormat(FrameFormat udpReadFormat) {
+        this.udpReadFormat = udpReadFormat;
+    }
+
+    /**
+     * @return The aggregator packing the datagrams sent to the client.
+     */
+    DatagramAggregator getUdpAggregator() {
+        return udpAggregator;
+    }
+
+    void setUdpAggregator(DatagramAggregator udpAggregator) {
+        this.udpAggregator = udpAggregator;
+    }
+
+    /**
+     * @return The reassembler of the fragmented packets received from the client.
+     */
+    FragmentReassembler getFragmentReassembler() {
+        return fragmentReassembler;
+    }
+
+    void setFragmentReassembler(FragmentReassembler fragmentReassembler) {
+        this.fragmentReassembler = fragmentReassembler;
+    }
+
+    /**
+     * @return The channel of the reliable packets exchanged with the client over UDP.
+     */
+    ReliableChannel getReliableChannel() {
+        return reliableChannel;
+    }
+
+    void setReliableChannel(ReliableChannel reliableChannel) {
+        this.reliableChannel = reliableChannel;
+    }
+
+    /**
+     * @return The channel of the sequenced packets exchanged with the client over UDP.
+     */
+    SequencedChannel getSequencedChannel() {
+        return sequencedChannel;
+    }
+
+    void setSequencedChannel(SequencedChannel sequencedChannel) {
+        this.sequencedChannel = sequencedChannel;
+    }
+
+    Dispatcher.Lane getDispatchLane() {
+        return dispatchLane;
+    }
+
+    void setDispatchLane(Dispatcher.Lane dispatchLane) {
+        this.dispatchLane = dispatchLane;
     }
 
     @Override
     public String toString() {
         return "Connection{" +
-                "address=" + tcpSocket.getInetAddress() +
+                "id=" + id +
+                ", address=" + tcpSocket.getInetAddress() +
                 ", tcpPort=" + tcpSocket.getPort() +
                 ", " + (udpPort.isEmpty() ? "UDP Disconnected" : "udpPort=" + udpPort) +
                 "}";
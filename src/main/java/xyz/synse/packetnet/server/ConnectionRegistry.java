@@ -0,0 +1,146 @@
+package xyz.synse.packetnet.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The connections of a server, each under a dense numeric id that stays the same while it's connected.
+ * <p>
+ * Ids start at 0 and the ids of closed connections are handed out again, most recently freed first, so they stay
+ * below {@link #getIdBound()} and can index plain arrays. Lookups by id and iteration never lock: iteration walks
+ * an immutable snapshot that is replaced whenever a connection is added or removed, so broadcasts are cheap at the
+ * cost of a copy on every connect and disconnect. Connections are added and removed by the server only.
+ */
+public final class ConnectionRegistry implements Iterable<Connection> {
+    /**
+     * The maximum number of connections, ids fit in 20 bits.
+     */
+    public static final int MAX_CONNECTIONS = 1 << 20;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Connection[] EMPTY = new Connection[0];
+
+    private volatile AtomicReferenceArray<Connection> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile Connection[] snapshot = EMPTY;
+    private volatile int idBound;
+    // Freed ids, the last freed on top
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeCount;
+
+    ConnectionRegistry() {
+    }
+
+    /**
+     * Adds a connection under a free id, which is set on the connection.
+     *
+     * @param connection The connection.
+     * @throws IllegalStateException if there are {@value #MAX_CONNECTIONS} connections already.
+     */
+    synchronized void register(Connection connection) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (idBound == MAX_CONNECTIONS) throw new IllegalStateException("Too many connections!");
+            id = idBound;
+        }
+
+        AtomicReferenceArray<Connection> slots = this.slots;
+        if (id >= slots.length()) {
+            // Grow into a copy so lookups keep reading a complete array
+            AtomicReferenceArray<Connection> grown = new AtomicReferenceArray<>(Math.min(slots.length() << 1, MAX_CONNECTIONS));
+            for (int i = 0; i < slots.length(); i++) {
+                grown.set(i, slots.get(i));
+            }
+            this.slots = slots = grown;
+        }
+
+        connection.setId(id);
+        slots.set(id, connection);
+        if (id == idBound) idBound = id + 1;
+
+        Connection[] snapshot = Arrays.copyOf(this.snapshot, this.snapshot.length + 1);
+        snapshot[snapshot.length - 1] = connection;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Removes a connection and frees its id.
+     *
+     * @param connection The connection.
+     * @return False if the connection wasn't registered.
+     */
+    synchronized boolean unregister(Connection connection) {
+        int id = connection.getId();
+        if (id < 0 || id >= idBound || slots.get(id) != connection) return false;
+
+        slots.set(id, null);
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount << 1);
+        freeIds[freeCount++] = id;
+
+        Connection[] snapshot = this.snapshot;
+        Connection[] removed = new Connection[snapshot.length - 1];
+        for (int i = 0, j = 0; i < snapshot.length; i++) {
+            if (snapshot[i] != connection) removed[j++] = snapshot[i];
+        }
+        this.snapshot = removed;
+        return true;
+    }
+
+    /**
+     * Removes every connection and frees all ids.
+     */
+    synchronized void clear() {
+        slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        snapshot = EMPTY;
+        idBound = 0;
+        freeCount = 0;
+    }
+
+    /**
+     * @param id The connection id.
+     * @return The connection with the id, or null if there is none.
+     */
+    public Connection get(int id) {
+        AtomicReferenceArray<Connection> slots = this.slots;
+        return id >= 0 && id < slots.length() ? slots.get(id) : null;
+    }
+
+    /**
+     * Returns the connections at this moment, in the order they connected. Later changes don't affect the list.
+     *
+     * @return An unmodifiable list of the connections.
+     */
+    public List<Connection> snapshot() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot));
+    }
+
+    /**
+     * Iterates over a snapshot of the connections, see {@link #snapshot()}.
+     */
+    @Override
+    public Iterator<Connection> iterator() {
+        return snapshot().iterator();
+    }
+
+    public int size() {
+        return snapshot.length;
+    }
+
+    public boolean isEmpty() {
+        return snapshot.length == 0;
+    }
+
+    /**
+     * Every connection id is below this bound, so arrays of this size can be indexed by connection id. The bound
+     * only grows while the server runs, up to the highest number of connections at a time.
+     *
+     * @return One more than the highest id handed out.
+     */
+    public int getIdBound() {
+        return idBound;
+    }
+}
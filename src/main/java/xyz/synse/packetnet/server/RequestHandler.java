@@ -0,0 +1,23 @@
+package xyz.synse.packetnet.server;
+
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+
+/**
+ * Replies to the requests with one packet id, see {@link Server#setRequestHandler(short, RequestHandler)}.
+ */
+@FunctionalInterface
+public interface RequestHandler {
+    /**
+     * Handles a request on the connection's event loop. The request is released once the handler returns, so
+     * {@link Packet#retain()} it to keep it. Returning the reply hands one of its references over, like sending it,
+     * so reply with {@code request.retain()} to echo a request back.
+     *
+     * @param connection The connection the request came from.
+     * @param request    The request packet.
+     * @return The reply packet.
+     * @throws IOException if the request cannot be handled, its message is sent back as the error of the request.
+     */
+    Packet handle(Connection connection, Packet request) throws IOException;
+}
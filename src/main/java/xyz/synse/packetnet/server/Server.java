@@ -3,32 +3,94 @@ package xyz.synse.packetnet.server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.synse.packetnet.common.ProtocolType;
+import xyz.synse.packetnet.common.buffer.BufferAllocator;
+import xyz.synse.packetnet.common.buffer.PooledBufferAllocator;
+import xyz.synse.packetnet.common.channel.BackpressurePolicy;
+import xyz.synse.packetnet.common.channel.ChannelHandler;
+import xyz.synse.packetnet.common.channel.DatagramAggregator;
+import xyz.synse.packetnet.common.channel.FragmentReassembler;
+import xyz.synse.packetnet.common.channel.ReliableChannel;
+import xyz.synse.packetnet.common.channel.SequencedChannel;
+import xyz.synse.packetnet.common.channel.TcpChannel;
+import xyz.synse.packetnet.common.codec.RecordCodec;
+import xyz.synse.packetnet.common.eventloop.EventLoop;
+import xyz.synse.packetnet.common.eventloop.EventLoopChooser;
+import xyz.synse.packetnet.common.eventloop.EventLoopGroup;
+import xyz.synse.packetnet.common.eventloop.SelectionHandler;
+import xyz.synse.packetnet.common.packet.FrameDecoder;
+import xyz.synse.packetnet.common.packet.FrameFormat;
 import xyz.synse.packetnet.common.packet.Packet;
-import xyz.synse.packetnet.common.threading.ThreadPoolManager;
+import xyz.synse.packetnet.common.packet.PacketBatch;
+import xyz.synse.packetnet.common.packet.PacketHandlerTable;
+import xyz.synse.packetnet.common.packet.PreparedPacket;
+import xyz.synse.packetnet.common.rpc.Rpc;
+import xyz.synse.packetnet.common.threading.Dispatcher;
+import xyz.synse.packetnet.server.listeners.PacketHandler;
 import xyz.synse.packetnet.server.listeners.ServerListener;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
+    private static final int MAX_DATAGRAMS_PER_READ = 64;
+    // Whether a listener class overrides onReceivedBatch, the others get onReceived for each packet of a batch
+    private static final ClassValue<Boolean> BATCH_LISTENERS = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("onReceivedBatch", Connection.class, ProtocolType.class, PacketBatch.class)
+                        .getDeclaringClass() != ServerListener.class;
+            } catch (final NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
     private final Logger logger = LoggerFactory.getLogger(Server.class);
-    private ThreadPoolManager threadPoolManager;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private final boolean ownsEventLoopGroups;
     private final int readBufferSize;
     private final int writeBufferSize;
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private BufferAllocator bufferAllocator = PooledBufferAllocator.DEFAULT;
+    private int flushThreshold = TcpChannel.DEFAULT_FLUSH_THRESHOLD;
+    private long flushDelayNanos = TcpChannel.DEFAULT_FLUSH_DELAY_NANOS;
+    private int lowWatermark = TcpChannel.DEFAULT_LOW_WATERMARK;
+    private int highWatermark = TcpChannel.DEFAULT_HIGH_WATERMARK;
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.QUEUE;
+    private boolean packetRecycling;
+    private Dispatcher dispatcher = Dispatcher.INLINE;
+    private int udpShards = 1;
+    private int datagramSize = DatagramAggregator.DEFAULT_DATAGRAM_SIZE;
+    private long udpFlushDelayNanos;
+    private FrameFormat frameFormat = FrameFormat.STANDARD;
 
     private DatagramChannel datagramChannel;
-    private DatagramSocket udpSocket;
+    private List<UdpShard> udpShardHandlers = List.of();
     private ServerSocketChannel serverSocketChannel;
     private ServerSocket tcpSocket;
 
-    private final List<Connection> connections = new ArrayList<>();
+    private final ConnectionRegistry connections = new ConnectionRegistry();
+    // Draws the secret half of the UDP session tokens
+    private final SecureRandom tokenRandom = new SecureRandom();
 
     private final List<ServerListener> listeners = new CopyOnWriteArrayList<>();
+    private final PacketHandlerTable<PacketHandler> handlers = new PacketHandlerTable<>();
+    private final PacketHandlerTable<RequestHandler> requestHandlers = new PacketHandlerTable<>();
 
     /**
      * Creates a new instance of the Server class.
@@ -39,6 +101,24 @@ public class Server {
     public Server(int readBufferSize, int writeBufferSize) {
         this.readBufferSize = readBufferSize;
         this.writeBufferSize = writeBufferSize;
+        this.ownsEventLoopGroups = true;
+    }
+
+    /**
+     * Creates a new instance of the Server class using the given event loop groups.
+     * The groups may be shared with other servers and clients and are not shut down when the server is closed.
+     *
+     * @param readBufferSize  The size of the buffer for receiving data.
+     * @param writeBufferSize The size of the buffer for sending data.
+     * @param bossGroup       The group whose event loop accepts incoming connections.
+     * @param workerGroup     The group whose event loops serve the accepted connections.
+     */
+    public Server(int readBufferSize, int writeBufferSize, EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+        this.readBufferSize = readBufferSize;
+        this.writeBufferSize = writeBufferSize;
+        this.bossGroup = bossGroup;
+        this.workerGroup = workerGroup;
+        this.ownsEventLoopGroups = false;
     }
 
     /**
@@ -56,6 +136,200 @@ public class Server {
         return readBufferSize;
     }
 
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets the largest packet data length accepted over TCP. Connections sending larger packets are closed.
+     * Takes effect for connections opened afterwards.
+     *
+     * @param maxFrameSize The max frame size in bytes.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public BufferAllocator getBufferAllocator() {
+        return bufferAllocator;
+    }
+
+    /**
+     * Sets the allocator of the buffers used for reading and writing. Defaults to {@link PooledBufferAllocator#DEFAULT}.
+     * Must be set before starting the server.
+     *
+     * @param bufferAllocator The buffer allocator.
+     */
+    public void setBufferAllocator(BufferAllocator bufferAllocator) {
+        this.bufferAllocator = bufferAllocator;
+    }
+
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Sets the number of written but unflushed TCP bytes that triggers a flush.
+     * Takes effect for connections opened afterwards.
+     *
+     * @param flushThreshold The threshold in bytes.
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
+    public long getFlushDelay(TimeUnit unit) {
+        return unit.convert(flushDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the longest time a written TCP packet waits for a flush.
+     * Takes effect for connections opened afterwards.
+     *
+     * @param flushDelay The delay.
+     * @param unit       The unit of the delay.
+     */
+    public void setFlushDelay(long flushDelay, TimeUnit unit) {
+        this.flushDelayNanos = unit.toNanos(flushDelay);
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Sets the pending TCP bytes at which a connection stops being writable (high) and becomes writable again (low).
+     * Takes effect for connections opened afterwards.
+     *
+     * @param lowWatermark  The low watermark in bytes.
+     * @param highWatermark The high watermark in bytes.
+     * @throws IllegalArgumentException if the low watermark is greater than the high watermark.
+     */
+    public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException(
+                    "The low watermark must be less than or equal to the high watermark!");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * Sets what happens to packets sent over TCP while the connection is not writable.
+     * Defaults to {@link BackpressurePolicy#QUEUE}.
+     *
+     * @param backpressurePolicy The backpressure policy.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    public boolean isPacketRecycling() {
+        return packetRecycling;
+    }
+
+    /**
+     * Sets whether received packets are recyclable, see {@link Packet#obtain(short)}. They are released once the
+     * listeners have returned, so a listener keeping a packet must {@link Packet#retain()} it. Disabled by default.
+     * Takes effect for connections opened afterwards.
+     *
+     * @param packetRecycling True to receive recyclable packets.
+     */
+    public void setPacketRecycling(boolean packetRecycling) {
+        this.packetRecycling = packetRecycling;
+    }
+
+    public int getDatagramSize() {
+        return datagramSize;
+    }
+
+    /**
+     * Sets the size UDP packets are packed into, see {@link #setUdpFlushDelay(long, TimeUnit)}.
+     * Defaults to {@value DatagramAggregator#DEFAULT_DATAGRAM_SIZE} bytes. Takes effect for connections opened
+     * afterwards.
+     *
+     * @param datagramSize The datagram size in bytes.
+     */
+    public void setDatagramSize(int datagramSize) {
+        this.datagramSize = datagramSize;
+    }
+
+    public long getUdpFlushDelay(TimeUnit unit) {
+        return unit.convert(udpFlushDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how long UDP packets to a client may wait for more packets to share their datagram. Packets sent within
+     * the delay are packed into datagrams of up to the datagram size, which cuts the per-packet overhead of small
+     * packets. {@link #flush(Connection)} sends them early, e.g. at the end of a tick. Defaults to 0, sending every
+     * packet in its own datagram. Takes effect for connections opened afterwards.
+     *
+     * @param udpFlushDelay The flush delay.
+     * @param unit          The unit of the flush delay.
+     */
+    public void setUdpFlushDelay(long udpFlushDelay, TimeUnit unit) {
+        this.udpFlushDelayNanos = unit.toNanos(udpFlushDelay);
+    }
+
+    public FrameFormat getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * Sets the format clients are asked to write their TCP and UDP frames to the server in, see {@link FrameFormat}.
+     * Clients only switch to the compact format if they support it, and write in it after the UDP handshake. The
+     * format of the frames sent to a client is the one the client asks for. Defaults to
+     * {@link FrameFormat#STANDARD}. Takes effect for handshakes received afterwards.
+     *
+     * @param frameFormat The frame format.
+     */
+    public void setFrameFormat(FrameFormat frameFormat) {
+        this.frameFormat = frameFormat;
+    }
+
+    public int getUdpShards() {
+        return udpShards;
+    }
+
+    /**
+     * Sets the number of UDP sockets bound to the UDP port, each receiving on its own worker event loop so UDP
+     * ingest scales with the cores. More than one socket needs {@code SO_REUSEPORT}, which the kernel then
+     * balances datagrams across; where it isn't supported a single socket is used. Defaults to 1.
+     * Must be set before starting the server.
+     *
+     * @param udpShards The number of UDP sockets.
+     */
+    public void setUdpShards(int udpShards) {
+        if (udpShards < 1) throw new IllegalArgumentException("There must be at least one UDP shard!");
+
+        this.udpShards = udpShards;
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Sets where the handlers and listeners of received packets run, see
+     * {@link xyz.synse.packetnet.common.threading.DispatchStrategy}. Defaults to
+     * {@link Dispatcher#INLINE}, running them on the event loop that read the packet. The dispatcher is not shut
+     * down when the server is closed. Connection events always run on the connection's event loop. Takes effect for
+     * connections opened afterwards.
+     *
+     * @param dispatcher The dispatcher.
+     */
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     /**
      * Starts the server on the specified TCP and UDP ports.
      *
@@ -66,23 +340,32 @@ public class Server {
     public boolean start(int tcpPort, int udpPort) {
         logger.debug("Starting server");
 
+        DatagramChannel[] datagramChannels;
         try {
             this.serverSocketChannel = ServerSocketChannel.open();
             this.serverSocketChannel.bind(new InetSocketAddress(tcpPort));
             this.tcpSocket = serverSocketChannel.socket();
-            this.datagramChannel = DatagramChannel.open();
-            this.datagramChannel.bind(new InetSocketAddress(udpPort));
-            this.udpSocket = datagramChannel.socket();
+            datagramChannels = openDatagramChannels(udpPort);
+            this.datagramChannel = datagramChannels[0];
+
+            if (ownsEventLoopGroups) {
+                this.bossGroup = new EventLoopGroup(1, EventLoopChooser.ROUND_ROBIN);
+                this.workerGroup = new EventLoopGroup(Runtime.getRuntime().availableProcessors(), EventLoopChooser.ROUND_ROBIN);
+            }
         } catch (final Exception e) {
             logger.error("Unable to start server: {} :", e.getClass(), e);
             return false;
         }
 
-        logger.debug("Starting threads");
-        threadPoolManager = new ThreadPoolManager();
+        logger.debug("Registering channels");
 
-        threadPoolManager.submit(this::acceptorThreadImpl);
-        threadPoolManager.submit(this::listenerUdpThreadImpl);
+        bossGroup.next().register(serverSocketChannel, SelectionKey.OP_ACCEPT, key -> acceptConnections());
+        udpShardHandlers = new ArrayList<>();
+        for (DatagramChannel channel : datagramChannels) {
+            UdpShard shard = new UdpShard(channel, workerGroup.next());
+            udpShardHandlers.add(shard);
+            shard.eventLoop.register(channel, SelectionKey.OP_READ, shard);
+        }
 
         return true;
     }
@@ -101,22 +384,33 @@ public class Server {
     public void close() {
         logger.info("Stopping server");
 
+        List<Connection> closedConnections = connections.snapshot();
         connections.clear();
 
         try {
-            threadPoolManager.shutdown(true);
+            for (Connection connection : closedConnections) {
+                connection.getChannel().close();
+            }
 
             if (tcpSocket != null) {
                 tcpSocket.close();
                 serverSocketChannel.close();
             }
-            if (udpSocket != null) {
-                udpSocket.close();
-                datagramChannel.close();
+            for (UdpShard shard : udpShardHandlers) {
+                shard.channel.close();
+                shard.eventLoop.execute(shard::release);
             }
             logger.debug("Sockets closed");
 
-            threadPoolManager.awaitTermination();
+            if (ownsEventLoopGroups) {
+                bossGroup.shutdown();
+                workerGroup.shutdown();
+            }
+
+            if (ownsEventLoopGroups && !bossGroup.inEventLoop() && !workerGroup.inEventLoop()) {
+                bossGroup.awaitTermination();
+                workerGroup.awaitTermination();
+            }
         } catch (final Exception e) {
             logger.error("Unable to close server: {} :", e.getClass(), e);
         }
@@ -141,118 +435,381 @@ public class Server {
     }
 
     /**
-     * Starts the TCP listener thread to accept incoming connections.
+     * Sets the handler of the packets with a packet id. Packets with a handler are passed to it alone, the
+     * listeners' {@link ServerListener#onReceived} only receive the packets no handler is set for. Finding the
+     * handler takes the same time however many handlers are set.
+     *
+     * @param id      The packet id.
+     * @param handler The handler, or null to remove it.
      */
-    private void acceptorThreadImpl() {
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                Socket clientSocket = tcpSocket.accept();
-                clientSocket.setTcpNoDelay(true);
-
-                Connection connection = new Connection(clientSocket);
-                connections.add(connection);
-
-                listeners.forEach(listener -> listener.onConnected(connection, ProtocolType.TCP));
-                threadPoolManager.submit(() -> handleTcpClient(connection));
-            } catch (AsynchronousCloseException e) {
-                break;
-            } catch (final SocketException ignored) {
-                close();
-                break;
-            } catch (final IOException e) {
-                logger.error("Error in TCP listener thread: {} :", e.getClass(), e);
-                close();
-                break;
-            }
+    public void setHandler(short id, PacketHandler handler) {
+        handlers.set(id, handler);
+    }
+
+    /**
+     * Sets the handler replying to the requests with a packet id, sent by
+     * {@link xyz.synse.packetnet.client.Client#request(Packet, long, TimeUnit)}. Requests without
+     * a handler fail. Requests are not passed to the listeners.
+     *
+     * @param id      The packet id of the requests.
+     * @param handler The handler, or null to remove it.
+     */
+    public void setRequestHandler(short id, RequestHandler handler) {
+        requestHandlers.set(id, handler);
+    }
+
+    /**
+     * Replies to a request frame. The frame is not released.
+     *
+     * @param connection The connection the request came from.
+     * @param frame      The request frame.
+     */
+    private void requestReceived(Connection connection, Packet frame) {
+        int correlationId;
+        Packet request;
+        try {
+            ByteBuffer data = frame.payload();
+            correlationId = data.getInt();
+            request = Packet.read(data, packetRecycling);
+        } catch (final IOException | BufferUnderflowException e) {
+            logger.warn("Malformed request from {}: {} :", connection, e.getClass(), e);
+            return;
+        }
+
+        Packet response;
+        try {
+            RequestHandler handler = requestHandlers.get(request.getID());
+            if (handler == null) throw new IOException("No handler for request " + request.getID());
+
+            Packet reply = handler.handle(connection, request);
+            if (reply == null) throw new IOException("No reply to request " + request.getID());
+            response = Rpc.response(correlationId, reply);
+        } catch (final Exception e) {
+            logger.debug("Request {{}} from {} failed: {} :", request, connection, e.getClass(), e);
+            response = Rpc.error(correlationId, String.valueOf(e.getMessage()));
+        } finally {
+            request.release();
         }
 
-        logger.debug("TCP listener thread stopped");
+        send(connection, response, ProtocolType.TCP);
     }
 
     /**
-     * Starts the UDP listener thread to receive data from clients.
+     * Accepts all pending connections and assigns each of them to a worker event loop.
+     *
+     * @throws IOException if an I/O error occurs while accepting a connection.
      */
-    private void listenerUdpThreadImpl() {
-        ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+    private void acceptConnections() throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
 
-        while (!Thread.currentThread().isInterrupted()) {
+            EventLoop eventLoop = workerGroup.next();
+            TcpChannel channel = new TcpChannel(socketChannel, eventLoop, bufferAllocator, readBufferSize, maxFrameSize);
+            channel.setFlushThreshold(flushThreshold);
+            channel.setFlushDelay(flushDelayNanos, TimeUnit.NANOSECONDS);
+            channel.setWriteWatermarks(lowWatermark, highWatermark);
+            channel.setRecyclePackets(packetRecycling);
+            Connection connection = new Connection(channel);
+            DatagramAggregator udpAggregator = new DatagramAggregator(
+                    datagram -> datagramChannel.send(datagram, connection.getUdpAddress()), eventLoop, bufferAllocator, 0);
+            udpAggregator.setDatagramSize(datagramSize);
+            udpAggregator.setFlushDelay(udpFlushDelayNanos, TimeUnit.NANOSECONDS);
+            connection.setUdpAggregator(udpAggregator);
+            connection.setFragmentReassembler(new FragmentReassembler(bufferAllocator));
+            connection.setReliableChannel(new ReliableChannel(udpAggregator, eventLoop,
+                    (packet, ordered) -> reliablePacketReceived(connection, packet, ordered)));
+            connection.setSequencedChannel(new SequencedChannel(udpAggregator, bufferAllocator));
+            connection.setDispatchLane(dispatcher.newLane());
             try {
-                DatagramPacket datagramPacket = new DatagramPacket(buffer.array(), buffer.capacity());
-                udpSocket.receive(datagramPacket);
+                connections.register(connection);
+            } catch (final IllegalStateException e) {
+                logger.warn("Refused connection from {}: {}", socketChannel.getRemoteAddress(), e.getMessage());
+                channel.close();
+                continue;
+            }
 
-                InetAddress address = datagramPacket.getAddress();
-                int port = datagramPacket.getPort();
+            // Register first so onConnected runs on the connection's event loop with the channel ready
+            channel.register(new ConnectionHandler(connection));
+            eventLoop.execute(() -> listeners.forEach(listener -> listener.onConnected(connection, ProtocolType.TCP)));
+        }
+    }
+
+    /**
+     * Handles a datagram from a client. Every datagram starts with the session token issued to the client in the
+     * UDP handshake, which identifies its connection whatever address it comes from.
+     *
+     * @param source   The address the datagram came from.
+     * @param buffer   The datagram.
+     * @param received Gathers the received packets.
+     */
+    private void datagramReceived(InetSocketAddress source, ByteBuffer buffer, BatchCollector received) {
+        if (buffer.remaining() <= Long.BYTES) {
+            logger.warn("Malformed datagram from {}", source);
+            return;
+        }
 
-                // Check each connection with the same address and matching UDP port
-                Connection connection = connections.stream().filter(conn -> conn.getUdpPort().isPresent() && conn.getTcpSocket().getInetAddress().equals(address) && conn.getUdpPort().get() == port).findFirst().orElse(null);
+        // The high half of the token is the connection id, all of it must match the token issued to the connection
+        long token = buffer.getLong();
+        Connection connection = connections.get((int) (token >>> Integer.SIZE));
 
-                if (connection == null) {
-                    logger.warn("Packet from unknown connection");
-                    continue;
+        if (connection == null || connection.getUdpToken() != token) {
+            logger.warn("Packet from unknown connection");
+            return;
+        }
+
+        // Follow the client if its NAT maps it to another address
+        connection.learnUdpAddress(source);
+
+        // A datagram may pack several frames
+        while (buffer.hasRemaining()) {
+            Packet packet;
+            ProtocolType protocol = ProtocolType.UDP;
+            try {
+                FrameFormat format = connection.getUdpReadFormat();
+                if (!format.readEscape(buffer)) {
+                    packet = format.read(buffer, packetRecycling);
+                } else if (FragmentReassembler.isFragment(buffer)) {
+                    packet = connection.getFragmentReassembler().accept(buffer, packetRecycling);
+                    if (packet == null) continue;
+                } else if (SequencedChannel.isSequenced(buffer)) {
+                    // Stale packets are skipped before their data is decoded
+                    packet = connection.getSequencedChannel().accept(buffer, packetRecycling);
+                    if (packet == null) continue;
+                    protocol = ProtocolType.UDP_SEQUENCED;
+                } else {
+                    packet = Packet.read(buffer, packetRecycling);
                 }
 
-                buffer.rewind();
-                Packet packet = Packet.read(buffer);
-                buffer.clear();
+                // Sequenced packets too large for a datagram arrive in fragments
+                if (packet.getID() == SequencedChannel.SEQUENCED_ID) {
+                    packet = connection.getSequencedChannel().accept(packet, packetRecycling);
+                    if (packet == null) continue;
+                    protocol = ProtocolType.UDP_SEQUENCED;
+                }
+            } catch (final IOException | BufferUnderflowException e) {
+                logger.warn("Malformed datagram from {}: {} :", source, e.getClass(), e);
+                return;
+            }
 
-                logger.debug("Received packet using UDP from {}:{}: {{}}", connection.getTcpSocket().getInetAddress(), connection.getUdpPort().get(), packet);
+            // Reliable packets are passed on as they are delivered, after the packets received before them
+            if (packet.getID() == ReliableChannel.DATA_ID) received.flush();
+            if (connection.getReliableChannel().handle(packet, packetRecycling)) continue;
 
-                fireReceivedListeners(connection, packet);
-            } catch (final SocketException | ClosedByInterruptException ignored) {
-                break;
-            } catch (final IOException e) {
-                logger.error("Error in UDP listener thread: {} :", e.getClass(), e);
-                close();
-                break;
+            // The hello only tells the client's address
+            if (packet.getID() == (short) -1001) {
+                packet.release();
+                continue;
             }
+
+            logger.debug("Received packet using {} from {}:{}: {{}}", protocol, connection.getTcpSocket().getInetAddress(), connection.getUdpPort().get(), packet);
+
+            received.add(connection, packet, protocol);
         }
+    }
+
+    private void reliablePacketReceived(Connection connection, Packet packet, boolean ordered) {
+        logger.debug("Received packet using reliable UDP from {}:{}: {{}}", connection.getTcpSocket().getInetAddress(), connection.getUdpPort().orElse(null), packet);
 
-        logger.debug("UDP listener thread stopped");
+        packetReceived(connection, packet, ordered ? ProtocolType.RELIABLE_UDP : ProtocolType.RELIABLE_UNORDERED);
     }
 
+    /**
+     * Passes a received packet to its request handler, its packet handler or the listeners, through the dispatcher.
+     * The packet is released once handled or dropped.
+     */
+    private void packetReceived(Connection connection, Packet packet, ProtocolType protocolType) {
+        Dispatcher.Lane lane = connection.getDispatchLane();
+        if (lane.isInline()) {
+            handlePacket(connection, packet, protocolType);
+            return;
+        }
+
+        if (!lane.dispatch(() -> handlePacket(connection, packet, protocolType))) {
+            logger.debug("Dropped packet {{}} from {}, the dispatch queue is full", packet, connection);
+            packet.release();
+        }
+    }
+
+    private void handlePacket(Connection connection, Packet packet, ProtocolType protocolType) {
+        try {
+            if (packet.getID() == Rpc.REQUEST_ID) {
+                requestReceived(connection, packet);
+            } else {
+                fireReceivedListeners(connection, packet, protocolType);
+            }
+        } finally {
+            packet.release();
+        }
+    }
 
     /**
-     * Handles the TCP client connection and processes incoming packets.
-     *
-     * @param connection The client connection to handle.
+     * Passes the packets of a batch to the listeners, through the dispatcher. The batch is emptied right away and its
+     * packets are released once handled or dropped.
      */
-    private void handleTcpClient(Connection connection) {
-        ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
-        while (!Thread.currentThread().isInterrupted()) {
+    private void batchReceived(Connection connection, PacketBatch batch) {
+        Dispatcher.Lane lane = connection.getDispatchLane();
+        if (lane.isInline()) {
             try {
-                int bytesRead = connection.getTcpSocket().getInputStream().read(buffer.array());
+                fireReceivedListeners(connection, batch);
+            } finally {
+                batch.release();
+            }
+            return;
+        }
 
-                if (bytesRead == -1) {
-                    break; // Break the loop when the client disconnects gracefully
-                }
+        // The batch is reused for the next read while the copy waits in the queue
+        PacketBatch dispatched = new PacketBatch(batch);
+        batch.clear();
+        if (!lane.dispatch(() -> {
+            try {
+                fireReceivedListeners(connection, dispatched);
+            } finally {
+                dispatched.release();
+            }
+        })) {
+            logger.debug("Dropped batch {{}} from {}, the dispatch queue is full", dispatched, connection);
+            dispatched.release();
+        }
+    }
 
-                buffer.rewind();
-                Packet packet = Packet.read(buffer);
+    /**
+     * Gathers the packets received in one go, for {@link ServerListener#onReceivedBatch}. Requests and packets with a
+     * packet handler are passed on by themselves, after the packets gathered before them.
+     */
+    private class BatchCollector {
+        private final PacketBatch batch = new PacketBatch();
+        private Connection connection;
+
+        private void add(Connection connection, Packet packet, ProtocolType protocolType) {
+            if (packet.getID() == Rpc.REQUEST_ID || handlers.get(packet.getID()) != null) {
+                flush();
+                packetReceived(connection, packet, protocolType);
+                return;
+            }
+
+            if (connection != this.connection || protocolType != batch.getProtocolType()) flush();
+            this.connection = connection;
+            batch.add(packet, protocolType);
+        }
+
+        private void flush() {
+            if (!batch.isEmpty()) batchReceived(connection, batch);
+        }
+
+        private void release() {
+            batch.release();
+        }
+    }
+
+    /**
+     * Receives the datagrams of one of the server's UDP sockets on a worker event loop.
+     */
+    private class UdpShard implements SelectionHandler {
+        private final DatagramChannel channel;
+        private final EventLoop eventLoop;
+        private final ByteBuffer buffer = bufferAllocator.allocate(readBufferSize);
+        private final BatchCollector received = new BatchCollector();
+        private boolean released;
+
+        private UdpShard(DatagramChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+        }
+
+        @Override
+        public void handle(SelectionKey key) throws IOException {
+            // Drain the datagrams that are ready, bounded so the loop's other channels get their turn
+            for (int i = 0; i < MAX_DATAGRAMS_PER_READ; i++) {
                 buffer.clear();
+                InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+                if (source == null) break;
+
+                buffer.flip();
+                datagramReceived(source, buffer, received);
+            }
+            received.flush();
+        }
 
-                logger.debug("Received packet using TCP from {}:{}: {{}}", connection.getTcpSocket().getInetAddress(), connection.getTcpSocket().getPort(), packet);
+        @Override
+        public void close(SelectionKey key) {
+            SelectionHandler.super.close(key);
+            release();
+        }
 
-                boolean handlePacket = postProcessPacket(connection, packet);
-                if (!handlePacket) continue;
+        private void release() {
+            if (released) return;
 
-                fireReceivedListeners(connection, packet);
-            } catch (final SocketException ignored) {
-                break;
-            } catch (final IOException e) {
-                logger.error("Error in TCP listener thread: {} :", e.getClass(), e);
-                close();
-                break;
+            released = true;
+            bufferAllocator.release(buffer);
+            received.release();
+        }
+    }
+
+
+    /**
+     * Handles the events of a client's TCP channel.
+     */
+    private class ConnectionHandler implements ChannelHandler {
+        private final Connection connection;
+        private final BatchCollector received = new BatchCollector();
+
+        private ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void channelRead(Packet packet) {
+            logger.debug("Received packet using TCP from {}:{}: {{}}", connection.getTcpSocket().getInetAddress(), connection.getTcpSocket().getPort(), packet);
+
+            if (packet.getID() != Rpc.REQUEST_ID && !postProcessPacket(connection, packet)) {
+                packet.release();
+                return;
             }
+
+            received.add(connection, packet, ProtocolType.TCP);
+        }
+
+        @Override
+        public void channelReadComplete() {
+            received.flush();
+        }
+
+        @Override
+        public void channelClosed() {
+            received.release();
+            connections.unregister(connection);
+            removeUdpSession(connection);
+            connection.getUdpAggregator().close();
+            connection.getFragmentReassembler().close();
+            connection.getReliableChannel().close();
+            listeners.forEach(listener -> listener.onDisconnected(connection));
         }
 
-        connections.remove(connection);
-        listeners.forEach(listener -> listener.onDisconnected(connection));
+        @Override
+        public void channelWritabilityChanged(boolean writable) {
+            logger.debug("Connection {} is {}", connection, writable ? "writable again" : "no longer writable");
+
+            listeners.forEach(listener -> listener.onWritabilityChanged(connection, writable));
+        }
     }
 
-    private void fireReceivedListeners(Connection connection, Packet packet) {
+    private void fireReceivedListeners(Connection connection, Packet packet, ProtocolType protocolType) {
+        PacketHandler handler = handlers.get(packet.getID());
+        if (handler != null) {
+            try {
+                handler.handle(connection, protocolType, packet);
+            } catch (final IOException e) {
+                logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
+            } catch (final Exception e) {
+                logger.error("Exception while handling packet {{}}: {} :", packet, e.getClass(), e);
+            }
+            return;
+        }
+
         for (ServerListener listener : listeners) {
             try {
-                listener.onReceived(connection, ProtocolType.TCP, packet);
+                listener.onReceived(connection, protocolType, packet);
             } catch (final IOException e) {
                 logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
             } catch (final Exception e) {
@@ -261,17 +818,71 @@ public class Server {
         }
     }
 
+    private void fireReceivedListeners(Connection connection, PacketBatch batch) {
+        for (ServerListener listener : listeners) {
+            if (BATCH_LISTENERS.get(listener.getClass())) {
+                try {
+                    listener.onReceivedBatch(connection, batch.getProtocolType(), batch);
+                } catch (final IOException e) {
+                    logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
+                } catch (final Exception e) {
+                    logger.error("Exception while handling onReceivedBatch: {} :", e.getClass(), e);
+                }
+                continue;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    listener.onReceived(connection, batch.getProtocolType(), batch.get(i));
+                } catch (final IOException e) {
+                    logger.warn("Unable to handle Packet: {} :", e.getClass(), e);
+                } catch (final Exception e) {
+                    logger.error("Exception while handling onReceive: {} :", e.getClass(), e);
+                }
+            }
+        }
+    }
+
     private boolean postProcessPacket(Connection connection, Packet packet) {
         if (packet.getID() == (short) -1000) {
             try {
                 int udpPort = packet.getBuffer().getInt();
 
+                // Clients supporting frame formats follow the port with the one they want, older ones get the standard one
+                boolean negotiated = packet.getBuffer().size() > Integer.BYTES;
+                FrameFormat clientFormat = negotiated ? FrameFormat.of(packet.getBuffer().get()) : FrameFormat.STANDARD;
+                FrameFormat serverFormat = negotiated ? frameFormat : FrameFormat.STANDARD;
+                connection.getUdpAggregator().setFrameFormat(clientFormat);
+                connection.setUdpReadFormat(serverFormat);
+
                 connection.setUdpPort(udpPort);
-                send(connection, packet, ProtocolType.TCP);
+
+                // Reply with the port, the session token to put in front of every datagram and the format wanted
+                Packet reply = new Packet((short) -1000);
+                reply.getBuffer().putInt(udpPort);
+                reply.getBuffer().putLong(issueUdpSession(connection));
+                reply.getBuffer().put((byte) serverFormat.ordinal());
+
+                // The reply is the last frame in the old format
+                TcpChannel channel = connection.getChannel();
+                channel.writeAndSwitchFormat(reply, clientFormat);
+                channel.flush();
                 listeners.forEach(listener -> listener.onConnected(connection, ProtocolType.UDP));
             } catch (Exception e) {
                 logger.error("Unreadable UDP port packet from client. {} :", e.getClass(), e);
                 connection.removeUdpPort();
+                removeUdpSession(connection);
+            }
+            return false;
+        }
+
+        if (packet.getID() == (short) -1008) {
+            // The client writes its frames in another format from the next one on
+            try {
+                connection.getChannel().setReadFormat(FrameFormat.of(packet.getBuffer().get()));
+            } catch (final IllegalArgumentException | BufferUnderflowException e) {
+                logger.error("Unreadable frame format packet from client, closing the connection. {} :", e.getClass(), e);
+                connection.getChannel().close();
             }
             return false;
         }
@@ -280,19 +891,193 @@ public class Server {
     }
 
     /**
-     * Sends data to a specific client using the specified protocol.
+     * Opens the UDP sockets, all bound to the same port.
+     *
+     * @param udpPort The UDP port to listen on.
+     * @return The bound channels.
+     * @throws IOException if a socket cannot be opened or bound.
+     */
+    private DatagramChannel[] openDatagramChannels(int udpPort) throws IOException {
+        DatagramChannel first = DatagramChannel.open();
+        int shards = udpShards;
+        if (shards > 1 && !first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            logger.warn("SO_REUSEPORT is not supported, receiving UDP on a single socket");
+            shards = 1;
+        }
+
+        DatagramChannel[] channels = new DatagramChannel[shards];
+        channels[0] = first;
+        try {
+            if (shards > 1) first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            first.bind(new InetSocketAddress(udpPort));
+
+            // Bind the others to the port actually bound, in case an ephemeral port was requested
+            int boundPort = ((InetSocketAddress) first.getLocalAddress()).getPort();
+            for (int i = 1; i < shards; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channels[i].bind(new InetSocketAddress(boundPort));
+            }
+        } catch (final IOException e) {
+            for (DatagramChannel channel : channels) {
+                if (channel != null) channel.close();
+            }
+            throw e;
+        }
+
+        return channels;
+    }
+
+    /**
+     * Issues a UDP session token to a connection, keeping the token it already has.
+     *
+     * @param connection The client's connection object.
+     * @return The non-zero session token.
+     */
+    private long issueUdpSession(Connection connection) {
+        long token = connection.getUdpToken();
+        if (token != 0) return token;
+
+        // The connection id makes the lookup an array access, the non-zero 32-bit random secret below it keeps
+        // out guessed datagrams and those meant for an earlier connection with the same id
+        int secret;
+        do {
+            secret = tokenRandom.nextInt();
+        } while (secret == 0);
+        token = (long) connection.getId() << Integer.SIZE | Integer.toUnsignedLong(secret);
+        connection.setUdpToken(token);
+        return token;
+    }
+
+    private void removeUdpSession(Connection connection) {
+        connection.setUdpToken(0);
+    }
+
+    /**
+     * Sends data to a specific client using the specified protocol. A recyclable packet has one of its references
+     * consumed, whether it was sent or not.
      *
      * @param connection The client's connection object.
      * @param packet     The packet to send.
-     * @param protocol   The protocol to use (TCP or UDP).
+     * @param protocol   The protocol to use.
      */
     public boolean send(Connection connection, Packet packet, ProtocolType protocol) {
+        if (!isClientConnected(connection, protocol)) {
+            packet.release();
+            return false;
+        }
+
+        try {
+            switch (protocol) {
+                case TCP -> {
+                    return sendTcp(connection, packet, true);
+                }
+                default -> sendDatagram(connection, packet, protocol);
+            }
+
+            return true;
+        } catch (final IOException e) {
+            logger.error("Error while sending packet {{}} : {} :", packet, e.getClass(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Sends a record to a specific client using the specified protocol, encoded by its {@link RecordCodec}.
+     *
+     * @param connection The client's connection object.
+     * @param record     The record to send, annotated with {@link xyz.synse.packetnet.common.codec.PacketId}.
+     * @param protocol   The protocol to use.
+     * @return True if the packet is sent successfully, false otherwise.
+     */
+    public boolean send(Connection connection, Record record, ProtocolType protocol) {
+        return send(connection, RecordCodec.toPacket(record), protocol);
+    }
+
+    /**
+     * Sends a packet to a specific client without waiting for the outcome. A recyclable packet has one of its
+     * references consumed, whether it was sent or not.
+     * <p>
+     * Over TCP the future completes once the packet is fully written to the socket, and fails with the cause if the
+     * connection closes first or the backpressure policy drops or rejects the packet. Over UDP it completes once the
+     * packet is handed to the datagram aggregator, or to the reliable channel, and fails if that throws. Futures
+     * complete on the connection's event loop, so actions depending on them must not block, or must run elsewhere
+     * through the async methods of {@link CompletableFuture}.
+     *
+     * @param connection The client's connection object.
+     * @param packet     The packet to send.
+     * @param protocol   The protocol to use.
+     * @return A future completed once the packet is sent, or failed with the cause.
+     */
+    public CompletableFuture<Void> sendAsync(Connection connection, Packet packet, ProtocolType protocol) {
+        return sendAsync(connection, List.of(packet), protocol);
+    }
+
+    /**
+     * Sends packets to a specific client in order without waiting for the outcome, see
+     * {@link #sendAsync(Connection, Packet, ProtocolType)}. Over TCP the packets are flushed together and the
+     * backpressure policy accepts or refuses them as a whole.
+     *
+     * @param connection The client's connection object.
+     * @param packets    The packets to send.
+     * @param protocol   The protocol to use.
+     * @return A future completed once all packets are sent, or failed with the first cause.
+     */
+    public CompletableFuture<Void> sendAsync(Connection connection, Collection<Packet> packets, ProtocolType protocol) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!isClientConnected(connection, protocol)) {
+            packets.forEach(Packet::release);
+            future.completeExceptionally(new IOException("Client is not connected using " + protocol));
+            return future;
+        }
+
+        if (protocol == ProtocolType.TCP) {
+            TcpChannel channel = connection.getChannel();
+            if (!channel.isWritable() && backpressurePolicy != BackpressurePolicy.QUEUE) {
+                logger.debug("Refused {} packets to {}, connection is not writable", packets.size(), connection);
+                packets.forEach(Packet::release);
+                future.completeExceptionally(new IOException("Connection is not writable"));
+                return future;
+            }
+
+            channel.writeAndFlush(packets, future);
+            return future;
+        }
+
+        Iterator<Packet> iterator = packets.iterator();
+        try {
+            while (iterator.hasNext()) {
+                sendDatagram(connection, iterator.next(), protocol);
+            }
+            future.complete(null);
+        } catch (final IOException e) {
+            iterator.forEachRemaining(Packet::release);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Sends a prepared packet to a specific client using the specified protocol. The encoded frame is shared,
+     * so the same prepared packet can be sent to any number of clients.
+     *
+     * @param connection The client's connection object.
+     * @param packet     The prepared packet to send.
+     * @param protocol   The protocol to use.
+     * @return True if the packet was sent, false otherwise.
+     */
+    public boolean send(Connection connection, PreparedPacket packet, ProtocolType protocol) {
         if (!isClientConnected(connection, protocol)) return false;
 
         try {
             switch (protocol) {
-                case TCP -> sendTcp(connection, packet);
-                case UDP -> sendUdp(connection, packet);
+                case TCP -> {
+                    return sendTcp(connection, packet);
+                }
+                case UDP -> connection.getUdpAggregator().write(packet);
+                case UDP_SEQUENCED -> connection.getSequencedChannel().send(packet);
+                case RELIABLE_UDP, RELIABLE_UNORDERED ->
+                        connection.getReliableChannel().send(packet, protocol == ProtocolType.RELIABLE_UDP);
                 default -> logger.warn("Unsupported protocol: " + protocol);
             }
 
@@ -304,49 +1089,215 @@ public class Server {
     }
 
     /**
-     * Sends a packet to a client using TCP.
+     * Queues a packet to a client over TCP without flushing it. Use {@link #flush(Connection)} to write queued
+     * packets together, otherwise they are flushed once the flush threshold or flush delay is reached.
+     * The packet must not be modified afterwards.
+     *
+     * @param connection The client's connection object.
+     * @param packet     The packet to queue.
+     * @return True if the packet was queued, false otherwise.
+     */
+    public boolean write(Connection connection, Packet packet) {
+        if (!isClientConnected(connection, ProtocolType.TCP)) {
+            packet.release();
+            return false;
+        }
+
+        try {
+            return sendTcp(connection, packet, false);
+        } catch (final IOException e) {
+            logger.error("Error while writing packet {{}} : {} :", packet, e.getClass(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Flushes the packets queued to a client. TCP packets queued from any thread up to the flush are written
+     * together by the connection's event loop, UDP packets waiting for their datagram to fill up are sent.
+     *
+     * @param connection The client's connection object.
+     */
+    public void flush(Connection connection) {
+        connection.getChannel().flush();
+
+        try {
+            connection.getUdpAggregator().flush();
+        } catch (final IOException e) {
+            logger.error("Error while flushing UDP packets to {} : {} :", connection, e.getClass(), e);
+        }
+    }
+
+    /**
+     * Sends a packet to a client using TCP. The packet is written by the event loop without copying its data,
+     * so it must not be modified afterwards. While the connection is not writable the backpressure policy decides
+     * whether the packet is queued, dropped or rejected.
      *
      * @param connection The client's connection object.
      * @param packet     The packet to send.
+     * @param flush      Whether to flush the connection after queueing the packet.
+     * @return False if the packet was rejected, true otherwise.
      * @throws IOException if an I/O error occurs while sending the packet.
      */
-    private void sendTcp(Connection connection, Packet packet) throws IOException {
-        Socket tcpSocket = connection.getTcpSocket();
+    private boolean sendTcp(Connection connection, Packet packet, boolean flush) throws IOException {
+        TcpChannel channel = connection.getChannel();
 
-        ByteBuffer buffer = ByteBuffer.allocate(writeBufferSize);
-        byte[] data = packet.write(buffer).array();
+        if (!channel.isWritable()) {
+            switch (backpressurePolicy) {
+                case DROP -> {
+                    logger.debug("Dropped packet {{}} to {}, connection is not writable", packet, connection);
+                    packet.release();
+                    return true;
+                }
+                case REJECT -> {
+                    logger.warn("Rejected packet {{}} to {}, connection is not writable", packet, connection);
+                    packet.release();
+                    return false;
+                }
+            }
+        }
 
-        tcpSocket.getOutputStream().write(data);
-        tcpSocket.getOutputStream().flush();
+        if (flush) {
+            channel.writeAndFlush(packet);
+        } else {
+            channel.write(packet);
+        }
+        return true;
     }
 
     /**
-     * Sends a packet to a client using UDP.
+     * Sends a prepared packet to a client using TCP, applying the backpressure policy like
+     * {@link #sendTcp(Connection, Packet, boolean)}.
+     *
+     * @param connection The client's connection object.
+     * @param packet     The prepared packet to send.
+     * @return False if the packet was rejected, true otherwise.
+     * @throws IOException if an I/O error occurs while sending the packet.
+     */
+    private boolean sendTcp(Connection connection, PreparedPacket packet) throws IOException {
+        TcpChannel channel = connection.getChannel();
+
+        if (!channel.isWritable()) {
+            switch (backpressurePolicy) {
+                case DROP -> {
+                    logger.debug("Dropped packet {{}} to {}, connection is not writable", packet, connection);
+                    return true;
+                }
+                case REJECT -> {
+                    logger.warn("Rejected packet {{}} to {}, connection is not writable", packet, connection);
+                    return false;
+                }
+            }
+        }
+
+        channel.writeAndFlush(packet);
+        return true;
+    }
+
+    /**
+     * Sends a packet to a client over UDP, plain, sequenced or reliable depending on the protocol.
+     *
+     * @param connection The client's connection object.
+     * @param packet     The packet to send.
+     * @param protocol   The UDP protocol to use.
+     * @throws IOException if an I/O error occurs while sending the packet.
+     */
+    private void sendDatagram(Connection connection, Packet packet, ProtocolType protocol) throws IOException {
+        switch (protocol) {
+            case UDP -> sendUdp(connection, packet);
+            case UDP_SEQUENCED -> sendSequenced(connection, packet);
+            case RELIABLE_UDP, RELIABLE_UNORDERED -> sendReliable(connection, packet, protocol == ProtocolType.RELIABLE_UDP);
+            default -> {
+                packet.release();
+                throw new IOException("Unsupported protocol: " + protocol);
+            }
+        }
+    }
+
+    /**
+     * Sends a packet to a client using UDP. Its written bytes are copied into a pooled datagram, which may pack
+     * other packets too, see {@link #setUdpFlushDelay(long, TimeUnit)}.
      *
      * @param connection The client's connection object.
      * @param packet     The packet to send.
      * @throws IOException if an I/O error occurs while sending the packet.
      */
     private void sendUdp(Connection connection, Packet packet) throws IOException {
-        int udpPort = connection.getUdpPort().get();
+        try {
+            connection.getUdpAggregator().write(packet);
+        } finally {
+            packet.release();
+        }
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(writeBufferSize);
-        byte[] data = packet.write(buffer).array();
+    /**
+     * Sends a packet to a client over UDP with the next sequence number of its id, so the client drops it if a
+     * newer one with the same id arrived first.
+     *
+     * @param connection The client's connection object.
+     * @param packet     The packet to send.
+     * @throws IOException if an I/O error occurs while sending the packet.
+     */
+    private void sendSequenced(Connection connection, Packet packet) throws IOException {
+        try {
+            connection.getSequencedChannel().send(packet);
+        } finally {
+            packet.release();
+        }
+    }
 
-        DatagramPacket datagramPacket = new DatagramPacket(data, 0, data.length, connection.getTcpSocket().getInetAddress(), udpPort);
-        udpSocket.send(datagramPacket);
+    /**
+     * Sends a packet to a client reliably over UDP. It is retransmitted until the client acknowledges it, see
+     * {@link ReliableChannel}.
+     *
+     * @param connection The client's connection object.
+     * @param packet     The packet to send.
+     * @param ordered    True to deliver the packet in order with the other ordered packets.
+     * @throws IOException if an I/O error occurs while sending the packet.
+     */
+    private void sendReliable(Connection connection, Packet packet, boolean ordered) throws IOException {
+        try {
+            connection.getReliableChannel().send(packet, ordered);
+        } finally {
+            packet.release();
+        }
     }
 
     /**
-     * Broadcasts a packet to all connected clients using the specified protocol.
+     * Broadcasts a packet to all connected clients using the specified protocol. The packet is encoded once,
+     * see {@link #broadcast(PreparedPacket, ProtocolType)}, and can be modified as soon as this returns.
+     * A recyclable packet has one of its references consumed.
      *
      * @param packet   The packet to broadcast.
      * @param protocol The protocol to use (TCP or UDP).
      */
     public void broadcast(Packet packet, ProtocolType protocol) {
+        try {
+            broadcast(new PreparedPacket(packet), protocol);
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * Broadcasts a prepared packet to all connected clients using the specified protocol. Returns immediately:
+     * the clients are grouped by the event loop serving them and every loop sends the shared frame to its own
+     * clients, so large broadcasts fan out across the worker threads.
+     *
+     * @param packet   The prepared packet to broadcast.
+     * @param protocol The protocol to use (TCP or UDP).
+     */
+    public void broadcast(PreparedPacket packet, ProtocolType protocol) {
+        Map<EventLoop, List<Connection>> connectionsByLoop = new HashMap<>();
         for (Connection connection : connections) {
-            send(connection, packet, protocol);
+            connectionsByLoop.computeIfAbsent(connection.getChannel().getEventLoop(), eventLoop -> new ArrayList<>())
+                    .add(connection);
         }
+
+        connectionsByLoop.forEach((eventLoop, targets) -> eventLoop.execute(() -> {
+            for (Connection connection : targets) {
+                send(connection, packet, protocol);
+            }
+        }));
     }
 
     /**
@@ -358,19 +1309,34 @@ public class Server {
      */
     public boolean isClientConnected(Connection connection, ProtocolType protocolType) {
         if (protocolType == ProtocolType.TCP)
-            return connection.getTcpSocket() != null && connection.getTcpSocket().isConnected();
-        else if (protocolType == ProtocolType.UDP)
+            return connection.getChannel().isOpen();
+        else if (protocolType.isUdp())
             return connection.getUdpPort().isPresent();
 
         return false;
     }
 
     /**
-     * Gets the list of connections to clients.
+     * Gets the connections to clients at this moment.
      *
-     * @return The list of connections.
+     * @return An unmodifiable snapshot of the connections.
      */
     public List<Connection> getConnections() {
+        return connections.snapshot();
+    }
+
+    /**
+     * @param id The connection id, see {@link Connection#getId()}.
+     * @return The connection with the id, or null if there is none.
+     */
+    public Connection getConnection(int id) {
+        return connections.get(id);
+    }
+
+    /**
+     * @return The registry of the connections to clients, to iterate them or size arrays indexed by connection id.
+     */
+    public ConnectionRegistry getConnectionRegistry() {
         return connections;
     }
 }
\ No newline at end of file
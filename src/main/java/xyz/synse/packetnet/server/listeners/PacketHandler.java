@@ -0,0 +1,15 @@
+package xyz.synse.packetnet.server.listeners;
+
+import xyz.synse.packetnet.common.ProtocolType;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.server.Connection;
+
+import java.io.IOException;
+
+/**
+ * Handles the packets with one packet id, see {@link xyz.synse.packetnet.server.Server#setHandler(short, PacketHandler)}.
+ */
+@FunctionalInterface
+public interface PacketHandler {
+    void handle(Connection connection, ProtocolType protocolType, Packet packet) throws IOException;
+}
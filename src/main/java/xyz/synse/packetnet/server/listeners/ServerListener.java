@@ -2,6 +2,7 @@ package xyz.synse.packetnet.server.listeners;
 
 import xyz.synse.packetnet.common.ProtocolType;
 import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PacketBatch;
 import xyz.synse.packetnet.server.Connection;
 
 import java.io.IOException;
@@ -15,4 +16,22 @@ public class ServerListener {
 
     public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) throws IOException {
     }
+
+    /**
+     * Called with the packets decoded from one TCP read or one drain of datagrams, in the order they were received.
+     * Overriding it replaces the calls to {@link #onReceived} for packets without a packet handler, so a batch can be
+     * handled in bulk. The batch is reused once this returns, see {@link PacketBatch}.
+     */
+    public void onReceivedBatch(Connection connection, ProtocolType protocolType, PacketBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            onReceived(connection, protocolType, batch.get(i));
+        }
+    }
+
+    /**
+     * Called on the connection's event loop when its pending TCP bytes rise above the high watermark,
+     * or fall back below the low watermark.
+     */
+    public void onWritabilityChanged(Connection connection, boolean writable) {
+    }
 }
\ No newline at end of file
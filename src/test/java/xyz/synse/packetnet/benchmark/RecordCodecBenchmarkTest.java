@@ -0,0 +1,141 @@
+package xyz.synse.packetnet.benchmark;
+
+import ch.qos.logback.classic.Level;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import xyz.synse.packetnet.common.codec.PacketId;
+import xyz.synse.packetnet.common.codec.RecordCodec;
+import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares encoding and decoding records through their {@link RecordCodec} with writing and reading the same fields
+ * by hand, cycling through a set of distinct records so neither side can be folded into constants.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RecordCodecBenchmarkTest {
+    private static final int WARMUP_ITERATIONS = 2_000_000;
+    private static final int ITERATIONS = 10_000_000;
+    // Distinct records, a power of two
+    private static final int RECORDS = 1024;
+    // Generous, the codec only has to stay in the range of hand-written code
+    private static final double MAX_SLOWDOWN = 2.0;
+
+    @PacketId(100)
+    record Position(UUID entity, long tick, double x, double y, double z, float yaw, float pitch, short zone,
+                    boolean grounded) {
+    }
+
+    private final Position[] positions = new Position[RECORDS];
+    private final DynamicByteBuffer buffer = new DynamicByteBuffer(128);
+    private final DynamicByteBuffer encoded = new DynamicByteBuffer(RECORDS * 64);
+    private final RecordCodec<Position> codec = RecordCodec.of(Position.class);
+
+    @BeforeAll
+    public void setUp() {
+        ClientThroughputTest.setLoggingLevel(Level.ERROR);
+
+        Random random = new Random(0);
+        for (int i = 0; i < RECORDS; i++) {
+            positions[i] = new Position(UUID.randomUUID(), random.nextLong(), random.nextDouble(), random.nextDouble(),
+                    random.nextDouble(), random.nextFloat(), random.nextFloat(), (short) random.nextInt(),
+                    random.nextBoolean());
+            codec.write(positions[i], encoded);
+        }
+    }
+
+    @Test
+    public void testEncode() {
+        // Same format
+        buffer.clear();
+        writeByHand(positions[0], buffer);
+        byte[] handWritten = Arrays.copyOf(buffer.array(), buffer.size());
+        buffer.clear();
+        codec.write(positions[0], buffer);
+        assertTrue(Arrays.equals(handWritten, Arrays.copyOf(buffer.array(), buffer.size())));
+
+        encode(false, WARMUP_ITERATIONS);
+        encode(true, WARMUP_ITERATIONS);
+
+        long handNanos = encode(false, ITERATIONS);
+        long codecNanos = encode(true, ITERATIONS);
+        report("Encode", handNanos, codecNanos);
+        assertTrue(codecNanos <= handNanos * MAX_SLOWDOWN);
+    }
+
+    @Test
+    public void testDecode() throws IOException {
+        encoded.position(0);
+        assertEquals(positions[0], readByHand(encoded));
+        assertEquals(positions[1], codec.read(encoded));
+
+        long handChecksum = decode(false, WARMUP_ITERATIONS);
+        assertEquals(handChecksum, decode(true, WARMUP_ITERATIONS));
+
+        long start = System.nanoTime();
+        decode(false, ITERATIONS);
+        long handNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        decode(true, ITERATIONS);
+        long codecNanos = System.nanoTime() - start;
+        report("Decode", handNanos, codecNanos);
+        assertTrue(codecNanos <= handNanos * MAX_SLOWDOWN);
+    }
+
+    private long encode(boolean withCodec, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            buffer.clear();
+            if (withCodec) {
+                codec.write(positions[i & (RECORDS - 1)], buffer);
+            } else {
+                writeByHand(positions[i & (RECORDS - 1)], buffer);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long decode(boolean withCodec, int iterations) throws IOException {
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            if ((i & (RECORDS - 1)) == 0) encoded.position(0);
+
+            Position position = withCodec ? codec.read(encoded) : readByHand(encoded);
+            checksum += position.entity().getLeastSignificantBits() + position.tick() + Double.doubleToLongBits(position.x())
+                    + Double.doubleToLongBits(position.y()) + Double.doubleToLongBits(position.z())
+                    + Float.floatToIntBits(position.yaw()) + Float.floatToIntBits(position.pitch()) + position.zone()
+                    + (position.grounded() ? 1 : 0);
+        }
+        return checksum;
+    }
+
+    private static void writeByHand(Position position, DynamicByteBuffer buffer) {
+        buffer.putUUID(position.entity());
+        buffer.putLong(position.tick());
+        buffer.putDouble(position.x());
+        buffer.putDouble(position.y());
+        buffer.putDouble(position.z());
+        buffer.putFloat(position.yaw());
+        buffer.putFloat(position.pitch());
+        buffer.putShort(position.zone());
+        buffer.putBoolean(position.grounded());
+    }
+
+    private static Position readByHand(DynamicByteBuffer buffer) {
+        return new Position(buffer.getUUID(), buffer.getLong(), buffer.getDouble(), buffer.getDouble(),
+                buffer.getDouble(), buffer.getFloat(), buffer.getFloat(), buffer.getShort(), buffer.getBoolean());
+    }
+
+    private static void report(String operation, long handNanos, long codecNanos) {
+        System.out.printf("%s - by hand: %.1f ns/op, codec: %.1f ns/op (%.2fx)%n", operation,
+                (double) handNanos / ITERATIONS, (double) codecNanos / ITERATIONS, (double) codecNanos / handNanos);
+    }
+}
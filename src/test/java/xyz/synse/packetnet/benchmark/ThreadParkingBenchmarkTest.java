@@ -0,0 +1,106 @@
+package xyz.synse.packetnet.benchmark;
+
+import ch.qos.logback.classic.Level;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.synse.packetnet.common.threading.ExecutionMode;
+import xyz.synse.packetnet.common.threading.ThreadPoolManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A microbenchmark of how many parked tasks each execution mode of {@link ThreadPoolManager} can hold at once, the
+ * way handler threads wait on blocking work. Every task parks on a latch until all of them have started, no server
+ * or socket is involved. Bounded pools are left out, as they can only hold as many parked tasks as they have threads.
+ * <p>
+ * Both modes run at 1k and 10k tasks, only virtual threads go on to 50k: that many platform threads would run into
+ * the limit on threads per user, which other processes on the host share. The benchmark only runs when asked for:
+ * mvn test -Dbenchmark=true
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class ThreadParkingBenchmarkTest {
+    private static final int[] TASK_COUNTS = {1_000, 10_000};
+    private static final int VIRTUAL_ONLY_TASK_COUNT = 50_000;
+    private static final int TIMEOUT_SECONDS = 60;
+
+    private final Logger logger = LoggerFactory.getLogger(ThreadParkingBenchmarkTest.class);
+
+    @BeforeAll
+    public void setUp() {
+        ClientThroughputTest.setLoggingLevel(Level.ERROR);
+        ((ch.qos.logback.classic.Logger) logger).setLevel(Level.INFO);
+    }
+
+    @Test
+    public void testPlatformThreads() throws InterruptedException {
+        for (int tasks : TASK_COUNTS) {
+            assertTrue(benchmark(ExecutionMode.PLATFORM, tasks));
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws InterruptedException {
+        for (int tasks : TASK_COUNTS) {
+            assertTrue(benchmark(ExecutionMode.VIRTUAL, tasks));
+        }
+        assertTrue(benchmark(ExecutionMode.VIRTUAL, VIRTUAL_ONLY_TASK_COUNT));
+    }
+
+    private boolean benchmark(ExecutionMode executionMode, int tasks) throws InterruptedException {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        ThreadPoolManager threadPoolManager = new ThreadPoolManager(executionMode);
+        CountDownLatch started = new CountDownLatch(tasks);
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(tasks);
+
+        Instant start = Instant.now();
+        int submitted = 0;
+        try {
+            for (; submitted < tasks; submitted++) {
+                threadPoolManager.submit(() -> {
+                    started.countDown();
+                    try {
+                        released.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    finished.countDown();
+                });
+            }
+        } catch (OutOfMemoryError e) {
+            logger.error("{} failed to start task {} of {}: {}", executionMode, submitted, tasks, e.getMessage());
+        }
+
+        boolean allStarted = submitted == tasks && started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Duration startup = Duration.between(start, Instant.now());
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        released.countDown();
+        boolean allFinished = allStarted && finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Duration total = Duration.between(start, Instant.now());
+
+        threadPoolManager.shutdown(true);
+        threadPoolManager.awaitTermination();
+
+        if (!allFinished) {
+            logger.error("{} with {} parked tasks did not complete", executionMode, tasks);
+            return false;
+        }
+
+        logger.info("{} with {} parked tasks - start up (ms): {}, wake up all (ms): {}, heap (MB): {}", executionMode,
+                tasks, startup.toMillis(), total.minus(startup).toMillis(), (usedAfter - usedBefore) / (1024 * 1024));
+        return true;
+    }
+}
@@ -1,19 +1,49 @@
 package xyz.synse.packetnet.client;
 
 import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.client.listeners.ClientListener;
 import xyz.synse.packetnet.common.ProtocolType;
+import xyz.synse.packetnet.common.codec.OptionalField;
+import xyz.synse.packetnet.common.codec.PacketId;
+import xyz.synse.packetnet.common.codec.RecordCodec;
+import xyz.synse.packetnet.common.codec.Width;
+import xyz.synse.packetnet.common.packet.FrameFormat;
 import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.common.packet.PacketBatch;
+import xyz.synse.packetnet.common.packet.PreparedPacket;
+import xyz.synse.packetnet.common.rpc.RpcException;
+import xyz.synse.packetnet.common.threading.DispatchStrategy;
+import xyz.synse.packetnet.common.threading.Dispatcher;
+import xyz.synse.packetnet.common.threading.ExecutionMode;
+import xyz.synse.packetnet.common.threading.OverflowPolicy;
 import xyz.synse.packetnet.server.Connection;
 import xyz.synse.packetnet.server.Server;
 import xyz.synse.packetnet.server.listeners.ServerListener;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ClientTest {
     @Test
@@ -99,4 +129,711 @@ public class ClientTest {
             assertNotNull(packets.get(i));
         }
     }
+
+    @Test
+    public void runPipelinedTest() throws IOException, InterruptedException {
+        // Create the original packet
+        Packet originalPacket = new Packet((short) 2);
+        originalPacket.getBuffer().putString("Hello, World!");
+
+        // Computed hashes
+        final List<Packet> packets = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(10000);
+
+        // Create server for validation
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                packets.add(packet);
+                latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        // Create client to send the packets
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        // Send x packets without waiting, so many of them arrive in a single read
+        for (int i = 0; i < 10000; i++) {
+            client.send(originalPacket, ProtocolType.TCP);
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        assertEquals(10000, packets.size());
+        for (Packet packet : packets) {
+            assertEquals(originalPacket, packet);
+        }
+    }
+
+    @Test
+    public void runBatchedWriteTest() throws IOException, InterruptedException {
+        final List<Packet> packets = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(100);
+
+        // Create server for validation
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                packets.add(packet);
+                latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        // Long flush delay, so only the explicit flush writes the packets
+        Client client = new Client();
+        client.setFlushDelay(10, TimeUnit.SECONDS);
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        // Queue x packets and write them together
+        for (int i = 0; i < 100; i++) {
+            Packet packet = new Packet((short) 3);
+            packet.getBuffer().putInt(i);
+            client.write(packet);
+        }
+
+        Thread.sleep(500L);
+        assertEquals(100, latch.getCount());
+
+        client.flush();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        assertEquals(100, packets.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, packets.get(i).getBuffer().getInt());
+        }
+    }
+
+    @Test
+    public void runRecyclingTest() throws IOException, InterruptedException {
+        final List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(1000);
+
+        // Create server for validation, received packets are released once the listener returns
+        Server server = new Server();
+        server.setPacketRecycling(true);
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                values.add(packet.getBuffer().getInt());
+                latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.setPacketRecycling(true);
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        // Every send consumes the packet obtained for it
+        for (int i = 0; i < 1000; i++) {
+            Packet packet = Packet.obtain((short) 4);
+            packet.getBuffer().putInt(i);
+            client.send(packet, ProtocolType.TCP);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        assertEquals(1000, values.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) values.get(i));
+        }
+    }
+
+    @Test
+    public void runShardedUdpTest() throws IOException, InterruptedException {
+        final Set<String> received = ConcurrentHashMap.newKeySet();
+        final CountDownLatch latch = new CountDownLatch(8 * 50);
+
+        // Create server receiving UDP on several sockets bound to the same port
+        Server server = new Server();
+        server.setUdpShards(4);
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                if (protocolType == ProtocolType.UDP && received.add(packet.getBuffer().getInt() + ":" + packet.getBuffer().getInt()))
+                    latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        // Each client's datagrams are identified by its session token, whichever socket receives them
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Client client = new Client();
+            client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+            clients.add(client);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            for (int c = 0; c < clients.size(); c++) {
+                Packet packet = new Packet((short) 5);
+                packet.getBuffer().putInt(c);
+                packet.getBuffer().putInt(i);
+                clients.get(c).send(packet, ProtocolType.UDP);
+            }
+            Thread.sleep(1L);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        clients.forEach(Client::close);
+        server.close();
+
+        assertEquals(8 * 50, received.size());
+    }
+
+    @Test
+    public void runUdpAggregationTest() throws IOException, InterruptedException {
+        final List<Integer> values = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(200);
+
+        // Create server for validation
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                values.add(packet.getBuffer().getInt());
+                latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        // Long flush delay, so the packets are packed into full datagrams and the last one waits for the flush
+        Client client = new Client();
+        client.setUdpFlushDelay(10, TimeUnit.SECONDS);
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        for (int i = 0; i < 200; i++) {
+            Packet packet = new Packet((short) 6);
+            packet.getBuffer().putInt(i);
+            client.send(packet, ProtocolType.UDP);
+        }
+
+        Thread.sleep(500L);
+        assertTrue(latch.getCount() > 0);
+
+        client.flush();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        // Datagrams are packed in order
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (int) values.get(i));
+        }
+    }
+
+    @Test
+    public void runFragmentedUdpTest() throws IOException, InterruptedException {
+        // Create the original packet, far larger than a datagram
+        byte[] snapshot = new byte[40_000];
+        new Random().nextBytes(snapshot);
+        Packet originalPacket = new Packet((short) 8);
+        originalPacket.getBuffer().put(snapshot);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Packet> echoed = new ArrayList<>();
+
+        // Create server echoing the packet back over UDP
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                server.send(connection, packet, ProtocolType.UDP);
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.addListener(new ClientListener() {
+            @Override
+            public void onReceived(ProtocolType protocolType, Packet packet) {
+                echoed.add(packet);
+                latch.countDown();
+            }
+        });
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+        client.send(originalPacket, ProtocolType.UDP);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        assertEquals(originalPacket, echoed.get(0));
+    }
+
+    @Test
+    public void runReliableUdpTest() throws IOException, InterruptedException {
+        int packetCount = 200;
+        final CountDownLatch latch = new CountDownLatch(packetCount);
+        final List<Integer> echoed = new ArrayList<>();
+
+        // Create server echoing the packets back reliably
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                assertEquals(ProtocolType.RELIABLE_UDP, protocolType);
+                server.send(connection, packet, ProtocolType.RELIABLE_UDP);
+            }
+        });
+        server.start(3300, 3301);
+
+        // Lose a fifth of the datagrams both ways
+        try (LossyProxy proxy = new LossyProxy(3301, 0.2)) {
+            Client client = new Client();
+            client.addListener(new ClientListener() {
+                @Override
+                public void onReceived(ProtocolType protocolType, Packet packet) {
+                    assertEquals(ProtocolType.RELIABLE_UDP, protocolType);
+                    echoed.add(packet.getBuffer().getInt());
+                    latch.countDown();
+                }
+            });
+            client.connect(InetAddress.getLocalHost().getHostName(), 3300, proxy.getPort());
+
+            for (int i = 0; i < packetCount; i++) {
+                Packet packet = new Packet((short) 9);
+                packet.getBuffer().putInt(i);
+                assertTrue(client.send(packet, ProtocolType.RELIABLE_UDP));
+            }
+
+            assertTrue(latch.await(20, TimeUnit.SECONDS));
+
+            // Close connections
+            client.close();
+        }
+        server.close();
+
+        // Every packet came back once, in order
+        for (int i = 0; i < packetCount; i++) {
+            assertEquals(i, (int) echoed.get(i));
+        }
+    }
+
+    @Test
+    public void runAsyncSendTest() throws Exception {
+        int packetCount = 100;
+        final CountDownLatch latch = new CountDownLatch(packetCount + 1);
+
+        // Create server
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        // The batch completes once its last packet is written
+        List<Packet> batch = new ArrayList<>();
+        for (int i = 0; i < packetCount; i++) {
+            Packet packet = new Packet((short) 1);
+            packet.getBuffer().putInt(i);
+            batch.add(packet);
+        }
+        client.sendAsync(batch, ProtocolType.TCP).get(5, TimeUnit.SECONDS);
+        client.sendAsync(new Packet((short) 2), ProtocolType.UDP).get(5, TimeUnit.SECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        client.close();
+        CompletableFuture<Void> closed = client.sendAsync(new Packet((short) 3), ProtocolType.TCP);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> closed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+
+        server.close();
+    }
+
+    @Test
+    public void runRequestTest() throws Exception {
+        int requestCount = 10_000;
+
+        // Create server
+        Server server = new Server();
+        server.setRequestHandler((short) 20, (connection, request) -> {
+            Packet reply = new Packet((short) 21);
+            reply.getBuffer().putInt(request.getBuffer().getInt() + 1);
+            return reply;
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        // Every request is in flight before the first reply is awaited
+        List<CompletableFuture<Packet>> replies = new ArrayList<>();
+        for (int i = 0; i < requestCount; i++) {
+            Packet request = new Packet((short) 20);
+            request.getBuffer().putInt(i);
+            replies.add(client.request(request, 5, TimeUnit.SECONDS));
+        }
+        for (int i = 0; i < requestCount; i++) {
+            Packet reply = replies.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(21, reply.getID());
+            assertEquals(i + 1, reply.getBuffer().getInt());
+        }
+        assertEquals(0, client.getRequestsInFlight());
+
+        // Requests without a handler fail
+        CompletableFuture<Packet> unhandled = client.request(new Packet((short) 22), 5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> unhandled.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RpcException.class, e.getCause());
+
+        // Close connections
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void runHandlerTest() throws IOException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final List<Short> handled = new ArrayList<>();
+        final List<Short> listened = new ArrayList<>();
+
+        // Create server
+        Server server = new Server();
+        server.setHandler((short) 30, (connection, protocolType, packet) -> {
+            handled.add(packet.getID());
+            latch.countDown();
+        });
+        server.setHandler((short) 31, (connection, protocolType, packet) -> {
+            handled.add(packet.getID());
+            latch.countDown();
+        });
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                listened.add(packet.getID());
+                latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+        client.send(new Packet((short) 30), ProtocolType.TCP);
+        client.send(new Packet((short) 32), ProtocolType.TCP);
+        client.send(new Packet((short) 31), ProtocolType.TCP);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        // Listeners only receive the packets without a handler
+        assertEquals(List.of((short) 30, (short) 31), handled);
+        assertEquals(List.of((short) 32), listened);
+    }
+
+    @Test
+    public void runBatchTest() throws IOException, InterruptedException {
+        final int count = 2000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final List<Integer> received = new ArrayList<>();
+        final List<Integer> batchSizes = new ArrayList<>();
+
+        // Create server
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceivedBatch(Connection connection, ProtocolType protocolType, PacketBatch batch) {
+                assertEquals(ProtocolType.TCP, protocolType);
+                batchSizes.add(batch.size());
+                for (Packet packet : batch) {
+                    received.add(packet.getBuffer().getInt());
+                    latch.countDown();
+                }
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        // Write the packets together, so many arrive in one read
+        for (int i = 0; i < count; i++) {
+            Packet packet = new Packet((short) 40);
+            packet.getBuffer().putInt(i);
+            client.write(packet);
+        }
+        client.flush();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+        // Packets written together are read together
+        assertTrue(batchSizes.stream().anyMatch(size -> size > 1));
+    }
+
+    @PacketId(41)
+    record Move(UUID player, float x, float y, @Width(1) int speed, @OptionalField String emote) {
+    }
+
+    @Test
+    public void runRecordTest() throws IOException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final List<Move> moves = new ArrayList<>();
+
+        // Create server
+        Server server = new Server();
+        server.setHandler((short) 41, (connection, protocolType, packet) -> {
+            moves.add(RecordCodec.of(Move.class).decode(packet));
+            latch.countDown();
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        Move first = new Move(UUID.randomUUID(), 1.5f, -2f, 12, "wave");
+        Move second = new Move(first.player(), 2f, -2f, 12, null);
+        assertTrue(client.send(first, ProtocolType.TCP));
+        assertTrue(client.send(second, ProtocolType.TCP));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        assertEquals(List.of(first, second), moves);
+    }
+
+    @Test
+    public void runFrameFormatTest() throws Exception {
+        runFrameFormatTest(FrameFormat.COMPACT, FrameFormat.COMPACT);
+        runFrameFormatTest(FrameFormat.COMPACT, FrameFormat.STANDARD);
+        runFrameFormatTest(FrameFormat.STANDARD, FrameFormat.COMPACT);
+    }
+
+    private void runFrameFormatTest(FrameFormat serverFormat, FrameFormat clientFormat) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(6);
+        final List<String> serverReceived = new ArrayList<>();
+        final List<String> clientReceived = new ArrayList<>();
+        byte[] large = new byte[5000];
+        new Random().nextBytes(large);
+
+        // Create server echoing every packet, prepared ones over TCP and UDP
+        Server server = new Server();
+        server.setFrameFormat(serverFormat);
+        server.setRequestHandler((short) 20, (connection, request) -> {
+            Packet reply = new Packet((short) 21);
+            reply.getBuffer().putInt(request.getBuffer().getInt() + 1);
+            return reply;
+        });
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) throws IOException {
+                synchronized (serverReceived) {
+                    serverReceived.add(protocolType + " " + packet.getID() + " " + packet.getBuffer().size());
+                }
+                if (protocolType == ProtocolType.TCP || protocolType == ProtocolType.UDP) {
+                    server.send(connection, new PreparedPacket(packet), protocolType);
+                } else {
+                    server.send(connection, packet, protocolType);
+                }
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.setFrameFormat(clientFormat);
+        client.addListener(new ClientListener() {
+            @Override
+            public void onReceived(ProtocolType protocolType, Packet packet) {
+                synchronized (clientReceived) {
+                    clientReceived.add(protocolType + " " + packet.getID() + " " + packet.getBuffer().size());
+                }
+                latch.countDown();
+            }
+        });
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+
+        // Negative ids, fragmented and reliable packets all go through the negotiated format
+        Packet tcp = new Packet((short) -300);
+        tcp.getBuffer().putVarInt(300);
+        Packet udp = new Packet((short) 50);
+        udp.getBuffer().putZigZag(-1L);
+        Packet fragmented = new Packet((short) 51);
+        fragmented.getBuffer().put(large);
+        assertTrue(client.send(tcp, ProtocolType.TCP));
+        assertTrue(client.send(udp, ProtocolType.UDP));
+        assertTrue(client.send(fragmented, ProtocolType.UDP));
+        assertTrue(client.send(new Packet((short) 52), ProtocolType.RELIABLE_UDP));
+        assertTrue(client.send(new Packet((short) 53), ProtocolType.RELIABLE_UNORDERED));
+        assertTrue(client.send(new Packet((short) 54), ProtocolType.UDP_SEQUENCED));
+
+        Packet request = new Packet((short) 20);
+        request.getBuffer().putInt(1);
+        assertEquals(2, client.request(request, 5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS).getBuffer().getInt());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        List<String> expected = List.of("TCP -300 2", "UDP 50 1", "UDP 51 5000",
+                "RELIABLE_UDP 52 0", "RELIABLE_UNORDERED 53 0", "UDP_SEQUENCED 54 0");
+        assertEquals(Set.copyOf(expected), Set.copyOf(serverReceived));
+        assertEquals(Set.copyOf(expected), Set.copyOf(clientReceived));
+    }
+
+    @Test
+    public void runOrderedDispatchTest() throws IOException, InterruptedException {
+        int packetCount = 1000;
+        final CountDownLatch latch = new CountDownLatch(packetCount);
+        final List<Integer> received = new ArrayList<>();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        Dispatcher dispatcher = new Dispatcher(DispatchStrategy.ORDERED, 4, packetCount, OverflowPolicy.BLOCK, ExecutionMode.PLATFORM);
+
+        // Create server
+        Server server = new Server();
+        server.setDispatcher(dispatcher);
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                threads.add(Thread.currentThread().getName());
+                received.add(packet.getBuffer().getInt());
+                latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+        for (int i = 0; i < packetCount; i++) {
+            Packet packet = new Packet((short) 1);
+            packet.getBuffer().putInt(i);
+            client.send(packet, ProtocolType.TCP);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+        dispatcher.shutdown();
+
+        // In order, off the event loop
+        for (int i = 0; i < packetCount; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("Dispatcher")), threads.toString());
+    }
+
+    @Test
+    public void runSequencedUdpTest() throws IOException, InterruptedException {
+        int packetCount = 100;
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Integer> received = new ArrayList<>();
+
+        // Create server
+        Server server = new Server();
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                assertEquals(ProtocolType.UDP_SEQUENCED, protocolType);
+                int value = packet.getBuffer().getInt();
+                received.add(value);
+                if (value == packetCount - 1) latch.countDown();
+            }
+        });
+        server.start(3300, 3301);
+
+        Client client = new Client();
+        client.connect(InetAddress.getLocalHost().getHostName(), 3300, 3301);
+        for (int i = 0; i < packetCount; i++) {
+            Packet packet = new Packet((short) 10);
+            packet.getBuffer().putInt(i);
+            assertTrue(client.send(packet, ProtocolType.UDP_SEQUENCED));
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Close connections
+        client.close();
+        server.close();
+
+        // Never older than a packet already received
+        for (int i = 1; i < received.size(); i++) {
+            assertTrue(received.get(i) > received.get(i - 1));
+        }
+    }
+
+    /**
+     * Forwards datagrams between a client and the server's UDP port, losing some of them.
+     */
+    private static class LossyProxy implements Closeable {
+        private final DatagramChannel channel = DatagramChannel.open();
+        private final Thread thread;
+
+        private LossyProxy(int serverPort, double loss) throws IOException {
+            channel.bind(new InetSocketAddress(0));
+            InetSocketAddress server = new InetSocketAddress(InetAddress.getLocalHost(), serverPort);
+            Random random = new Random(42);
+
+            thread = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(65536);
+                SocketAddress client = null;
+                try {
+                    while (channel.isOpen()) {
+                        buffer.clear();
+                        InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+                        boolean fromServer = source.getPort() == serverPort;
+                        if (!fromServer) client = source;
+                        if (random.nextDouble() < loss || client == null) continue;
+
+                        buffer.flip();
+                        channel.send(buffer, fromServer ? client : server);
+                    }
+                } catch (final IOException ignored) {
+                    // Closed
+                }
+            });
+            thread.start();
+        }
+
+        private int getPort() throws IOException {
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
 }
@@ -0,0 +1,283 @@
+package xyz.synse.packetnet.codegen;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlyweightGeneratorTest {
+    private static final Path SCHEMA = Path.of("src/test/schema/position.schema");
+
+    // Compiled along with the generated flyweights, so it uses them directly like user code does
+    private static final String DRIVER = """
+            package xyz.synse.packetnet.codegen.generated;
+
+            import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+            import xyz.synse.packetnet.common.packet.CorruptedFrameException;
+            import xyz.synse.packetnet.common.packet.Packet;
+
+            import java.lang.management.ManagementFactory;
+            import java.nio.ByteBuffer;
+            import java.nio.charset.StandardCharsets;
+
+            public final class Driver {
+                static Packet encode(PositionEncoder encoder, long entity, int waypoints, String name) {
+                    Packet packet = Packet.obtain(PositionEncoder.ID);
+                    encoder.wrap(packet)
+                            .entity(entity).tick(entity * 2)
+                            .x(1.5).y(-2.5).z(1e9)
+                            .velocityX(0.25f).velocityY(-0.5f).velocityZ(8f)
+                            .yaw(90f).pitch(-45f).roll(1f)
+                            .health(100).armor(-1).zone(Integer.MAX_VALUE)
+                            .animation((short) 3).stance(Short.MIN_VALUE)
+                            .team((byte) 2).flags((byte) -128)
+                            .grounded(true).visible(false);
+
+                    PositionEncoder.WaypointsEncoder group = encoder.waypointsCount(waypoints);
+                    for (int i = 0; i < waypoints; i++) {
+                        group.next().x(i).y(i * 2).z(-i);
+                    }
+                    encoder.name(name);
+                    return packet;
+                }
+
+                static void check(boolean condition, String message) {
+                    if (!condition) throw new AssertionError(message);
+                }
+
+                public static void roundTrip() throws Exception {
+                    PositionEncoder encoder = new PositionEncoder();
+                    PositionDecoder decoder = new PositionDecoder();
+
+                    // The same encoder and decoder for every message
+                    for (int waypoints : new int[]{3, 0, 1000}) {
+                        String name = "entity-" + waypoints + "-é";
+                        Packet packet = encode(encoder, waypoints + 1, waypoints, name);
+                        check(encoder.encodedLength() == packet.getBuffer().size(), "encoded length " + encoder.encodedLength());
+
+                        // Through a frame, as received
+                        ByteBuffer frame = packet.write(ByteBuffer.allocate(Packet.HEADER_SIZE + packet.getBuffer().size())).flip();
+                        packet.release();
+                        Packet received = Packet.read(frame, true);
+
+                        decoder.wrap(received);
+                        check(received.getID() == PositionDecoder.ID, "id");
+                        check(decoder.entity() == waypoints + 1 && decoder.tick() == (waypoints + 1) * 2, "entity");
+                        check(decoder.x() == 1.5 && decoder.y() == -2.5 && decoder.z() == 1e9, "position");
+                        check(decoder.velocityX() == 0.25f && decoder.velocityY() == -0.5f && decoder.velocityZ() == 8f, "velocity");
+                        check(decoder.yaw() == 90f && decoder.pitch() == -45f && decoder.roll() == 1f, "rotation");
+                        check(decoder.health() == 100 && decoder.armor() == -1 && decoder.zone() == Integer.MAX_VALUE, "ints");
+                        check(decoder.animation() == 3 && decoder.stance() == Short.MIN_VALUE, "shorts");
+                        check(decoder.team() == 2 && decoder.flags() == -128, "bytes");
+                        check(decoder.grounded() && !decoder.visible(), "booleans");
+
+                        PositionDecoder.WaypointsDecoder group = decoder.waypoints();
+                        check(group.count() == waypoints, "count " + group.count());
+                        int i = 0;
+                        for (PositionDecoder.WaypointsDecoder waypoint : group) {
+                            check(waypoint.x() == i && waypoint.y() == i * 2 && waypoint.z() == -i, "waypoint " + i);
+                            i++;
+                        }
+                        check(i == waypoints, "iterated " + i);
+
+                        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                        check(decoder.nameLength() == bytes.length, "name length");
+                        byte[] dst = new byte[bytes.length + 1];
+                        check(decoder.getName(dst, 1) == bytes.length, "copied");
+                        check(new String(dst, 1, bytes.length, StandardCharsets.UTF_8).equals(name), "name bytes");
+                        check(decoder.encodedLength() == received.getBuffer().size(), "decoded length");
+
+                        check(decoder.wrap(received).waypoints() != null && decoder.name().equals(name), "name");
+                        received.release();
+                    }
+                }
+
+                public static long[] decode(int iterations) throws Exception {
+                    PositionEncoder encoder = new PositionEncoder();
+                    PositionDecoder decoder = new PositionDecoder();
+                    Packet packet = encode(encoder, 42, 4, "position");
+                    byte[] name = new byte[64];
+                    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+                    // Warm up, so the allocations of class loading and compilation are not counted
+                    double checksum = 0;
+                    for (int i = 0; i < 5; i++) checksum += decode(decoder, packet, name, iterations);
+                    long allocated = threads.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    checksum += decode(decoder, packet, name, iterations);
+                    long time = System.nanoTime() - start;
+                    allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+                    packet.release();
+                    check(checksum != 0, "checksum");
+                    return new long[]{allocated, time};
+                }
+
+                static double decode(PositionDecoder decoder, Packet packet, byte[] name, int iterations) throws CorruptedFrameException {
+                    double checksum = 0;
+                    for (int n = 0; n < iterations; n++) {
+                        decoder.wrap(packet);
+                        checksum += decoder.entity() + decoder.tick() + decoder.x() + decoder.y() + decoder.z()
+                                + decoder.velocityX() + decoder.velocityY() + decoder.velocityZ()
+                                + decoder.yaw() + decoder.pitch() + decoder.roll()
+                                + decoder.health() + decoder.armor() + decoder.zone()
+                                + decoder.animation() + decoder.stance() + decoder.team() + decoder.flags()
+                                + (decoder.grounded() ? 1 : 0) + (decoder.visible() ? 1 : 0);
+                        for (PositionDecoder.WaypointsDecoder waypoint : decoder.waypoints()) {
+                            checksum += waypoint.x() + waypoint.y() + waypoint.z();
+                        }
+                        checksum += decoder.getName(name, 0);
+                    }
+                    return checksum;
+                }
+
+                public static void truncated() throws Exception {
+                    Packet packet = encode(new PositionEncoder(), 1, 2, "name");
+                    DynamicByteBuffer buffer = packet.getBuffer();
+                    PositionDecoder decoder = new PositionDecoder();
+
+                    for (int size = 0; size < buffer.size(); size++) {
+                        DynamicByteBuffer truncated = new DynamicByteBuffer(buffer.size());
+                        truncated.put(buffer.array(), 0, size);
+                        try {
+                            decoder.wrap(truncated, 0).waypoints();
+                            decoder.name();
+                            throw new AssertionError("Decoded " + size + " of " + buffer.size() + " bytes");
+                        } catch (final CorruptedFrameException expected) {
+                        }
+                    }
+
+                    // Negative data length
+                    int nameOffset = PositionDecoder.BLOCK_LENGTH + Short.BYTES + 2 * PositionDecoder.WaypointsDecoder.BLOCK_LENGTH;
+                    buffer.putInt(nameOffset, -1);
+                    try {
+                        decoder.wrap(buffer, 0).waypoints();
+                        decoder.skipName();
+                        throw new AssertionError("Decoded a negative length");
+                    } catch (final CorruptedFrameException expected) {
+                    }
+                    packet.release();
+                }
+            }
+            """;
+
+    private static ClassLoader generated;
+
+    @Test
+    public void parse() throws IOException {
+        Schema schema = Schema.parse(SCHEMA);
+        assertEquals("xyz.synse.packetnet.codegen.generated", schema.packageName());
+        assertEquals(1, schema.messages().size());
+
+        Schema.Message message = schema.messages().get(0);
+        assertEquals("Position", message.name());
+        assertEquals(20, message.id());
+        assertEquals(20, message.fields().size());
+        assertEquals(84, message.blockLength());
+        assertEquals(8, message.fields().get(1).offset());
+        assertEquals(FieldType.BOOL, message.fields().get(19).type());
+        assertEquals(83, message.fields().get(19).offset());
+        assertEquals(12, message.groups().get(0).blockLength());
+        assertEquals(List.of("name"), message.data());
+
+        Map<String, String> sources = FlyweightGenerator.generate(schema);
+        assertTrue(sources.containsKey("xyz/synse/packetnet/codegen/generated/PositionEncoder.java"));
+        assertTrue(sources.containsKey("xyz/synse/packetnet/codegen/generated/PositionDecoder.java"));
+    }
+
+    @Test
+    public void invalidSchemas() {
+        assertInvalid(1, "message A 1 {}");
+        assertInvalid(3, "package a;\nmessage A 1 {\n  int128 x;\n}");
+        assertInvalid(3, "package a;\nmessage A 1 {\n  int32 x\n}");
+        assertInvalid(2, "package a;\nmessage A 40000 {}");
+        assertInvalid(4, "package a;\nmessage A 1 {\n  int32 x;\n  int32 x;\n}");
+        assertInvalid(4, "package a;\nmessage A 1 {\n  group g { int8 a; }\n  int32 x;\n}");
+        assertInvalid(4, "package a;\nmessage A 1 {\n  data d;\n  group g { int8 a; }\n}");
+        assertInvalid(3, "package a;\nmessage A 1 {\n  int32 wrap;\n}");
+        assertInvalid(3, "package a;\nmessage A 1 {\n  int32 class;\n}");
+        assertInvalid(4, "package a;\nmessage A 1 {\n  int32 nameLength;\n  data name;\n}");
+        assertInvalid(3, "package a;\nmessage A 1 {}\nmessage B 1 {}");
+        assertInvalid(3, "package a;\nmessage A 1 {\n  int32 x;");
+    }
+
+    @Test
+    public void roundTrip() throws Throwable {
+        call("roundTrip");
+    }
+
+    @Test
+    public void corruptedMessages() throws Throwable {
+        call("truncated");
+    }
+
+    @Test
+    public void decodingAllocatesNothing() throws Throwable {
+        int iterations = 1_000_000;
+        long[] result = (long[]) call("decode", iterations);
+        System.out.println("Decoded a 20-field position in " + (double) result[1] / iterations + " ns, allocating "
+                + result[0] + " bytes");
+
+        assertEquals(0L, result[0]);
+    }
+
+    private static void assertInvalid(int line, String source) {
+        try {
+            Schema.parse(source);
+            fail("Parsed " + source);
+        } catch (final SchemaException e) {
+            assertEquals(line, e.getLine(), e.getMessage());
+        }
+    }
+
+    private static Object call(String name, Object... args) throws Throwable {
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = args[i] instanceof Integer ? int.class : args[i].getClass();
+        }
+
+        Method method = generated().loadClass("xyz.synse.packetnet.codegen.generated.Driver").getMethod(name, types);
+        try {
+            return method.invoke(null, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static synchronized ClassLoader generated() throws Exception {
+        if (generated != null) return generated;
+
+        Path root = Files.createTempDirectory("flyweights");
+        FlyweightGenerator.generate(Schema.parse(SCHEMA), root);
+        Path driver = root.resolve("xyz/synse/packetnet/codegen/generated/Driver.java");
+        Files.writeString(driver, DRIVER);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(compiler, "No Java compiler");
+
+        String classPath = Path.of(DynamicByteBuffer.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                + File.pathSeparator + System.getProperty("java.class.path");
+        List<String> args = new ArrayList<>(List.of("-nowarn", "-d", root.toString(), "-cp", classPath));
+        try (var files = Files.walk(root)) {
+            files.filter(file -> file.toString().endsWith(".java")).forEach(file -> args.add(file.toString()));
+        }
+        assertEquals(0, compiler.run(null, null, null, args.toArray(new String[0])), "Generated sources don't compile");
+
+        generated = new URLClassLoader(new URL[]{root.toUri().toURL()}, FlyweightGeneratorTest.class.getClassLoader());
+        return generated;
+    }
+}
@@ -0,0 +1,83 @@
+package xyz.synse.packetnet.common.buffer;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.data.DynamicByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PooledBufferAllocatorTest {
+    @Test
+    public void sizeClasses() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(true, false);
+
+        assertEquals(64, allocator.allocate(1).capacity());
+        assertEquals(128, allocator.allocate(100).capacity());
+        assertEquals(8192, allocator.allocate(8192).capacity());
+        assertEquals(PooledBufferAllocator.MAX_POOLED_SIZE + 1, allocator.allocate(PooledBufferAllocator.MAX_POOLED_SIZE + 1).capacity());
+        assertTrue(allocator.allocate(1000).isDirect());
+        assertFalse(new PooledBufferAllocator(false, false).allocate(1000).isDirect());
+    }
+
+    @Test
+    public void reuse() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(true, false);
+
+        ByteBuffer buffer = allocator.allocate(1000);
+        buffer.putInt(42);
+        allocator.release(buffer);
+
+        ByteBuffer reused = allocator.allocate(1000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+
+        // Buffers handed out at the same time never share memory
+        Set<ByteBuffer> buffers = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            ByteBuffer allocated = allocator.allocate(64);
+            allocated.putInt(0, i);
+            buffers.add(allocated);
+        }
+        assertEquals(1000, buffers.size());
+    }
+
+    @Test
+    public void leakDetection() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(true, true);
+
+        ByteBuffer first = allocator.allocate(256);
+        ByteBuffer second = allocator.allocate(256);
+        assertEquals(2, allocator.getOutstandingBuffers());
+
+        allocator.release(first);
+        assertEquals(1, allocator.reportLeaks());
+
+        // A double release is reported and must not put the buffer in the pool twice
+        allocator.release(first);
+        assertNotSame(allocator.allocate(256), allocator.allocate(256));
+
+        allocator.release(second);
+    }
+
+    @Test
+    public void dynamicByteBuffer() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(false, true);
+        assertThrows(IllegalArgumentException.class, () -> new DynamicByteBuffer(16, 2, new PooledBufferAllocator(true, false)));
+
+        DynamicByteBuffer buffer = new DynamicByteBuffer(16, 2, allocator);
+        for (int i = 0; i < 1000; i++) {
+            buffer.putInt(i);
+        }
+        assertEquals(4000, buffer.size());
+        assertEquals(999, buffer.getInt(3996));
+
+        // Growing returned the smaller buffers, only the current one is outstanding
+        assertEquals(1, allocator.getOutstandingBuffers());
+        buffer.release();
+        assertEquals(0, allocator.getOutstandingBuffers());
+    }
+}
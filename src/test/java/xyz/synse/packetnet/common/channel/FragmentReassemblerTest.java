@@ -0,0 +1,129 @@
+package xyz.synse.packetnet.common.channel;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.buffer.UnpooledBufferAllocator;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FragmentReassemblerTest {
+    private final List<ByteBuffer> sent = new ArrayList<>();
+    // Sends every datagram right away, so no event loop is needed
+    private final DatagramAggregator aggregator = new DatagramAggregator(datagram -> {
+        ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+        copy.put(datagram).flip();
+        sent.add(copy);
+    }, null, UnpooledBufferAllocator.HEAP, 0);
+
+    @Test
+    public void reassemble() throws IOException {
+        Packet packet = randomPacket(50_000);
+        List<ByteBuffer> datagrams = fragment(packet);
+
+        // Every fragment fits in a datagram
+        assertTrue(datagrams.size() > 1);
+        for (ByteBuffer datagram : datagrams) {
+            assertTrue(datagram.remaining() <= DatagramAggregator.DEFAULT_DATAGRAM_SIZE);
+        }
+
+        // Fragments may arrive in any order and more than once
+        Collections.shuffle(datagrams, new Random(42));
+        datagrams.add(1, datagrams.get(0).duplicate());
+
+        FragmentReassembler reassembler = new FragmentReassembler(UnpooledBufferAllocator.HEAP);
+        Packet reassembled = null;
+        for (ByteBuffer datagram : datagrams) {
+            assertTrue(FragmentReassembler.isFragment(datagram));
+            Packet result = reassembler.accept(datagram, false);
+            assertFalse(datagram.hasRemaining());
+            if (result != null) {
+                assertNull(reassembled);
+                reassembled = result;
+            }
+        }
+
+        assertEquals(packet, reassembled);
+        assertEquals(0, reassembler.getPendingMessages());
+        assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    public void smallPacketsAreNotFragmented() throws IOException {
+        List<ByteBuffer> datagrams = fragment(randomPacket(100));
+
+        assertEquals(1, datagrams.size());
+        assertFalse(FragmentReassembler.isFragment(datagrams.get(0)));
+    }
+
+    @Test
+    public void bounded() throws IOException {
+        // Room for two incomplete messages of 20 KB
+        FragmentReassembler reassembler = new FragmentReassembler(UnpooledBufferAllocator.HEAP, 1, TimeUnit.HOURS, 8, 45_000);
+
+        List<ByteBuffer> first = fragment(randomPacket(20_000));
+        List<ByteBuffer> second = fragment(randomPacket(20_000));
+        List<ByteBuffer> third = fragment(randomPacket(20_000));
+        assertNull(reassembler.accept(first.get(0), false));
+        assertNull(reassembler.accept(second.get(0), false));
+        assertEquals(2, reassembler.getPendingMessages());
+
+        // The third message evicts the oldest
+        assertNull(reassembler.accept(third.get(0), false));
+        assertEquals(2, reassembler.getPendingMessages());
+        assertTrue(reassembler.getPendingBytes() <= 45_000);
+
+        // Messages larger than the limit are dropped
+        assertNull(reassembler.accept(fragment(randomPacket(50_000)).get(0), false));
+        assertEquals(2, reassembler.getPendingMessages());
+
+        reassembler.close();
+        assertEquals(0, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void timeout() throws IOException {
+        FragmentReassembler reassembler = new FragmentReassembler(UnpooledBufferAllocator.HEAP, 0, TimeUnit.NANOSECONDS, 8, 1024 * 1024);
+
+        List<ByteBuffer> first = fragment(randomPacket(5_000));
+        assertNull(reassembler.accept(first.get(0), false));
+
+        // Starting another message drops the timed out one
+        assertNull(reassembler.accept(fragment(randomPacket(5_000)).get(0), false));
+        assertEquals(1, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void malformed() {
+        ByteBuffer fragment = fragment(randomPacket(5_000)).get(0);
+        fragment.putShort(Packet.HEADER_SIZE + Integer.BYTES, (short) 1000);
+
+        assertThrows(IOException.class, () -> new FragmentReassembler(UnpooledBufferAllocator.HEAP).accept(fragment, false));
+    }
+
+    private static Packet randomPacket(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+
+        Packet packet = new Packet((short) 7);
+        packet.getBuffer().put(data);
+        return packet;
+    }
+
+    private List<ByteBuffer> fragment(Packet packet) {
+        sent.clear();
+        try {
+            aggregator.write(packet);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new ArrayList<>(sent);
+    }
+}
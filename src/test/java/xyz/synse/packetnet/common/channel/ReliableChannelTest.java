@@ -0,0 +1,154 @@
+package xyz.synse.packetnet.common.channel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.buffer.UnpooledBufferAllocator;
+import xyz.synse.packetnet.common.eventloop.EventLoop;
+import xyz.synse.packetnet.common.eventloop.EventLoopGroup;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReliableChannelTest {
+    private final EventLoopGroup group = new EventLoopGroup(1);
+    private final EventLoop eventLoop = group.next();
+    private final Random random = new Random(42);
+
+    public ReliableChannelTest() throws IOException {
+    }
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        group.shutdown();
+        assertTrue(group.awaitTermination());
+    }
+
+    @Test
+    public void orderedOverLossyLink() throws InterruptedException, IOException {
+        int count = 1000;
+        Endpoint sender = new Endpoint(0.3);
+        Endpoint receiver = new Endpoint(0.3);
+        sender.connect(receiver);
+
+        receiver.latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            sender.channel.send(packet(i), true);
+        }
+
+        assertTrue(receiver.latch.await(30, TimeUnit.SECONDS));
+        // Every packet is delivered once, in order
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) receiver.received.get(i));
+        }
+        assertTrue(sender.channel.getRetransmissions() > 0);
+
+        awaitAcknowledged(sender.channel);
+    }
+
+    @Test
+    public void unorderedOverLossyLink() throws InterruptedException, IOException {
+        int count = 1000;
+        Endpoint sender = new Endpoint(0.3);
+        Endpoint receiver = new Endpoint(0.3);
+        sender.connect(receiver);
+
+        receiver.latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            sender.channel.send(packet(i), false);
+        }
+
+        assertTrue(receiver.latch.await(30, TimeUnit.SECONDS));
+        // Every packet is delivered once, in any order
+        Set<Integer> distinct = new HashSet<>(receiver.received);
+        assertEquals(count, receiver.received.size());
+        assertEquals(count, distinct.size());
+
+        awaitAcknowledged(sender.channel);
+    }
+
+    @Test
+    public void window() throws IOException {
+        // Nothing arrives, so nothing is acknowledged
+        Endpoint sender = new Endpoint(1);
+        sender.connect(new Endpoint(1));
+
+        for (int i = 0; i < ReliableChannel.WINDOW_SIZE + 10; i++) {
+            sender.channel.send(packet(i), true);
+        }
+
+        assertEquals(ReliableChannel.WINDOW_SIZE, sender.channel.getUnacknowledged());
+        assertEquals(10, sender.channel.getBacklog());
+
+        sender.channel.close();
+        assertEquals(0, sender.channel.getUnacknowledged());
+        assertEquals(0, sender.channel.getBacklog());
+        assertThrows(IOException.class, () -> sender.channel.send(packet(0), true));
+    }
+
+    private void awaitAcknowledged(ReliableChannel channel) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (channel.getUnacknowledged() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, channel.getUnacknowledged());
+        assertEquals(0, channel.getBacklog());
+    }
+
+    private static Packet packet(int value) {
+        Packet packet = new Packet((short) 1);
+        packet.getBuffer().putInt(value);
+        return packet;
+    }
+
+    /**
+     * One side of a simulated link that loses datagrams, and delays and reorders the others.
+     */
+    private class Endpoint {
+        private final double loss;
+        private final List<Integer> received = new ArrayList<>();
+        private ReliableChannel channel;
+        private CountDownLatch latch = new CountDownLatch(0);
+
+        private Endpoint(double loss) {
+            this.loss = loss;
+        }
+
+        private void connect(Endpoint peer) {
+            channel = new ReliableChannel(aggregator(peer), eventLoop, (packet, ordered) -> {
+                received.add(packet.getBuffer().getInt());
+                latch.countDown();
+            });
+            if (peer.channel == null) peer.connect(this);
+        }
+
+        private DatagramAggregator aggregator(Endpoint peer) {
+            return new DatagramAggregator(datagram -> {
+                if (random.nextDouble() < loss) return;
+
+                ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+                copy.put(datagram).flip();
+                eventLoop.schedule(() -> peer.receive(copy), random.nextInt(5), TimeUnit.MILLISECONDS);
+            }, eventLoop, UnpooledBufferAllocator.HEAP, 0);
+        }
+
+        private void receive(ByteBuffer datagram) {
+            try {
+                while (datagram.hasRemaining()) {
+                    assertTrue(channel.handle(Packet.read(datagram), false));
+                }
+            } catch (final IOException e) {
+                fail("Malformed datagram: " + e);
+            }
+        }
+    }
+}
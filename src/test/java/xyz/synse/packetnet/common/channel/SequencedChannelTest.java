@@ -0,0 +1,87 @@
+package xyz.synse.packetnet.common.channel;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.buffer.UnpooledBufferAllocator;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SequencedChannelTest {
+    private final List<ByteBuffer> sent = new ArrayList<>();
+    // Sends every datagram right away, so no event loop is needed
+    private final DatagramAggregator aggregator = new DatagramAggregator(datagram -> {
+        ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+        copy.put(datagram).flip();
+        sent.add(copy);
+    }, null, UnpooledBufferAllocator.HEAP, 0);
+    private final SequencedChannel sender = new SequencedChannel(aggregator, UnpooledBufferAllocator.HEAP);
+    private final SequencedChannel receiver = new SequencedChannel(aggregator, UnpooledBufferAllocator.HEAP);
+
+    @Test
+    public void dropsStalePackets() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            sender.send(packet((short) 1, i));
+        }
+        sender.send(packet((short) 2, 0));
+
+        // The second packet of id 1 arrives last, the other id is sequenced on its own
+        assertEquals(packet((short) 1, 0), receive(sent.get(0)));
+        assertEquals(packet((short) 1, 2), receive(sent.get(2)));
+        assertEquals(packet((short) 2, 0), receive(sent.get(3)));
+        assertNull(receive(sent.get(1)));
+        // Duplicates are stale too
+        assertNull(receive(sent.get(2).rewind()));
+
+        assertEquals(2, receiver.getDropped());
+    }
+
+    @Test
+    public void wrapsAround() throws IOException {
+        ByteBuffer first = null;
+        for (int i = 0; i <= 0xFFFF + 1; i++) {
+            sender.send(packet((short) 1, i));
+            ByteBuffer datagram = sent.remove(0);
+            if (i == 0) first = datagram;
+            // Every packet is newer than the one before, also once the sequence wraps
+            assertNotNull(receive(datagram));
+        }
+
+        assertNull(receive(first.rewind()));
+    }
+
+    @Test
+    public void fragmented() throws IOException {
+        Packet packet = new Packet((short) 1);
+        packet.getBuffer().put(new byte[5000]);
+        sender.send(packet);
+        assertTrue(sent.size() > 1);
+
+        FragmentReassembler reassembler = new FragmentReassembler(UnpooledBufferAllocator.HEAP);
+        Packet reassembled = null;
+        for (ByteBuffer datagram : sent) {
+            reassembled = reassembler.accept(datagram, false);
+        }
+
+        assertNotNull(reassembled);
+        assertEquals(SequencedChannel.SEQUENCED_ID, reassembled.getID());
+        assertEquals(packet, receiver.accept(reassembled, false));
+    }
+
+    private Packet receive(ByteBuffer datagram) throws IOException {
+        assertTrue(SequencedChannel.isSequenced(datagram));
+        Packet packet = receiver.accept(datagram, false);
+        assertFalse(datagram.hasRemaining());
+        return packet;
+    }
+
+    private static Packet packet(short id, int value) {
+        Packet packet = new Packet(id);
+        packet.getBuffer().putInt(value);
+        return packet;
+    }
+}
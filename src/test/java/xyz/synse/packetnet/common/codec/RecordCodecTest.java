@@ -0,0 +1,170 @@
+package xyz.synse.packetnet.common.codec;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.packet.CorruptedFrameException;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordCodecTest {
+    enum Team {RED, BLUE}
+
+    record Vector(float x, float y, float z) {
+    }
+
+    @PacketId(7)
+    record Everything(boolean flag, byte b, short s, char c, int i, long l, float f, double d, String name, UUID uuid,
+                      byte[] data, Team team, Vector position) {
+    }
+
+    @PacketId(8)
+    record Compact(@Width(1) int health, @Width(2) long score, @Width(1) Team team, @OptionalField String tag,
+                   @OptionalField Vector target) {
+    }
+
+    @PacketId(9)
+    record Empty() {
+    }
+
+    record Unsupported(Object value) {
+    }
+
+    record Parent(Child child) {
+    }
+
+    record Child(Parent parent) {
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Everything everything = new Everything(true, (byte) -3, (short) 300, 'x', -70000, Long.MAX_VALUE, 1.5f, -2.25,
+                "héllo", UUID.randomUUID(), new byte[]{1, 2, 3}, Team.BLUE, new Vector(1, 2, 3));
+
+        Packet packet = RecordCodec.toPacket(everything);
+        assertEquals(7, packet.getID());
+
+        // Through a frame, as received
+        Everything decoded = RecordCodec.of(Everything.class).decode(Packet.read(packet.write(ByteBuffer.allocate(256)).flip()));
+        packet.release();
+
+        assertEquals(everything.flag(), decoded.flag());
+        assertEquals(everything.b(), decoded.b());
+        assertEquals(everything.s(), decoded.s());
+        assertEquals(everything.c(), decoded.c());
+        assertEquals(everything.i(), decoded.i());
+        assertEquals(everything.l(), decoded.l());
+        assertEquals(everything.f(), decoded.f());
+        assertEquals(everything.d(), decoded.d());
+        assertEquals(everything.name(), decoded.name());
+        assertEquals(everything.uuid(), decoded.uuid());
+        assertTrue(Arrays.equals(everything.data(), decoded.data()));
+        assertEquals(everything.team(), decoded.team());
+        assertEquals(everything.position(), decoded.position());
+    }
+
+    @Test
+    public void sameFormatAsHandWritten() throws IOException {
+        RecordCodec<Vector> codec = RecordCodec.of(Vector.class);
+
+        Packet packet = new Packet((short) 1);
+        codec.write(new Vector(1, 2, 3), packet.getBuffer());
+        assertEquals(3 * Float.BYTES, packet.getBuffer().size());
+        assertEquals(1f, packet.getBuffer().getFloat(0));
+        assertEquals(2f, packet.getBuffer().getFloat(4));
+        assertEquals(3f, packet.getBuffer().getFloat(8));
+
+        Packet handWritten = new Packet((short) 1);
+        handWritten.getBuffer().putFloat(4);
+        handWritten.getBuffer().putFloat(5);
+        handWritten.getBuffer().putFloat(6);
+        handWritten.getBuffer().position(0);
+        assertEquals(new Vector(4, 5, 6), codec.read(handWritten.getBuffer()));
+
+        // Records without an id may only be nested
+        assertThrows(IllegalStateException.class, codec::getId);
+    }
+
+    @Test
+    public void widthsAndOptionals() throws IOException {
+        RecordCodec<Compact> codec = RecordCodec.of(Compact.class);
+
+        Compact present = new Compact(-100, 30000, Team.RED, "tag", new Vector(0, 1, 0));
+        Packet packet = codec.encode(present);
+        // 1 + 2 + 1 bytes, then the flag, length and bytes of the tag, then the flag and floats of the target
+        assertEquals(4 + 1 + 4 + 3 + 1 + 12, packet.getBuffer().size());
+        packet.getBuffer().position(0);
+        assertEquals(present, codec.decode(packet));
+        packet.release();
+
+        Compact absent = new Compact(0, -1, Team.BLUE, null, null);
+        packet = codec.encode(absent);
+        assertEquals(4 + 1 + 1, packet.getBuffer().size());
+        packet.getBuffer().position(0);
+        assertEquals(absent, codec.decode(packet));
+        packet.release();
+
+        // Values must fit their width
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new Compact(128, 0, Team.RED, null, null)));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new Compact(0, 1 << 15, Team.RED, null, null)));
+    }
+
+    @Test
+    public void invalid() {
+        assertThrows(IllegalArgumentException.class, () -> RecordCodec.of(Unsupported.class));
+        assertThrows(IllegalArgumentException.class, () -> RecordCodec.of(Parent.class));
+        assertThrows(IllegalArgumentException.class, () -> RecordCodec.of(Child.class));
+
+        assertEquals(0, RecordCodec.toPacket(new Empty()).getBuffer().size());
+
+        // Truncated data and unknown enum constants
+        Packet truncated = new Packet((short) 8);
+        truncated.getBuffer().put((byte) 1);
+        truncated.getBuffer().position(0);
+        assertThrows(CorruptedFrameException.class, () -> RecordCodec.of(Compact.class).decode(truncated));
+
+        Packet ordinal = new Packet((short) 8);
+        ordinal.getBuffer().put((byte) 1);
+        ordinal.getBuffer().putShort((short) 1);
+        ordinal.getBuffer().put((byte) 5);
+        ordinal.getBuffer().position(0);
+        assertThrows(CorruptedFrameException.class, () -> RecordCodec.of(Compact.class).decode(ordinal));
+
+        // A string longer than the data left
+        Packet string = new Packet((short) 8);
+        string.getBuffer().put((byte) 1);
+        string.getBuffer().putShort((short) 1);
+        string.getBuffer().put((byte) 0);
+        string.getBuffer().putBoolean(true);
+        string.getBuffer().putInt(Integer.MAX_VALUE);
+        string.getBuffer().position(0);
+        assertThrows(CorruptedFrameException.class, () -> RecordCodec.of(Compact.class).decode(string));
+
+        // A packet with another id
+        assertThrows(IllegalArgumentException.class, () -> RecordCodec.of(Compact.class).decode(new Packet((short) 7)));
+    }
+
+    @Test
+    public void registry() throws IOException {
+        CodecRegistry registry = new CodecRegistry();
+        registry.register(Compact.class);
+        registry.register(Empty.class);
+        assertSame(RecordCodec.of(Empty.class), registry.get((short) 9));
+        assertNull(registry.get((short) 7));
+
+        Packet packet = RecordCodec.toPacket(new Empty());
+        assertEquals(new Empty(), registry.decode(packet));
+        packet.release();
+        assertNull(registry.decode(new Packet((short) 7)));
+
+        @PacketId(9)
+        record Other(int value) {
+        }
+        assertThrows(IllegalArgumentException.class, () -> registry.register(Other.class));
+        assertThrows(IllegalStateException.class, () -> registry.register(Vector.class));
+    }
+}
@@ -0,0 +1,81 @@
+package xyz.synse.packetnet.common.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VarIntTest {
+    private static final int[] INTS = {0, 1, 127, 128, 300, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+    private static final long[] LONGS = {0, 1, 127, 128, 1L << 35, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+
+    @Test
+    public void roundTrip() {
+        DynamicByteBuffer buffer = new DynamicByteBuffer(4);
+        for (int value : INTS) {
+            buffer.putVarInt(value);
+            buffer.putZigZag(value);
+        }
+        for (long value : LONGS) {
+            buffer.putVarLong(value);
+            buffer.putZigZag(value);
+        }
+        buffer.rewind();
+
+        for (int value : INTS) {
+            assertEquals(value, buffer.getVarInt());
+            assertEquals(value, buffer.getZigZag());
+        }
+        for (long value : LONGS) {
+            assertEquals(value, buffer.getVarLong());
+            assertEquals(value, buffer.getZigZagLong());
+        }
+        assertEquals(buffer.size(), buffer.position());
+    }
+
+    @Test
+    public void sizes() {
+        for (int value : INTS) {
+            ByteBuffer buffer = ByteBuffer.allocate(VarInt.MAX_INT_SIZE);
+            VarInt.write(buffer, value);
+            assertEquals(VarInt.size(value), buffer.position());
+        }
+        for (long value : LONGS) {
+            ByteBuffer buffer = ByteBuffer.allocate(VarInt.MAX_LONG_SIZE);
+            VarInt.write(buffer, value);
+            assertEquals(VarInt.size(value), buffer.position());
+        }
+
+        assertEquals(1, VarInt.size(127));
+        assertEquals(2, VarInt.size(128));
+        assertEquals(VarInt.MAX_INT_SIZE, VarInt.size(-1));
+        assertEquals(VarInt.MAX_LONG_SIZE, VarInt.size(-1L));
+    }
+
+    @Test
+    public void zigZag() {
+        // Small magnitudes map to small values whatever their sign
+        assertEquals(0, VarInt.zigZag(0));
+        assertEquals(1, VarInt.zigZag(-1));
+        assertEquals(2, VarInt.zigZag(1));
+        assertEquals(-1, VarInt.zigZag(Integer.MIN_VALUE));
+        assertEquals(1, VarInt.size(VarInt.zigZag(-64)));
+        assertEquals(1, VarInt.size(VarInt.zigZag(-64L)));
+
+        for (int value : INTS) assertEquals(value, VarInt.unZigZag(VarInt.zigZag(value)));
+        for (long value : LONGS) assertEquals(value, VarInt.unZigZag(VarInt.zigZag(value)));
+    }
+
+    @Test
+    public void malformed() {
+        // Too many continuation bytes
+        ByteBuffer overlong = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0});
+        assertThrows(IllegalStateException.class, () -> VarInt.readInt(overlong));
+
+        // Cut off before its last byte
+        ByteBuffer truncated = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF});
+        assertThrows(BufferUnderflowException.class, () -> VarInt.readLong(truncated));
+    }
+}
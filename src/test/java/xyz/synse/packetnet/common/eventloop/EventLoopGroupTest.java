@@ -0,0 +1,127 @@
+package xyz.synse.packetnet.common.eventloop;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.client.Client;
+import xyz.synse.packetnet.common.ProtocolType;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.server.Connection;
+import xyz.synse.packetnet.server.Server;
+import xyz.synse.packetnet.server.listeners.ServerListener;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventLoopGroupTest {
+    @Test
+    public void roundRobin() throws IOException, InterruptedException {
+        EventLoopGroup group = new EventLoopGroup(4, EventLoopChooser.ROUND_ROBIN);
+
+        Set<EventLoop> eventLoops = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            eventLoops.add(group.next());
+        }
+
+        group.shutdown();
+        assertTrue(group.awaitTermination());
+        assertEquals(4, eventLoops.size());
+    }
+
+    @Test
+    public void leastLoaded() throws IOException, InterruptedException {
+        EventLoopGroup group = new EventLoopGroup(2, EventLoopChooser.LEAST_LOADED);
+        List<Pipe> pipes = new ArrayList<>();
+
+        // Load the first event loop with three channels
+        EventLoop loaded = group.next();
+        for (int i = 0; i < 3; i++) {
+            Pipe pipe = Pipe.open();
+            pipes.add(pipe);
+            loaded.register(pipe.source(), SelectionKey.OP_READ, key -> {
+            });
+        }
+
+        assertNotSame(loaded, group.next());
+
+        group.shutdown();
+        assertTrue(group.awaitTermination());
+        for (Pipe pipe : pipes) {
+            assertFalse(pipe.source().isOpen());
+        }
+    }
+
+    @Test
+    public void schedule() throws IOException, InterruptedException {
+        EventLoopGroup group = new EventLoopGroup(1);
+        EventLoop eventLoop = group.next();
+
+        List<Integer> order = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        long start = System.nanoTime();
+        eventLoop.schedule(() -> {
+            order.add(2);
+            latch.countDown();
+        }, 100, TimeUnit.MILLISECONDS);
+        eventLoop.schedule(() -> {
+            order.add(1);
+            latch.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+        eventLoop.schedule(() -> order.add(3), 50, TimeUnit.MILLISECONDS).cancel();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(List.of(1, 2), order);
+
+        group.shutdown();
+        assertTrue(group.awaitTermination());
+    }
+
+    @Test
+    public void sharedGroup() throws IOException, InterruptedException {
+        int clientCount = 8;
+        EventLoopGroup group = new EventLoopGroup(2);
+        CountDownLatch receivedLatch = new CountDownLatch(clientCount);
+
+        Server server = new Server(8192, 8192, group, group);
+        server.addListener(new ServerListener() {
+            @Override
+            public void onReceived(Connection connection, ProtocolType protocolType, Packet packet) {
+                receivedLatch.countDown();
+            }
+        });
+        assertTrue(server.start(3400, 3401));
+
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            Client client = new Client(8192, 8192, group);
+            assertTrue(client.connect("127.0.0.1", 3400, 3401));
+            clients.add(client);
+        }
+
+        Packet packet = new Packet((short) 1);
+        packet.getBuffer().putString("Hello from a shared event loop!");
+        for (Client client : clients) {
+            assertTrue(client.send(packet, ProtocolType.TCP));
+        }
+
+        assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+
+        for (Client client : clients) {
+            client.close();
+        }
+        server.close();
+
+        // Closing the server and clients must leave a shared group running
+        assertFalse(group.isShutdown());
+        group.shutdown();
+        assertTrue(group.awaitTermination());
+    }
+}
@@ -0,0 +1,76 @@
+package xyz.synse.packetnet.common.eventloop;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimerWheelTest {
+    private final EventLoopGroup group = new EventLoopGroup(1);
+
+    public TimerWheelTest() throws IOException {
+    }
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        group.shutdown();
+        group.awaitTermination();
+    }
+
+    @Test
+    public void expire() throws InterruptedException {
+        // One turn of the wheel takes 8 ms, so the later timeouts wait for several turns
+        TimerWheel wheel = new TimerWheel(group.next(), 1, TimeUnit.MILLISECONDS, 8);
+        CountDownLatch latch = new CountDownLatch(4);
+        List<Long> delays = new ArrayList<>();
+        List<Long> elapsed = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (long delay : new long[]{50, 5, 30, 0}) {
+            wheel.newTimeout(() -> {
+                elapsed.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                delays.add(delay);
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(0L, 5L, 30L, 50L), delays);
+        // Never early
+        for (int i = 0; i < delays.size(); i++) {
+            assertTrue(elapsed.get(i) >= delays.get(i), elapsed.get(i) + " < " + delays.get(i));
+        }
+    }
+
+    @Test
+    public void cancel() throws InterruptedException {
+        TimerWheel wheel = new TimerWheel(group.next(), 1, TimeUnit.MILLISECONDS, 8);
+        AtomicInteger expired = new AtomicInteger();
+
+        List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            timeouts.add(wheel.newTimeout(expired::incrementAndGet, 100 + i % 20, TimeUnit.MILLISECONDS));
+        }
+        for (int i = 0; i < timeouts.size(); i += 2) {
+            assertTrue(timeouts.get(i).cancel());
+            assertFalse(timeouts.get(i).cancel());
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+        wheel.newTimeout(latch::countDown, 200, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(5_000, expired.get());
+        for (int i = 0; i < timeouts.size(); i++) {
+            assertEquals(i % 2 == 0, timeouts.get(i).isCancelled());
+            assertEquals(i % 2 != 0, timeouts.get(i).isExpired());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package xyz.synse.packetnet.common.packet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameDecoderTest {
+    @Test
+    public void coalescedFrames() throws IOException {
+        List<Packet> sent = createPackets(100, 64);
+        ByteBuffer stream = encode(sent);
+
+        List<Packet> received = new ArrayList<>();
+        new FrameDecoder().decode(stream, received::add);
+
+        assertEquals(sent, received);
+    }
+
+    @Test
+    public void splitFrames() throws IOException {
+        List<Packet> sent = createPackets(20, 300);
+        ByteBuffer stream = encode(sent);
+
+        // Feed the stream in chunks that never line up with frame boundaries
+        FrameDecoder decoder = new FrameDecoder();
+        List<Packet> received = new ArrayList<>();
+        for (int chunkSize = 1; stream.hasRemaining(); chunkSize = chunkSize % 97 + 1) {
+            int end = Math.min(stream.position() + chunkSize, stream.limit());
+            ByteBuffer chunk = stream.slice(stream.position(), end - stream.position());
+            stream.position(end);
+
+            decoder.decode(chunk, received::add);
+        }
+
+        assertEquals(sent, received);
+        assertEquals(0, decoder.getBufferedBytes());
+    }
+
+    @Test
+    public void largeFrame() throws IOException {
+        List<Packet> sent = createPackets(3, 100_000);
+        ByteBuffer stream = encode(sent);
+
+        FrameDecoder decoder = new FrameDecoder();
+        List<Packet> received = new ArrayList<>();
+        while (stream.hasRemaining()) {
+            ByteBuffer chunk = stream.slice(stream.position(), Math.min(8192, stream.remaining()));
+            stream.position(stream.position() + chunk.remaining());
+
+            decoder.decode(chunk, received::add);
+        }
+
+        assertEquals(sent, received);
+    }
+
+    @Test
+    public void maxFrameSize() {
+        ByteBuffer stream = encode(createPackets(1, 1025));
+
+        assertThrows(CorruptedFrameException.class, () -> new FrameDecoder(1024).decode(stream, packet -> fail("Frame should be rejected")));
+    }
+
+    @Test
+    public void compactFrames() throws IOException {
+        List<Packet> sent = createPackets(300, 200);
+        sent.add(new Packet((short) -1));
+        sent.add(new Packet(Short.MIN_VALUE));
+        sent.add(new Packet(Short.MAX_VALUE));
+        ByteBuffer stream = ByteBuffer.allocate(300 * (FrameFormat.MAX_HEADER_SIZE + 200) + 3 * FrameFormat.MAX_HEADER_SIZE);
+        for (int i = 0; i < sent.size(); i++) {
+            Packet packet = sent.get(i);
+            if (i % 3 == 0) {
+                // Escaped frames with a standard header, as prepared packets are written
+                packet.write(FrameFormat.COMPACT.writeEscape(stream));
+            } else {
+                FrameFormat.COMPACT.write(packet, stream);
+            }
+        }
+        stream.flip();
+
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setFrameFormat(FrameFormat.COMPACT);
+        List<Packet> received = new ArrayList<>();
+        for (int chunkSize = 1; stream.hasRemaining(); chunkSize = chunkSize % 97 + 1) {
+            int end = Math.min(stream.position() + chunkSize, stream.limit());
+            ByteBuffer chunk = stream.slice(stream.position(), end - stream.position());
+            stream.position(end);
+
+            decoder.decode(chunk, received::add);
+        }
+
+        assertEquals(sent, received);
+        assertEquals(0, decoder.getBufferedBytes());
+    }
+
+    @Test
+    public void compactHeaderSize() {
+        assertEquals(2, FrameFormat.COMPACT.headerSize((short) 63, 127));
+        assertEquals(2, FrameFormat.COMPACT.headerSize((short) -63, 0));
+        assertEquals(3, FrameFormat.COMPACT.headerSize((short) 64, 127));
+        assertEquals(3, FrameFormat.COMPACT.headerSize((short) -64, 0));
+        assertEquals(4, FrameFormat.COMPACT.headerSize((short) 0, 16384));
+        assertEquals(FrameFormat.MAX_HEADER_SIZE, FrameFormat.COMPACT.headerSize(Short.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(Packet.HEADER_SIZE, FrameFormat.STANDARD.headerSize((short) 0, 0));
+    }
+
+    @Test
+    public void switchFormat() throws IOException {
+        // The frame announcing the switch is the last one in the old format
+        Packet marker = new Packet((short) -1008);
+        Packet compact = new Packet((short) 1);
+        compact.getBuffer().putVarInt(300);
+        ByteBuffer stream = ByteBuffer.allocate(64);
+        marker.write(stream);
+        FrameFormat.COMPACT.write(compact, stream);
+        stream.flip();
+
+        FrameDecoder decoder = new FrameDecoder();
+        List<Packet> received = new ArrayList<>();
+        decoder.decode(stream, packet -> {
+            if (packet.getID() == marker.getID()) decoder.setFrameFormat(FrameFormat.COMPACT);
+            received.add(packet);
+        });
+
+        assertEquals(List.of(marker, compact), received);
+    }
+
+    @Test
+    public void malformedCompactHeader() {
+        // An id longer than a varint can be
+        ByteBuffer overlong = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0, 0});
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setFrameFormat(FrameFormat.COMPACT);
+        assertThrows(CorruptedFrameException.class, () -> decoder.decode(overlong, packet -> fail("Frame should be rejected")));
+
+        // An id outside of the short range
+        ByteBuffer outOfRange = ByteBuffer.wrap(new byte[]{(byte) 0x82, (byte) 0x80, 0x04, 0});
+        assertThrows(CorruptedFrameException.class, () -> FrameFormat.COMPACT.read(outOfRange, false));
+    }
+
+    private static List<Packet> createPackets(int count, int size) {
+        Random random = new Random(size);
+        List<Packet> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+
+            Packet packet = new Packet((short) i);
+            packet.getBuffer().put(data);
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    private static ByteBuffer encode(List<Packet> packets) {
+        int size = 0;
+        for (Packet packet : packets) {
+            size += Packet.HEADER_SIZE + packet.getBuffer().size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Packet packet : packets) {
+            packet.write(buffer);
+        }
+        return buffer.flip();
+    }
+}
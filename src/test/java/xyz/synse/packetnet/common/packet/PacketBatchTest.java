@@ -0,0 +1,67 @@
+package xyz.synse.packetnet.common.packet;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.ProtocolType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PacketBatchTest {
+    @Test
+    public void addGet() {
+        PacketBatch batch = new PacketBatch();
+        assertTrue(batch.isEmpty());
+        assertNull(batch.getProtocolType());
+
+        // Grows past its initial capacity
+        for (short i = 0; i < 100; i++) {
+            batch.add(new Packet(i), ProtocolType.UDP);
+        }
+        assertEquals(100, batch.size());
+        assertEquals(ProtocolType.UDP, batch.getProtocolType());
+
+        List<Short> ids = new ArrayList<>();
+        for (Packet packet : batch) {
+            ids.add(packet.getID());
+        }
+        for (short i = 0; i < 100; i++) {
+            assertEquals(i, batch.get(i).getID());
+            assertEquals(i, (short) ids.get(i));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> batch.get(100));
+
+        // All packets of a batch are received over the same protocol
+        assertThrows(IllegalArgumentException.class, () -> batch.add(new Packet((short) 0), ProtocolType.TCP));
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertNull(batch.getProtocolType());
+        batch.add(new Packet((short) 0), ProtocolType.TCP);
+        assertEquals(ProtocolType.TCP, batch.getProtocolType());
+    }
+
+    @Test
+    public void copyAndRelease() {
+        PacketBatch batch = new PacketBatch();
+        Packet first = Packet.obtain((short) 1);
+        Packet second = Packet.obtain((short) 2);
+        batch.add(first, ProtocolType.TCP);
+        batch.add(second, ProtocolType.TCP);
+
+        // The copy takes over the packets, the batch can be reused
+        PacketBatch copy = new PacketBatch(batch);
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertEquals(2, copy.size());
+        assertSame(first, copy.get(0));
+        assertSame(second, copy.get(1));
+        assertEquals(ProtocolType.TCP, copy.getProtocolType());
+
+        copy.release();
+        assertTrue(copy.isEmpty());
+        assertEquals(0, first.refCnt());
+        assertEquals(0, second.refCnt());
+    }
+}
@@ -0,0 +1,31 @@
+package xyz.synse.packetnet.common.packet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PacketHandlerTableTest {
+    @Test
+    public void setGet() {
+        PacketHandlerTable<String> table = new PacketHandlerTable<>();
+        assertNull(table.get((short) 1));
+        assertNull(table.set((short) 1, null));
+
+        // Every id has its own slot, negative ones too
+        for (short id : new short[]{Short.MIN_VALUE, -1, 0, 1, Short.MAX_VALUE}) {
+            assertNull(table.set(id, "handler " + id));
+        }
+        for (short id : new short[]{Short.MIN_VALUE, -1, 0, 1, Short.MAX_VALUE}) {
+            assertEquals("handler " + id, table.get(id));
+        }
+        assertNull(table.get((short) 2));
+
+        assertEquals("handler 1", table.set((short) 1, "other"));
+        assertEquals("other", table.get((short) 1));
+        assertEquals("other", table.set((short) 1, null));
+        assertNull(table.get((short) 1));
+
+        table.clear();
+        assertNull(table.get((short) -1));
+    }
+}
@@ -2,6 +2,7 @@ package xyz.synse.packetnet.common.packet;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,13 +20,108 @@ public class PacketTest {
 		packet.getBuffer().putBoolean(true);
 		packet.getBuffer().putChar('a');
 
-		ByteBuffer buffer = ByteBuffer.allocate(packet.getBuffer().capacity() + Short.BYTES + Integer.BYTES);
+		ByteBuffer buffer = ByteBuffer.allocate(packet.getBuffer().size() + Packet.HEADER_SIZE);
 		packet.write(buffer);
+		assertFalse(buffer.hasRemaining());
 		buffer.rewind();
 
 		Packet actual = Packet.read(buffer);
 
 		assertEquals(packet.getID(), actual.getID());
-		assertArrayEquals(packet.getBuffer().array(), actual.getBuffer().array());
+		assertEquals(packet.getBuffer().size(), actual.getBuffer().size());
+		assertArrayEquals(Arrays.copyOf(packet.getBuffer().array(), packet.getBuffer().size()), actual.getBuffer().array());
+		assertEquals(packet, actual);
+	}
+
+	@Test
+	public void writtenSize() {
+		Packet packet = new Packet((short) 1);
+		assertEquals(0, packet.getBuffer().size());
+
+		packet.getBuffer().putInt(42);
+		assertEquals(Integer.BYTES, packet.getBuffer().size());
+		assertTrue(packet.getBuffer().capacity() > packet.getBuffer().size());
+
+		// Absolute puts past the end grow the buffer and extend the written size
+		packet.getBuffer().putLong(40, 7L);
+		assertEquals(48, packet.getBuffer().size());
+		assertEquals(7L, packet.getBuffer().getLong(40));
+
+		// Overwriting doesn't shrink it
+		packet.getBuffer().putInt(0, 43);
+		assertEquals(48, packet.getBuffer().size());
+
+		assertEquals(48, packet.payload().remaining());
+
+		packet.getBuffer().clear();
+		assertEquals(0, packet.getBuffer().size());
+	}
+
+	@Test
+	public void recycle() throws IOException {
+		Packet packet = Packet.obtain((short) 5);
+		assertTrue(packet.isRecyclable());
+		assertEquals(1, packet.refCnt());
+		packet.getBuffer().putInt(42);
+
+		// Still referenced after the first release
+		packet.retain();
+		assertFalse(packet.release());
+		assertEquals(42, packet.getBuffer().getInt(0));
+
+		assertTrue(packet.release());
+		assertThrows(IllegalStateException.class, packet::release);
+		assertThrows(IllegalStateException.class, packet::retain);
+
+		// The same thread gets the recycled packet back, empty
+		Packet reused = Packet.obtain((short) 6);
+		assertSame(packet, reused);
+		assertEquals(6, reused.getID());
+		assertEquals(1, reused.refCnt());
+		assertEquals(0, reused.getBuffer().size());
+
+		ByteBuffer buffer = ByteBuffer.allocate(Packet.HEADER_SIZE + Integer.BYTES);
+		reused.getBuffer().putInt(7);
+		reused.write(buffer).flip();
+		assertTrue(reused.release());
+
+		Packet read = Packet.read(buffer, true);
+		assertTrue(read.isRecyclable());
+		assertEquals(7, read.getBuffer().getInt());
+		assertTrue(read.release());
+	}
+
+	@Test
+	public void plainPacketIgnoresReferenceCount() {
+		Packet packet = new Packet((short) 1);
+		assertFalse(packet.isRecyclable());
+		assertSame(packet, packet.retain());
+		assertFalse(packet.release());
+		assertFalse(packet.release());
+
+		packet.getBuffer().putInt(1);
+		assertEquals(Integer.BYTES, packet.getBuffer().size());
+	}
+
+	@Test
+	public void prepare() throws IOException {
+		Packet packet = new Packet((short) 9);
+		packet.getBuffer().putString("Hello, world!");
+
+		PreparedPacket prepared = new PreparedPacket(packet);
+		assertEquals(packet.getID(), prepared.getID());
+		assertEquals(packet.getBuffer().size(), prepared.length());
+		assertEquals(Packet.HEADER_SIZE + packet.getBuffer().size(), prepared.frameSize());
+
+		// Modifying the packet afterwards doesn't affect the prepared frame
+		Packet expected = prepared.toPacket();
+		packet.getBuffer().putInt(1);
+		assertEquals(expected, prepared.toPacket());
+
+		// Views are read-only and independent of each other
+		ByteBuffer first = prepared.frame();
+		assertTrue(first.isReadOnly());
+		first.position(first.limit());
+		assertEquals(prepared.frameSize(), prepared.frame().remaining());
 	}
 }
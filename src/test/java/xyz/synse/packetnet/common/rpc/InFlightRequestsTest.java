@@ -0,0 +1,98 @@
+package xyz.synse.packetnet.common.rpc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.eventloop.EventLoopGroup;
+import xyz.synse.packetnet.common.eventloop.TimerWheel;
+import xyz.synse.packetnet.common.packet.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InFlightRequestsTest {
+    private final EventLoopGroup group = new EventLoopGroup(1);
+    private final List<Packet> sent = new ArrayList<>();
+    private final InFlightRequests requests = new InFlightRequests(new TimerWheel(group.next()), request -> {
+        synchronized (sent) {
+            sent.add(request);
+        }
+        return true;
+    });
+
+    public InFlightRequestsTest() throws IOException {
+    }
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        sent.forEach(Packet::release);
+        group.shutdown();
+        group.awaitTermination();
+    }
+
+    @Test
+    public void respondOutOfOrder() throws Exception {
+        CompletableFuture<Packet> first = requests.request(packet((short) 1, 1), 5, TimeUnit.SECONDS);
+        CompletableFuture<Packet> second = requests.request(packet((short) 1, 2), 5, TimeUnit.SECONDS);
+        assertEquals(2, requests.size());
+
+        // The request frames hold the correlation id in front of the request
+        int firstId = sent.get(0).payload().getInt();
+        ByteBuffer secondFrame = sent.get(1).payload();
+        int secondId = secondFrame.getInt();
+        assertEquals(packet((short) 1, 2), Packet.read(secondFrame));
+        assertNotEquals(firstId, secondId);
+
+        assertTrue(requests.handle(Rpc.response(secondId, packet((short) 2, 20)), false));
+        assertTrue(second.isDone());
+        assertFalse(first.isDone());
+        assertTrue(requests.handle(Rpc.error(firstId, "Failed"), false));
+
+        assertEquals(packet((short) 2, 20), second.get());
+        ExecutionException e = assertThrows(ExecutionException.class, first::get);
+        assertInstanceOf(RpcException.class, e.getCause());
+        assertEquals("Failed", e.getCause().getMessage());
+        assertEquals(0, requests.size());
+
+        // Only responses are handled
+        assertFalse(requests.handle(packet((short) 1, 0), false));
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        CompletableFuture<Packet> request = requests.request(packet((short) 1, 1), 50, TimeUnit.MILLISECONDS);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> request.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertEquals(0, requests.size());
+
+        // A late response is dropped
+        int id = sent.get(0).payload().getInt();
+        assertTrue(requests.handle(Rpc.response(id, packet((short) 2, 0)), false));
+    }
+
+    @Test
+    public void close() {
+        CompletableFuture<Packet> request = requests.request(packet((short) 1, 1), 5, TimeUnit.SECONDS);
+        requests.close();
+
+        ExecutionException e = assertThrows(ExecutionException.class, request::get);
+        assertInstanceOf(ClosedChannelException.class, e.getCause());
+        assertTrue(requests.request(packet((short) 1, 2), 5, TimeUnit.SECONDS).isCompletedExceptionally());
+        assertEquals(1, sent.size());
+    }
+
+    private static Packet packet(short id, int value) {
+        Packet packet = new Packet(id);
+        packet.getBuffer().putInt(value);
+        return packet;
+    }
+}
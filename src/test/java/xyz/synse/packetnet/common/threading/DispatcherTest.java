@@ -0,0 +1,147 @@
+package xyz.synse.packetnet.common.threading;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DispatcherTest {
+    private Dispatcher dispatcher;
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void ordered() throws InterruptedException {
+        dispatcher = new Dispatcher(DispatchStrategy.ORDERED, 4, 10_000, OverflowPolicy.DROP, ExecutionMode.PLATFORM);
+        int lanes = 8;
+        int tasks = 5_000;
+        List<List<Integer>> received = new ArrayList<>();
+        List<Dispatcher.Lane> dispatchLanes = new ArrayList<>();
+        for (int i = 0; i < lanes; i++) {
+            received.add(new ArrayList<>());
+            dispatchLanes.add(dispatcher.newLane());
+        }
+
+        CountDownLatch latch = new CountDownLatch(lanes * tasks);
+        for (int task = 0; task < tasks; task++) {
+            for (int lane = 0; lane < lanes; lane++) {
+                List<Integer> laneReceived = received.get(lane);
+                int value = task;
+                assertTrue(dispatchLanes.get(lane).dispatch(() -> {
+                    // Tasks of a lane never run concurrently, so the lists need no lock
+                    laneReceived.add(value);
+                    latch.countDown();
+                }));
+            }
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (List<Integer> laneReceived : received) {
+            assertEquals(tasks, laneReceived.size());
+            for (int i = 0; i < tasks; i++) {
+                assertEquals(i, (int) laneReceived.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void unordered() throws InterruptedException {
+        dispatcher = new Dispatcher(DispatchStrategy.UNORDERED, 2, 16, OverflowPolicy.DROP, ExecutionMode.PLATFORM);
+        Dispatcher.Lane lane = dispatcher.newLane();
+        assertSame(lane, dispatcher.newLane());
+
+        // Both tasks of the same lane wait for each other, which only works in parallel
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch finished = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            lane.dispatch(() -> {
+                started.countDown();
+                try {
+                    if (started.await(5, TimeUnit.SECONDS)) finished.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void dropOverflow() throws InterruptedException {
+        dispatcher = new Dispatcher(DispatchStrategy.ORDERED, 1, 2, OverflowPolicy.DROP, ExecutionMode.PLATFORM);
+        Dispatcher.Lane lane = dispatcher.newLane();
+        Dispatcher.Lane other = dispatcher.newLane();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            ran.incrementAndGet();
+        };
+        assertTrue(lane.dispatch(blocked));
+        assertTrue(lane.dispatch(ran::incrementAndGet));
+        assertFalse(lane.dispatch(ran::incrementAndGet));
+        assertEquals(2, lane.getQueued());
+        // Every lane has its own queue
+        assertTrue(other.dispatch(ran::incrementAndGet));
+        assertEquals(1, dispatcher.getDropped());
+
+        release.countDown();
+        dispatcher.shutdown();
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, ran.get());
+        assertEquals(0, lane.getQueued());
+    }
+
+    @Test
+    public void blockOverflow() throws InterruptedException {
+        dispatcher = new Dispatcher(DispatchStrategy.UNORDERED, 1, 1, OverflowPolicy.BLOCK, ExecutionMode.PLATFORM);
+        Dispatcher.Lane lane = dispatcher.newLane();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch ran = new CountDownLatch(2);
+
+        lane.dispatch(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            ran.countDown();
+        });
+
+        // The second dispatch waits until the first task is done
+        Thread dispatching = new Thread(() -> lane.dispatch(ran::countDown));
+        dispatching.start();
+        dispatching.join(100);
+        assertTrue(dispatching.isAlive());
+
+        release.countDown();
+        dispatching.join(5000);
+        assertFalse(dispatching.isAlive());
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getDropped());
+    }
+
+    @Test
+    public void inline() {
+        dispatcher = Dispatcher.INLINE;
+        Dispatcher.Lane lane = dispatcher.newLane();
+        assertTrue(lane.isInline());
+
+        Thread[] thread = new Thread[1];
+        assertTrue(lane.dispatch(() -> thread[0] = Thread.currentThread()));
+        assertSame(Thread.currentThread(), thread[0]);
+    }
+}
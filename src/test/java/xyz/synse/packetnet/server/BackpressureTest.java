@@ -0,0 +1,85 @@
+package xyz.synse.packetnet.server;
+
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.ProtocolType;
+import xyz.synse.packetnet.common.channel.BackpressurePolicy;
+import xyz.synse.packetnet.common.packet.Packet;
+import xyz.synse.packetnet.server.listeners.ServerListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackpressureTest {
+    @Test
+    public void slowReader() throws IOException, InterruptedException {
+        AtomicReference<Connection> connectionRef = new AtomicReference<>();
+        CountDownLatch connected = new CountDownLatch(1);
+        CountDownLatch unwritable = new CountDownLatch(1);
+        CountDownLatch writable = new CountDownLatch(1);
+
+        Server server = new Server();
+        server.setWriteWatermarks(32 * 1024, 64 * 1024);
+        server.setBackpressurePolicy(BackpressurePolicy.REJECT);
+        server.addListener(new ServerListener() {
+            @Override
+            public void onConnected(Connection connection, ProtocolType protocolType) {
+                connectionRef.set(connection);
+                connected.countDown();
+            }
+
+            @Override
+            public void onWritabilityChanged(Connection connection, boolean isWritable) {
+                (isWritable ? writable : unwritable).countDown();
+            }
+        });
+        server.start(3500, 3501);
+
+        // A client that doesn't read until told to
+        Socket socket = new Socket(InetAddress.getLocalHost(), 3500);
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        Connection connection = connectionRef.get();
+
+        Packet packet = new Packet((short) 1);
+        packet.getBuffer().put(new byte[1024]);
+
+        // Fill the socket buffers until the connection stays over its high watermark
+        int sent = 0;
+        while (unwritable.getCount() > 0 || connection.isWritable()) {
+            if (server.send(connection, packet, ProtocolType.TCP)) {
+                sent++;
+            } else {
+                Thread.sleep(1L);
+            }
+            assertTrue(sent < 1_000_000, "Connection never became unwritable");
+        }
+
+        Thread.sleep(200L);
+        assertFalse(connection.isWritable());
+        assertFalse(server.send(connection, packet, ProtocolType.TCP));
+
+        // Drain, the connection becomes writable again once below the low watermark
+        Thread reader = new Thread(() -> {
+            try (InputStream inputStream = socket.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                while (inputStream.read(buffer) != -1) ;
+            } catch (final IOException ignored) {
+            }
+        });
+        reader.start();
+
+        assertTrue(writable.await(5, TimeUnit.SECONDS));
+        assertTrue(connection.isWritable());
+        assertTrue(server.send(connection, packet, ProtocolType.TCP));
+
+        socket.close();
+        server.close();
+        reader.join(5000);
+    }
+}
@@ -0,0 +1,117 @@
+package xyz.synse.packetnet.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import xyz.synse.packetnet.common.buffer.UnpooledBufferAllocator;
+import xyz.synse.packetnet.common.channel.TcpChannel;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionRegistryTest {
+    private final List<SocketChannel> sockets = new ArrayList<>();
+
+    @AfterEach
+    public void closeSockets() throws IOException {
+        for (SocketChannel socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void recycleIds() throws IOException {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        Connection first = newConnection();
+        Connection second = newConnection();
+        Connection third = newConnection();
+        registry.register(first);
+        registry.register(second);
+        registry.register(third);
+
+        assertEquals(0, first.getId());
+        assertEquals(1, second.getId());
+        assertEquals(2, third.getId());
+        assertSame(second, registry.get(1));
+        assertEquals(3, registry.getIdBound());
+
+        assertTrue(registry.unregister(second));
+        assertFalse(registry.unregister(second));
+        assertNull(registry.get(1));
+        assertEquals(List.of(first, third), registry.snapshot());
+
+        // The freed id is handed out again
+        Connection fourth = newConnection();
+        registry.register(fourth);
+        assertEquals(1, fourth.getId());
+        assertSame(fourth, registry.get(1));
+        assertEquals(3, registry.getIdBound());
+        assertEquals(List.of(first, third, fourth), registry.snapshot());
+
+        assertNull(registry.get(-1));
+        assertNull(registry.get(ConnectionRegistry.MAX_CONNECTIONS));
+    }
+
+    @Test
+    public void grow() throws IOException {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Connection connection = newConnection();
+            registry.register(connection);
+            connections.add(connection);
+        }
+
+        for (int i = 0; i < connections.size(); i++) {
+            assertEquals(i, connections.get(i).getId());
+            assertSame(connections.get(i), registry.get(i));
+        }
+        assertEquals(100, registry.size());
+    }
+
+    @Test
+    public void iterateWhileModified() throws IOException, InterruptedException {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            connections.add(newConnection());
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread modifier = new Thread(() -> {
+            while (running.get()) {
+                for (Connection connection : connections) {
+                    registry.register(connection);
+                }
+                for (Connection connection : connections) {
+                    registry.unregister(connection);
+                }
+            }
+        });
+        modifier.start();
+
+        // Iteration never fails and lookups only return registered connections
+        for (int i = 0; i < 10_000; i++) {
+            for (Connection connection : registry) {
+                assertNotNull(connection);
+            }
+            Connection connection = registry.get(i % 32);
+            if (connection != null) assertTrue(connections.contains(connection));
+        }
+
+        running.set(false);
+        modifier.join();
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.getIdBound() <= connections.size());
+    }
+
+    private Connection newConnection() throws IOException {
+        SocketChannel socket = SocketChannel.open();
+        sockets.add(socket);
+        return new Connection(new TcpChannel(socket, null, UnpooledBufferAllocator.HEAP, 64, 1024));
+    }
+}
@@ -28,6 +28,7 @@ public class MultiClientTest {
     private static Server server;
     private static List<Client> clients;
     private static CountDownLatch clientsConnectedLatch;
+    private static volatile CountDownLatch broadcastLatch = new CountDownLatch(0);
 
     @BeforeAll
     public static void setUp() {
@@ -78,6 +79,12 @@ public class MultiClientTest {
             public void onDisconnected() {
                 System.out.println("[CLIENT] Disconnected from server");
             }
+
+            @Override
+            public void onReceived(ProtocolType protocolType, Packet packet) {
+                if (packet.getID() == 2 && packet.getBuffer().getString().equals("Hello from server!"))
+                    broadcastLatch.countDown();
+            }
         });
         return client;
     }
@@ -100,6 +107,20 @@ public class MultiClientTest {
         assertEquals(NUM_CLIENTS, server.getConnections().size());
     }
 
+    @Test
+    public void testBroadcast() throws InterruptedException {
+        broadcastLatch = new CountDownLatch(NUM_CLIENTS * 100);
+
+        // Each broadcast is encoded once and shared by all the connections
+        Packet packet = new Packet((short) 2);
+        packet.getBuffer().putString("Hello from server!");
+        for (int i = 0; i < 100; i++) {
+            server.broadcast(packet, ProtocolType.TCP);
+        }
+
+        assertTrue(broadcastLatch.await(10, TimeUnit.SECONDS));
+    }
+
     @AfterAll
     public static void tearDown() {
         // Close all clients